@@ -8,22 +8,16 @@ package cz.tul.dic.complextask;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.Image;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.roi.CircularROI;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
-import cz.tul.dic.data.task.Hint;
 import cz.tul.dic.data.task.TaskContainer;
-import cz.tul.dic.data.task.TaskParameter;
-import cz.tul.dic.data.result.CorrelationResult;
-import cz.tul.dic.data.subset.AbstractSubset;
-import cz.tul.dic.data.subset.generator.AbstractSubsetGenerator;
-import cz.tul.dic.engine.cluster.Analyzer1D;
-import cz.tul.dic.engine.solvers.SolverType;
-import cz.tul.dic.data.subset.generator.SubsetGenerator;
 import cz.tul.pj.journal.Journal;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -36,23 +30,17 @@ import java.util.Set;
 public class CircleROIManager extends AbstractROIManager {
 
     public static final float LIMIT_RESULT_QUALITY = 0.5f;
-    private static final double ROOT_TWO = Math.sqrt(2);
     private static final double[] DEFAULT_DEFORMATION_LIMITS = new double[]{-1, 1, 0.5, -5, 10, 0.5};
-    private static final int MIN_SUBSET_COUNT = 3;
     private static final int MAX_SHIFT_DIFFERENCE = 3;
+    private final Map<AbstractROI, double[]> tracks;
     private CircularROI topLeft, topRight, bottomLeft, bottomRight;
     private double shiftTop, shiftBottom;
 
     private CircleROIManager(TaskContainer tc, final int initialRound) throws ComputationException {
         super(tc);
 
-        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.EQUAL);
-        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 1);
-        tc.setParameter(TaskParameter.SOLVER, SolverType.BRUTE_FORCE);
-        tc.addHint(Hint.NO_STRAIN);
-        tc.addHint(Hint.NO_CUMULATIVE);
-        tc.addHint(Hint.NO_STATS);
         tc.clearResultData();
+        tracks = new HashMap<>(4);
 
         final List<CircularROI> cRois = new ArrayList<>(4);
         if (tc.getRois(initialRound) != null) {
@@ -89,14 +77,49 @@ public class CircleROIManager extends AbstractROIManager {
         return new CircleROIManager(tcC, initialRound);
     }
 
+    /**
+     * Tracks circle ROIs from round to nextRound. Circles already tracked with
+     * sufficient quality are skipped, so calling this again after
+     * {@link #increaseLimits(int)} retries only the failed ones.
+     *
+     * @param round
+     * @param nextRound
+     */
+    public void trackRound(final int round, final int nextRound) {
+        final Image in = task.getImage(round);
+        final Image out = task.getImage(nextRound);
+        final byte[] dataIn = in.toBWArray();
+        final byte[] dataOut = out.toBWArray();
+
+        double[] track;
+        for (CircularROI roi : new CircularROI[]{topLeft, topRight, bottomLeft, bottomRight}) {
+            track = tracks.get(roi);
+            if (track == null || track[RoiTracker.QUALITY] < LIMIT_RESULT_QUALITY) {
+                tracks.put(roi, RoiTracker.track(
+                        dataIn, dataOut, in.getWidth(), in.getHeight(),
+                        roi.getCenterX(), roi.getCenterY(), roi.getRadius(), defLimits));
+            }
+        }
+    }
+
+    public boolean isTrackingGood() {
+        for (AbstractROI roi : getBottomRois()) {
+            final double[] track = tracks.get(roi);
+            if (track == null || track[RoiTracker.QUALITY] < LIMIT_RESULT_QUALITY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void generateNextRound(int round, int nextRound) throws ComputationException {
         // find new position of Circle ROIs
         //// determine shifts of circle ROIs from previous round
-        final double shift0 = determineROIShift(round, topLeft);
-        final double shift1 = determineROIShift(round, topRight);
-        final double shift2 = determineROIShift(round, bottomLeft);
-        final double shift3 = determineROIShift(round, bottomRight);
+        final double shift0 = determineROIShift(topLeft);
+        final double shift1 = determineROIShift(topRight);
+        final double shift2 = determineROIShift(bottomLeft);
+        final double shift3 = determineROIShift(bottomRight);
         Journal.getInstance().addEntry("Jaw shifts computed","TOP: {0}, {1}; BOTTOM: {2}, {3}", shift0, shift1, shift2, shift3);
         //// check if left equals right
         if (Math.abs(shift2 - shift3) > MAX_SHIFT_DIFFERENCE) {
@@ -122,23 +145,16 @@ public class CircleROIManager extends AbstractROIManager {
             shiftBottom = Math.max(shift2, shift3);
         }
 
+        tracks.clear();
         setROIs(nextRound);
     }
 
-    private double determineROIShift(final int round, final AbstractROI roi) {
-        final Analyzer1D analyzer = new Analyzer1D();
-        analyzer.setPrecision(PRECISION);
-
-        for (CorrelationResult cr : task.getResult(round, round + 1).getCorrelations().get(roi)) {
-            if (cr != null && cr.getQuality() >= LIMIT_RESULT_QUALITY) {
-                analyzer.addValue(cr.getDeformation()[Coordinates.Y]);
-            }
-        }
-
-        return analyzer.findMajorValue();
+    private double determineROIShift(final AbstractROI roi) {
+        final double[] track = tracks.get(roi);
+        return track == null ? 0 : track[Coordinates.Y];
     }
 
-    private void setROIs(final int round) throws ComputationException {
+    private void setROIs(final int round) {
         final HashSet<AbstractROI> rois = new HashSet<>(4);
         rois.add(topLeft);
         rois.add(topRight);
@@ -146,31 +162,9 @@ public class CircleROIManager extends AbstractROIManager {
         rois.add(bottomRight);
 
         task.setROIs(round, rois);
-
-        CircularROI cr;
-        double r;
         for (AbstractROI roi : rois) {
-            cr = (CircularROI) roi;
-            r = cr.getRadius();
-            task.addSubsetSize(round, roi, (int) ((r * ROOT_TWO - 1) / 2.0));
             task.setDeformationLimits(round, roi, defLimits);
         }
-
-        final AbstractSubsetGenerator generator = AbstractSubsetGenerator.initGenerator((SubsetGenerator) task.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD));
-        Map<AbstractROI, List<AbstractSubset>> subsets;
-
-        boolean sizeAdjusted;
-        do {
-            subsets = generator.generateSubsets(task, round);
-            sizeAdjusted = false;
-
-            for (AbstractROI roi : rois) {
-                if (subsets.get(roi).size() < MIN_SUBSET_COUNT) {
-                    task.addSubsetSize(round, roi, task.getSubsetSize(round, roi) - 1);
-                    sizeAdjusted = true;
-                }
-            }
-        } while (sizeAdjusted);
     }
 
     public double getShiftTop() {
@@ -192,6 +186,11 @@ public class CircleROIManager extends AbstractROIManager {
         return haveMoved(shiftBottom, shiftBottom);
     }
 
+    void restoreDeformationLimits(final int round, final double[] limits) throws ComputationException {
+        defLimits = limits;
+        setROIs(round);
+    }
+
     public void increaseLimits(final int round) throws ComputationException {
         final double[] oldLimits = defLimits;
         defLimits = new double[oldLimits.length];
@@ -11,17 +11,18 @@ import cz.tul.dic.FpsManager;
 import cz.tul.dic.Utils;
 import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.roi.CircularROI;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.task.TaskCheckpoint;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.debug.Stats;
-import cz.tul.dic.data.result.CorrelationResult;
 import cz.tul.dic.engine.Engine;
+import cz.tul.dic.engine.EngineSession;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.engine.OverlapComputation;
-import cz.tul.dic.engine.platform.Platform;
-import cz.tul.dic.engine.platform.PlatformManager;
 import cz.tul.dic.engine.strain.StrainEstimationMethod;
 import cz.tul.dic.engine.strain.StrainEstimator;
 import cz.tul.dic.output.CsvWriter;
@@ -32,6 +33,7 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Observable;
 import java.util.Observer;
@@ -45,50 +47,77 @@ import java.util.concurrent.Future;
  */
 public class ComplexTaskSolver extends Observable implements Observer {
 
-    private static final double LIMIT_COUNT_RATIO = 0.5;
     private static final int LIMIT_REPETITION = 10;
     private final List<Double> bottomShifts;
     private final TaskContainer task;
-    private Platform platform;
+    private final EngineSession engine;
     private StrainEstimator strain;
-    private boolean stop;
+    private boolean stop, checkpointing;
 
     public ComplexTaskSolver(final TaskContainer task) {
+        this(task, Engine.getInstance());
+    }
+
+    public ComplexTaskSolver(final TaskContainer task, final EngineSession engine) {
         this.task = task;
+        this.engine = engine;
         bottomShifts = new LinkedList<>();
     }
 
     public void solveComplexTask() throws ComputationException {
+        solveComplexTask(false);
+    }
+
+    /**
+     * @param resume if true, rounds stored in checkpoint are restored
+     * (including ROI positions and deformation limits) and computation
+     * continues from the last stored round
+     * @throws ComputationException
+     */
+    public void solveComplexTask(final boolean resume) throws ComputationException {
         Journal.getInstance().addDataEntry(task, "Computing complex task");
         Journal.getInstance().createSubEntry();
 
         stop = false;
-        Engine.getInstance().addObserver(this);
+        engine.addObserver(this);
 
         TaskContainerUtils.checkTaskValidity(task);
         task.clearResultData();
         bottomShifts.clear();
 
-        if (platform != null) {
-            platform.release();
+        final File checkpoint = new File(NameGenerator.generateCheckpoint(task));
+        final List<TaskCheckpoint.Record> records = resume ? readCheckpoint(checkpoint) : new LinkedList<>();
+        if (!resume && checkpointing && checkpoint.exists() && !checkpoint.delete()) {
+            throw new ComputationException(ComputationExceptionCause.IO, "Cannot delete old checkpoint " + checkpoint);
         }
-        platform = PlatformManager.getInstance().initPlatform();
-        platform.getMemoryManager().assignTask(task);
 
-        strain = StrainEstimator.initStrainEstimator((StrainEstimationMethod) task.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD));
+        strain = StrainEstimator.initStrainEstimator((StrainEstimationMethod) task.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD), engine.getExecutorService());
 
         final int[] rounds = (int[]) task.getParameter(TaskParameter.ROUND_LIMITS);
         final int baseRound = rounds[0];
 
+        int lastRound = -1;
+        double[] lastLimits = null;
+        for (TaskCheckpoint.Record record : records) {
+            TaskCheckpoint.restoreResults(task, record);
+            bottomShifts.add((Double) record.getData());
+            lastRound = record.getRoundTo();
+            task.setROIs(lastRound, record.getRois());
+            lastLimits = findCircleLimits(record.getDeformationLimits());
+        }
+        final int startRound = lastRound == -1 ? baseRound : lastRound;
+
         setChanged();
-        notifyObservers(baseRound);
-        final CircleROIManager crm = CircleROIManager.prepareManager(task, baseRound);
-        final RectROIManager rrm = RectROIManager.prepareManager(task, crm, baseRound);
+        notifyObservers(startRound);
+        final CircleROIManager crm = CircleROIManager.prepareManager(task, startRound);
+        if (lastLimits != null) {
+            crm.restoreDeformationLimits(startRound, lastLimits);
+        }
+        final RectROIManager rrm = RectROIManager.prepareManager(task, crm, startRound);
         final TaskContainer tcR = rrm.getTc();
         final Set<Future<Void>> futures = new HashSet<>();
 
         int r, nextR, baseR = -1, repeat;
-        boolean good;
         for (Entry<Integer, Integer> e : TaskContainerUtils.getRounds(task).entrySet()) {
             if (stop) {
                 return;
@@ -97,46 +126,54 @@ public class ComplexTaskSolver extends Observable implements Observer {
             r = e.getKey();
             nextR = e.getValue();
 
+            if (nextR <= lastRound) {
+                // restored from checkpoint, only cumulative results need to be computed
+                if (baseR == -1) {
+                    baseR = r;
+                } else {
+                    futures.add(engine.getExecutorService().submit(new OverlapComputation(task, baseR, nextR, strain)));
+                }
+                continue;
+            }
+
             setChanged();
             notifyObservers(r);
 
             setChanged();
             notifyObservers(CircleROIManager.class);
 
-            repeat = 0;
-            good = true;
-            do {
+            crm.trackRound(r, nextR);
+            repeat = 1;
+            while (!crm.isTrackingGood() && repeat < LIMIT_REPETITION) {
                 if (stop) {
-                    Engine.getInstance().endTask();
+                    engine.endTask();
                     return;
                 }
-                if (!good) {
-                    crm.increaseLimits(r);
-                }
-                Engine.getInstance().computeRound(crm.getTc(), r, nextR);
-                good = checkResultsQuality(crm, r);
+                // keep accepted circles, track only failed ones with wider limits
+                crm.increaseLimits(r);
+                crm.trackRound(r, nextR);
                 repeat++;
-            } while (!good && repeat < LIMIT_REPETITION);
+            }
             crm.generateNextRound(r, nextR);
 
             if (stop) {
-                Engine.getInstance().endTask();
+                engine.endTask();
                 return;
             }
             setChanged();
             notifyObservers(RectROIManager.class);
             if (crm.hasMoved()) {
                 rrm.generateNextRound(r, nextR);
-                Engine.getInstance().computeRound(rrm.getTc(), r, nextR);
+                engine.computeRound(rrm.getTc(), r, nextR);
             } else {
                 Journal.getInstance().addEntry("Skipping round", "No shift detected in round {0}.", r);
                 final Image img = rrm.getTc().getImage(r);
-                final double[][][] data;
+                final VectorField data;
                 if (!tcR.getRois(r).isEmpty()) {
                     AbstractROI roi = tcR.getRois(r).iterator().next();
                     data = generateZeroResults(img, roi);
                 } else {
-                    data = new double[img.getWidth()][img.getHeight()][];
+                    data = new VectorField(img.getWidth(), img.getHeight(), 2);
                 }
                 tcR.setResult(r, nextR, new Result(new DisplacementResult(data, null)));
             }
@@ -145,16 +182,26 @@ public class ComplexTaskSolver extends Observable implements Observer {
             if (baseR == -1) {
                 baseR = r;
             } else {
-                futures.add(Engine.getInstance().getExecutorService().submit(new OverlapComputation(task, baseR, nextR, strain)));
+                futures.add(engine.getExecutorService().submit(new OverlapComputation(task, baseR, nextR, strain)));
             }
 
             bottomShifts.add(crm.getShiftBottom());
+
+            if (checkpointing) {
+                final HashSet<AbstractROI> nextRois = new HashSet<>(crm.getTc().getRois(nextR));
+                nextRois.addAll(tcR.getRois(nextR));
+                try {
+                    TaskCheckpoint.appendRound(checkpoint, task, r, nextR, nextRois, crm.getTc().getDeformationLimits(nextR), crm.getShiftBottom());
+                } catch (IOException ex) {
+                    Journal.getInstance().addDataEntry(ex, "Checkpoint writing failed.", "Round {0}:{1}.", r, nextR);
+                }
+            }
         }
 
         Stats.getInstance().dumpDeformationsStatisticsUsage();
         Stats.getInstance().dumpDeformationsStatisticsPerQuality();
 
-        Engine.getInstance().endTask();
+        engine.endTask();
 
         if (stop) {
             return;
@@ -192,36 +239,45 @@ public class ComplexTaskSolver extends Observable implements Observer {
             throw new ComputationException(ComputationExceptionCause.IO, ex);
         }
 
-        Engine.getInstance().deleteObserver(this);
+        engine.deleteObserver(this);
 
         Journal.getInstance().closeSubEntry();
     }
 
-    private static boolean checkResultsQuality(final CircleROIManager crm, int round) {
-        int countNotGood = 0, count = 0;
-        for (AbstractROI roi : crm.getBottomRois()) {
-            for (CorrelationResult cr : crm.getTc().getResult(round, round + 1).getCorrelations().get(roi)) {
-                if (cr == null || cr.getQuality() < CircleROIManager.LIMIT_RESULT_QUALITY) {
-                    countNotGood++;
+    private List<TaskCheckpoint.Record> readCheckpoint(final File checkpoint) {
+        try {
+            final List<TaskCheckpoint.Record> result = TaskCheckpoint.readRecords(checkpoint, task);
+            for (TaskCheckpoint.Record record : result) {
+                if (!(record.getData() instanceof Double) || record.getRois() == null) {
+                    Journal.getInstance().addEntry("Checkpoint ignored", "Checkpoint {0} was not created by complex task.", checkpoint);
+                    return new LinkedList<>();
                 }
-                count++;
             }
+            return result;
+        } catch (IOException ex) {
+            Journal.getInstance().addDataEntry(ex, "Checkpoint reading failed, computing whole task.");
+            return new LinkedList<>();
         }
-        final double ratio = countNotGood / (double) count;
-        return ratio < LIMIT_COUNT_RATIO;
     }
 
-    private static double[][][] generateZeroResults(final Image img, final AbstractROI roi) {
-        final double[][][] data = new double[img.getWidth()][img.getHeight()][];
-        for (int x = (int) roi.getX1(); x <= roi.getX2(); x++) {
-            if (x < 0 || x >= data.length) {
-                continue;
+    private static double[] findCircleLimits(final Map<AbstractROI, double[]> limits) {
+        if (limits != null) {
+            for (Entry<AbstractROI, double[]> e : limits.entrySet()) {
+                if (e.getKey() instanceof CircularROI) {
+                    return e.getValue();
+                }
             }
+        }
+        return null;
+    }
+
+    private static VectorField generateZeroResults(final Image img, final AbstractROI roi) {
+        final VectorField data = new VectorField(img.getWidth(), img.getHeight(), 2);
+        for (int x = (int) roi.getX1(); x <= roi.getX2(); x++) {
             for (int y = (int) roi.getY1(); y <= roi.getY2(); y++) {
-                if (y < 0 || y >= data[x].length) {
-                    continue;
+                if (data.isInside(x, y)) {
+                    data.set(x, y, new double[2]);
                 }
-                data[x][y] = new double[2];
             }
         }
         return data;
@@ -237,13 +293,17 @@ public class ComplexTaskSolver extends Observable implements Observer {
         }
     }
 
+    public void setCheckpointing(final boolean checkpointing) {
+        this.checkpointing = checkpointing;
+    }
+
     public List<Double> getBottomShifts() {
         return bottomShifts;
     }
 
     public void stop() {
         stop = true;
-        Engine.getInstance().stop();
+        engine.stop();
         if (strain != null) {
             strain.stop();
         }
@@ -251,7 +311,7 @@ public class ComplexTaskSolver extends Observable implements Observer {
 
     @Override
     public void update(final Observable o, final Object arg) {
-        if (o instanceof Engine && arg instanceof Double) {
+        if (o instanceof EngineSession && arg instanceof Double) {
             setChanged();
             notifyObservers(arg);
         }
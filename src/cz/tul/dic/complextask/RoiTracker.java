@@ -0,0 +1,285 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.complextask;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.deformation.DeformationLimit;
+
+/**
+ * Tracks rigid shift of circular ROI by matching whole ROI as single
+ * template. Integer shift is found using ZNCC (on half resolution first for
+ * large search areas), sub-pixel shift is refined using Lucas-Kanade
+ * iterations.
+ *
+ * @author Petr Jecmen
+ */
+public final class RoiTracker {
+
+    public static final int QUALITY = 2;
+    private static final double QUALITY_NONE = -1;
+    private static final int COARSE_SEARCH_LIMIT = 225;
+    private static final int COARSE_REFINE_RANGE = 2;
+    private static final double MIN_COARSE_RADIUS = 4;
+    private static final int MAX_ITERATION_COUNT = 20;
+    private static final double LIMIT_CONVERGENCE = 1e-8;
+    private static final double LIMIT_REFINEMENT = 1;
+
+    private RoiTracker() {
+    }
+
+    /**
+     * @param in reference image data
+     * @param out deformed image data
+     * @param width image width
+     * @param height image height
+     * @param centerX center of tracked circle
+     * @param centerY center of tracked circle
+     * @param radius radius of tracked circle
+     * @param limits deformation limits, only U and V limits are used
+     * @return shift in X and Y and quality of match (ZNCC) at index
+     * {@link #QUALITY}
+     */
+    public static double[] track(
+            final byte[] in, final byte[] out, final int width, final int height,
+            final double centerX, final double centerY, final double radius,
+            final double[] limits) {
+        final int[] range = new int[]{
+            (int) Math.floor(limits[DeformationLimit.UMIN]),
+            (int) Math.ceil(limits[DeformationLimit.UMAX]),
+            (int) Math.floor(limits[DeformationLimit.VMIN]),
+            (int) Math.ceil(limits[DeformationLimit.VMAX])};
+
+        if (countShifts(range) > COARSE_SEARCH_LIMIT && radius / 2 >= MIN_COARSE_RADIUS) {
+            final int widthC = width / 2;
+            final int heightC = height / 2;
+            final byte[] outC = downsample(out, width, height);
+            final Template templateC = new Template(downsample(in, width, height), widthC, heightC, centerX / 2, centerY / 2, radius / 2);
+            final int[] rangeC = new int[]{
+                Math.floorDiv(range[0], 2), -Math.floorDiv(-range[1], 2),
+                Math.floorDiv(range[2], 2), -Math.floorDiv(-range[3], 2)};
+            final double[] coarse = search(templateC, outC, widthC, heightC, rangeC);
+            if (coarse[QUALITY] > QUALITY_NONE) {
+                final int u = 2 * (int) coarse[Coordinates.X];
+                final int v = 2 * (int) coarse[Coordinates.Y];
+                range[0] = Math.max(range[0], u - COARSE_REFINE_RANGE);
+                range[1] = Math.min(range[1], u + COARSE_REFINE_RANGE);
+                range[2] = Math.max(range[2], v - COARSE_REFINE_RANGE);
+                range[3] = Math.min(range[3], v + COARSE_REFINE_RANGE);
+            }
+        }
+
+        final Template template = new Template(in, width, height, centerX, centerY, radius);
+        final double[] result = search(template, out, width, height, range);
+        if (result[QUALITY] > QUALITY_NONE) {
+            refine(template, in, out, width, height, result);
+        }
+        return result;
+    }
+
+    private static int countShifts(final int[] range) {
+        return (range[1] - range[0] + 1) * (range[3] - range[2] + 1);
+    }
+
+    private static double[] search(final Template template, final byte[] out, final int width, final int height, final int[] range) {
+        final double[] result = new double[]{0, 0, QUALITY_NONE};
+        double quality;
+        for (int v = range[2]; v <= range[3]; v++) {
+            for (int u = range[0]; u <= range[1]; u++) {
+                quality = template.correlate(out, width, height, u, v);
+                if (quality > result[QUALITY]) {
+                    result[Coordinates.X] = u;
+                    result[Coordinates.Y] = v;
+                    result[QUALITY] = quality;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inverse compositional Lucas-Kanade with intensity normalization,
+     * gradients are computed only once from reference image. If the
+     * refinement diverges, integer shift is kept.
+     */
+    private static void refine(final Template template, final byte[] in, final byte[] out, final int width, final int height, final double[] result) {
+        final int count = template.x.length;
+        final double[] gradX = new double[count];
+        final double[] gradY = new double[count];
+        double hxx = 0, hxy = 0, hyy = 0;
+        int x, y;
+        for (int i = 0; i < count; i++) {
+            x = template.x[i];
+            y = template.y[i];
+            if (x > 0 && x < width - 1) {
+                gradX[i] = ((in[y * width + x + 1] & 0xff) - (in[y * width + x - 1] & 0xff)) / 2.0;
+            }
+            if (y > 0 && y < height - 1) {
+                gradY[i] = ((in[(y + 1) * width + x] & 0xff) - (in[(y - 1) * width + x] & 0xff)) / 2.0;
+            }
+            hxx += gradX[i] * gradX[i];
+            hxy += gradX[i] * gradY[i];
+            hyy += gradY[i] * gradY[i];
+        }
+        final double det = hxx * hyy - hxy * hxy;
+        if (det == 0) {
+            return;
+        }
+
+        final double u0 = result[Coordinates.X];
+        final double v0 = result[Coordinates.Y];
+        final double[] deformed = new double[count];
+        double u = u0, v = v0, mean, var, coeff, err, errX, errY, du, dv;
+        for (int it = 0; it < MAX_ITERATION_COUNT; it++) {
+            mean = 0;
+            for (int i = 0; i < count; i++) {
+                deformed[i] = interpolate(out, width, height, template.x[i] + u, template.y[i] + v);
+                if (Double.isNaN(deformed[i])) {
+                    return;
+                }
+                mean += deformed[i];
+            }
+            mean /= count;
+            var = 0;
+            for (int i = 0; i < count; i++) {
+                deformed[i] -= mean;
+                var += deformed[i] * deformed[i];
+            }
+            if (var == 0) {
+                return;
+            }
+            coeff = template.norm / Math.sqrt(var);
+
+            errX = 0;
+            errY = 0;
+            for (int i = 0; i < count; i++) {
+                err = deformed[i] * coeff - template.values[i];
+                errX += gradX[i] * err;
+                errY += gradY[i] * err;
+            }
+            du = (hyy * errX - hxy * errY) / det;
+            dv = (hxx * errY - hxy * errX) / det;
+            u -= du;
+            v -= dv;
+
+            if (Math.abs(u - u0) > LIMIT_REFINEMENT || Math.abs(v - v0) > LIMIT_REFINEMENT) {
+                return;
+            }
+            if (du * du + dv * dv < LIMIT_CONVERGENCE) {
+                break;
+            }
+        }
+        result[Coordinates.X] = u;
+        result[Coordinates.Y] = v;
+    }
+
+    private static double interpolate(final byte[] image, final int width, final int height, final double x, final double y) {
+        final int x0 = (int) Math.floor(x);
+        final int y0 = (int) Math.floor(y);
+        if (x0 < 0 || y0 < 0 || x0 + 1 >= width || y0 + 1 >= height) {
+            return Double.NaN;
+        }
+        final double dx = x - x0;
+        final double dy = y - y0;
+        final int i = y0 * width + x0;
+        return (image[i] & 0xff) * (1 - dx) * (1 - dy)
+                + (image[i + 1] & 0xff) * dx * (1 - dy)
+                + (image[i + width] & 0xff) * (1 - dx) * dy
+                + (image[i + width + 1] & 0xff) * dx * dy;
+    }
+
+    private static byte[] downsample(final byte[] image, final int width, final int height) {
+        final int widthC = width / 2;
+        final int heightC = height / 2;
+        final byte[] result = new byte[widthC * heightC];
+        int i;
+        for (int y = 0; y < heightC; y++) {
+            for (int x = 0; x < widthC; x++) {
+                i = 2 * y * width + 2 * x;
+                result[y * widthC + x] = (byte) (((image[i] & 0xff)
+                        + (image[i + 1] & 0xff)
+                        + (image[i + width] & 0xff)
+                        + (image[i + width + 1] & 0xff)) / 4);
+            }
+        }
+        return result;
+    }
+
+    private static final class Template {
+
+        private final int[] x, y;
+        private final double[] values;
+        private final double norm;
+
+        Template(final byte[] image, final int width, final int height, final double centerX, final double centerY, final double radius) {
+            final int r = (int) radius;
+            final int cx = (int) Math.round(centerX);
+            final int cy = (int) Math.round(centerY);
+            final double radius2 = radius * radius;
+
+            int count = 0;
+            final int[] xs = new int[(2 * r + 1) * (2 * r + 1)];
+            final int[] ys = new int[xs.length];
+            int px, py;
+            for (int dy = -r; dy <= r; dy++) {
+                for (int dx = -r; dx <= r; dx++) {
+                    px = cx + dx;
+                    py = cy + dy;
+                    if (dx * dx + dy * dy <= radius2 && px >= 0 && py >= 0 && px < width && py < height) {
+                        xs[count] = px;
+                        ys[count] = py;
+                        count++;
+                    }
+                }
+            }
+            x = new int[count];
+            y = new int[count];
+            System.arraycopy(xs, 0, x, 0, count);
+            System.arraycopy(ys, 0, y, 0, count);
+
+            values = new double[count];
+            double mean = 0;
+            for (int i = 0; i < count; i++) {
+                values[i] = image[y[i] * width + x[i]] & 0xff;
+                mean += values[i];
+            }
+            mean /= count;
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                values[i] -= mean;
+                sum += values[i] * values[i];
+            }
+            norm = Math.sqrt(sum);
+        }
+
+        double correlate(final byte[] image, final int width, final int height, final int u, final int v) {
+            final int count = x.length;
+            if (count == 0 || norm == 0) {
+                return QUALITY_NONE;
+            }
+
+            double mean = 0;
+            int px, py;
+            for (int i = 0; i < count; i++) {
+                px = x[i] + u;
+                py = y[i] + v;
+                if (px < 0 || py < 0 || px >= width || py >= height) {
+                    return QUALITY_NONE;
+                }
+                mean += image[py * width + px] & 0xff;
+            }
+            mean /= count;
+
+            double val, sum = 0, var = 0;
+            for (int i = 0; i < count; i++) {
+                val = (image[(y[i] + v) * width + x[i] + u] & 0xff) - mean;
+                sum += val * values[i];
+                var += val * val;
+            }
+            return var == 0 ? QUALITY_NONE : sum / (norm * Math.sqrt(var));
+        }
+    }
+
+}
@@ -8,9 +8,19 @@ package cz.tul.dic.data;
 import cz.tul.dic.OpenCVHandler;
 import cz.tul.dic.debug.converters.ImageConverter;
 import cz.tul.pj.journal.Journal;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.stream.IntStream;
 import javax.imageio.ImageIO;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -18,23 +28,50 @@ import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 /**
+ * Grayscale image stored in single row-major buffer, optionally with its
+ * filtered copy. Samples are 8 bit or 16 bit (unsigned), data in the other bit
+ * depth are derived on request (8 bit sample v is 16 bit sample v * 257).
+ * {@link BufferedImage} is created only on request (e.g. for GUI).
+ * <p>
+ * Samples of gray rasters are used as stored. Older versions converted all
+ * images through {@link BufferedImage#getRGB(int, int)}, which maps linear
+ * gray of TYPE_BYTE_GRAY images to sRGB (e.g. 50 to 122, 100 to 168), so gray
+ * PNG or TIFF inputs now give different (raw) gray levels. Indexed images (e.g.
+ * gray BMP) and color images are converted as before.
  *
  * @author Petr Jecmen
  */
-public final class Image extends BufferedImage {
+public final class Image {
 
+    private static final int PARALLEL_LIMIT = 512 * 512;
+    private static final int SCALE_16 = 257;
+    // view for GUI uses identity palette, getRGB of TYPE_BYTE_GRAY view would convert levels to sRGB
+    private static final IndexColorModel GRAY_PALETTE;
     private final String imageName;
-    private byte[] grayScale;
-    private byte[][] grayScale2d;
-    private byte[] filtered;
+    private final int width, height;
+    private final short[] grayScale16;
+    // derived buffers are created lazily, repeated creation in parallel is harmless
+    private volatile byte[] grayScale;
+    private volatile short[] derived16;
+    private volatile byte[] filtered;
+    private volatile short[] filtered16;
 
     static {
+        final byte[] levels = new byte[256];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = (byte) i;
+        }
+        GRAY_PALETTE = new IndexColorModel(8, levels.length, levels, levels, levels);
+
         OpenCVHandler.loadLibrary();
         Journal.registerConverter(new ImageConverter());
     }
 
-    private Image(final int width, final int height, final int imageType, final String imageName) {
-        super(width, height, imageType);
+    private Image(final int width, final int height, final byte[] grayScale, final short[] grayScale16, final String imageName) {
+        this.width = width;
+        this.height = height;
+        this.grayScale = grayScale;
+        this.grayScale16 = grayScale16;
         this.imageName = imageName;
     }
 
@@ -43,79 +80,365 @@ public final class Image extends BufferedImage {
             throw new IllegalArgumentException("Illegal input file.");
         }
 
-        return createImage(ImageIO.read(in), in.getName());
+        final BufferedImage img = ImageIO.read(in);
+        if (img == null) {
+            throw new IOException("Unsupported image format - " + in.getName());
+        }
+        return createImage(img, in.getName());
     }
 
     public static Image createImage(final BufferedImage img) {
         return createImage(img, null);
     }
-    
-    public static Image createImage(final BufferedImage img, final String imageName) {
-        final Image result = new Image(img.getWidth(), img.getHeight(), img.getType(), imageName);
-        result.getGraphics().drawImage(img, 0, 0, null);
 
+    /**
+     * Images with single 16 bit gray band keep their bit depth, other images
+     * are converted to 8 bit grayscale.
+     *
+     * @param img source image
+     * @param imageName name of the image, may be null
+     * @return new image
+     */
+    public static Image createImage(final BufferedImage img, final String imageName) {
+        final Image result;
+        if (isGray16(img)) {
+            result = new Image(img.getWidth(), img.getHeight(), null, convertToGrayScale16(img), imageName);
+        } else {
+            result = new Image(img.getWidth(), img.getHeight(), convertToGrayScale(img), null, imageName);
+        }
         return result;
     }
 
-    public byte[] toBWArray() {
-        if (grayScale == null) {
-            createBw();
+    /**
+     * @param width image width
+     * @param height image height
+     * @param grayScale row-major grayscale data, used directly (not copied)
+     * @param imageName name of the image, may be null
+     * @return new image
+     */
+    public static Image createImage(final int width, final int height, final byte[] grayScale, final String imageName) {
+        if (grayScale.length != width * height) {
+            throw new IllegalArgumentException("Data size does not match image size - " + grayScale.length + " vs " + width + "x" + height);
         }
+        return new Image(width, height, grayScale, null, imageName);
+    }
+
+    /**
+     * @param width image width
+     * @param height image height
+     * @param grayScale16 row-major unsigned 16 bit grayscale data, used
+     * directly (not copied)
+     * @param imageName name of the image, may be null
+     * @return new 16 bit image
+     */
+    public static Image createImage(final int width, final int height, final short[] grayScale16, final String imageName) {
+        if (grayScale16.length != width * height) {
+            throw new IllegalArgumentException("Data size does not match image size - " + grayScale16.length + " vs " + width + "x" + height);
+        }
+        return new Image(width, height, null, grayScale16, imageName);
+    }
+
+    private static byte[] convertToGrayScale(final BufferedImage img) {
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final byte[] result = new byte[width * height];
+
+        final Raster raster = img.getRaster();
+        final SampleModel sm = raster.getSampleModel();
+        final DataBuffer db = raster.getDataBuffer();
+        final IntStream rows = width * height >= PARALLEL_LIMIT ? IntStream.range(0, height).parallel() : IntStream.range(0, height);
+        if (sm instanceof ComponentSampleModel && db.getNumBanks() == 1
+                && (db instanceof DataBufferByte || db instanceof DataBufferUShort)
+                && isLuminanceLayout(img, (ComponentSampleModel) sm)) {
+            final ComponentSampleModel csm = (ComponentSampleModel) sm;
+            final int pixelStride = csm.getPixelStride();
+            final int scanlineStride = csm.getScanlineStride();
+            final int[] offsets = csm.getBandOffsets();
+            final int bandCount = Math.min(3, offsets.length);
+            final int base = db.getOffset() - raster.getSampleModelTranslateX() * pixelStride - raster.getSampleModelTranslateY() * scanlineStride;
+            if (db instanceof DataBufferByte) {
+                final byte[] data = ((DataBufferByte) db).getData();
+                rows.forEach(y -> {
+                    int index = base + y * scanlineStride;
+                    int sum;
+                    for (int x = 0; x < width; x++) {
+                        sum = 0;
+                        for (int b = 0; b < bandCount; b++) {
+                            sum += data[index + offsets[b]] & 0xff;
+                        }
+                        result[y * width + x] = (byte) (sum / bandCount);
+                        index += pixelStride;
+                    }
+                });
+            } else {
+                final short[] data = ((DataBufferUShort) db).getData();
+                rows.forEach(y -> {
+                    int index = base + y * scanlineStride;
+                    int sum;
+                    for (int x = 0; x < width; x++) {
+                        sum = 0;
+                        for (int b = 0; b < bandCount; b++) {
+                            sum += data[index + offsets[b]] & 0xffff;
+                        }
+                        result[y * width + x] = (byte) ((sum / bandCount) >> 8);
+                        index += pixelStride;
+                    }
+                });
+            }
+        } else {
+            // indexed and packed images
+            rows.forEach(y -> {
+                final int[] row = img.getRGB(0, y, width, 1, null, 0, width);
+                int val;
+                for (int x = 0; x < width; x++) {
+                    val = row[x];
+                    result[y * width + x] = (byte) ((((val >> 16) & 0xff) + ((val >> 8) & 0xff) + (val & 0xff)) / 3);
+                }
+            });
+        }
+        return result;
+    }
 
-        return grayScale;
+    private static boolean isGray16(final BufferedImage img) {
+        final Raster raster = img.getRaster();
+        return raster.getNumBands() == 1
+                && raster.getDataBuffer() instanceof DataBufferUShort
+                && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && img.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY;
     }
 
-    private void createBw() {
-        final int width = getWidth();
-        final int height = getHeight();
-        grayScale = new byte[width * height];
-        grayScale2d = new byte[width][height];
+    private static short[] convertToGrayScale16(final BufferedImage img) {
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final short[] result = new short[width * height];
 
-        int val;
-        byte r, g, b, newVal;
-        for (int y = 0; y < height; y++) {
+        final Raster raster = img.getRaster();
+        final ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
+        final DataBufferUShort db = (DataBufferUShort) raster.getDataBuffer();
+        final short[] data = db.getData();
+        final int pixelStride = csm.getPixelStride();
+        final int scanlineStride = csm.getScanlineStride();
+        final int base = db.getOffset() + csm.getBandOffsets()[0] - raster.getSampleModelTranslateX() * pixelStride - raster.getSampleModelTranslateY() * scanlineStride;
+        final IntStream rows = width * height >= PARALLEL_LIMIT ? IntStream.range(0, height).parallel() : IntStream.range(0, height);
+        rows.forEach(y -> {
+            int index = base + y * scanlineStride;
             for (int x = 0; x < width; x++) {
-                val = getRGB(x, y);
-                r = (byte) ((val & 0xff0000) >> 16);
-                g = (byte) ((val & 0xff00) >> 8);
-                b = (byte) (val & 0xff);
-                newVal = (byte) ((r + g + b) / 3);
-                grayScale[y * width + x] = newVal;
-                grayScale2d[x][y] = newVal;
+                result[y * width + x] = data[index];
+                index += pixelStride;
             }
+        });
+        return result;
+    }
+
+    private static byte[] to8Bit(final short[] data) {
+        final byte[] result = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = (byte) ((data[i] & 0xffff) >> 8);
+        }
+        return result;
+    }
+
+    private static short[] to16Bit(final byte[] data) {
+        final short[] result = new short[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = (short) ((data[i] & 0xff) * SCALE_16);
+        }
+        return result;
+    }
+
+    private static boolean isLuminanceLayout(final BufferedImage img, final ComponentSampleModel sm) {
+        final int bands = sm.getNumBands();
+        final boolean result;
+        if (bands == 1) {
+            result = img.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+        } else {
+            // first three bands are color components, alpha (if any) is last
+            result = bands <= 4 && img.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB;
         }
+        return result;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return 8 or 16
+     */
+    public int getBitDepth() {
+        return grayScale16 == null ? 8 : 16;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return unsigned sample in bit depth of the image (same values as used
+     * by kernels)
+     */
+    public int getSample(final int x, final int y) {
+        final int index = y * width + x;
+        return grayScale16 == null ? grayScale[index] & 0xff : grayScale16[index] & 0xffff;
     }
 
-    public byte[][] to2DBWArray() {
-        if (grayScale == null) {
-            createBw();
+    /**
+     * @return 8 bit grayscale data, row-major, shared (do not modify)
+     */
+    public byte[] toBWArray() {
+        byte[] result = grayScale;
+        if (result == null) {
+            result = to8Bit(grayScale16);
+            grayScale = result;
         }
+        return result;
+    }
 
-        return grayScale2d;
+    /**
+     * @return unsigned 16 bit grayscale data, row-major, shared (do not
+     * modify)
+     */
+    public short[] to16BitArray() {
+        short[] result = grayScale16;
+        if (result == null) {
+            result = derived16;
+            if (result == null) {
+                result = to16Bit(grayScale);
+                derived16 = result;
+            }
+        }
+        return result;
     }
 
     public void filter(int filterSize) {
-        final byte[] bw = toBWArray();
         if (filterSize > 0) {
             if (filterSize % 2 == 0) {
                 filterSize++;
             }
-            final Mat in = new Mat(getWidth(), getHeight(), CvType.CV_8U);
-            in.put(0, 0, bw);
+            final Mat in;
+            if (grayScale16 == null) {
+                in = new Mat(height, width, CvType.CV_8U);
+                in.put(0, 0, grayScale);
+            } else {
+                in = new Mat(height, width, CvType.CV_16U);
+                in.put(0, 0, grayScale16);
+            }
             final Mat out = new Mat();
             Imgproc.GaussianBlur(in, out, new Size(filterSize, filterSize), 0, 0);
-            filtered = new byte[bw.length];
-            out.get(0, 0, filtered);
+            if (grayScale16 == null) {
+                final byte[] result = new byte[grayScale.length];
+                out.get(0, 0, result);
+                filtered = result;
+                filtered16 = null;
+            } else {
+                final short[] result = new short[grayScale16.length];
+                out.get(0, 0, result);
+                filtered16 = result;
+                filtered = null;
+            }
         } else {
-            filtered = bw;
+            filtered = null;
+            filtered16 = null;
         }
     }
 
+    /**
+     * @return filtered 8 bit data, unfiltered data if the image has not been
+     * filtered
+     */
     public byte[] toFiltered() {
-        final byte[] result = filtered == null ? toBWArray() : filtered;
+        byte[] result = filtered;
+        if (result == null) {
+            final short[] source = filtered16;
+            if (source == null) {
+                result = toBWArray();
+            } else {
+                result = to8Bit(source);
+                filtered = result;
+            }
+        }
         return result;
     }
 
+    /**
+     * @return filtered 16 bit data, unfiltered data if the image has not been
+     * filtered
+     */
+    public short[] toFiltered16() {
+        short[] result = filtered16;
+        if (result == null) {
+            final byte[] source = filtered;
+            if (source == null) {
+                result = to16BitArray();
+            } else {
+                result = to16Bit(source);
+                filtered16 = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies rectangular part of the image, filtered data are copied too.
+     *
+     * @param x left column of the window
+     * @param y top row of the window
+     * @param cropWidth width of the window
+     * @param cropHeight height of the window
+     * @return new image with the same bit depth
+     */
+    public Image crop(final int x, final int y, final int cropWidth, final int cropHeight) {
+        if (x < 0 || y < 0 || cropWidth <= 0 || cropHeight <= 0 || x + cropWidth > width || y + cropHeight > height) {
+            throw new IllegalArgumentException("Illegal crop window [" + x + ", " + y + ", " + cropWidth + ", " + cropHeight + "] for image " + width + "x" + height);
+        }
+
+        final Image result;
+        if (grayScale16 == null) {
+            result = new Image(cropWidth, cropHeight, cropData(grayScale, x, y, cropWidth, cropHeight), null, imageName);
+        } else {
+            result = new Image(cropWidth, cropHeight, null, cropData(grayScale16, x, y, cropWidth, cropHeight), imageName);
+        }
+        final byte[] filteredData = filtered;
+        if (filteredData != null) {
+            result.filtered = cropData(filteredData, x, y, cropWidth, cropHeight);
+        }
+        final short[] filteredData16 = filtered16;
+        if (filteredData16 != null) {
+            result.filtered16 = cropData(filteredData16, x, y, cropWidth, cropHeight);
+        }
+        return result;
+    }
+
+    private byte[] cropData(final byte[] data, final int x, final int y, final int cropWidth, final int cropHeight) {
+        final byte[] result = new byte[cropWidth * cropHeight];
+        for (int row = 0; row < cropHeight; row++) {
+            System.arraycopy(data, (y + row) * width + x, result, row * cropWidth, cropWidth);
+        }
+        return result;
+    }
+
+    private short[] cropData(final short[] data, final int x, final int y, final int cropWidth, final int cropHeight) {
+        final short[] result = new short[cropWidth * cropHeight];
+        for (int row = 0; row < cropHeight; row++) {
+            System.arraycopy(data, (y + row) * width + x, result, row * cropWidth, cropWidth);
+        }
+        return result;
+    }
+
+    /**
+     * Creates grayscale view of the image, data are shared with this image.
+     *
+     * @return new view
+     */
+    public BufferedImage toBufferedImage() {
+        final byte[] data = toBWArray();
+        final WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(data, data.length), width, height, width, 1, new int[]{0}, null);
+        return new BufferedImage(GRAY_PALETTE, raster, false, null);
+    }
+
     public String getImageName() {
         return imageName;
     }
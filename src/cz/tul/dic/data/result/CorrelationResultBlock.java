@@ -0,0 +1,241 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.result;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Correlation results stored in primitive arrays (struct of arrays), indexed
+ * by subset index. List view creates {@link CorrelationResult} instances on
+ * access, hot paths should use the primitive getters.
+ *
+ * @author Petr Jecmen
+ */
+public final class CorrelationResultBlock extends AbstractList<CorrelationResult> implements RandomAccess, Serializable {
+
+    private static final byte NO_RESULT = -1;
+    private static final byte NO_DEFORMATION = -2;
+    private final int stride;
+    private final double[] qualities;
+    private final double[] deformations;
+    private final byte[] lengths;
+
+    /**
+     * Creates block without any results.
+     *
+     * @param size result count
+     * @param stride maximal deformation length
+     */
+    public CorrelationResultBlock(final int size, final int stride) {
+        this.stride = stride;
+        qualities = new double[size];
+        deformations = new double[size * stride];
+        lengths = new byte[size];
+        Arrays.fill(lengths, NO_RESULT);
+    }
+
+    /**
+     * @param results
+     * @return new block with copy of given results
+     */
+    public static CorrelationResultBlock pack(final List<CorrelationResult> results) {
+        int stride = 0;
+        for (CorrelationResult cr : results) {
+            if (cr != null && cr.getDeformation() != null) {
+                stride = Math.max(stride, cr.getDeformation().length);
+            }
+        }
+
+        final CorrelationResultBlock result = new CorrelationResultBlock(results.size(), stride);
+        for (int i = 0; i < results.size(); i++) {
+            result.put(i, results.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param results
+     * @return given results if they are already stored in block, new block
+     * with copy of given results otherwise
+     */
+    public static CorrelationResultBlock asBlock(final List<CorrelationResult> results) {
+        if (results instanceof CorrelationResultBlock) {
+            return (CorrelationResultBlock) results;
+        } else {
+            return pack(results);
+        }
+    }
+
+    @Override
+    public CorrelationResult get(final int index) {
+        if (lengths[index] == NO_RESULT) {
+            return null;
+        } else {
+            return new CorrelationResult(qualities[index], getDeformation(index));
+        }
+    }
+
+    @Override
+    public CorrelationResult set(final int index, final CorrelationResult element) {
+        final CorrelationResult previous = get(index);
+        put(index, element);
+        return previous;
+    }
+
+    /**
+     * Stores copy of the result, unlike {@link #set(int, CorrelationResult)}
+     * previous result is not created.
+     *
+     * @param index
+     * @param element result, null for missing result
+     */
+    public void put(final int index, final CorrelationResult element) {
+        if (element == null) {
+            lengths[index] = NO_RESULT;
+        } else {
+            final double[] deformation = element.getDeformation();
+            put(index, element.getQuality(), deformation, deformation == null ? 0 : deformation.length);
+        }
+    }
+
+    /**
+     * @param index
+     * @param quality
+     * @param deformation deformation values, null if deformation is missing
+     * @param length count of used deformation values
+     */
+    public void put(final int index, final double quality, final double[] deformation, final int length) {
+        qualities[index] = quality;
+        if (deformation == null) {
+            lengths[index] = NO_DEFORMATION;
+        } else if (length > stride) {
+            throw new IllegalArgumentException("Deformation too long for block - " + length + " vs " + stride);
+        } else {
+            System.arraycopy(deformation, 0, deformations, index * stride, length);
+            lengths[index] = (byte) length;
+        }
+    }
+
+    /**
+     * Copies result from another block.
+     *
+     * @param index
+     * @param source
+     * @param sourceIndex
+     */
+    public void put(final int index, final CorrelationResultBlock source, final int sourceIndex) {
+        final int length = source.lengths[sourceIndex];
+        if (length > stride) {
+            throw new IllegalArgumentException("Deformation too long for block - " + length + " vs " + stride);
+        }
+        qualities[index] = source.qualities[sourceIndex];
+        if (length > 0) {
+            System.arraycopy(source.deformations, sourceIndex * source.stride, deformations, index * stride, length);
+        }
+        lengths[index] = (byte) length;
+    }
+
+    /**
+     * @param qualityLimit minimal accepted quality
+     * @return indices of missing results and results with quality below the
+     * limit
+     */
+    public int[] findResultsBelow(final double qualityLimit) {
+        int count = 0;
+        final int[] result = new int[size()];
+        for (int i = 0; i < result.length; i++) {
+            if (lengths[i] == NO_RESULT || qualities[i] < qualityLimit) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @param indices indices of recomputed results in this block
+     * @param results recomputed results, i-th result belongs to indices[i]
+     * @return copy of this block, recomputed result replaces the old one only
+     * if it has better quality
+     */
+    public CorrelationResultBlock mergeBetter(final int[] indices, final CorrelationResultBlock results) {
+        if (indices.length != results.size()) {
+            throw new IllegalArgumentException("Result count mismatch - " + indices.length + " vs " + results.size());
+        }
+        final CorrelationResultBlock merged = new CorrelationResultBlock(size(), Math.max(stride, results.stride));
+        for (int i = 0; i < size(); i++) {
+            merged.put(i, this, i);
+        }
+        int index;
+        for (int i = 0; i < indices.length; i++) {
+            index = indices[i];
+            if (results.hasResult(i) && (!hasResult(index) || results.qualities[i] > qualities[index])) {
+                merged.put(index, results, i);
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public int size() {
+        return lengths.length;
+    }
+
+    public boolean hasResult(final int index) {
+        return lengths[index] != NO_RESULT;
+    }
+
+    /**
+     * @param index
+     * @return true if result with deformation is stored
+     */
+    public boolean hasDeformation(final int index) {
+        return lengths[index] >= 0;
+    }
+
+    public double getQuality(final int index) {
+        return qualities[index];
+    }
+
+    /**
+     * @param index
+     * @return deformation length, 0 if result or deformation is missing
+     */
+    public int getDeformationLength(final int index) {
+        return Math.max(lengths[index], 0);
+    }
+
+    /**
+     * @return maximal deformation length
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @param index
+     * @return copy of deformation, null if result or deformation is missing
+     */
+    public double[] getDeformation(final int index) {
+        final int length = lengths[index];
+        if (length < 0) {
+            return null;
+        }
+        final int base = index * stride;
+        return Arrays.copyOfRange(deformations, base, base + length);
+    }
+
+    public double getDeformation(final int index, final int coeff) {
+        if (coeff >= lengths[index]) {
+            throw new IndexOutOfBoundsException("Coefficient " + coeff + " not available for result " + index);
+        }
+        return deformations[index * stride + coeff];
+    }
+
+}
@@ -5,6 +5,8 @@
  */
 package cz.tul.dic.data.result;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -13,20 +15,46 @@ import java.io.Serializable;
  */
 public class DisplacementResult implements Serializable {
 
-    private final double[][][] deformation;
-    private final double[][] quality;
+    private static final long serialVersionUID = -538595709297396783L;
+    private VectorField deformation;
+    private VectorField quality;
 
-    public DisplacementResult(final double[][][] deformation, final double[][] quality) {
+    /**
+     * @param deformation displacement field with X and Y components
+     * @param quality single component quality field, can be null
+     */
+    public DisplacementResult(final VectorField deformation, final VectorField quality) {
         this.deformation = deformation;
         this.quality = quality;
     }
 
-    public double[][][] getDisplacement() {
+    public VectorField getDisplacement() {
         return deformation;
     }
 
-    public double[][] getQuality() {
+    public VectorField getQuality() {
         return quality;
     }
 
+    /**
+     * Older versions stored plain arrays, they are converted to fields.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        deformation = toField(fields.get("deformation", null));
+        quality = toField(fields.get("quality", null));
+    }
+
+    static VectorField toField(final Object data) {
+        final VectorField result;
+        if (data instanceof double[][][]) {
+            result = VectorField.fromArray((double[][][]) data);
+        } else if (data instanceof double[][]) {
+            result = VectorField.fromArray((double[][]) data);
+        } else {
+            result = (VectorField) data;
+        }
+        return result;
+    }
+
 }
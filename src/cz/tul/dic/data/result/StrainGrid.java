@@ -0,0 +1,148 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.result;
+
+import java.io.Serializable;
+
+/**
+ * Strain tensor and regression errors stored in nodes of regular grid (node
+ * [i, j] lies at [originX + i * spacing, originY + j * spacing]). Values for
+ * pixels are obtained using bilinear interpolation.
+ *
+ * @author Petr Jecmen
+ */
+public final class StrainGrid implements Serializable {
+
+    public static final int QUALITY_X = 3;
+    public static final int QUALITY_Y = 4;
+    private static final int COMPONENT_COUNT = 5;
+    private final double originX, originY, spacing;
+    private final VectorField values;
+
+    public StrainGrid(final double originX, final double originY, final double spacing, final int countX, final int countY) {
+        if (spacing <= 0) {
+            throw new IllegalArgumentException("Grid spacing must be positive - " + spacing);
+        }
+        this.originX = originX;
+        this.originY = originY;
+        this.spacing = spacing;
+        values = new VectorField(countX, countY, COMPONENT_COUNT);
+    }
+
+    public double getOriginX() {
+        return originX;
+    }
+
+    public double getOriginY() {
+        return originY;
+    }
+
+    public double getSpacing() {
+        return spacing;
+    }
+
+    public int getCountX() {
+        return values.getWidth();
+    }
+
+    public int getCountY() {
+        return values.getHeight();
+    }
+
+    /**
+     * @return node values, components are {@link StrainResult#E_XX},
+     * {@link StrainResult#E_YY}, {@link StrainResult#E_XY},
+     * {@link #QUALITY_X} and {@link #QUALITY_Y}
+     */
+    public VectorField getValues() {
+        return values;
+    }
+
+    public void set(final int i, final int j, final double exx, final double eyy, final double exy, final double qualityX, final double qualityY) {
+        values.set(i, j, StrainResult.E_XX, exx);
+        values.set(i, j, StrainResult.E_YY, eyy);
+        values.set(i, j, StrainResult.E_XY, exy);
+        values.set(i, j, QUALITY_X, qualityX);
+        values.set(i, j, QUALITY_Y, qualityY);
+    }
+
+    /**
+     * Interpolates node values to pixels. Nodes without value are skipped
+     * (weights of remaining nodes are normalized), pixels outside of grid use
+     * the nearest grid cell.
+     *
+     * @param mask only pixels with value in mask are interpolated
+     * @param firstComponent
+     * @param componentCount
+     * @return field with the same size as mask
+     */
+    public VectorField interpolate(final VectorField mask, final int firstComponent, final int componentCount) {
+        final int width = mask.getWidth();
+        final int height = mask.getHeight();
+        final VectorField result = new VectorField(width, height, componentCount);
+        final int countX = getCountX();
+        final int countY = getCountY();
+        if (countX == 0 || countY == 0) {
+            return result;
+        }
+
+        final int[] nodesX = new int[4];
+        final int[] nodesY = new int[4];
+        final double[] weights = new double[4];
+        double gx, gy, fx, fy, weightSum, val;
+        int i0, j0, i1, j1;
+        for (int y = 0; y < height; y++) {
+            gy = (y - originY) / spacing;
+            j0 = Math.max(0, Math.min(countY - 1, (int) Math.floor(gy)));
+            j1 = Math.min(countY - 1, j0 + 1);
+            fy = Math.max(0, Math.min(1, gy - j0));
+            for (int x = 0; x < width; x++) {
+                if (!mask.isValid(x, y)) {
+                    continue;
+                }
+                gx = (x - originX) / spacing;
+                i0 = Math.max(0, Math.min(countX - 1, (int) Math.floor(gx)));
+                i1 = Math.min(countX - 1, i0 + 1);
+                fx = Math.max(0, Math.min(1, gx - i0));
+
+                nodesX[0] = i0;
+                nodesY[0] = j0;
+                weights[0] = (1 - fx) * (1 - fy);
+                nodesX[1] = i1;
+                nodesY[1] = j0;
+                weights[1] = fx * (1 - fy);
+                nodesX[2] = i0;
+                nodesY[2] = j1;
+                weights[2] = (1 - fx) * fy;
+                nodesX[3] = i1;
+                nodesY[3] = j1;
+                weights[3] = fx * fy;
+
+                weightSum = 0;
+                for (int n = 0; n < 4; n++) {
+                    if (values.isValid(nodesX[n], nodesY[n])) {
+                        weightSum += weights[n];
+                    }
+                }
+                if (weightSum == 0) {
+                    continue;
+                }
+
+                for (int c = 0; c < componentCount; c++) {
+                    val = 0;
+                    for (int n = 0; n < 4; n++) {
+                        if (values.isValid(nodesX[n], nodesY[n])) {
+                            val += values.get(nodesX[n], nodesY[n], firstComponent + c) * weights[n];
+                        }
+                    }
+                    result.set(x, y, c, val / weightSum);
+                }
+            }
+        }
+        return result;
+    }
+
+}
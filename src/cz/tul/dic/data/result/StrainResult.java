@@ -5,6 +5,9 @@
  */
 package cz.tul.dic.data.result;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
@@ -16,25 +19,95 @@ public class StrainResult implements Serializable {
     public static final int E_XX = 0;
     public static final int E_YY = 1;
     public static final int E_XY = 2;
-    private final double[][][] strain;
-    private final double[][] qualityX, qualityY;
+    private static final long serialVersionUID = 9080194766317585514L;
+    private StrainGrid grid;
+    private VectorField mask;
+    // interpolated values are not serialized, they can be computed from grid again
+    private transient VectorField strain;
+    private transient VectorField qualityX, qualityY;
 
-    public StrainResult(final double[][][] strain, final double[][] qualityX, final double[][] qualityY) {
+    public StrainResult(final VectorField strain, final VectorField qualityX, final VectorField qualityY) {
         this.strain = strain;
         this.qualityX = qualityX;
         this.qualityY = qualityY;
+        grid = null;
+        mask = null;
     }
 
-    public double[][][] getStrain() {
+    /**
+     * Strain computed only in grid nodes, pixel values are interpolated on
+     * first access.
+     *
+     * @param grid
+     * @param mask pixels which should have strain value (usually displacement)
+     */
+    public StrainResult(final StrainGrid grid, final VectorField mask) {
+        this.grid = grid;
+        this.mask = mask;
+    }
+
+    public synchronized VectorField getStrain() {
+        if (strain == null && grid != null) {
+            strain = grid.interpolate(mask, E_XX, E_XY + 1);
+        }
         return strain;
     }
 
-    public double[][] getQualityX() {
+    public synchronized VectorField getQualityX() {
+        if (qualityX == null && grid != null) {
+            qualityX = grid.interpolate(mask, StrainGrid.QUALITY_X, 1);
+        }
         return qualityX;
     }
 
-    public double[][] getQualityY() {
+    public synchronized VectorField getQualityY() {
+        if (qualityY == null && grid != null) {
+            qualityY = grid.interpolate(mask, StrainGrid.QUALITY_Y, 1);
+        }
         return qualityY;
     }
 
+    /**
+     * @return grid with strain values or null if strain was computed for each
+     * pixel
+     */
+    public StrainGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * @return pixels interpolated from grid, null if strain was computed for
+     * each pixel
+     */
+    public VectorField getMask() {
+        return mask;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        if (grid == null) {
+            out.writeObject(strain);
+            out.writeObject(qualityX);
+            out.writeObject(qualityY);
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        if (fields.getObjectStreamClass().getField("strain") != null) {
+            // older versions stored strain of each pixel as plain arrays
+            strain = DisplacementResult.toField(fields.get("strain", null));
+            qualityX = DisplacementResult.toField(fields.get("qualityX", null));
+            qualityY = DisplacementResult.toField(fields.get("qualityY", null));
+        } else {
+            grid = (StrainGrid) fields.get("grid", null);
+            mask = (VectorField) fields.get("mask", null);
+            if (grid == null) {
+                strain = (VectorField) in.readObject();
+                qualityX = (VectorField) in.readObject();
+                qualityY = (VectorField) in.readObject();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,224 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.result;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Per-pixel field stored in flat primitive arrays, one array per component
+ * (index y * width + x). Pixels without value are tracked in bitset, their
+ * components are NaN. Scalar fields (qualities) have single component.
+ *
+ * @author Petr Jecmen
+ */
+public final class VectorField implements Serializable {
+
+    private final int width, height;
+    private final double[][] data;
+    private final BitSet valid;
+
+    public VectorField(final int width, final int height, final int componentCount) {
+        this.width = width;
+        this.height = height;
+        data = new double[componentCount][width * height];
+        for (double[] component : data) {
+            Arrays.fill(component, Double.NaN);
+        }
+        valid = new BitSet(width * height);
+    }
+
+    /**
+     * @param data jagged array [x][y][component], null marks missing value
+     * @return field with copy of given data
+     */
+    public static VectorField fromArray(final double[][][] data) {
+        final int width = data.length;
+        final int height = width == 0 ? 0 : data[0].length;
+        int componentCount = 0;
+        for (double[][] column : data) {
+            for (double[] val : column) {
+                if (val != null) {
+                    componentCount = Math.max(componentCount, val.length);
+                }
+            }
+        }
+
+        final VectorField result = new VectorField(width, height, componentCount);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                result.set(x, y, data[x][y]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param data scalar values [x][y], NaN marks missing value
+     * @return single component field with copy of given data
+     */
+    public static VectorField fromArray(final double[][] data) {
+        final int width = data.length;
+        final int height = width == 0 ? 0 : data[0].length;
+        final VectorField result = new VectorField(width, height, 1);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (!Double.isNaN(data[x][y])) {
+                    result.set(x, y, 0, data[x][y]);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getComponentCount() {
+        return data.length;
+    }
+
+    public boolean isInside(final int x, final int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public boolean isValid(final int x, final int y) {
+        return isInside(x, y) && valid.get(y * width + x);
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param component
+     * @return stored value, NaN for pixel without value
+     */
+    public double get(final int x, final int y, final int component) {
+        return data[component][index(x, y)];
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return new array with all components or null if pixel has no value
+     */
+    public double[] get(final int x, final int y) {
+        if (!isValid(x, y)) {
+            return null;
+        }
+        final double[] result = new double[data.length];
+        get(x, y, result);
+        return result;
+    }
+
+    /**
+     * Copies all components of given pixel to buffer.
+     *
+     * @param x
+     * @param y
+     * @param buffer target array, at least component count long
+     */
+    public void get(final int x, final int y, final double[] buffer) {
+        final int index = index(x, y);
+        for (int c = 0; c < data.length; c++) {
+            buffer[c] = data[c][index];
+        }
+    }
+
+    /**
+     * Stores value and marks pixel as valid.
+     *
+     * @param x
+     * @param y
+     * @param component
+     * @param value
+     */
+    public void set(final int x, final int y, final int component, final double value) {
+        final int index = index(x, y);
+        data[component][index] = value;
+        valid.set(index);
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param values all components, null clears the pixel
+     */
+    public void set(final int x, final int y, final double[] values) {
+        if (values == null) {
+            clear(x, y);
+        } else {
+            final int index = index(x, y);
+            for (int c = 0; c < values.length; c++) {
+                data[c][index] = values[c];
+            }
+            valid.set(index);
+        }
+    }
+
+    public void clear(final int x, final int y) {
+        final int index = index(x, y);
+        for (double[] component : data) {
+            component[index] = Double.NaN;
+        }
+        valid.clear(index);
+    }
+
+    /**
+     * @param component
+     * @return backing array of given component (index y * width + x)
+     */
+    public double[] getComponent(final int component) {
+        return data[component];
+    }
+
+    public int countValid() {
+        return valid.cardinality();
+    }
+
+    /**
+     * @return copy of data as jagged array [x][y][component], pixels
+     * without value are null
+     */
+    public double[][][] toArray() {
+        final double[][][] result = new double[width][height][];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                result[x][y] = get(x, y);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param component
+     * @return copy of single component as array [x][y], pixels without value
+     * are NaN
+     */
+    public double[][] toArray(final int component) {
+        final double[][] result = new double[width][height];
+        final double[] values = data[component];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                result[x][y] = values[y * width + x];
+            }
+        }
+        return result;
+    }
+
+    private int index(final int x, final int y) {
+        if (!isInside(x, y)) {
+            throw new IndexOutOfBoundsException("Position [" + x + ", " + y + "] outside of field " + width + "x" + height);
+        }
+        return y * width + x;
+    }
+
+}
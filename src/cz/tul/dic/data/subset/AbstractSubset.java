@@ -5,6 +5,7 @@
  */
 package cz.tul.dic.data.subset;
 
+import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.debug.converters.SubsetConverter;
 import cz.tul.pj.journal.Journal;
 import java.io.Serializable;
@@ -15,24 +16,48 @@ import java.io.Serializable;
  */
 public abstract class AbstractSubset implements Serializable {
 
+    // stored coordinates of older versions are skipped when deserialized
+    private static final long serialVersionUID = -7641609699015949168L;
     private final double[] center;
     private final int size;
-    private final int[] data;
     
     static {
         Journal.registerConverter(new SubsetConverter());
     }
 
-    public AbstractSubset(final double[] center, final int size, final int[] data) {
+    public AbstractSubset(final double[] center, final int size) {
         this.center = new double[center.length];
         System.arraycopy(center, 0, this.center, 0, center.length);
         this.size = size;
-        this.data = new int[data.length];
-        System.arraycopy(data, 0, this.data, 0, data.length);
     }
 
+    /**
+     * Pixel coordinates are not stored, they are computed on demand. Use
+     * {@link #getPointCount()}, {@link #getX(int)} and {@link #getY(int)} to
+     * iterate over subset without allocation.
+     *
+     * @return newly allocated array with [x, y] pairs of all subset points
+     */
     public int[] getData() {
-        return data;
+        final int[] result = new int[getPointCount() * Coordinates.DIMENSION];
+        copyData(result, 0);
+        return result;
+    }
+
+    /**
+     * Writes [x, y] pairs of all subset points into target array.
+     *
+     * @param target
+     * @param offset index of first written value
+     */
+    public void copyData(final int[] target, final int offset) {
+        final int count = getPointCount();
+        int index = offset;
+        for (int i = 0; i < count; i++) {
+            target[index] = getX(i);
+            target[index + 1] = getY(i);
+            index += Coordinates.DIMENSION;
+        }
     }
 
     public double[] getCenter() {
@@ -43,4 +68,23 @@ public abstract class AbstractSubset implements Serializable {
         return size;
     }
 
+    public abstract int getPointCount();
+
+    public abstract int getX(final int index);
+
+    public abstract int getY(final int index);
+
+    public abstract boolean contains(final int x, final int y);
+
+    public abstract int getMinY();
+
+    public abstract int getMaxY();
+
+    /**
+     * @param dx shift in x direction
+     * @param dy shift in y direction
+     * @return new subset of the same shape with shifted center
+     */
+    public abstract AbstractSubset translate(final int dx, final int dy);
+
 }
@@ -7,40 +7,86 @@ package cz.tul.dic.data.subset;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import cz.tul.dic.data.Coordinates;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
 
 /**
+ * Square subset, pixel coordinates are computed from corner and width. Points
+ * are ordered by columns (x outer, y inner).
  *
  * @author Petr Jecmen
  */
 @XStreamAlias("SquareSubset")
 public final class SquareSubset2D extends AbstractSubset {
 
-    private static final int DIMENSION = 2;
+    private static final long serialVersionUID = 1569113418296217172L;
+    private int x1, y1, width;
 
     public SquareSubset2D(final int size, final double... center) {
-        super(center, size, generateData(center, size));
+        super(checkCenter(center), size);
+        initBounds();
     }
 
-    private static int[] generateData(final double[] center, final int size) {
+    private void initBounds() {
+        final double[] center = getCenter();
+        final int size = getSize();
+        width = SubsetUtils.computeSubsetWidth(size);
+        x1 = (int) Math.round(center[Coordinates.X]) - size;
+        y1 = (int) Math.round(center[Coordinates.Y]) - size;
+    }
+
+    private static double[] checkCenter(final double[] center) {
         if (center == null || center.length < 2) {
             throw new IllegalArgumentException("Illegal center data - " + Arrays.toString(center));
         }
-        final int lineLenght = 2 * size + 1;
-        final int pointCount = lineLenght * lineLenght;
-        final int[] data = new int[pointCount * DIMENSION];
-        final int[] localCenter = new int[]{
-            (int) Math.round(center[0]), (int) Math.round(center[1])};
-        int index = 0;
-        for (int x = -size; x <= size; x++) {
-            for (int y = -size; y <= size; y++) {
-                data[index] = localCenter[Coordinates.X] + x;
-                data[index + 1] = localCenter[Coordinates.Y] + y;
-
-                index += DIMENSION;
-            }
+        return center;
+    }
+
+    @Override
+    public int getPointCount() {
+        return width * width;
+    }
+
+    @Override
+    public int getX(final int index) {
+        return x1 + index / width;
+    }
+
+    @Override
+    public int getY(final int index) {
+        return y1 + index % width;
+    }
+
+    @Override
+    public boolean contains(final int x, final int y) {
+        return x >= x1 && x < x1 + width && y >= y1 && y < y1 + width;
+    }
+
+    @Override
+    public int getMinY() {
+        return y1;
+    }
+
+    @Override
+    public int getMaxY() {
+        return y1 + width - 1;
+    }
+
+    @Override
+    public SquareSubset2D translate(final int dx, final int dy) {
+        final double[] center = getCenter();
+        return new SquareSubset2D(getSize(), center[Coordinates.X] + dx, center[Coordinates.Y] + dy);
+    }
+
+    /**
+     * Older versions stored only center and size.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (width == 0) {
+            initBounds();
         }
-        return data;
     }
 
     @Override
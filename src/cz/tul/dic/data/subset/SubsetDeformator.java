@@ -25,9 +25,8 @@ public class SubsetDeformator {
     }
     
     public Map<int[], double[]> deformSubset(final AbstractSubset subset, final double[] deformation) {
-        final int[] data = subset.getData();
         final double[] center = subset.getCenter();
-        final int subsetArea = data.length / Coordinates.DIMENSION;
+        final int subsetArea = subset.getPointCount();
         final DeformationOrder degree = DeformationUtils.getDegreeFromValue(deformation);
 
         if (dataCache.size() != subsetArea) {
@@ -46,8 +45,8 @@ public class SubsetDeformator {
         int[] pos;
         double[] def;
         for (Map.Entry<int[], double[]> e : dataCache.entrySet()) {
-            x = data[i * 2];
-            y = data[i * 2 + 1];
+            x = subset.getX(i);
+            y = subset.getY(i);
 
             dx = x - center[Coordinates.X];
             dy = y - center[Coordinates.Y];
@@ -68,50 +67,32 @@ public class SubsetDeformator {
         return dataCache;
     }
     
-    public Map<int[], double[]> computePixelDeformationValues(final AbstractSubset subset, final double[] deformation) {
-        final int[] data = subset.getData();
+    /**
+     * Computes displacement of all subset points.
+     *
+     * @param subset
+     * @param deformation
+     * @param result displacement of i-th point is stored at indices 2i (X)
+     * and 2i + 1 (Y), array has to be at least 2 * point count long
+     */
+    public static void computePixelDeformationValues(final AbstractSubset subset, final double[] deformation, final double[] result) {
         final double[] center = subset.getCenter();
-        final int subsetArea = data.length / Coordinates.DIMENSION;
+        final int subsetArea = subset.getPointCount();
         final DeformationOrder degree = DeformationUtils.getDegreeFromValue(deformation);
 
-        if (dataCache.size() != subsetArea) {
-            if (dataCache.size() > subsetArea) {
-                dataCache.clear();
-            }
-
-            while (dataCache.size() < subsetArea) {
-                dataCache.put(new int[Coordinates.DIMENSION], new double[Coordinates.DIMENSION]);
-            }
-        }
-
-        int x, y, i = 0;
-        double dx, dy;
+        int x, y;
         final double[] newCoords = new double[Coordinates.DIMENSION];
-        int[] pos;
-        double[] def;
-        for (Map.Entry<int[], double[]> e : dataCache.entrySet()) {
-            x = data[i * 2];
-            y = data[i * 2 + 1];
+        for (int i = 0; i < subsetArea; i++) {
+            x = subset.getX(i);
+            y = subset.getY(i);
 
-            dx = x - center[Coordinates.X];
-            dy = y - center[Coordinates.Y];
-
-            deform(x, y, dx, dy, deformation, newCoords, degree);
-
-            pos = e.getKey();
-            pos[Coordinates.X] = x;
-            pos[Coordinates.Y] = y;
+            deform(x, y, x - center[Coordinates.X], y - center[Coordinates.Y], deformation, newCoords, degree);
 
-            def = e.getValue();
-            def[Coordinates.X] = newCoords[Coordinates.X] - x;
-            def[Coordinates.Y] = newCoords[Coordinates.Y] - y;
-
-            i++;
+            result[2 * i] = newCoords[Coordinates.X] - x;
+            result[2 * i + 1] = newCoords[Coordinates.Y] - y;
         }
-
-        return dataCache;
     }
-    
+
     private static void deform(final int x, final int y, final double dx, final double dy, final double[] deformation, final double[] result, final DeformationOrder degree) {
         result[Coordinates.X] = x;
         result[Coordinates.Y] = y;
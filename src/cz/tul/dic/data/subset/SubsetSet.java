@@ -0,0 +1,99 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.subset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of subsets with dense IDs (0 to size - 1, in order of the source
+ * list). Per-subset state can be then stored in plain arrays indexed by ID.
+ *
+ * @author Petr Jecmen
+ */
+public final class SubsetSet {
+
+    private final AbstractSubset[] subsets;
+    private final int[] weights;
+    private Map<AbstractSubset, Integer> ids;
+
+    public SubsetSet(final List<AbstractSubset> subsets, final List<Integer> weights) {
+        if (subsets.size() != weights.size()) {
+            throw new IllegalArgumentException("Subset and weight count mismatch - " + subsets.size() + " vs " + weights.size());
+        }
+        this.subsets = subsets.toArray(new AbstractSubset[subsets.size()]);
+        this.weights = new int[this.subsets.length];
+        for (int i = 0; i < this.weights.length; i++) {
+            this.weights[i] = weights.get(i);
+        }
+    }
+
+    public int size() {
+        return subsets.length;
+    }
+
+    public boolean isEmpty() {
+        return subsets.length == 0;
+    }
+
+    public AbstractSubset get(final int id) {
+        return subsets[id];
+    }
+
+    public int getWeight(final int id) {
+        return weights[id];
+    }
+
+    /**
+     * @return copy of weights indexed by subset ID
+     */
+    public int[] getWeights() {
+        return Arrays.copyOf(weights, weights.length);
+    }
+
+    /**
+     * @param subset
+     * @return ID of given subset or -1 if subset is not registered
+     */
+    public synchronized int getId(final AbstractSubset subset) {
+        if (ids == null) {
+            ids = new IdentityHashMap<>(subsets.length);
+            for (int i = 0; i < subsets.length; i++) {
+                ids.put(subsets[i], i);
+            }
+        }
+        final Integer result = ids.get(subset);
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * @return array with all IDs in ascending order
+     */
+    public int[] getIds() {
+        final int[] result = new int[subsets.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    public List<AbstractSubset> asList() {
+        return Collections.unmodifiableList(Arrays.asList(subsets));
+    }
+
+    public List<AbstractSubset> getSubsets(final int[] ids) {
+        final List<AbstractSubset> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(subsets[id]);
+        }
+        return result;
+    }
+
+}
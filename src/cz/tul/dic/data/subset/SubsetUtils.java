@@ -15,31 +15,11 @@ public final class SubsetUtils {
     }
 
     public static boolean isPointInsideSubset(final AbstractSubset f, final int x, final int y) {
-        boolean result = false;
-
-        final int[] pointData = f.getData();
-        for (int i = 0; i < pointData.length / 2; i++) {
-            if (x == pointData[i * 2] && y == pointData[i * 2 + 1]) {
-                result = true;
-                break;
-            }
-        }
-
-        return result;
+        return f.contains(x, y);
     }
 
     public static boolean areLinesInsideSubset(final AbstractSubset f, final int yStart, final int yEnd) {
-        boolean result = false;
-
-        final int[] pointData = f.getData();
-        for (int i = 0; i < pointData.length / 2; i++) {
-            if (pointData[i * 2 + 1] >= yStart && pointData[i * 2 + 1] <= yEnd) {
-                result = true;
-                break;
-            }
-        }
-
-        return result;
+        return f.getMinY() <= yEnd && f.getMaxY() >= yStart;
     }
 
     public static int computeSubsetCoordCount(final int subsetSize) {
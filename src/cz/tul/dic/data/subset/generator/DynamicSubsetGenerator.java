@@ -8,6 +8,7 @@ package cz.tul.dic.data.subset.generator;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
@@ -44,7 +45,7 @@ public class DynamicSubsetGenerator extends AbstractSubsetGenerator {
         if (previousResult == null) {
             return equalGenerator.generateSubsets(tc, round);
         }
-        final double[][][] previousDisplacement = previousResult.getDisplacementResult().getDisplacement();
+        final VectorField previousDisplacement = previousResult.getDisplacementResult().getDisplacement();
 
         final Set<AbstractROI> rois = tc.getRois(round);
         final HashMap<AbstractROI, List<AbstractSubset>> result = equalGenerator.generateSubsets(tc, round);
@@ -190,21 +191,31 @@ public class DynamicSubsetGenerator extends AbstractSubsetGenerator {
         return result;
     }
 
-    private static boolean difExceedsTreshold(final AbstractSubset subsetA, final AbstractSubset subsetB, final double[][][] displacementResults) {
+    private static double calculateDist2(final VectorField data, final int x1, final int y1, final int x2, final int y2) {
+        double result = 0;
+        double temp;
+        for (int i = 0; i < data.getComponentCount(); i++) {
+            temp = data.get(x2, y2, i) - data.get(x1, y1, i);
+            result += temp * temp;
+        }
+        return result;
+    }
+
+    private static boolean difExceedsTreshold(final AbstractSubset subsetA, final AbstractSubset subsetB, final VectorField displacementResults) {
         final double[] centerA = subsetA.getCenter();
         final double[] centerB = subsetB.getCenter();
-        final double dif2 = calculateDist2(
-                displacementResults[(int) Math.round(centerA[0])][(int) Math.round(centerA[1])],
-                displacementResults[(int) Math.round(centerB[0])][(int) Math.round(centerB[1])]);        
+        final double dif2 = calculateDist2(displacementResults,
+                (int) Math.round(centerA[0]), (int) Math.round(centerA[1]),
+                (int) Math.round(centerB[0]), (int) Math.round(centerB[1]));
         return dif2 > DIF_TRESHOLD_2;
     }
 
-    private static double calculateInvariant(final AbstractSubset subset, final double[][][] displacementResults) {
+    private static double calculateInvariant(final AbstractSubset subset, final VectorField displacementResults) {
         final double[] center = subset.getCenter();
         final int x = (int) Math.round(center[0]);
         final int y = (int) Math.round(center[1]);
-        double result = Math.abs(displacementResults[x][y][0] - displacementResults[x + 1][y][0]);
-        result += Math.abs(displacementResults[x][y][1] - displacementResults[x][y + 1][1]);
+        double result = Math.abs(displacementResults.get(x, y, 0) - displacementResults.get(x + 1, y, 0));
+        result += Math.abs(displacementResults.get(x, y, 1) - displacementResults.get(x, y + 1, 1));
         return result;
     }
 
@@ -23,9 +23,18 @@ public class ComputationTask {
     private final List<double[]> deformations;
     private final boolean usesLimits;
     private final DeformationOrder order;
+    private final int subsetOffset;
     private List<CorrelationResult> results;
 
     public ComputationTask(final Image imageA, final Image imageB, final List<AbstractSubset> subsets, final List<Integer> subsetWeights, final List<double[]> deformations, final DeformationOrder order, final boolean usesLimits) {
+        this(imageA, imageB, subsets, subsetWeights, deformations, order, usesLimits, 0);
+    }
+
+    /**
+     * @param subsetOffset index of the first subset of this task inside the
+     * task it was split from
+     */
+    public ComputationTask(final Image imageA, final Image imageB, final List<AbstractSubset> subsets, final List<Integer> subsetWeights, final List<double[]> deformations, final DeformationOrder order, final boolean usesLimits, final int subsetOffset) {
         this.imageA = imageA;
         this.imageB = imageB;
         this.subsets = subsets;
@@ -33,6 +42,7 @@ public class ComputationTask {
         this.deformations = deformations;
         this.order = order;
         this.usesLimits = usesLimits;
+        this.subsetOffset = subsetOffset;
     }
 
     public Image getImageA() {
@@ -59,6 +69,10 @@ public class ComputationTask {
         return order;
     }
 
+    public int getSubsetOffset() {
+        return subsetOffset;
+    }
+
     public boolean usesLimits() {
         return usesLimits;
     }
@@ -0,0 +1,213 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.Image;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Source of task images. Images from disk are decoded when requested and only
+ * a bounded window of recently used images is kept in memory (least recently
+ * used image is dropped first). Images created in memory are kept all the
+ * time. Prefetched images are decoded in parallel by small shared pool,
+ * requests for an image wait only for that image.
+ *
+ * @author Petr Jecmen
+ */
+public final class FrameSource {
+
+    public static final int DEFAULT_WINDOW_SIZE = 4;
+    private static final int DECODER_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ExecutorService DECODER = Executors.newFixedThreadPool(DECODER_COUNT, (Runnable r) -> {
+        final Thread th = new Thread(r, "Image decoder");
+        th.setDaemon(true);
+        return th;
+    });
+
+    private final FrameLoader loader;
+    private final int frameCount;
+    private final List<Image> images;
+    private final Map<Integer, FutureTask<Image>> window;
+    private int windowSize;
+
+    private FrameSource(final FrameLoader loader, final int frameCount, final List<Image> images) {
+        this.loader = loader;
+        this.frameCount = frameCount;
+        this.images = images;
+        windowSize = DEFAULT_WINDOW_SIZE;
+        window = new LinkedHashMap<Integer, FutureTask<Image>>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, FutureTask<Image>> eldest) {
+                return size() > windowSize;
+            }
+        };
+    }
+
+    public static FrameSource fromFiles(final List<File> files) {
+        final List<File> frames = new ArrayList<>(files);
+        return new FrameSource((int index) -> Image.loadImageFromDisk(frames.get(index)), frames.size(), null);
+    }
+
+    /**
+     * @param loader decoder of single frame, called from multiple threads
+     * @param frameCount count of frames
+     * @return frame source using given loader
+     */
+    public static FrameSource fromLoader(final FrameLoader loader, final int frameCount) {
+        return new FrameSource(loader, frameCount, null);
+    }
+
+    public static FrameSource fromImages(final List<Image> images) {
+        return new FrameSource(null, images.size(), new ArrayList<>(images));
+    }
+
+    public static FrameSource empty() {
+        return fromImages(Collections.<Image>emptyList());
+    }
+
+    public int size() {
+        return frameCount;
+    }
+
+    /**
+     * @param index index of the image
+     * @return image, null if the index is out of range
+     * @throws UncheckedIOException if the image could not be decoded
+     */
+    public Image getFrame(final int index) {
+        if (index < 0 || index >= size()) {
+            return null;
+        }
+        if (images != null) {
+            return images.get(index);
+        }
+
+        final FutureTask<Image> frame = prepareFrame(index);
+        frame.run();
+        try {
+            return frame.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while loading image " + index + "."));
+        } catch (ExecutionException ex) {
+            // failed image is decoded again on next request
+            synchronized (window) {
+                window.remove(index, frame);
+            }
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException("Error loading image " + index + ".", (IOException) cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new UncheckedIOException(new IOException("Error loading image " + index + ".", cause));
+            }
+        }
+    }
+
+    /**
+     * Loads image in background, so it is ready when requested. Images kept
+     * in memory are not affected.
+     *
+     * @param index index of the image
+     */
+    public void prefetch(final int index) {
+        if (loader != null && index >= 0 && index < frameCount) {
+            final FutureTask<Image> frame = prepareFrame(index);
+            if (!frame.isDone()) {
+                DECODER.execute(frame);
+            }
+        }
+    }
+
+    /**
+     * Loads images in background in given order, count is limited by window
+     * size.
+     *
+     * @param from index of the first image
+     * @param count count of images
+     */
+    public void prefetch(final int from, final int count) {
+        final int last = Math.min(from + Math.min(count, windowSize), size());
+        for (int i = from; i < last; i++) {
+            prefetch(i);
+        }
+    }
+
+    private FutureTask<Image> prepareFrame(final int index) {
+        synchronized (window) {
+            FutureTask<Image> frame = window.get(index);
+            if (frame == null) {
+                frame = new FutureTask<>(() -> loader.loadFrame(index));
+                window.put(index, frame);
+            }
+            return frame;
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize maximal count of decoded images kept in memory
+     */
+    public void setWindowSize(final int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window must hold at least one image.");
+        }
+        synchronized (window) {
+            this.windowSize = windowSize;
+            while (window.size() > windowSize) {
+                window.remove(window.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * @return read-only view, images are loaded when accessed
+     */
+    public List<Image> asList() {
+        return new AbstractList<Image>() {
+
+            @Override
+            public Image get(final int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+                }
+                return getFrame(index);
+            }
+
+            @Override
+            public int size() {
+                return FrameSource.this.size();
+            }
+        };
+    }
+
+    /**
+     * Decoder of single frame.
+     */
+    public interface FrameLoader {
+
+        Image loadFrame(int index) throws IOException;
+    }
+
+}
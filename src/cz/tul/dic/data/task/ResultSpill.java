@@ -0,0 +1,194 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.pj.journal.Journal;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Off-heap storage of results evicted from task. Results are appended to
+ * temporary file in the format used by {@link TaskBinaryFormat} and memory
+ * mapped back when requested. Space of replaced results is not reused. File
+ * is shared by copies of the spill and deleted when all of them are
+ * released, or on exit.
+ *
+ * @author Petr Jecmen
+ */
+final class ResultSpill {
+
+    private final SpillFile file;
+    private final Map<Long, Region> regions;
+
+    ResultSpill() {
+        file = new SpillFile();
+        regions = new ConcurrentHashMap<>();
+    }
+
+    private ResultSpill(final ResultSpill spill) {
+        file = spill.file;
+        file.retain();
+        regions = new ConcurrentHashMap<>(spill.regions);
+    }
+
+    /**
+     * @return copy sharing already stored data, must be released when no
+     * longer used
+     */
+    ResultSpill copy() {
+        return new ResultSpill(this);
+    }
+
+    /**
+     * Drops all stored results, file is deleted when the last copy is
+     * released.
+     */
+    void release() {
+        regions.clear();
+        file.release();
+    }
+
+    /**
+     * Stores the result, result loaded from spill and not replaced since is
+     * not written again.
+     *
+     * @param key key of the result
+     * @param result stored result
+     * @throws IOException
+     */
+    void store(final long key, final Result result) throws IOException {
+        final Region old = regions.get(key);
+        if (old != null && old.source.get() == result) {
+            return;
+        }
+
+        final byte[][] columns = TaskBinaryFormat.encodeResult(result);
+        final int[] lengths = new int[TaskBinaryFormat.COLUMN_COUNT];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = columns[i] == null ? 0 : columns[i].length;
+        }
+        regions.put(key, new Region(file.append(columns), lengths, result));
+    }
+
+    /**
+     * @param key key of the result
+     * @param rois ROIs of the task used as keys of loaded result
+     * @return stored result, null if the result is not stored
+     * @throws IOException
+     */
+    Result load(final long key, final Collection<AbstractROI> rois) throws IOException {
+        final Region region = regions.get(key);
+        if (region == null) {
+            return null;
+        }
+
+        final ByteBuffer[] columns = new ByteBuffer[TaskBinaryFormat.COLUMN_COUNT];
+        try (FileChannel ch = file.open(StandardOpenOption.READ)) {
+            long offset = region.offset;
+            for (int i = 0; i < columns.length; i++) {
+                if (region.lengths[i] > 0) {
+                    columns[i] = ch.map(FileChannel.MapMode.READ_ONLY, offset, region.lengths[i]);
+                    offset += region.lengths[i];
+                }
+            }
+        }
+
+        Result result = TaskBinaryFormat.decodeResult(columns[TaskBinaryFormat.COLUMN_RESULTS], columns[TaskBinaryFormat.COLUMN_DISPLACEMENT], rois);
+        if (columns[TaskBinaryFormat.COLUMN_STRAIN] != null) {
+            result = new Result(result, TaskBinaryFormat.decodeStrain(columns[TaskBinaryFormat.COLUMN_STRAIN]));
+        }
+        region.source = new WeakReference<>(result);
+        return result;
+    }
+
+    boolean contains(final long key) {
+        return regions.containsKey(key);
+    }
+
+    void remove(final long key) {
+        regions.remove(key);
+    }
+
+    Set<Long> keys() {
+        return new HashSet<>(regions.keySet());
+    }
+
+    private static final class Region {
+
+        private final long offset;
+        private final int[] lengths;
+        private volatile WeakReference<Result> source;
+
+        Region(final long offset, final int[] lengths, final Result source) {
+            this.offset = offset;
+            this.lengths = lengths;
+            this.source = new WeakReference<>(source);
+        }
+    }
+
+    /**
+     * Append-only temporary file, created with the first stored result.
+     */
+    private static final class SpillFile {
+
+        private File file;
+        private long size;
+        private int references = 1;
+
+        synchronized void retain() {
+            references++;
+        }
+
+        synchronized void release() {
+            references--;
+            if (references == 0 && file != null) {
+                if (!file.delete()) {
+                    Journal.getInstance().addEntry("Spill file not deleted.", "File {0} is deleted on exit.", file);
+                }
+                file = null;
+                size = 0;
+            }
+        }
+
+        synchronized long append(final byte[][] columns) throws IOException {
+            if (file == null) {
+                file = Files.createTempFile("dic-results", ".spill").toFile();
+                file.deleteOnExit();
+            }
+
+            final long offset = size;
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ch.position(offset);
+                for (byte[] column : columns) {
+                    if (column != null) {
+                        TaskBinaryFormat.writeFully(ch, column);
+                        size += column.length;
+                    }
+                }
+            }
+            return offset;
+        }
+
+        synchronized FileChannel open(final StandardOpenOption option) throws IOException {
+            if (file == null) {
+                throw new IOException("No results have been spilled.");
+            }
+            return FileChannel.open(file.toPath(), option);
+        }
+    }
+}
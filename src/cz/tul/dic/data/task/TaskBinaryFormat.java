@@ -0,0 +1,617 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.StrainGrid;
+import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary task file - header, task settings, compressed result columns of
+ * each round and index of rounds at the end. Columns (correlation results,
+ * displacement, strain) are compressed separately, so a single round and
+ * a single column can be read without touching the rest of the file.
+ * Loaded file is memory mapped and results are decoded on first request.
+ *
+ * @author Petr Jecmen
+ */
+public final class TaskBinaryFormat {
+
+    private static final long MAGIC = 0x4449435441534b31L; // "DICTASK1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    static final int COLUMN_RESULTS = 0;
+    static final int COLUMN_DISPLACEMENT = 1;
+    static final int COLUMN_STRAIN = 2;
+    static final int COLUMN_COUNT = 3;
+    // roundFrom, roundTo, (offset, length) for each column
+    private static final int INDEX_ENTRY_SIZE = 2 * Integer.BYTES + COLUMN_COUNT * (Long.BYTES + Integer.BYTES);
+    // mappings overlap, so any column shorter than the step lies in a single mapping
+    private static final long MAPPING_STEP = 1L << 30;
+    private static final long MAPPING_SIZE = Integer.MAX_VALUE;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte NO_RESULT = -1;
+    private static final byte NO_DEFORMATION = -2;
+
+    private TaskBinaryFormat() {
+    }
+
+    /**
+     * @param file tested file
+     * @return true if the file starts with header of this format
+     */
+    public static boolean isTaskBinary(final File file) {
+        boolean result = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            result = in.readLong() == MAGIC;
+        } catch (IOException ex) {
+            // too short or unreadable, not a task binary
+        }
+        return result;
+    }
+
+    /**
+     * Stores task settings and all results. Pending computations must be
+     * finished before the call.
+     *
+     * @param tc task
+     * @param target target file
+     * @throws IOException
+     */
+    public static void write(final TaskContainer tc, final File target) throws IOException {
+        final List<int[]> rounds = tc.listResultRounds();
+        final ByteBuffer index = ByteBuffer.allocate(rounds.size() * INDEX_ENTRY_SIZE);
+        try (FileChannel ch = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ch.position(HEADER_SIZE);
+            final long taskOffset = ch.position();
+            writeFully(ch, compressObjects(tc.copyWithoutResults()));
+            final long taskLength = ch.position() - taskOffset;
+
+            Result result;
+            byte[][] columns;
+            for (int[] round : rounds) {
+                result = tc.getResult(round[0], round[1]);
+                columns = result == null ? new byte[COLUMN_COUNT][] : encodeResult(result);
+
+                index.putInt(round[0]).putInt(round[1]);
+                for (byte[] column : columns) {
+                    index.putLong(ch.position());
+                    if (column == null) {
+                        index.putInt(0);
+                    } else {
+                        index.putInt(column.length);
+                        writeFully(ch, column);
+                    }
+                }
+            }
+
+            final long indexOffset = ch.position();
+            index.flip();
+            writeFully(ch, index);
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(MAGIC).putInt(VERSION).putInt(rounds.size())
+                    .putLong(taskOffset).putLong(taskLength).putLong(indexOffset);
+            header.clear();
+            ch.position(0);
+            writeFully(ch, header);
+        }
+    }
+
+    /**
+     * Reads task stored by older versions as a single serialized object.
+     * Files of this kind are read only, the task is saved in the current
+     * format next time it is stored.
+     *
+     * @param source serialized task
+     * @return task with all results loaded, input images are not loaded
+     * @throws IOException
+     */
+    public static TaskContainer readLegacy(final File source) throws IOException {
+        final TaskContainer result;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(source), BUFFER_SIZE))) {
+            result = (TaskContainer) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new IOException("Illegal task data - " + source.getName(), ex);
+        }
+        // older versions stored plain collections, copy switches them to concurrent ones
+        return new TaskContainer(result);
+    }
+
+    /**
+     * Reads task settings, results are registered as pending computations
+     * and decoded from mapped file when requested. Input images are not
+     * loaded.
+     *
+     * @param source task binary
+     * @return task
+     * @throws IOException
+     */
+    public static TaskContainer read(final File source) throws IOException {
+        final MappedByteBuffer[] mappings;
+        try (FileChannel ch = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            final long size = ch.size();
+            if (size < HEADER_SIZE) {
+                throw new EOFException("Task binary header is incomplete - " + source.getName());
+            }
+            mappings = new MappedByteBuffer[(int) ((size + MAPPING_STEP - 1) / MAPPING_STEP)];
+            for (int i = 0; i < mappings.length; i++) {
+                mappings[i] = ch.map(FileChannel.MapMode.READ_ONLY, i * MAPPING_STEP, Math.min(MAPPING_SIZE, size - i * MAPPING_STEP));
+            }
+        }
+
+        final ByteBuffer header = slice(mappings, 0, HEADER_SIZE);
+        if (header.getLong() != MAGIC) {
+            throw new IOException("Not a task binary - " + source.getName());
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported task binary version " + version + " - " + source.getName());
+        }
+        final int roundCount = header.getInt();
+        final long taskOffset = header.getLong();
+        final long taskLength = header.getLong();
+        final long indexOffset = header.getLong();
+
+        final TaskContainer result;
+        try (ObjectInputStream in = new ObjectInputStream(inflate(slice(mappings, taskOffset, taskLength)))) {
+            result = (TaskContainer) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            throw new IOException("Illegal task data - " + source.getName(), ex);
+        }
+
+        final ByteBuffer index = slice(mappings, indexOffset, (long) roundCount * INDEX_ENTRY_SIZE);
+        int roundFrom, roundTo;
+        long[] offsets;
+        int[] lengths;
+        for (int i = 0; i < roundCount; i++) {
+            roundFrom = index.getInt();
+            roundTo = index.getInt();
+            offsets = new long[COLUMN_COUNT];
+            lengths = new int[COLUMN_COUNT];
+            for (int c = 0; c < COLUMN_COUNT; c++) {
+                offsets[c] = index.getLong();
+                lengths[c] = index.getInt();
+            }
+            registerRound(result, mappings, roundFrom, roundTo, offsets, lengths);
+        }
+        return result;
+    }
+
+    private static void registerRound(final TaskContainer tc, final MappedByteBuffer[] mappings,
+            final int roundFrom, final int roundTo, final long[] offsets, final int[] lengths) {
+        tc.setDisplacementComputation(roundFrom, roundTo, t -> {
+            try {
+                t.setResult(roundFrom, roundTo, decodeResult(
+                        lengths[COLUMN_RESULTS] > 0 ? slice(mappings, offsets[COLUMN_RESULTS], lengths[COLUMN_RESULTS]) : null,
+                        lengths[COLUMN_DISPLACEMENT] > 0 ? slice(mappings, offsets[COLUMN_DISPLACEMENT], lengths[COLUMN_DISPLACEMENT]) : null,
+                        t.getRois(roundFrom)));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(new IOException("Error reading result " + roundFrom + " - " + roundTo, ex));
+            }
+        });
+
+        if (lengths[COLUMN_STRAIN] > 0) {
+            tc.setStrainComputation(roundFrom, roundTo, t -> {
+                try {
+                    final StrainResult strain = decodeStrain(slice(mappings, offsets[COLUMN_STRAIN], lengths[COLUMN_STRAIN]));
+                    t.setResult(roundFrom, roundTo, new Result(t.getResult(roundFrom, roundTo, false), strain));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(new IOException("Error reading strain " + roundFrom + " - " + roundTo, ex));
+                }
+            });
+        }
+    }
+
+    /**
+     * @param result stored result
+     * @return compressed columns, null for missing data
+     * @throws IOException
+     */
+    static byte[][] encodeResult(final Result result) throws IOException {
+        final byte[][] columns = new byte[COLUMN_COUNT][];
+        if (result.getSubsets() != null || result.getCorrelations() != null) {
+            columns[COLUMN_RESULTS] = encodeCorrelations(result.getSubsets(), result.getCorrelations());
+        }
+        if (result.getDisplacementResult() != null) {
+            columns[COLUMN_DISPLACEMENT] = encodeDisplacement(result.getDisplacementResult());
+        }
+        if (result.getStrainResult() != null) {
+            columns[COLUMN_STRAIN] = encodeStrain(result.getStrainResult());
+        }
+        return columns;
+    }
+
+    /**
+     * @param results column with subsets and correlations, may be null
+     * @param displacement displacement column, may be null
+     * @param rois ROIs of the task, decoded ROIs describing the same area
+     * are replaced by them so the result maps can be queried with task ROIs,
+     * may be null
+     * @return result without strain
+     * @throws IOException
+     */
+    static Result decodeResult(final ByteBuffer results, final ByteBuffer displacement, final Collection<AbstractROI> rois) throws IOException {
+        HashMap<AbstractROI, List<AbstractSubset>> subsets = null;
+        HashMap<AbstractROI, List<CorrelationResult>> correlations = null;
+        if (results != null) {
+            final Map<String, AbstractROI> taskRois = new HashMap<>();
+            if (rois != null) {
+                for (AbstractROI roi : rois) {
+                    taskRois.put(roiKey(roi), roi);
+                }
+            }
+            try (ObjectInputStream in = new ObjectInputStream(inflate(results))) {
+                subsets = readSubsets(in.readObject(), taskRois);
+                final int roiCount = in.readInt();
+                if (roiCount >= 0) {
+                    correlations = new HashMap<>(roiCount);
+                    for (int i = 0; i < roiCount; i++) {
+                        correlations.put(matchRoi((AbstractROI) in.readObject(), taskRois), readCorrelations(in));
+                    }
+                }
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Illegal correlation results.", ex);
+            }
+        }
+        DisplacementResult displacementResult = null;
+        if (displacement != null) {
+            try (DataInputStream in = new DataInputStream(inflate(displacement))) {
+                displacementResult = new DisplacementResult(readField(in), readField(in));
+            }
+        }
+        return new Result(subsets, correlations, displacementResult);
+    }
+
+    static StrainResult decodeStrain(final ByteBuffer strain) throws IOException {
+        try (DataInputStream in = new DataInputStream(inflate(strain))) {
+            return readStrain(in);
+        }
+    }
+
+    private static byte[] compressObjects(final Object... objects) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(deflate(bytes))) {
+            for (Object o : objects) {
+                out.writeObject(o);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Subsets are serialized, correlation results of each ROI are stored
+     * as primitive values.
+     */
+    private static byte[] encodeCorrelations(final Map<AbstractROI, List<AbstractSubset>> subsets, final Map<AbstractROI, List<CorrelationResult>> correlations) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(deflate(bytes))) {
+            out.writeObject(subsets);
+            out.writeInt(correlations == null ? -1 : correlations.size());
+            if (correlations != null) {
+                for (Entry<AbstractROI, List<CorrelationResult>> e : correlations.entrySet()) {
+                    out.writeObject(e.getKey());
+                    writeCorrelations(out, e.getValue());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Results are stored as deformation length (negative for missing result
+     * or deformation), quality and deformation values.
+     */
+    private static void writeCorrelations(final DataOutput out, final List<CorrelationResult> results) throws IOException {
+        if (results == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final CorrelationResultBlock block = CorrelationResultBlock.asBlock(results);
+        out.writeInt(block.size());
+        out.writeInt(block.getStride());
+        for (int i = 0; i < block.size(); i++) {
+            if (!block.hasResult(i)) {
+                out.writeByte(NO_RESULT);
+            } else if (!block.hasDeformation(i)) {
+                out.writeByte(NO_DEFORMATION);
+                out.writeDouble(block.getQuality(i));
+            } else {
+                out.writeByte(block.getDeformationLength(i));
+                out.writeDouble(block.getQuality(i));
+                for (int c = 0; c < block.getDeformationLength(i); c++) {
+                    out.writeDouble(block.getDeformation(i, c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Subset map is checked element by element, so the data cannot put
+     * objects of other types into the task.
+     */
+    private static HashMap<AbstractROI, List<AbstractSubset>> readSubsets(final Object data, final Map<String, AbstractROI> taskRois) {
+        if (data == null) {
+            return null;
+        }
+        final Map<?, ?> map = (Map<?, ?>) data;
+        final HashMap<AbstractROI, List<AbstractSubset>> result = new HashMap<>(map.size());
+        List<?> values;
+        List<AbstractSubset> subsets;
+        for (Entry<?, ?> e : map.entrySet()) {
+            values = (List<?>) e.getValue();
+            subsets = null;
+            if (values != null) {
+                subsets = new ArrayList<>(values.size());
+                for (Object subset : values) {
+                    subsets.add((AbstractSubset) subset);
+                }
+            }
+            result.put(matchRoi((AbstractROI) e.getKey(), taskRois), subsets);
+        }
+        return result;
+    }
+
+    /**
+     * ROIs do not define equality, decoded ROI is matched to task ROI by its
+     * type and description.
+     */
+    private static AbstractROI matchRoi(final AbstractROI roi, final Map<String, AbstractROI> taskRois) {
+        final AbstractROI result = taskRois.get(roiKey(roi));
+        return result == null ? roi : result;
+    }
+
+    private static String roiKey(final AbstractROI roi) {
+        return roi.getClass().getName() + roi.toString();
+    }
+
+    private static CorrelationResultBlock readCorrelations(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        final int stride = in.readInt();
+        final CorrelationResultBlock result = new CorrelationResultBlock(size, stride);
+        final double[] deformation = new double[stride];
+        int length;
+        for (int i = 0; i < size; i++) {
+            length = in.readByte();
+            if (length == NO_DEFORMATION) {
+                result.put(i, in.readDouble(), null, 0);
+            } else if (length >= 0) {
+                final double quality = in.readDouble();
+                for (int c = 0; c < length; c++) {
+                    deformation[c] = in.readDouble();
+                }
+                result.put(i, quality, deformation, length);
+            }
+        }
+        return result;
+    }
+
+    private static byte[] encodeDisplacement(final DisplacementResult displacement) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(deflate(bytes))) {
+            writeField(out, displacement.getDisplacement());
+            writeField(out, displacement.getQuality());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeStrain(final StrainResult strain) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(deflate(bytes))) {
+            final StrainGrid grid = strain.getGrid();
+            out.writeBoolean(grid != null);
+            if (grid != null) {
+                out.writeDouble(grid.getOriginX());
+                out.writeDouble(grid.getOriginY());
+                out.writeDouble(grid.getSpacing());
+                writeField(out, grid.getValues());
+                writeField(out, strain.getMask());
+            } else {
+                writeField(out, strain.getStrain());
+                writeField(out, strain.getQualityX());
+                writeField(out, strain.getQualityY());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StrainResult readStrain(final DataInput in) throws IOException {
+        final StrainResult result;
+        if (in.readBoolean()) {
+            final double originX = in.readDouble();
+            final double originY = in.readDouble();
+            final double spacing = in.readDouble();
+            final VectorField values = readField(in);
+            final StrainGrid grid = new StrainGrid(originX, originY, spacing, values.getWidth(), values.getHeight());
+            copyField(values, grid.getValues());
+            result = new StrainResult(grid, readField(in));
+        } else {
+            result = new StrainResult(readField(in), readField(in), readField(in));
+        }
+        return result;
+    }
+
+    /**
+     * Field is stored as its size, bitmask of valid pixels and values of valid
+     * pixels, component after component.
+     */
+    private static void writeField(final DataOutput out, final VectorField field) throws IOException {
+        out.writeBoolean(field != null);
+        if (field == null) {
+            return;
+        }
+        final int width = field.getWidth();
+        final int height = field.getHeight();
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(field.getComponentCount());
+
+        final BitSet valid = new BitSet(width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (field.isValid(x, y)) {
+                    valid.set(y * width + x);
+                }
+            }
+        }
+        final long[] mask = valid.toLongArray();
+        out.writeInt(mask.length);
+        for (long l : mask) {
+            out.writeLong(l);
+        }
+
+        double[] values;
+        for (int c = 0; c < field.getComponentCount(); c++) {
+            values = field.getComponent(c);
+            for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+                out.writeDouble(values[i]);
+            }
+        }
+    }
+
+    private static VectorField readField(final DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        final int width = in.readInt();
+        final int height = in.readInt();
+        final int componentCount = in.readInt();
+        final long[] mask = new long[in.readInt()];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = in.readLong();
+        }
+        final BitSet valid = BitSet.valueOf(mask);
+
+        final VectorField result = new VectorField(width, height, componentCount);
+        for (int c = 0; c < componentCount; c++) {
+            for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+                result.set(i % width, i / width, c, in.readDouble());
+            }
+        }
+        return result;
+    }
+
+    private static void copyField(final VectorField source, final VectorField target) {
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                if (source.isValid(x, y)) {
+                    for (int c = 0; c < source.getComponentCount(); c++) {
+                        target.set(x, y, c, source.get(x, y, c));
+                    }
+                }
+            }
+        }
+    }
+
+    private static OutputStream deflate(final ByteArrayOutputStream target) {
+        // values are written one by one, deflater gets them in larger blocks
+        return new BufferedOutputStream(new DeflaterOutputStream(target, new Deflater(Deflater.BEST_SPEED)) {
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        }, BUFFER_SIZE);
+    }
+
+    private static InputStream inflate(final ByteBuffer data) {
+        return new BufferedInputStream(new InflaterInputStream(new ByteBufferInputStream(data)), BUFFER_SIZE);
+    }
+
+    private static ByteBuffer slice(final MappedByteBuffer[] mappings, final long offset, final long length) throws IOException {
+        final int mapping = (int) (offset / MAPPING_STEP);
+        final long start = offset - mapping * MAPPING_STEP;
+        if (mapping >= mappings.length || start + length > mappings[mapping].capacity()) {
+            throw new EOFException("Data outside of task binary - " + offset + ", length " + length);
+        }
+        final ByteBuffer result = mappings[mapping].duplicate();
+        result.position((int) start).limit((int) (start + length));
+        return result.slice();
+    }
+
+    static void writeFully(final FileChannel ch, final byte[] data) throws IOException {
+        writeFully(ch, ByteBuffer.wrap(data));
+    }
+
+    private static void writeFully(final FileChannel ch, final ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            ch.write(data);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer data;
+
+        ByteBufferInputStream(final ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? data.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, data.remaining());
+            data.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+    }
+
+}
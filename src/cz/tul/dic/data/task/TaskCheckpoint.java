@@ -0,0 +1,209 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.pj.journal.Journal;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only checkpoint file with one record per finished round. Each record
+ * is stored as its length followed by serialized data, so an incomplete record
+ * written during crash is detected and cut off.
+ *
+ * @author Petr Jecmen
+ */
+public final class TaskCheckpoint {
+
+    private TaskCheckpoint() {
+    }
+
+    public static void appendRound(final File target, final TaskContainer tc, final int roundFrom, final int roundTo) throws IOException {
+        final int roundZero = TaskContainerUtils.getFirstRound(tc);
+        final Result cumulative = roundZero == roundFrom ? null : tc.getResult(roundZero, roundTo);
+        append(target, new Record(tc.toString(), roundFrom, roundTo, roundZero, tc.getResult(roundFrom, roundTo), cumulative, null, null, null));
+    }
+
+    public static void appendRound(final File target, final TaskContainer tc, final int roundFrom, final int roundTo,
+            final Set<AbstractROI> rois, final Map<AbstractROI, double[]> deformationLimits, final Serializable data) throws IOException {
+        append(target, new Record(
+                tc.toString(), roundFrom, roundTo, TaskContainerUtils.getFirstRound(tc),
+                tc.getResult(roundFrom, roundTo), null,
+                rois == null ? null : new HashSet<>(rois),
+                deformationLimits == null ? null : new HashMap<>(deformationLimits),
+                data));
+    }
+
+    private static void append(final File target, final Record record) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(record);
+        }
+
+        try (FileOutputStream fos = new FileOutputStream(target, true);
+                DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Read all complete records for given task. Incomplete tail of the file is
+     * removed, so new records can be appended safely.
+     *
+     * @param source checkpoint file
+     * @param tc task, whose parameters must match parameters stored in
+     * checkpoint
+     * @return list of stored records, empty if the checkpoint does not exist
+     * or belongs to different task
+     * @throws IOException
+     */
+    public static List<Record> readRecords(final File source, final TaskContainer tc) throws IOException {
+        final List<Record> result = new ArrayList<>();
+        if (!source.exists()) {
+            return result;
+        }
+
+        final String signature = tc.toString();
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)))) {
+            int length;
+            byte[] data;
+            Record record;
+            while (true) {
+                length = in.readInt();
+                data = new byte[length];
+                in.readFully(data);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                    record = (Record) ois.readObject();
+                }
+                if (!signature.equals(record.taskSignature)) {
+                    Journal.getInstance().addEntry("Checkpoint ignored", "Checkpoint {0} was created for different task.", source);
+                    return new ArrayList<>(0);
+                }
+                result.add(record);
+                validLength += Integer.BYTES + length;
+            }
+        } catch (EOFException ex) {
+            // end of data or incomplete last record
+        } catch (ClassNotFoundException | ClassCastException | IOException ex) {
+            Journal.getInstance().addDataEntry(ex, "Damaged checkpoint record", "Using {0} valid records.", result.size());
+        }
+
+        if (validLength < source.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(source, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Restore results of complete records to the task.
+     *
+     * @param source checkpoint file
+     * @param tc task, whose parameters must match parameters stored in
+     * checkpoint
+     * @param lastOnly only results of the last record are restored
+     * @return last round finished before checkpoint was written, -1 if no
+     * round was restored
+     * @throws IOException
+     */
+    public static int restore(final File source, final TaskContainer tc, final boolean lastOnly) throws IOException {
+        final List<Record> records = readRecords(source, tc);
+        int lastRound = -1;
+        for (int i = lastOnly ? Math.max(0, records.size() - 1) : 0; i < records.size(); i++) {
+            restoreResults(tc, records.get(i));
+            lastRound = Math.max(lastRound, records.get(i).roundTo);
+        }
+        Journal.getInstance().addEntry("Task resumed", "Restored {0} rounds from checkpoint.", records.size());
+        return lastRound;
+    }
+
+    public static void restoreResults(final TaskContainer tc, final Record record) {
+        tc.setResult(record.roundFrom, record.roundTo, record.result);
+        if (record.cumulativeResult != null) {
+            tc.setResult(record.roundZero, record.roundTo, record.cumulativeResult);
+        }
+    }
+
+    public static final class Record implements Serializable {
+
+        private final String taskSignature;
+        private final int roundFrom, roundTo, roundZero;
+        private final Result result, cumulativeResult;
+        private final HashSet<AbstractROI> rois;
+        private final HashMap<AbstractROI, double[]> deformationLimits;
+        private final Serializable data;
+
+        private Record(final String taskSignature, final int roundFrom, final int roundTo, final int roundZero,
+                final Result result, final Result cumulativeResult,
+                final HashSet<AbstractROI> rois, final HashMap<AbstractROI, double[]> deformationLimits, final Serializable data) {
+            this.taskSignature = taskSignature;
+            this.roundFrom = roundFrom;
+            this.roundTo = roundTo;
+            this.roundZero = roundZero;
+            this.result = result;
+            this.cumulativeResult = cumulativeResult;
+            this.rois = rois;
+            this.deformationLimits = deformationLimits;
+            this.data = data;
+        }
+
+        public int getRoundFrom() {
+            return roundFrom;
+        }
+
+        public int getRoundTo() {
+            return roundTo;
+        }
+
+        public Result getResult() {
+            return result;
+        }
+
+        public Result getCumulativeResult() {
+            return cumulativeResult;
+        }
+
+        public HashSet<AbstractROI> getRois() {
+            return rois;
+        }
+
+        public HashMap<AbstractROI, double[]> getDeformationLimits() {
+            return deformationLimits;
+        }
+
+        public Serializable getData() {
+            return data;
+        }
+
+    }
+
+}
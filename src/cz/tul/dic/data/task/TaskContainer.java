@@ -12,15 +12,18 @@ import cz.tul.dic.data.Container;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.task.loaders.InputLoader;
+import cz.tul.pj.journal.Journal;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,6 +31,9 @@ import java.util.Observable;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
 
 /**
  *
@@ -35,6 +41,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public class TaskContainer extends Observable implements Serializable {
 
+    // kept from older versions, so their serialized tasks can be read
+    private static final long serialVersionUID = -5369988371147614792L;
     // input data    
     private final List<File> input;
     private final Map<TaskParameter, Object> params;
@@ -43,12 +51,22 @@ public class TaskContainer extends Observable implements Serializable {
     private final Container<HashMap<AbstractROI, double[]>> deformationLimits;
     private final Set<Hint> hints;
     // generated data
-    private transient List<Image> images;
+    private transient FrameSource frames;
     // results
     @XStreamOmitField
     private final List<Result> results;
     @XStreamOmitField
     private final Map<Integer, Map<Integer, Result>> cumulativeResults;
+    // computations of derived results postponed until the result is requested
+    @XStreamOmitField
+    private transient Map<Long, PendingComputation> pendingComputations;
+    // results not used recently are moved off-heap
+    @XStreamOmitField
+    private transient ResultSpill spill;
+    @XStreamOmitField
+    private transient Set<Long> hotResults;
+    @XStreamOmitField
+    private transient int resultCacheSize;
 
     public TaskContainer() {
         params = new EnumMap<>(TaskParameter.class);
@@ -58,10 +76,14 @@ public class TaskContainer extends Observable implements Serializable {
 
         results = new CopyOnWriteArrayList<>();
         cumulativeResults = new ConcurrentHashMap<>();
+        pendingComputations = new ConcurrentHashMap<>();
+        spill = new ResultSpill();
+        hotResults = new LinkedHashSet<>();
+        resultCacheSize = TaskDefaultValues.DEFAULT_RESULT_CACHE_SIZE;
         hints = EnumSet.noneOf(Hint.class);
 
         input = new ArrayList<>();
-        images = new ArrayList<>();
+        frames = FrameSource.empty();
     }
 
     public TaskContainer(final TaskContainer task) {
@@ -71,11 +93,25 @@ public class TaskContainer extends Observable implements Serializable {
         deformationLimits = new Container<>(task.deformationLimits);
 
         results = new CopyOnWriteArrayList<>(task.results);
-        cumulativeResults = new ConcurrentHashMap<>(task.cumulativeResults);
+        cumulativeResults = new ConcurrentHashMap<>();
+        // inner maps are modified when results are evicted, so they cannot be shared
+        for (Entry<Integer, Map<Integer, Result>> e : task.cumulativeResults.entrySet()) {
+            cumulativeResults.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        // results not computed yet are computed in the copy on request
+        pendingComputations = new ConcurrentHashMap<>();
+        for (Entry<Long, PendingComputation> e : task.pendingComputations.entrySet()) {
+            pendingComputations.put(e.getKey(), new PendingComputation(e.getValue().computation, this));
+        }
+        synchronized (task.hotResults) {
+            spill = task.spill.copy();
+            hotResults = new LinkedHashSet<>(task.hotResults);
+        }
+        resultCacheSize = task.resultCacheSize;
         hints = EnumSet.copyOf(task.hints);
 
         input = new ArrayList<>(task.input);
-        images = new ArrayList<>(task.images);
+        frames = task.frames;
     }
 
     public static TaskContainer initTaskContainer(final Object in) throws ComputationException {
@@ -84,15 +120,18 @@ public class TaskContainer extends Observable implements Serializable {
     }
 
     public void setInput(final List<File> input, final List<Image> images) {
+        setInput(input, FrameSource.fromImages(images));
+    }
+
+    /**
+     * @param input input files
+     * @param frames source of images, images are loaded on demand
+     */
+    public void setInput(final List<File> input, final FrameSource frames) {
         this.input.clear();
         this.input.addAll(input);
 
-        if (this.images != null) {
-            this.images.clear();
-            this.images.addAll(images);
-        } else {
-            this.images = new ArrayList<>(images);
-        }
+        this.frames = frames;
     }
 
     public List<File> getInput() {
@@ -130,21 +169,18 @@ public class TaskContainer extends Observable implements Serializable {
     }
 
     public Image getImage(final int round) {
-        int counter = -1;
-        Image img = null;
-        for (int i = 0; i < images.size(); i++) {
-            img = images.get(i);
-            counter++;
-            if (counter == round) {
-                break;
-            }
-        }
-
-        return img;
+        return frames.getFrame(round);
     }
 
+    /**
+     * @return read-only view of all images, images are loaded when accessed
+     */
     public List<Image> getImages() {
-        return Collections.unmodifiableList(images);
+        return frames.asList();
+    }
+
+    public FrameSource getFrameSource() {
+        return frames;
     }
 
     public HashSet<AbstractROI> getRois(final int round) {
@@ -223,10 +259,32 @@ public class TaskContainer extends Observable implements Serializable {
         return result;
     }
 
+    /**
+     * Stores the result as recently used. If the cache of results kept on
+     * heap is full, the least recently used result is compressed and written
+     * to spill file by the calling thread, so the call costs as much as
+     * encoding one result (use larger cache size if results are stored from
+     * time critical code).
+     *
+     * @param roundFrom
+     * @param roundTo
+     * @param result
+     */
     public void setResult(final int roundFrom, final int roundTo, final Result result) {
+        final long key = resultKey(roundFrom, roundTo);
+        synchronized (hotResults) {
+            spill.remove(key);
+            putResult(roundFrom, roundTo, result);
+            if (result != null) {
+                touchResult(key);
+            }
+        }
+    }
+
+    private void putResult(final int roundFrom, final int roundTo, final Result result) {
         if (roundFrom + 1 == roundTo) {
             if (results.size() < roundTo + 1) {
-                for (int i = 0; i < roundTo - results.size(); i++) {
+                while (results.size() < roundTo) {
                     results.add(null);
                 }
                 results.add(result);
@@ -244,7 +302,148 @@ public class TaskContainer extends Observable implements Serializable {
         }
     }
 
+    /**
+     * Marks result as recently used, results above cache size are moved to
+     * spill file. Result stays on heap if it cannot be spilled.
+     */
+    private void touchResult(final long key) {
+        hotResults.remove(key);
+        hotResults.add(key);
+        evictResults();
+    }
+
+    private void evictResults() {
+        long eldest;
+        Result result;
+        while (hotResults.size() > resultCacheSize) {
+            eldest = hotResults.iterator().next();
+            hotResults.remove(eldest);
+            result = heapResult(roundFrom(eldest), roundTo(eldest));
+            if (result == null) {
+                continue;
+            }
+            try {
+                spill.store(eldest, result);
+                removeHeapResult(roundFrom(eldest), roundTo(eldest));
+            } catch (IOException ex) {
+                Journal.getInstance().addDataEntry(ex, "Error spilling result to disk.", "Rounds {0} - {1}.", roundFrom(eldest), roundTo(eldest));
+            }
+        }
+    }
+
+    private static long resultKey(final int roundFrom, final int roundTo) {
+        return ((long) roundFrom << 32) | (roundTo & 0xffffffffL);
+    }
+
+    private static int roundFrom(final long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int roundTo(final long key) {
+        return (int) key;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * @param resultCacheSize count of results kept on heap, other results are
+     * moved to temporary file and loaded back when requested
+     */
+    public void setResultCacheSize(final int resultCacheSize) {
+        if (resultCacheSize < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one result.");
+        }
+        synchronized (hotResults) {
+            this.resultCacheSize = resultCacheSize;
+            evictResults();
+        }
+    }
+
+    /**
+     * Registers computation of displacement for given rounds (e.g. cumulative
+     * displacement), which is run when the result is requested for the first
+     * time. Computation is expected to store its result using
+     * {@link #setResult(int, int, Result)} of the container it receives, copy
+     * of the task runs the computation with itself.
+     *
+     * @param roundFrom
+     * @param roundTo
+     * @param computation
+     */
+    public void setDisplacementComputation(final int roundFrom, final int roundTo, final Consumer<TaskContainer> computation) {
+        pendingComputations.put(computationKey(roundFrom, roundTo, false), new PendingComputation(computation, this));
+    }
+
+    /**
+     * Registers strain estimation for given rounds, which is run when the
+     * result is requested for the first time (after pending displacement
+     * computation of the same rounds).
+     *
+     * @param roundFrom
+     * @param roundTo
+     * @param computation
+     */
+    public void setStrainComputation(final int roundFrom, final int roundTo, final Consumer<TaskContainer> computation) {
+        pendingComputations.put(computationKey(roundFrom, roundTo, true), new PendingComputation(computation, this));
+    }
+
+    /**
+     * Runs all pending computations.
+     */
+    public void computePendingResults() {
+        for (Long key : new ArrayList<>(pendingComputations.keySet())) {
+            runPendingComputation(key);
+        }
+    }
+
+    public boolean hasPendingComputations() {
+        return !pendingComputations.isEmpty();
+    }
+
     public Result getResult(final int roundFrom, final int roundTo) {
+        return getResult(roundFrom, roundTo, true);
+    }
+
+    /**
+     * @param roundFrom
+     * @param roundTo
+     * @param strain if false, pending strain estimation is not started (use
+     * when only displacement is needed)
+     * @return stored result, pending computations are finished first,
+     * spilled result is loaded back
+     */
+    public Result getResult(final int roundFrom, final int roundTo, final boolean strain) {
+        runPendingComputation(computationKey(roundFrom, roundTo, false));
+        if (strain) {
+            runPendingComputation(computationKey(roundFrom, roundTo, true));
+        }
+
+        final long key = resultKey(roundFrom, roundTo);
+        Result result = heapResult(roundFrom, roundTo);
+        if (result != null || spill.contains(key)) {
+            synchronized (hotResults) {
+                result = heapResult(roundFrom, roundTo);
+                if (result == null) {
+                    try {
+                        result = spill.load(key, getRois(roundFrom));
+                    } catch (IOException ex) {
+                        Journal.getInstance().addDataEntry(ex, "Error loading spilled result.", "Rounds {0} - {1}.", roundFrom, roundTo);
+                    }
+                    if (result != null) {
+                        putResult(roundFrom, roundTo, result);
+                    }
+                }
+                if (result != null) {
+                    touchResult(key);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Result heapResult(final int roundFrom, final int roundTo) {
         final Result result;
         if (roundFrom + 1 == roundTo) {
             if (roundTo < results.size()) {
@@ -260,15 +459,114 @@ public class TaskContainer extends Observable implements Serializable {
         return result;
     }
 
+    private void runPendingComputation(final long key) {
+        final PendingComputation computation = pendingComputations.get(key);
+        // computation itself reads the (partial) result
+        if (computation == null || computation.isRunningIn(Thread.currentThread())) {
+            return;
+        }
+
+        computation.run();
+        try {
+            computation.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            Journal.getInstance().addDataEntry(ex, "Interrupted while waiting for result computation.");
+        } catch (ExecutionException ex) {
+            Journal.getInstance().addDataEntry(ex, "Error computing requested result.");
+        }
+        pendingComputations.remove(key, computation);
+    }
+
+    private static long computationKey(final int roundFrom, final int roundTo, final boolean strain) {
+        return (((long) roundFrom << 32) | (roundTo & 0xffffffffL)) * 2 + (strain ? 1 : 0);
+    }
+
+    public void removeResult(final int roundFrom, final int roundTo) {
+        pendingComputations.remove(computationKey(roundFrom, roundTo, false));
+        pendingComputations.remove(computationKey(roundFrom, roundTo, true));
+        final long key = resultKey(roundFrom, roundTo);
+        synchronized (hotResults) {
+            spill.remove(key);
+            hotResults.remove(key);
+            removeHeapResult(roundFrom, roundTo);
+        }
+    }
+
+    private void removeHeapResult(final int roundFrom, final int roundTo) {
+        if (roundFrom + 1 == roundTo) {
+            if (roundTo < results.size()) {
+                results.set(roundTo, null);
+            }
+        } else if (cumulativeResults.containsKey(roundFrom)) {
+            cumulativeResults.get(roundFrom).remove(roundTo);
+        }
+    }
+
+    /**
+     * @return rounds of all stored results (including spilled ones) as pairs
+     * {roundFrom, roundTo}
+     */
+    List<int[]> listResultRounds() {
+        final Set<Long> keys = new LinkedHashSet<>();
+        synchronized (hotResults) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) != null) {
+                    keys.add(resultKey(i - 1, i));
+                }
+            }
+            for (Entry<Integer, Map<Integer, Result>> e : cumulativeResults.entrySet()) {
+                for (Integer roundTo : e.getValue().keySet()) {
+                    keys.add(resultKey(e.getKey(), roundTo));
+                }
+            }
+            keys.addAll(spill.keys());
+        }
+
+        final List<int[]> result = new ArrayList<>(keys.size());
+        for (long key : keys) {
+            result.add(new int[]{roundFrom(key), roundTo(key)});
+        }
+        return result;
+    }
+
+    /**
+     * @return copy of task settings without any results
+     */
+    TaskContainer copyWithoutResults() {
+        final TaskContainer result = new TaskContainer(this);
+        result.results.clear();
+        result.cumulativeResults.clear();
+        result.spill.release();
+        result.spill = new ResultSpill();
+        result.hotResults.clear();
+        return result;
+    }
+
     public void clearResultData() {
-        results.clear();
-        cumulativeResults.clear();
+        pendingComputations.clear();
+        synchronized (hotResults) {
+            spill.release();
+            spill = new ResultSpill();
+            hotResults.clear();
+            results.clear();
+            cumulativeResults.clear();
+        }
 
         for (int i = 0; i < TaskContainerUtils.getMaxRoundCount(this); i++) {
             results.add(null);
         }
     }
 
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pendingComputations = new ConcurrentHashMap<>();
+        spill = new ResultSpill();
+        hotResults = new LinkedHashSet<>();
+        resultCacheSize = TaskDefaultValues.DEFAULT_RESULT_CACHE_SIZE;
+        frames = FrameSource.empty();
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("{");
@@ -291,4 +589,34 @@ public class TaskContainer extends Observable implements Serializable {
         sb.append("}");
         return sb.toString();
     }
+
+    /**
+     * Memoized computation, concurrent requests wait for the first one.
+     */
+    private static final class PendingComputation {
+
+        private final Consumer<TaskContainer> computation;
+        private final FutureTask<Void> task;
+        private volatile Thread runner;
+
+        PendingComputation(final Consumer<TaskContainer> computation, final TaskContainer owner) {
+            this.computation = computation;
+            task = new FutureTask<>(() -> {
+                runner = Thread.currentThread();
+                computation.accept(owner);
+            }, null);
+        }
+
+        void run() {
+            task.run();
+        }
+
+        void get() throws InterruptedException, ExecutionException {
+            task.get();
+        }
+
+        boolean isRunningIn(final Thread thread) {
+            return runner == thread && !task.isDone();
+        }
+    }
 }
@@ -13,16 +13,14 @@ import cz.tul.dic.data.Image;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
 import cz.tul.dic.data.task.loaders.ConfigLoader;
 import cz.tul.dic.engine.KernelPerformanceManager;
 import cz.tul.dic.engine.solvers.SolverType;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -72,8 +70,8 @@ public final class TaskContainerUtils {
             final DisplacementResult resultsDR = resultsC.getDisplacementResult();
             final DisplacementResult dResultsDR = dResultsC.getDisplacementResult();
             if (resultsDR != null && dResultsDR != null) {
-                final double[][][] results = resultsDR.getDisplacement();
-                final double[][][] dResults = dResultsDR.getDisplacement();
+                final VectorField results = resultsDR.getDisplacement();
+                final VectorField dResults = dResultsDR.getDisplacement();
                 if (dResults != null) {
                     final int y2 = finalBottomLine(dResults);
                     final int y1 = finalBottomLine(results);
@@ -85,10 +83,10 @@ public final class TaskContainerUtils {
         return result;
     }
 
-    private static int finalBottomLine(final double[][][] data) {
-        for (int y = data[0].length - 1; y >= 0; y--) {
-            for (int x = 0; x < data.length; x++) {
-                if (data[x][y] != null) {
+    private static int finalBottomLine(final VectorField data) {
+        for (int y = data.getHeight() - 1; y >= 0; y--) {
+            for (int x = 0; x < data.getWidth(); x++) {
+                if (data.isValid(x, y)) {
                     return y;
                 }
             }
@@ -196,11 +194,9 @@ public final class TaskContainerUtils {
     }
 
     public static void serializeTaskToBinary(final TaskContainer tc, final File target) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
-            out.writeObject(tc);
-            out.flush();
-            out.reset();
-        }
+        // pending computations cannot be stored
+        tc.computePendingResults();
+        TaskBinaryFormat.write(tc, target);
     }
 
     public static void checkTaskValidity(final TaskContainer tc) throws ComputationException {
@@ -260,6 +256,10 @@ public final class TaskContainerUtils {
         if (tsp == null) {
             tc.setParameter(TaskParameter.TASK_SPLIT_PARAM, TaskDefaultValues.DEFAULT_TASK_SPLIT_PARAMETER);
         }
+        final Object tileSize = tc.getParameter(TaskParameter.TILE_SIZE);
+        if (tileSize == null) {
+            tc.setParameter(TaskParameter.TILE_SIZE, TaskDefaultValues.DEFAULT_TILE_SIZE);
+        }
         final Object subsetGenMode = tc.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD);
         if (subsetGenMode == null) {
             tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, TaskDefaultValues.DEFAULT_SUBSET_GENERATOR);
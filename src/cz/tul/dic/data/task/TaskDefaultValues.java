@@ -40,6 +40,8 @@ public final class TaskDefaultValues {
     public static final double DEFAULT_STRAIN_ESTIMATION_PARAMETER = 20;
     public static final TaskSplitMethod DEFAULT_TASK_SPLIT_METHOD = TaskSplitMethod.DYNAMIC;
     public static final int DEFAULT_TASK_SPLIT_PARAMETER = 1000;
+    public static final int DEFAULT_TILE_SIZE = 0;
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 16;
 
     private TaskDefaultValues() {
     }
@@ -32,6 +32,7 @@ public enum TaskParameter {
     KERNEL(KernelInfo.class),
     TASK_SPLIT_METHOD(TaskSplitMethod.class),
     TASK_SPLIT_PARAM(Integer.class),
+    TILE_SIZE(Integer.class),
     INTERPOLATION(Interpolation.class),
     MM_TO_PX_RATIO(Double.class),
     ROUND_LIMITS(int[].class),
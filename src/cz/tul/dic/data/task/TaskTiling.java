@@ -0,0 +1,229 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.subset.AbstractSubset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits full task into tiles, so only part of the images around the tile is
+ * needed for computation. Each subset belongs to the tile containing its
+ * center, image window of the tile covers all its subsets deformed up to
+ * deformation limits. Subsets and images of the tile use tile coordinates,
+ * correlation results do not depend on subset position and are used
+ * directly.
+ *
+ * @author Petr Jecmen
+ */
+public final class TaskTiling {
+
+    private static final int[] COEFFS_U = new int[]{0, 2, 3, 6, 7, 8};
+    private static final int[] COEFFS_V = new int[]{1, 4, 5, 9, 10, 11};
+    private static final int INTERPOLATION_BORDER = 3;
+
+    private TaskTiling() {
+    }
+
+    /**
+     * @param task full task
+     * @param tileSize size of the tile in pixels, 0 or less disables tiling
+     * @return tiles ordered by rows, single tile with original task if the
+     * image fits into one tile
+     */
+    public static List<Tile> splitToTiles(final FullTask task, final int tileSize) {
+        return splitToTiles(task, tileSize, 0);
+    }
+
+    /**
+     * @param task full task
+     * @param tileSize size of the tile in pixels, 0 or less disables tiling
+     * @param border extra pixels added around image window of each tile,
+     * images filtered after cropping (on device) need filter radius so the
+     * window is not affected by the crop edge
+     * @return tiles ordered by rows, single tile with original task if the
+     * image fits into one tile
+     */
+    public static List<Tile> splitToTiles(final FullTask task, final int tileSize, final int border) {
+        if (border < 0) {
+            throw new IllegalArgumentException("Negative tile border - " + border);
+        }
+        final Image imageA = task.getImageA();
+        final List<AbstractSubset> subsets = task.getSubsets();
+        if (tileSize <= 0 || subsets.isEmpty() || (imageA.getWidth() <= tileSize && imageA.getHeight() <= tileSize)) {
+            final int[] indices = new int[subsets.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i;
+            }
+            final List<Tile> result = new ArrayList<>(1);
+            result.add(new Tile(task, indices, 0, 0));
+            return result;
+        }
+
+        final int tileCountX = (imageA.getWidth() + tileSize - 1) / tileSize;
+        final Map<Integer, List<Integer>> groups = new TreeMap<>();
+        double[] center;
+        int tileX, tileY;
+        for (int i = 0; i < subsets.size(); i++) {
+            center = subsets.get(i).getCenter();
+            tileX = clamp((int) Math.round(center[Coordinates.X]) / tileSize, 0, tileCountX - 1);
+            tileY = Math.max(0, (int) Math.round(center[Coordinates.Y]) / tileSize);
+            groups.computeIfAbsent(tileY * tileCountX + tileX, (Integer k) -> new ArrayList<>()).add(i);
+        }
+
+        final List<Tile> result = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups.values()) {
+            result.add(createTile(task, group, border));
+        }
+        return result;
+    }
+
+    /**
+     * Puts results of the tiles back to the order of subsets in the full
+     * task.
+     *
+     * @param tiles tiles of the full task
+     * @param tileResults results of the tiles in the same order, list can be
+     * shorter if the computation was stopped
+     * @param subsetCount count of subsets in the full task
+     * @return results of the full task, results of unsolved tiles are missing
+     */
+    public static CorrelationResultBlock stitch(final List<Tile> tiles, final List<CorrelationResultBlock> tileResults, final int subsetCount) {
+        int stride = 0;
+        for (CorrelationResultBlock block : tileResults) {
+            stride = Math.max(stride, block.getStride());
+        }
+
+        final CorrelationResultBlock result = new CorrelationResultBlock(subsetCount, stride);
+        CorrelationResultBlock block;
+        int[] indices;
+        for (int t = 0; t < tileResults.size(); t++) {
+            block = tileResults.get(t);
+            indices = tiles.get(t).getSubsetIndices();
+            for (int i = 0; i < Math.min(indices.length, block.size()); i++) {
+                result.put(indices[i], block, i);
+            }
+        }
+        return result;
+    }
+
+    private static Tile createTile(final FullTask task, final List<Integer> group, final int border) {
+        final Image imageA = task.getImageA();
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        AbstractSubset subset;
+        double[] limits, center;
+        int size, marginX, marginY, cx, cy;
+        for (int i : group) {
+            subset = task.getSubsets().get(i);
+            limits = task.getDeformationLimits().get(i);
+            size = subset.getSize();
+            marginX = computeMargin(limits, COEFFS_U, size);
+            marginY = computeMargin(limits, COEFFS_V, size);
+            center = subset.getCenter();
+            cx = (int) Math.round(center[Coordinates.X]);
+            cy = (int) Math.round(center[Coordinates.Y]);
+            x1 = Math.min(x1, cx - size - marginX - border);
+            x2 = Math.max(x2, cx + size + marginX + border);
+            y1 = Math.min(y1, cy - size - marginY - border);
+            y2 = Math.max(y2, cy + size + marginY + border);
+        }
+        x1 = clamp(x1, 0, imageA.getWidth() - 1);
+        y1 = clamp(y1, 0, imageA.getHeight() - 1);
+        x2 = clamp(x2, x1, imageA.getWidth() - 1);
+        y2 = clamp(y2, y1, imageA.getHeight() - 1);
+
+        final int width = x2 - x1 + 1;
+        final int height = y2 - y1 + 1;
+        final int[] indices = new int[group.size()];
+        final List<AbstractSubset> subsets = new ArrayList<>(group.size());
+        final List<Integer> weights = new ArrayList<>(group.size());
+        final List<double[]> deformationLimits = new ArrayList<>(group.size());
+        int index;
+        for (int i = 0; i < indices.length; i++) {
+            index = group.get(i);
+            indices[i] = index;
+            subsets.add(task.getSubsets().get(index).translate(-x1, -y1));
+            weights.add(task.getSubsetWeights().get(index));
+            deformationLimits.add(task.getDeformationLimits().get(index));
+        }
+
+        final FullTask tileTask = new FullTask(
+                task.getImageA().crop(x1, y1, width, height),
+                task.getImageB().crop(x1, y1, width, height),
+                subsets, weights, deformationLimits);
+        return new Tile(tileTask, indices, x1, y1);
+    }
+
+    /**
+     * @return maximal displacement of subset point in one direction allowed
+     * by deformation limits, with border needed for interpolation
+     */
+    private static int computeMargin(final double[] limits, final int[] coeffs, final int subsetSize) {
+        double result = 0;
+        int coeff;
+        double extent;
+        for (int i = 0; i < coeffs.length; i++) {
+            coeff = coeffs[i];
+            if (coeff * 3 + 1 >= limits.length) {
+                break;
+            }
+            extent = Math.max(Math.abs(limits[coeff * 3]), Math.abs(limits[coeff * 3 + 1]));
+            if (i == 0) {
+                result += extent;
+            } else if (i < 3) {
+                result += extent * subsetSize;
+            } else {
+                result += extent * subsetSize * subsetSize;
+            }
+        }
+        return (int) Math.ceil(result) + INTERPOLATION_BORDER;
+    }
+
+    private static int clamp(final int value, final int min, final int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public static final class Tile {
+
+        private final FullTask task;
+        private final int[] subsetIndices;
+        private final int x, y;
+
+        Tile(final FullTask task, final int[] subsetIndices, final int x, final int y) {
+            this.task = task;
+            this.subsetIndices = subsetIndices;
+            this.x = x;
+            this.y = y;
+        }
+
+        /**
+         * @return task with cropped images and subsets in tile coordinates
+         */
+        public FullTask getTask() {
+            return task;
+        }
+
+        /**
+         * @return indices of tile subsets in the full task
+         */
+        public int[] getSubsetIndices() {
+            return subsetIndices;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+    }
+}
@@ -7,13 +7,14 @@ package cz.tul.dic.data.task.loaders;
 
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
-import cz.tul.dic.data.Image;
+import cz.tul.dic.data.task.FrameSource;
 import cz.tul.dic.data.task.TaskDefaultValues;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.pj.journal.Journal;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -35,7 +36,10 @@ public abstract class AbstractInputLoader {
     public abstract boolean canLoad(final Object in);
 
     protected void loadImages(final TaskContainer task, final List<File> inputs) throws ComputationException {
-        final List<Image> images = new ArrayList<>(inputs.size());
+        if (inputs.isEmpty()) {
+            throw new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, "No input files.");
+        }
+        final List<File> files = new ArrayList<>(inputs.size());
         final Object in = task.getParameter(TaskParameter.IN);
         final File inputSource;
         if (in != null) {
@@ -51,13 +55,17 @@ public abstract class AbstractInputLoader {
                     throw new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, "Input file " + image.toString() + " not found.");
                 }
             }
-            try {
-                images.add(Image.loadImageFromDisk(image));
-            } catch (IOException ex) {
-                throw new ComputationException(ComputationExceptionCause.IO, ex);
-            }
+            files.add(image);
+        }
+        // images are decoded in background, computation can start when first images are ready
+        final FrameSource frames = FrameSource.fromFiles(files);
+        frames.prefetch(0, frames.getWindowSize());
+        try {
+            frames.getFrame(0);
+        } catch (UncheckedIOException ex) {
+            throw new ComputationException(ComputationExceptionCause.IO, ex.getCause());
         }
-        task.setInput(inputs, images);
+        task.setInput(inputs, frames);
     }
 
     protected void loadUdaFile(final String inputName, final TaskContainer tc) {
@@ -0,0 +1,373 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task.loaders;
+
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.task.FrameSource;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+/**
+ * Reader of video stream from AVI file (including OpenDML extension). Supports
+ * uncompressed frames (8 bit with palette, 24 and 32 bit, 8 bit grayscale)
+ * and MJPEG. Positions of frames are found when the reader is created, frames
+ * are read and decoded on request directly to grayscale {@link Image}.
+ *
+ * @author Petr Jecmen
+ */
+final class AviReader implements FrameSource.FrameLoader {
+
+    private static final int RIFF = fourCC("RIFF");
+    private static final int LIST = fourCC("LIST");
+    private static final int HDRL = fourCC("hdrl");
+    private static final int STRL = fourCC("strl");
+    private static final int STRH = fourCC("strh");
+    private static final int STRF = fourCC("strf");
+    private static final int MOVI = fourCC("movi");
+    private static final int VIDS = fourCC("vids");
+    private static final int[] CODEC_MJPEG = {fourCC("MJPG"), fourCC("mjpg"), fourCC("AVRn"), fourCC("dmb1")};
+    private static final int[] CODEC_GRAY = {fourCC("Y800"), fourCC("Y8  "), fourCC("GREY")};
+    private static final int CODEC_RGB = 0;
+    private static final int HEADER_SIZE = 8;
+    private static final int BITMAPINFO_SIZE = 40;
+    private static final int MARKER_SOI = 0xD8, MARKER_SOS = 0xDA, MARKER_DHT = 0xC4;
+    private static final byte[] DEFAULT_DHT = prepareDefaultHuffmanTables();
+    private final File file;
+    private final String name;
+    private int width, height, bitCount, compression;
+    private boolean bottomUp;
+    private byte[] palette;
+    private long[] frameOffsets;
+    private int[] frameSizes;
+
+    AviReader(final File file) throws IOException {
+        this.file = file;
+        name = file.getName();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readStructure(ch);
+        }
+    }
+
+    private static int fourCC(final String code) {
+        return (code.charAt(0) & 0xff) | (code.charAt(1) & 0xff) << 8 | (code.charAt(2) & 0xff) << 16 | (code.charAt(3) & 0xff) << 24;
+    }
+
+    private void readStructure(final FileChannel ch) throws IOException {
+        final long length = ch.size();
+        final ByteBuffer header = ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        int videoStream = -1;
+        long[] offsets = new long[64];
+        int[] sizes = new int[64];
+        int count = 0;
+        // top level RIFF lists ("AVI " and "AVIX" for OpenDML)
+        long position = 0;
+        while (position + 3 * 4 <= length) {
+            readHeader(ch, header, position, length);
+            if (header.getInt(0) != RIFF) {
+                if (position == 0) {
+                    throw new IOException("Not a RIFF file - " + name);
+                }
+                break;
+            }
+            final long riffEnd = Math.min(length, position + HEADER_SIZE + (header.getInt(4) & 0xffffffffL));
+            long chunk = position + 3 * 4;
+            while (chunk + HEADER_SIZE <= riffEnd) {
+                readHeader(ch, header, chunk, riffEnd);
+                final int id = header.getInt(0);
+                final long size = header.getInt(4) & 0xffffffffL;
+                if (id == LIST && header.getInt(8) == HDRL) {
+                    videoStream = readHeaders(ch, chunk + 3 * 4, chunk + HEADER_SIZE + size);
+                } else if (id == LIST && header.getInt(8) == MOVI) {
+                    if (videoStream < 0 || width == 0) {
+                        throw new IOException("No video stream found - " + name);
+                    }
+                    // frame chunks, possibly grouped in "rec " lists
+                    final long moviEnd = Math.min(riffEnd, chunk + HEADER_SIZE + size);
+                    long frame = chunk + 3 * 4;
+                    while (frame + HEADER_SIZE <= moviEnd) {
+                        readHeader(ch, header, frame, moviEnd);
+                        final int frameId = header.getInt(0);
+                        final long frameSize = header.getInt(4) & 0xffffffffL;
+                        if (frameId == LIST) {
+                            frame += 3 * 4;
+                            continue;
+                        }
+                        if (isVideoChunk(frameId, videoStream)) {
+                            if (count == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, 2 * count);
+                                sizes = Arrays.copyOf(sizes, 2 * count);
+                            }
+                            if (frameSize > 0) {
+                                offsets[count] = frame + HEADER_SIZE;
+                                sizes[count] = (int) frameSize;
+                                count++;
+                            } else if (count > 0) {
+                                // dropped frame, previous one is repeated
+                                offsets[count] = offsets[count - 1];
+                                sizes[count] = sizes[count - 1];
+                                count++;
+                            }
+                        }
+                        frame += HEADER_SIZE + frameSize + (frameSize & 1);
+                    }
+                }
+                chunk += HEADER_SIZE + size + (size & 1);
+            }
+            position = riffEnd + ((riffEnd - position) & 1);
+        }
+        if (count == 0) {
+            throw new IOException("No video frames found - " + name);
+        }
+        frameOffsets = Arrays.copyOf(offsets, count);
+        frameSizes = Arrays.copyOf(sizes, count);
+    }
+
+    private static boolean isVideoChunk(final int id, final int stream) {
+        final int tens = (id & 0xff) - '0';
+        final int units = ((id >> 8) & 0xff) - '0';
+        final int type = (id >>> 16) & 0xffff;
+        return tens * 10 + units == stream && (type == ('d' | 'b' << 8) || type == ('d' | 'c' << 8));
+    }
+
+    /**
+     * @return index of the first video stream
+     */
+    private int readHeaders(final FileChannel ch, final long start, final long end) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        int stream = 0;
+        long chunk = start;
+        while (chunk + HEADER_SIZE <= end) {
+            readHeader(ch, header, chunk, end);
+            final long size = header.getInt(4) & 0xffffffffL;
+            if (header.getInt(0) == LIST && header.getInt(8) == STRL) {
+                if (readStream(ch, chunk + 3 * 4, chunk + HEADER_SIZE + size)) {
+                    return stream;
+                }
+                stream++;
+            }
+            chunk += HEADER_SIZE + size + (size & 1);
+        }
+        return -1;
+    }
+
+    private boolean readStream(final FileChannel ch, final long start, final long end) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        boolean video = false;
+        long chunk = start;
+        while (chunk + HEADER_SIZE <= end) {
+            readHeader(ch, header, chunk, end);
+            final int id = header.getInt(0);
+            final long size = header.getInt(4) & 0xffffffffL;
+            if (id == STRH) {
+                video = header.getInt(8) == VIDS;
+            } else if (id == STRF && video) {
+                if (size < BITMAPINFO_SIZE) {
+                    throw new IOException("Illegal video format header - " + name);
+                }
+                final ByteBuffer info = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(ch, info, chunk + HEADER_SIZE);
+                readBitmapInfo(info);
+            }
+            chunk += HEADER_SIZE + size + (size & 1);
+        }
+        return video;
+    }
+
+    private void readBitmapInfo(final ByteBuffer info) throws IOException {
+        final int infoSize = info.getInt(0);
+        width = info.getInt(4);
+        final int h = info.getInt(8);
+        bottomUp = h > 0;
+        height = Math.abs(h);
+        bitCount = info.getShort(14);
+        compression = info.getInt(16);
+        if (width <= 0 || height == 0) {
+            throw new IOException("Illegal frame size " + width + "x" + height + " - " + name);
+        }
+
+        if (compression == CODEC_RGB) {
+            if (bitCount == 8) {
+                final int colorCount = info.getInt(32) > 0 ? Math.min(256, info.getInt(32)) : 256;
+                palette = new byte[256];
+                int pos, color;
+                for (int i = 0; i < colorCount; i++) {
+                    pos = infoSize + 4 * i;
+                    if (pos + 3 > info.limit()) {
+                        break;
+                    }
+                    color = (info.get(pos) & 0xff) + (info.get(pos + 1) & 0xff) + (info.get(pos + 2) & 0xff);
+                    palette[i] = (byte) (color / 3);
+                }
+            } else if (bitCount != 24 && bitCount != 32) {
+                throw new IOException("Unsupported bit depth " + bitCount + " - " + name);
+            }
+        } else if (!contains(CODEC_MJPEG, compression) && !contains(CODEC_GRAY, compression)) {
+            throw new IOException("Unsupported video codec " + codecName(compression) + " - " + name);
+        }
+    }
+
+    private static boolean contains(final int[] codecs, final int codec) {
+        for (int c : codecs) {
+            if (c == codec) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String codecName(final int codec) {
+        final StringBuilder sb = new StringBuilder(4);
+        for (int i = 0; i < 4; i++) {
+            sb.append((char) ((codec >> (8 * i)) & 0xff));
+        }
+        return sb.toString();
+    }
+
+    int getFrameCount() {
+        return frameOffsets.length;
+    }
+
+    @Override
+    public Image loadFrame(final int index) throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(frameSizes[index]);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readFully(ch, data, frameOffsets[index]);
+        }
+        final String frameName = String.format("%s#%05d", name, index);
+        final Image result;
+        if (compression == CODEC_RGB) {
+            result = Image.createImage(width, height, decodeBitmap(data.array()), frameName);
+        } else if (contains(CODEC_GRAY, compression)) {
+            result = Image.createImage(width, height, decodeGray(data.array()), frameName);
+        } else {
+            final BufferedImage img = ImageIO.read(new ByteArrayInputStream(addHuffmanTables(data.array())));
+            if (img == null) {
+                throw new IOException("Frame " + index + " could not be decoded - " + name);
+            }
+            result = Image.createImage(img, frameName);
+        }
+        return result;
+    }
+
+    private byte[] decodeBitmap(final byte[] data) throws IOException {
+        final int bytesPerPixel = bitCount / 8;
+        final int stride = (width * bitCount + 31) / 32 * 4;
+        if (data.length < stride * height) {
+            throw new IOException("Frame data too short - " + name);
+        }
+        final byte[] result = new byte[width * height];
+        int src, dst;
+        for (int y = 0; y < height; y++) {
+            src = (bottomUp ? height - 1 - y : y) * stride;
+            dst = y * width;
+            if (bytesPerPixel == 1) {
+                for (int x = 0; x < width; x++) {
+                    result[dst + x] = palette[data[src + x] & 0xff];
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    result[dst + x] = (byte) (((data[src] & 0xff) + (data[src + 1] & 0xff) + (data[src + 2] & 0xff)) / 3);
+                    src += bytesPerPixel;
+                }
+            }
+        }
+        return result;
+    }
+
+    private byte[] decodeGray(final byte[] data) throws IOException {
+        if (data.length < width * height) {
+            throw new IOException("Frame data too short - " + name);
+        }
+        return Arrays.copyOf(data, width * height);
+    }
+
+    /**
+     * MJPEG frames usually omit Huffman tables, standard ones are inserted
+     * after SOI marker in that case.
+     */
+    private static byte[] addHuffmanTables(final byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != MARKER_SOI) {
+            return jpeg;
+        }
+        int pos = 2, marker;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xff) == 0xFF) {
+            marker = jpeg[pos + 1] & 0xff;
+            if (marker == MARKER_DHT) {
+                return jpeg;
+            } else if (marker == MARKER_SOS) {
+                break;
+            }
+            pos += 2 + ((jpeg[pos + 2] & 0xff) << 8 | (jpeg[pos + 3] & 0xff));
+        }
+
+        final byte[] result = new byte[jpeg.length + DEFAULT_DHT.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(DEFAULT_DHT, 0, result, 2, DEFAULT_DHT.length);
+        System.arraycopy(jpeg, 2, result, 2 + DEFAULT_DHT.length, jpeg.length - 2);
+        return result;
+    }
+
+    private static byte[] prepareDefaultHuffmanTables() {
+        final JPEGHuffmanTable[] tables = {
+            JPEGHuffmanTable.StdDCLuminance, JPEGHuffmanTable.StdACLuminance,
+            JPEGHuffmanTable.StdDCChrominance, JPEGHuffmanTable.StdACChrominance};
+        final int[] classAndId = {0x00, 0x10, 0x01, 0x11};
+        int length = 2;
+        for (JPEGHuffmanTable t : tables) {
+            length += 1 + t.getLengths().length + t.getValues().length;
+        }
+        final ByteBuffer result = ByteBuffer.allocate(2 + length);
+        result.put((byte) 0xFF).put((byte) MARKER_DHT).putShort((short) length);
+        for (int i = 0; i < tables.length; i++) {
+            result.put((byte) classAndId[i]);
+            for (short s : tables[i].getLengths()) {
+                result.put((byte) s);
+            }
+            for (short s : tables[i].getValues()) {
+                result.put((byte) s);
+            }
+        }
+        return result.array();
+    }
+
+    /**
+     * Reads chunk header (id, size and list type), missing bytes at the end
+     * of file are zero.
+     */
+    private static void readHeader(final FileChannel ch, final ByteBuffer header, final long position, final long end) throws IOException {
+        header.clear();
+        header.putInt(8, 0);
+        header.limit((int) Math.min(header.capacity(), end - position));
+        readRemaining(ch, header, position);
+        header.limit(header.capacity());
+    }
+
+    private static void readFully(final FileChannel ch, final ByteBuffer buffer, final long position) throws IOException {
+        buffer.clear();
+        readRemaining(ch, buffer, position);
+    }
+
+    private static void readRemaining(final FileChannel ch, final ByteBuffer buffer, final long position) throws IOException {
+        int read;
+        while (buffer.hasRemaining()) {
+            read = ch.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file.");
+            }
+        }
+    }
+
+}
@@ -7,12 +7,11 @@ package cz.tul.dic.data.task.loaders;
 
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
+import cz.tul.dic.data.task.TaskBinaryFormat;
 import cz.tul.dic.data.task.TaskContainer;
-import java.io.BufferedInputStream;
+import cz.tul.pj.journal.Journal;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.Locale;
 
 public class BinaryLoader extends AbstractInputLoader {
@@ -26,14 +25,22 @@ public class BinaryLoader extends AbstractInputLoader {
         }        
 
         final File input = (File) in;
-        TaskContainer result;
-        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(input)))) {
-            result = (TaskContainer) ois.readObject();
-            result = InputLoader.loadInput(result, result);
-        } catch (IOException | ClassNotFoundException ex) {
-            throw new ComputationException(ComputationExceptionCause.IO, ex);
+        final TaskContainer result;
+        if (TaskBinaryFormat.isTaskBinary(input)) {
+            try {
+                result = TaskBinaryFormat.read(input);
+            } catch (IOException ex) {
+                throw new ComputationException(ComputationExceptionCause.IO, ex);
+            }
+        } else {
+            try {
+                result = TaskBinaryFormat.readLegacy(input);
+            } catch (IOException ex) {
+                throw new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, "File " + input.toString() + " is neither a task binary nor a task saved by older version - " + ex.getLocalizedMessage());
+            }
+            Journal.getInstance().addEntry("Task in old format loaded", "Task {0} will be stored in current format when saved.", input.getName());
         }
-        return result;
+        return InputLoader.loadInput(result, result);
     }
 
     @Override
@@ -70,9 +70,15 @@ public class ConfigLoader extends AbstractInputLoader {
             }
             loadImages(task, l);
         } else {
-            // video file
-            final VideoLoader vl = new VideoLoader();
-            vl.loadTask(new File(input), task);
+            // video file or frame stack
+            final File f = new File(input);
+            final FrameStackLoader fsl = new FrameStackLoader();
+            if (fsl.canLoad(f)) {
+                fsl.loadTask(f, task);
+            } else {
+                final VideoLoader vl = new VideoLoader();
+                vl.loadTask(f, task);
+            }
         }
         // rois, exports, parameters        
         String value;
@@ -149,6 +155,9 @@ public class ConfigLoader extends AbstractInputLoader {
                         case TASK_SPLIT_PARAM:
                             task.setParameter(tp, Integer.valueOf(value));
                             break;
+                        case TILE_SIZE:
+                            task.setParameter(tp, Integer.valueOf(value));
+                            break;
                         case RESULT_QUALITY:
                             task.setParameter(tp, Double.valueOf(value));
                             break;
@@ -0,0 +1,204 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task.loaders;
+
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.task.FrameSource;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Stack of grayscale frames stored in single file - header followed by
+ * frames (8 bit or 16 bit little endian samples, row-major) without any
+ * compression. File is memory mapped, frame data are accessed without
+ * copying.
+ *
+ * @author Petr Jecmen
+ */
+public final class FrameStack implements FrameSource.FrameLoader {
+
+    private static final long MAGIC = 0x4449434652414d45L; // "DICFRAME"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+    private final String name;
+    private final int width, height, bitDepth, frameCount;
+    private final int frameSize;
+    private final int framesPerMapping;
+    private final MappedByteBuffer[] mappings;
+
+    private FrameStack(final File file) throws IOException {
+        name = file.getName();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (ch.read(header) < 0) {
+                    throw new EOFException("Frame stack header is incomplete - " + name);
+                }
+            }
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException("Not a frame stack - " + name);
+            }
+            if (header.getInt(8) != VERSION) {
+                throw new IOException("Unsupported frame stack version " + header.getInt(8) + " - " + name);
+            }
+            width = header.getInt(12);
+            height = header.getInt(16);
+            bitDepth = header.getInt(20);
+            frameCount = header.getInt(24);
+            if (width <= 0 || height <= 0 || frameCount <= 0 || (bitDepth != 8 && bitDepth != 16)) {
+                throw new IOException("Illegal frame stack header - " + name);
+            }
+            frameSize = width * height * (bitDepth / 8);
+            if (ch.size() < HEADER_SIZE + (long) frameSize * frameCount) {
+                throw new EOFException("Frame stack data are incomplete - " + name);
+            }
+
+            // single mapping is limited to 2 GB
+            framesPerMapping = (int) Math.max(1, MAX_MAPPING / frameSize);
+            mappings = new MappedByteBuffer[(frameCount + framesPerMapping - 1) / framesPerMapping];
+            int count;
+            for (int i = 0; i < mappings.length; i++) {
+                count = Math.min(framesPerMapping, frameCount - i * framesPerMapping);
+                mappings[i] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) i * framesPerMapping * frameSize, (long) count * frameSize);
+            }
+        }
+    }
+
+    public static FrameStack open(final File file) throws IOException {
+        return new FrameStack(file);
+    }
+
+    /**
+     * Stores images to frame stack. Stack is 16 bit if the first image has
+     * 16 bit grayscale samples, otherwise images are converted to 8 bit
+     * grayscale.
+     *
+     * @param images source images, all must have the same size
+     * @param target frame stack file
+     * @throws IOException
+     */
+    public static void importImages(final List<File> images, final File target) throws IOException {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("No images to import.");
+        }
+        BufferedImage img = readImage(images.get(0));
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final int bitDepth = isGray16(img) ? 16 : 8;
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(bitDepth).putInt(images.size());
+        header.clear();
+        final ByteBuffer frame = ByteBuffer.allocate(width * height * (bitDepth / 8)).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(ch, header);
+            for (int i = 0; i < images.size(); i++) {
+                if (i > 0) {
+                    img = readImage(images.get(i));
+                }
+                if (img.getWidth() != width || img.getHeight() != height) {
+                    throw new IOException("Image size differs from the first image - " + images.get(i).getName());
+                }
+                frame.clear();
+                if (bitDepth == 16) {
+                    if (!isGray16(img)) {
+                        throw new IOException("Image is not 16 bit grayscale - " + images.get(i).getName());
+                    }
+                    final Raster raster = img.getRaster();
+                    final int[] row = new int[width];
+                    for (int y = 0; y < height; y++) {
+                        raster.getSamples(0, y, width, 1, 0, row);
+                        for (int x = 0; x < width; x++) {
+                            frame.putShort((short) row[x]);
+                        }
+                    }
+                } else {
+                    frame.put(Image.createImage(img).toBWArray());
+                }
+                frame.flip();
+                writeFully(ch, frame);
+            }
+        }
+    }
+
+    private static BufferedImage readImage(final File file) throws IOException {
+        final BufferedImage result = ImageIO.read(file);
+        if (result == null) {
+            throw new IOException("Unsupported image format - " + file.getName());
+        }
+        return result;
+    }
+
+    private static boolean isGray16(final BufferedImage img) {
+        final Raster raster = img.getRaster();
+        return raster.getNumBands() == 1 && raster.getSampleModel().getSampleSize(0) == 16;
+    }
+
+    private static void writeFully(final FileChannel ch, final ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            ch.write(data);
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    /**
+     * @param index index of the frame
+     * @return read-only view of frame samples (little endian)
+     */
+    public ByteBuffer getFrameData(final int index) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + ", frame count " + frameCount);
+        }
+        final ByteBuffer result = mappings[index / framesPerMapping].asReadOnlyBuffer();
+        final int start = (index % framesPerMapping) * frameSize;
+        result.position(start).limit(start + frameSize);
+        return result.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public Image loadFrame(final int index) throws IOException {
+        final ByteBuffer data = getFrameData(index);
+        final String frameName = String.format("%s#%05d", name, index);
+        final Image result;
+        if (bitDepth == 8) {
+            final byte[] gray = new byte[width * height];
+            data.get(gray);
+            result = Image.createImage(width, height, gray, frameName);
+        } else {
+            final short[] gray = new short[width * height];
+            data.asShortBuffer().get(gray);
+            result = Image.createImage(width, height, gray, frameName);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,61 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task.loaders;
+
+import cz.tul.dic.ComputationException;
+import cz.tul.dic.ComputationExceptionCause;
+import cz.tul.dic.data.task.FrameSource;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskParameter;
+import cz.tul.pj.journal.Journal;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Loads frames from {@link FrameStack} file.
+ */
+public class FrameStackLoader extends AbstractInputLoader {
+
+    public static final String SUPPORTED_TYPES = "frames";
+
+    @Override
+    public TaskContainer loadTask(final Object in, final TaskContainer task) throws ComputationException {
+        if (!(in instanceof File)) {
+            throw new IllegalArgumentException("FrameStackLoader needs a single file as input.");
+        }
+
+        final File input = (File) in;
+        if (!input.exists()) {
+            throw new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, "Input file " + in.toString() + " not found.");
+        }
+
+        try {
+            final FrameStack stack = FrameStack.open(input);
+            task.setParameter(TaskParameter.IN, in);
+            task.setInput(Collections.singletonList(input), FrameSource.fromLoader(stack, stack.getFrameCount()));
+            loadUdaFile(input.getAbsolutePath(), task);
+
+            return task;
+        } catch (IOException ex) {
+            Journal.getInstance().addDataEntry(ex, "Error loading frame stack.");
+            throw new ComputationException(ComputationExceptionCause.IO, ex);
+        }
+    }
+
+    @Override
+    public boolean canLoad(Object in) {
+        boolean result = false;
+        if (in instanceof File) {
+            final File input = (File) in;
+            final String ext = input.getName().substring(input.getName().lastIndexOf('.') + 1).toLowerCase(Locale.getDefault());
+            result = SUPPORTED_TYPES.equals(ext);
+        }
+        return result;
+    }
+
+}
@@ -24,6 +24,7 @@ public final class InputLoader {
         LOADERS = new ArrayList<>(4);
         LOADERS.add(new ImageLoader());
         LOADERS.add(new VideoLoader());
+        LOADERS.add(new FrameStackLoader());
         LOADERS.add(new ConfigLoader());
         LOADERS.add(new BinaryLoader());
         LOADERS.add(new TaskContainerLoader());
@@ -7,7 +7,9 @@ package cz.tul.dic.data.task.loaders;
 
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.data.task.TaskContainer;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 public class TaskContainerLoader extends AbstractInputLoader {
 
@@ -17,12 +19,37 @@ public class TaskContainerLoader extends AbstractInputLoader {
             throw new IllegalArgumentException("TaskContainerLoader needs a TaskContainer as input.");
         }        
         
-        loadImages(task, new ArrayList<>(task.getInput()));
-        loadUdaFile(task.getInput().get(0).getAbsolutePath(), task);
+        final List<File> input = task.getInput();
+        final AbstractInputLoader singleFileLoader = findSingleFileLoader(input);
+        if (singleFileLoader != null) {
+            singleFileLoader.loadTask(input.get(0), task);
+        } else {
+            loadImages(task, new ArrayList<>(input));
+            loadUdaFile(input.get(0).getAbsolutePath(), task);
+        }
 
         return task;
     }
 
+    /**
+     * @param inputs task input
+     * @return loader of video or frame stack if the input is such single
+     * file, null otherwise
+     */
+    private static AbstractInputLoader findSingleFileLoader(final List<File> inputs) {
+        AbstractInputLoader result = null;
+        if (inputs.size() == 1) {
+            final AbstractInputLoader video = new VideoLoader();
+            final AbstractInputLoader stack = new FrameStackLoader();
+            if (video.canLoad(inputs.get(0))) {
+                result = video;
+            } else if (stack.canLoad(inputs.get(0))) {
+                result = stack;
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean canLoad(final Object in) {        
         return in instanceof TaskContainer;
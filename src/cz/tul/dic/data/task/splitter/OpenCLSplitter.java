@@ -74,6 +74,7 @@ public class OpenCLSplitter extends AbstractTaskSplitter {
         List<Integer> sublistW = null;
         List<double[]> checkedDeformations = null;
         final int rest = subsets.size() - subsetIndex;
+        final int offset = subsetIndex;
 
         int taskSize = rest;
         final long deformationCount = DeformationUtils.findMaxDeformationCount(deformations, order, usesLimits);
@@ -103,7 +104,7 @@ public class OpenCLSplitter extends AbstractTaskSplitter {
 
         checkIfHasNext();
 
-        return new ComputationTask(image1, image2, sublistS, sublistW, checkedDeformations, order, usesLimits);
+        return new ComputationTask(image1, image2, sublistS, sublistW, checkedDeformations, order, usesLimits, offset);
     }
 
     private boolean isMemOk(final long deformationCount, final long subsetCount, final long subsetSize, final long deformationsArraySize) {
@@ -25,6 +25,7 @@ public class StaticSplit extends AbstractTaskSplitter {
         } else {
             throw new IllegalArgumentException("Missing split task value for static splitting.");
         }
+        index = 0;
 
         checkIfHasNext();
     }
@@ -47,6 +48,7 @@ public class StaticSplit extends AbstractTaskSplitter {
         final List<AbstractSubset> sublistS = new ArrayList<>(split);
         final List<Integer> sublistW = new ArrayList<>(split);
         final int subsetCount = subsets.size();
+        final int offset = index;
 
         int count = 0;
         while (count < split && index < subsetCount) {
@@ -59,7 +61,7 @@ public class StaticSplit extends AbstractTaskSplitter {
 
         checkIfHasNext();
 
-        return new ComputationTask(image1, image2, sublistS, sublistW, deformations, order, usesLimits);
+        return new ComputationTask(image1, image2, sublistS, sublistW, new ArrayList<>(deformations.subList(offset, index)), order, usesLimits, offset);
     }
 
     @Override
@@ -13,6 +13,7 @@ import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.engine.cluster.Analyzer2D;
 import cz.tul.dic.engine.cluster.Analyzer2D.Analayzer2DData;
 import cz.tul.dic.engine.displacement.MaxAndWeightedAverage;
@@ -333,7 +334,7 @@ public class Stats implements IGPUResultsReceiver {
                 }
             }
             try {
-                ImageIO.write(ExportUtils.overlayImage(img, ExportUtils.createImageFromMap(resultData, Direction.DABS)), "BMP", out);
+                ImageIO.write(ExportUtils.overlayImage(img.toBufferedImage(), ExportUtils.createImageFromMap(resultData, Direction.DABS)), "BMP", out);
             } catch (IOException ex) {
                 Logger.warn(ex, "Error drawing subset quality statistics.");
             }
@@ -346,7 +347,7 @@ public class Stats implements IGPUResultsReceiver {
             out.getParentFile().mkdirs();
 
             try {
-                ImageIO.write(ExportUtils.overlayImage(tc.getImage(roundTo), ExportUtils.createImageFromMap(tc.getResult(roundFrom, roundTo).getDisplacementResult().getQuality(), Direction.DABS)), "BMP", out);
+                ImageIO.write(ExportUtils.overlayImage(tc.getImage(roundTo).toBufferedImage(), ExportUtils.createImageFromMap(tc.getResult(roundFrom, roundTo).getDisplacementResult().getQuality().toArray(0), Direction.DABS)), "BMP", out);
             } catch (IOException ex) {
                 Logger.warn(ex, "Error drawing point result statistics.");
             }
@@ -373,14 +374,14 @@ public class Stats implements IGPUResultsReceiver {
         }
     }
 
-    public void drawRegressionQualities(final Image img, final double[][] resultQualityU, final double[][] resultQualityV, final String nameA, final String nameB) {
+    public void drawRegressionQualities(final Image img, final VectorField resultQualityU, final VectorField resultQualityV, final String nameA, final String nameB) {
         if (isSet(Types.REGRESSION_QUALITY)) {
             final File out = new File(nameA);
             out.getParentFile().mkdirs();
 
             try {
-                ImageIO.write(ExportUtils.overlayImage(img, ExportUtils.createImageFromMap(resultQualityU, Direction.EXX)), "BMP", new File(nameA));
-                ImageIO.write(ExportUtils.overlayImage(img, ExportUtils.createImageFromMap(resultQualityV, Direction.EYY)), "BMP", new File(nameB));
+                ImageIO.write(ExportUtils.overlayImage(img.toBufferedImage(), ExportUtils.createImageFromMap(resultQualityU.toArray(0), Direction.EXX)), "BMP", new File(nameA));
+                ImageIO.write(ExportUtils.overlayImage(img.toBufferedImage(), ExportUtils.createImageFromMap(resultQualityV.toArray(0), Direction.EYY)), "BMP", new File(nameB));
             } catch (IOException ex) {
                 Logger.warn(ex, "Error drawing regression qualities.");
             }
@@ -10,4 +10,18 @@ public abstract class AbstractDeviceManager {
 
     public abstract void clearMemory();
 
+    /**
+     * Create a lightweight manager sharing the prepared device (and its
+     * context), but owning its own execution resources. Used by device context
+     * pool to serve multiple engine sessions concurrently.
+     *
+     * @return manager using the same device
+     */
+    public abstract AbstractDeviceManager shareDevice();
+
+    /**
+     * Release resources owned by this manager (not the shared device).
+     */
+    public abstract void release();
+
 }
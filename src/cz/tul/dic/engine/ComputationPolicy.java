@@ -0,0 +1,26 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public enum ComputationPolicy {
+
+    /**
+     * Strain and cumulative results are computed together with each round,
+     * task binary is stored after computation. Default policy.
+     */
+    EAGER,
+    /**
+     * Strain and cumulative results are registered in task container and
+     * computed when they are requested for the first time. Task binary is not
+     * stored automatically, because it would compute all results.
+     */
+    LAZY
+
+}
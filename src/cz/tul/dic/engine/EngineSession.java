@@ -0,0 +1,564 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine;
+
+import cz.tul.dic.engine.platform.PlatformManager;
+import cz.tul.dic.engine.platform.Platform;
+import cz.tul.dic.data.task.FrameSource;
+import cz.tul.dic.data.task.FullTask;
+import cz.tul.dic.engine.solvers.AbstractTaskSolver;
+import cz.tul.dic.ComputationException;
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.task.Hint;
+import cz.tul.dic.data.task.TaskCheckpoint;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskContainerUtils;
+import cz.tul.dic.data.task.TaskDefaultValues;
+import cz.tul.dic.data.task.TaskParameter;
+import cz.tul.dic.data.task.TaskTiling;
+import cz.tul.dic.data.task.splitter.TaskSplitMethod;
+import cz.tul.dic.debug.DebugControl;
+import cz.tul.dic.debug.Stats;
+import cz.tul.dic.engine.displacement.DisplacementCalculator;
+import cz.tul.dic.data.Interpolation;
+import cz.tul.dic.engine.solvers.SolverType;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.subset.generator.AbstractSubsetGenerator;
+import cz.tul.dic.engine.strain.StrainEstimator;
+import cz.tul.dic.engine.strain.StrainEstimationMethod;
+import cz.tul.dic.data.subset.generator.SubsetGenerator;
+import cz.tul.dic.output.NameGenerator;
+import cz.tul.dic.output.sink.ResultSink;
+import cz.tul.dic.output.sink.RetentionPolicy;
+import cz.tul.pj.journal.Journal;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Independent computation engine with its own executor and observers. Devices
+ * are drawn from shared pool managed by {@link PlatformManager}, so multiple
+ * sessions can compute different tasks concurrently.
+ *
+ * @author Petr Ječmen
+ */
+public class EngineSession extends Observable implements Observer, AutoCloseable {
+
+    private static final int PREFETCH_ROUNDS = 2;
+    private final ExecutorService exec;
+    private final List<ResultSink> sinks;
+    private RetentionPolicy retention;
+    private ComputationPolicy computation;
+    private Platform platform;
+    private StrainEstimator strain;
+    private AbstractTaskSolver solver;
+    private boolean stopEngine;
+
+    public EngineSession() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public EngineSession(final int threadCount) {
+        super();
+        exec = Executors.newWorkStealingPool(threadCount);
+        sinks = new CopyOnWriteArrayList<>();
+        retention = RetentionPolicy.KEEP_ALL;
+        computation = ComputationPolicy.EAGER;
+    }
+
+    public void computeTask(final TaskContainer task) throws ComputationException {
+        computeTask(task, false);
+    }
+
+    /**
+     * Compute all rounds of the task.
+     *
+     * @param task task to compute
+     * @param resume if true, rounds stored in task checkpoint are restored
+     * and only the remaining rounds are computed
+     * @throws ComputationException
+     */
+    public void computeTask(final TaskContainer task, final boolean resume) throws ComputationException {
+        Journal.getInstance().addDataEntry(task, "Computing task");
+        Journal.getInstance().createSubEntry();
+
+        stopEngine = false;
+        setChanged();
+        notifyObservers(0);
+
+        task.clearResultData();
+        TaskContainerUtils.checkTaskValidity(task);
+
+        final int lastRound = resume ? restoreCheckpoint(task) : -1;
+        for (ResultSink sink : sinks) {
+            try {
+                sink.taskStarted(task, resume);
+            } catch (IOException ex) {
+                Journal.getInstance().addDataEntry(ex, "Result sink failed to start task.", "Sink {0}.", sink);
+            }
+        }
+
+        releasePlatform();
+        platform = PlatformManager.getInstance().acquirePlatform(findBitDepth(task));
+        platform.getMemoryManager().assignTask(task);
+
+        strain = StrainEstimator.initStrainEstimator((StrainEstimationMethod) task.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD), exec);
+        // rounds are published in order, so cumulative results are computed one after another
+        final boolean streaming = !sinks.isEmpty() || retention != RetentionPolicy.KEEP_ALL;
+        final Set<Future<Void>> futures = new HashSet<>();
+        Future<Void> pending = null;
+        int pendingFrom = -1, pendingTo = -1, publishedTo = -1;
+
+        // images of base round, current round and prefetched rounds are kept in memory
+        final List<Map.Entry<Integer, Integer>> rounds = new ArrayList<>(TaskContainerUtils.getRounds(task).entrySet());
+        final FrameSource frames = task.getFrameSource();
+        frames.setWindowSize(Math.max(frames.getWindowSize(), 2 * (1 + PREFETCH_ROUNDS) + 1));
+
+        int r, nextR, baseR = -1;
+        for (int i = 0; i < rounds.size(); i++) {
+            if (stopEngine) {
+                endTask();
+                return;
+            }
+
+            r = rounds.get(i).getKey();
+            nextR = rounds.get(i).getValue();
+
+            if (baseR == -1) {
+                baseR = r;
+            }
+            if (nextR <= lastRound) {
+                // restored from checkpoint
+                publishedTo = nextR;
+                continue;
+            }
+
+            setChanged();
+            notifyObservers(r);
+
+            for (int j = i + 1; j <= i + PREFETCH_ROUNDS && j < rounds.size(); j++) {
+                frames.prefetch(rounds.get(j).getKey());
+                frames.prefetch(rounds.get(j).getValue());
+            }
+            computeRound(task, r, nextR);
+
+            if (streaming) {
+                waitForComputation(pending);
+                if (pendingTo != -1) {
+                    publishRound(task, baseR, pendingFrom, pendingTo, publishedTo);
+                    publishedTo = pendingTo;
+                }
+                pending = baseR == r ? null : exec.submit(new OverlapComputation(task, baseR, nextR, strain));
+                pendingFrom = r;
+                pendingTo = nextR;
+            } else if (baseR != r) {
+                if (computation == ComputationPolicy.EAGER) {
+                    futures.add(exec.submit(new OverlapComputation(task, baseR, nextR, strain)));
+                } else {
+                    OverlapComputation.registerLazy(task, baseR, nextR);
+                }
+            }
+        }
+
+        Stats.getInstance().dumpDeformationsStatisticsUsage();
+        Stats.getInstance().dumpDeformationsStatisticsPerQuality();
+
+        setChanged();
+        notifyObservers(StrainEstimator.class);
+        for (Future<Void> f : futures) {
+            waitForComputation(f);
+        }
+        if (streaming) {
+            waitForComputation(pending);
+            if (pendingTo != -1) {
+                publishRound(task, baseR, pendingFrom, pendingTo, publishedTo);
+            }
+            for (ResultSink sink : sinks) {
+                try {
+                    sink.taskFinished(task);
+                } catch (IOException ex) {
+                    Journal.getInstance().addDataEntry(ex, "Result sink failed to finish task.", "Sink {0}.", sink);
+                }
+            }
+        }
+
+        endTask();
+
+        // binary would force computation of all lazy results
+        if (computation == ComputationPolicy.EAGER) {
+            try {
+                TaskContainerUtils.serializeTaskToBinary(task, new File(NameGenerator.generateBinary(task)));
+            } catch (IOException ex) {
+                Journal.getInstance().addDataEntry(ex, "Task serialization to binary failed.");
+            }
+        } else {
+            Journal.getInstance().addEntry("Task binary not stored", "Results are computed lazily, store the task explicitly when needed.");
+        }
+
+        Journal.getInstance().closeSubEntry();
+    }
+
+    private int restoreCheckpoint(final TaskContainer task) {
+        try {
+            return TaskCheckpoint.restore(new File(NameGenerator.generateCheckpoint(task)), task, retention == RetentionPolicy.DISCARD_PUBLISHED);
+        } catch (IOException ex) {
+            Journal.getInstance().addDataEntry(ex, "Checkpoint reading failed, computing whole task.");
+            return -1;
+        }
+    }
+
+    private static void waitForComputation(final Future<Void> future) {
+        if (future == null) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            Journal.getInstance().addDataEntry(ex, "Error waiting for Strain estimation.");
+        }
+    }
+
+    private void publishRound(final TaskContainer task, final int baseRound, final int roundFrom, final int roundTo, final int previousRoundTo) {
+        for (ResultSink sink : sinks) {
+            try {
+                sink.roundFinished(task, roundFrom, roundTo);
+            } catch (IOException ex) {
+                Journal.getInstance().addDataEntry(ex, "Result sink failed to store round.", "Round {0}:{1}, sink {2}.", roundFrom, roundTo, sink);
+            }
+        }
+
+        // result from base round is still needed for next cumulative result
+        if (retention == RetentionPolicy.DISCARD_PUBLISHED && roundFrom != baseRound) {
+            task.removeResult(roundFrom, roundTo);
+            if (previousRoundTo != -1) {
+                task.removeResult(baseRound, previousRoundTo);
+            }
+        }
+    }
+
+    public void computeRound(final TaskContainer task, final int roundFrom, final int roundTo) throws ComputationException {
+        stopEngine = false;
+
+        final long time = System.currentTimeMillis();
+
+        Journal.getInstance().addEntry("Computing round", "Round {0}:{1}.", roundFrom, roundTo);
+        Journal.getInstance().createSubEntry();
+
+        final KernelInfo backup = prepareRound(task, roundFrom, roundTo, (SolverType) task.getParameter(TaskParameter.SOLVER));
+        final Image in = task.getImage(roundFrom);
+        final Image out = task.getImage(roundTo);
+
+        // prepare data
+        setChanged();
+        notifyObservers(SubsetGenerator.class);
+
+        final AbstractSubsetGenerator generator = AbstractSubsetGenerator.initGenerator((SubsetGenerator) task.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD));
+        final HashMap<AbstractROI, List<AbstractSubset>> subsets = generator.generateSubsets(task, roundFrom);
+
+        // compute round                
+        final HashMap<AbstractROI, List<CorrelationResult>> correlations = new HashMap<>(task.getRois(roundFrom).size());
+        for (AbstractROI roi : task.getRois(roundFrom)) {
+            if (stopEngine) {
+                return;
+            }
+
+            // compute and store result
+            setChanged();
+            notifyObservers(AbstractTaskSolver.class);
+            correlations.put(roi, solveSubsets(task, roundFrom, roi, in, out, subsets.get(roi)));
+        }
+
+        finishRound(task, roundFrom, roundTo, subsets, correlations, backup, time);
+    }
+
+    /**
+     * Recompute only subsets, whose correlation quality is below given limit.
+     * Other results of the round are kept and new results are merged into
+     * them before displacement calculation. Current deformation limits of the
+     * task are used, so they can be widened before the recomputation.
+     *
+     * @param task task with computed round
+     * @param roundFrom first image of the round
+     * @param roundTo second image of the round
+     * @param qualityLimit minimal accepted correlation quality
+     * @param solverType solver used for recomputation, solver from task is
+     * used if null
+     * @throws ComputationException
+     */
+    public void recomputeRound(final TaskContainer task, final int roundFrom, final int roundTo, final double qualityLimit, final SolverType solverType) throws ComputationException {
+        final Result previous = task.getResult(roundFrom, roundTo, false);
+        if (previous == null || previous.getSubsets() == null || previous.getCorrelations() == null
+                || !previous.getCorrelations().keySet().containsAll(task.getRois(roundFrom))) {
+            computeRound(task, roundFrom, roundTo);
+            return;
+        }
+
+        stopEngine = false;
+
+        final long time = System.currentTimeMillis();
+
+        Journal.getInstance().addEntry("Recomputing round", "Round {0}:{1}, quality limit {2}.", roundFrom, roundTo, qualityLimit);
+        Journal.getInstance().createSubEntry();
+
+        final KernelInfo backup = prepareRound(task, roundFrom, roundTo, solverType != null ? solverType : (SolverType) task.getParameter(TaskParameter.SOLVER));
+        final Image in = task.getImage(roundFrom);
+        final Image out = task.getImage(roundTo);
+
+        final HashMap<AbstractROI, List<AbstractSubset>> subsets = previous.getSubsets();
+        final HashMap<AbstractROI, List<CorrelationResult>> correlations = new HashMap<>(previous.getCorrelations().size());
+        CorrelationResultBlock old;
+        List<AbstractSubset> subsetList, retrySubsets;
+        int[] retryIndices;
+        int retryCount = 0;
+        for (AbstractROI roi : task.getRois(roundFrom)) {
+            if (stopEngine) {
+                return;
+            }
+
+            old = CorrelationResultBlock.asBlock(previous.getCorrelations().get(roi));
+            retryIndices = old.findResultsBelow(qualityLimit);
+            if (retryIndices.length == 0) {
+                correlations.put(roi, old);
+                continue;
+            }
+
+            subsetList = subsets.get(roi);
+            retrySubsets = new ArrayList<>(retryIndices.length);
+            for (int i : retryIndices) {
+                retrySubsets.add(subsetList.get(i));
+            }
+            setChanged();
+            notifyObservers(AbstractTaskSolver.class);
+            correlations.put(roi, old.mergeBetter(retryIndices, solveSubsets(task, roundFrom, roi, in, out, retrySubsets)));
+            retryCount += retryIndices.length;
+        }
+        Journal.getInstance().addEntry("Subsets recomputed", "Recomputed {0} subsets.", retryCount);
+
+        finishRound(task, roundFrom, roundTo, subsets, correlations, backup, time);
+    }
+
+    private KernelInfo prepareRound(final TaskContainer task, final int roundFrom, final int roundTo, final SolverType solverType) throws ComputationException {
+        final Set<Hint> hints = task.getHints();
+        if (hints.contains(Hint.NO_STATS)) {
+            DebugControl.pauseDebugMode();
+        } else {
+            DebugControl.resumeDebugMode();
+        }
+        Stats.getInstance().setTaskContainer(task);
+
+        // filter size must be known before images are uploaded
+        final int filterSize = findFilterSize(task);
+        final boolean deviceFilter;
+        if (platform == null) {
+            notifyObservers(PlatformManager.class);
+            platform = PlatformManager.getInstance().acquirePlatform(findBitDepth(task));
+            deviceFilter = platform.getMemoryManager().filterImagesOnDevice(filterSize);
+            platform.getMemoryManager().assignTask(task);
+        } else {
+            deviceFilter = platform.getMemoryManager().filterImagesOnDevice(filterSize);
+        }
+        final KernelInfo backup = (KernelInfo) task.getParameter(TaskParameter.KERNEL);
+        task.setParameter(TaskParameter.KERNEL, platform.getPlatformDefinition().getKernelInfo());
+
+        setChanged();
+        notifyObservers(TaskContainerUtils.class);
+        TaskContainerUtils.checkTaskValidity(task);
+
+        // prepare correlation calculator
+        solver = AbstractTaskSolver.initSolver(solverType, platform);
+        solver.addObserver(this);
+        solver.setExecutorService(exec);
+        solver.setInterpolation((Interpolation) task.getParameter(TaskParameter.INTERPOLATION));
+        final TaskSplitMethod taskSplit = (TaskSplitMethod) task.getParameter(TaskParameter.TASK_SPLIT_METHOD);
+        final Object taskSplitValue = task.getParameter(TaskParameter.TASK_SPLIT_PARAM);
+        solver.setTaskSplitVariant(taskSplit, taskSplitValue);
+
+        strain = StrainEstimator.initStrainEstimator((StrainEstimationMethod) task.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD), exec);
+
+        if (!deviceFilter) {
+            task.getImage(roundFrom).filter(filterSize);
+            task.getImage(roundTo).filter(filterSize);
+        }
+
+        return backup;
+    }
+
+    private static int findFilterSize(final TaskContainer task) {
+        final Object filterParam = task.getParameter(TaskParameter.FILTER_KERNEL_SIZE);
+        return filterParam == null ? TaskDefaultValues.DEFAULT_FILTER_KERNEL_SIZE : (int) filterParam;
+    }
+
+    private CorrelationResultBlock solveSubsets(final TaskContainer task, final int roundFrom, final AbstractROI roi, final Image in, final Image out, final List<AbstractSubset> subsetList) throws ComputationException {
+        final int subsetSize = task.getSubsetSize(roundFrom, roi);
+        final int correlationWeight = TaskContainerUtils.computeCorrelationWeight(subsetSize, (double) task.getParameter(TaskParameter.CORRELATION_WEIGHT));
+        final List<Integer> subsetWeights = Collections.nCopies(subsetList.size(), correlationWeight);
+
+        final FullTask fullTask = new FullTask(
+                in, out,
+                subsetList, subsetWeights,
+                generateDeformations(task.getDeformationLimits(roundFrom, roi), subsetList.size()));
+
+        final Object tileSize = task.getParameter(TaskParameter.TILE_SIZE);
+        // tile images may be filtered on device after cropping, border keeps crop edge out of filter reach
+        final List<TaskTiling.Tile> tiles = TaskTiling.splitToTiles(fullTask, tileSize == null ? 0 : (int) tileSize, Math.max(0, findFilterSize(task) / 2));
+        if (tiles.size() == 1 && tiles.get(0).getTask() == fullTask) {
+            return solver.solve(fullTask);
+        }
+
+        // only image window of the tile is used, results are stitched by subset index
+        Journal.getInstance().addEntry("Solving tiled task", "{0} subsets split to {1} tiles.", subsetList.size(), tiles.size());
+        final List<CorrelationResultBlock> tileResults = new ArrayList<>(tiles.size());
+        for (TaskTiling.Tile tile : tiles) {
+            if (stopEngine) {
+                break;
+            }
+            tileResults.add(solver.solve(tile.getTask()));
+        }
+        return TaskTiling.stitch(tiles, tileResults, subsetList.size());
+    }
+
+    private void finishRound(final TaskContainer task, final int roundFrom, final int roundTo,
+            final HashMap<AbstractROI, List<AbstractSubset>> subsets, final HashMap<AbstractROI, List<CorrelationResult>> correlations,
+            final KernelInfo backup, final long time) throws ComputationException {
+        setChanged();
+        notifyObservers(DisplacementCalculator.class);
+        final DisplacementResult displacement = DisplacementCalculator.computeDisplacement(correlations, subsets, task, roundFrom, exec);
+
+        task.setResult(roundFrom, roundTo, new Result(subsets, correlations, displacement));
+
+        final Future future;
+        if (computation == ComputationPolicy.EAGER) {
+            future = exec.submit(new OverlapComputation(task, roundFrom, roundTo, strain));
+        } else {
+            OverlapComputation.registerLazy(task, roundFrom, roundTo);
+            future = null;
+        }
+
+        if (DebugControl.isDebugMode()) {
+            Stats.getInstance().dumpDeformationsStatisticsUsage(roundFrom);
+            Stats.getInstance().dumpDeformationsStatisticsPerQuality(roundFrom);
+            Stats.getInstance().drawSubsetQualityStatistics(subsets, roundFrom, roundTo);
+            Stats.getInstance().drawPointResultStatistics(roundFrom, roundTo);
+        }
+
+        if (future != null) {
+            try {
+                setChanged();
+                notifyObservers(StrainEstimator.class);
+                future.get();
+            } catch (InterruptedException | ExecutionException ex) {
+                Logger.warn(ex, "Error waitng for overlapping computation.");
+            }
+        }
+
+        setChanged();
+        notifyObservers(System.currentTimeMillis() - time);
+
+        solver.deleteObserver(this);
+        task.setParameter(TaskParameter.KERNEL, backup);
+
+        Journal.getInstance().addEntry("Round finished.");
+        Journal.getInstance().closeSubEntry();
+    }
+
+    public void endTask() {
+        if (solver != null) {
+            solver.endTask();
+        }
+    }
+
+    public void addResultSink(final ResultSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeResultSink(final ResultSink sink) {
+        sinks.remove(sink);
+    }
+
+    public RetentionPolicy getRetentionPolicy() {
+        return retention;
+    }
+
+    public void setRetentionPolicy(final RetentionPolicy retention) {
+        this.retention = retention;
+    }
+
+    public ComputationPolicy getComputationPolicy() {
+        return computation;
+    }
+
+    public void setComputationPolicy(final ComputationPolicy computation) {
+        this.computation = computation;
+    }
+
+    private static int findBitDepth(final TaskContainer task) {
+        final Image image = task.getImage(0);
+        return image == null ? 8 : image.getBitDepth();
+    }
+
+    protected void releasePlatform() {
+        if (platform != null) {
+            PlatformManager.getInstance().releasePlatform(platform);
+            platform = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        endTask();
+        releasePlatform();
+        exec.shutdown();
+    }
+
+    private static List<double[]> generateDeformations(final double[] limits, final int subsetCount) {
+        return Collections.nCopies(subsetCount, limits);
+    }
+
+    public void stop() {
+        stopEngine = true;
+        if (solver != null) {
+            solver.stop();
+        }
+        if (strain != null) {
+            strain.stop();
+        }
+        exec.shutdownNow();
+    }
+
+    @Override
+    public void update(final Observable o, final Object arg) {
+        if (o instanceof AbstractTaskSolver) {
+            setChanged();
+            notifyObservers(arg);
+        } else {
+            Logger.error("Illegal observable notification - " + o.toString());
+        }
+    }
+
+    public ExecutorService getExecutorService() {
+        return exec;
+    }
+
+}
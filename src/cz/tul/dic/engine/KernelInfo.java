@@ -100,9 +100,24 @@ public class KernelInfo implements Serializable {
     }
 
     public enum Input {
-        ARRAY,
-        IMAGE,
-        ANY
+        ARRAY(false),
+        IMAGE(false),
+        ARRAY_16(true),
+        IMAGE_16(true),
+        ANY(false);
+
+        private final boolean uses16Bit;
+
+        private Input(final boolean uses16Bit) {
+            this.uses16Bit = uses16Bit;
+        }
+
+        /**
+         * @return true if kernel reads 16 bit samples
+         */
+        public boolean uses16Bit() {
+            return uses16Bit;
+        }
     }
 
     public enum Correlation {
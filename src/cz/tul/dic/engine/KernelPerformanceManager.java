@@ -22,7 +22,6 @@ import cz.tul.dic.engine.platform.PlatformDefinition;
 import cz.tul.dic.engine.solvers.AbstractTaskSolver;
 import cz.tul.dic.engine.solvers.SolverType;
 import cz.tul.pj.journal.Journal;
-import java.awt.image.BufferedImage;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -62,10 +61,11 @@ public class KernelPerformanceManager {
     private static final int[] PERFORMANCE_TEST_SUBSET_COUNT = new int[]{1, 32};
     private static final int[] PERFORMANCE_TEST_SUBSET_SIZES = new int[]{5, 15, 35};
     private static final int PERFORMANCE_TEST_BLANK_COUNT = 5;
+    private static final int PERFORMANCE_TEST_IMAGE_SIZE = 100;
     private static final KernelPerformanceManager INSTANCE;
     private final Map<PlatformType, Map<DeviceType, List<KernelInfo>>> unsupportedKernels;
     private final Map<PlatformType, Map<DeviceType, PerformanceData>> performanceData;
-    private final PlatformDefinition bestPlatform;
+    private final PlatformDefinition bestPlatform, bestPlatform16;
 
     static {
         SYNC_LOCK = new Object();
@@ -112,7 +112,15 @@ public class KernelPerformanceManager {
             Journal.getInstance().addEntry("Kernel performance assesment loaded.");
         }
 
-        bestPlatform = findBestPlatform();
+        bestPlatform = findBestPlatform(false);
+        final PlatformDefinition best16 = findBestPlatform(true);
+        if (best16 != null) {
+            bestPlatform16 = best16;
+            logBitDepthCost(best16);
+        } else {
+            Logger.warn("No 16 bit kernel assessed, 16 bit images will be computed with 8 bit kernels.");
+            bestPlatform16 = bestPlatform;
+        }
     }
 
     private Map<PlatformType, Map<DeviceType, List<KernelInfo>>> generateUnsupportedKernels() {
@@ -127,6 +135,7 @@ public class KernelPerformanceManager {
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL15D_pF, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL2D, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.IMAGE, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.IMAGE_16, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.WZNSSD, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ZNSSD, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
@@ -144,6 +153,7 @@ public class KernelPerformanceManager {
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL2D, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL15D_pF, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL1D, KernelInfo.Input.ARRAY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.YES)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL1D, KernelInfo.Input.ARRAY_16, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.YES)));
         result.get(PlatformType.OPENCL).put(DeviceType.CPU, uInfos);
         // -----
         // OpenCL GPU
@@ -195,13 +205,14 @@ public class KernelPerformanceManager {
                         solver = AbstractTaskSolver.initSolver(SolverType.BRUTE_FORCE, platform);
                         solver.setInterpolation(TaskDefaultValues.DEFAULT_INTERPOLATION);
                         solver.setTaskSplitVariant(TaskSplitMethod.NONE, null);
-                        testKernelInfo(solver, platform);
+                        testKernelInfo(solver, platform, new PerformanceData());
                     }
                 } catch (Exception ex) {
                     Logger.warn(ex, "Blank test failed for {}.", deviceType.toString());
                 }
 
-                PerformanceData testPerformanceData;
+                // all kernels of the device are stored together, so they can be compared
+                final PerformanceData testPerformanceData = new PerformanceData();
                 for (KernelInfo kernel : kernels) {
                     platform = PlatformManager.getInstance().initPlatform(platformType, deviceType, kernel);
                     Logger.info("Test - " + platform);
@@ -209,18 +220,22 @@ public class KernelPerformanceManager {
                     solver.setInterpolation(TaskDefaultValues.DEFAULT_INTERPOLATION);
                     solver.setTaskSplitVariant(TaskSplitMethod.NONE, null);
                     // run test
-                    testPerformanceData = testKernelInfo(solver, platform);
-                    result.get(platformType).put(deviceType, testPerformanceData);
+                    testKernelInfo(solver, platform, testPerformanceData);
                 }
+                result.get(platformType).put(deviceType, testPerformanceData);
             }
         }
 
         return result;
     }
 
-    private static PerformanceData testKernelInfo(final AbstractTaskSolver solver, final Platform platform) {
-        final PerformanceData result = new PerformanceData();
-        final Image img = Image.createImage(new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY));
+    private static void testKernelInfo(final AbstractTaskSolver solver, final Platform platform, final PerformanceData result) {
+        final Image img;
+        if (platform.getPlatformDefinition().getKernelInfo().getInput().uses16Bit()) {
+            img = Image.createImage(PERFORMANCE_TEST_IMAGE_SIZE, PERFORMANCE_TEST_IMAGE_SIZE, new short[PERFORMANCE_TEST_IMAGE_SIZE * PERFORMANCE_TEST_IMAGE_SIZE], null);
+        } else {
+            img = Image.createImage(PERFORMANCE_TEST_IMAGE_SIZE, PERFORMANCE_TEST_IMAGE_SIZE, new byte[PERFORMANCE_TEST_IMAGE_SIZE * PERFORMANCE_TEST_IMAGE_SIZE], null);
+        }
 
         List<double[]> deformationLimits;
         List<AbstractSubset> subsets;
@@ -248,8 +263,6 @@ public class KernelPerformanceManager {
                 }
             }
         }
-
-        return result;
     }
 
     private void savePerformanceData() throws IOException {
@@ -266,7 +279,13 @@ public class KernelPerformanceManager {
         }
     }
 
-    private PlatformDefinition findBestPlatform() {
+    /**
+     * Finds best platform among kernels with given input bit depth.
+     *
+     * @param uses16Bit true for kernels reading 16 bit samples
+     * @return best platform, null if no 16 bit kernel has been assessed
+     */
+    private PlatformDefinition findBestPlatform(final boolean uses16Bit) {
         // prefer platforms that can compute all inputs
         // the performance score is computed by ordering platforms using computation time
         //  - simply sum all times (compare only platforms with same number of occurences)
@@ -283,6 +302,9 @@ public class KernelPerformanceManager {
                 if (performanceData.containsKey(pt) && performanceData.get(pt).containsKey(dt)) {
                     occurences = performanceData.get(pt).get(dt).generateOccurences();
                     for (Entry<KernelInfo, Integer> e : occurences.entrySet()) {
+                        if (e.getKey().getInput().uses16Bit() != uses16Bit) {
+                            continue;
+                        }
                         count = e.getValue();
                         counts.put(new PlatformDefinition(pt, dt, e.getKey()), count);
 
@@ -295,6 +317,9 @@ public class KernelPerformanceManager {
         }
 
         if (max == 0) {
+            if (uses16Bit) {
+                return null;
+            }
             throw new IllegalStateException("No best platform, performance data missing.");
         }
 
@@ -326,10 +351,30 @@ public class KernelPerformanceManager {
         return result;
     }
 
+    private void logBitDepthCost(final PlatformDefinition best16) {
+        final KernelInfo ki16 = best16.getKernelInfo();
+        final KernelInfo.Input input8 = ki16.getInput() == KernelInfo.Input.IMAGE_16 ? KernelInfo.Input.IMAGE : KernelInfo.Input.ARRAY;
+        final KernelInfo ki8 = new KernelInfo(ki16.getType(), input8, ki16.getCorrelation(), ki16.getMemoryCoalescing(), ki16.getUseLimits());
+        final PerformanceData data = performanceData.get(best16.getPlatform()).get(best16.getDevice());
+        final long time8 = data.sumTimes(ki8);
+        final long time16 = data.sumTimes(ki16);
+        if (time8 > 0 && time16 > 0 && time8 < Long.MAX_VALUE && time16 < Long.MAX_VALUE) {
+            Logger.info("16 bit input costs {}% of 8 bit input time for {} on {}-{}.", time16 * 100 / time8, ki16, best16.getPlatform(), best16.getDevice());
+        }
+    }
+
     public PlatformDefinition getBestPlatform() {
         return bestPlatform;
     }
 
+    /**
+     * @param bitDepth bit depth of task images
+     * @return best platform for given image bit depth
+     */
+    public PlatformDefinition getBestPlatform(final int bitDepth) {
+        return bitDepth > 8 ? bestPlatform16 : bestPlatform;
+    }
+
     public List<KernelInfo> generateKernelInfos() {
         final List<KernelInfo> result = new ArrayList<>();
 
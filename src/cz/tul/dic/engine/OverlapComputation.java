@@ -8,9 +8,12 @@ package cz.tul.dic.engine;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.task.Hint;
 import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.engine.displacement.DisplacementCalculator;
+import cz.tul.dic.engine.strain.StrainEstimationMethod;
 import cz.tul.dic.engine.strain.StrainEstimator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -30,6 +33,27 @@ public class OverlapComputation implements Callable<Void> {
         this.strain = strain;
     }
 
+    /**
+     * Registers cumulative displacement and strain computation in task, they
+     * are computed when the result is requested. Results may be requested
+     * after the computing session is closed, so strain estimation runs in
+     * common pool instead of session executor.
+     *
+     * @param task
+     * @param r
+     * @param nextR
+     */
+    public static void registerLazy(final TaskContainer task, final int r, final int nextR) {
+        if (r + 1 != nextR) {
+            task.setDisplacementComputation(r, nextR, t -> t.setResult(r, nextR, new Result(DisplacementCalculator.computeCumulativeDisplacement(t, r, nextR))));
+        }
+        if (!task.getHints().contains(Hint.NO_STRAIN)) {
+            task.setStrainComputation(r, nextR, t -> StrainEstimator.initStrainEstimator(
+                    (StrainEstimationMethod) t.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD),
+                    ForkJoinPool.commonPool()).estimateStrain(t, r, nextR));
+        }
+    }
+
     @Override
     public Void call() {
         if (r + 1 != nextR) {
@@ -11,6 +11,7 @@ package cz.tul.dic.engine.displacement;
  */
 public enum DisplacementCalculation {
 
-    MAX_WEIGHTED_AVERAGE;
+    MAX_WEIGHTED_AVERAGE,
+    SCATTERED_INTERPOLATION;
     
 }
@@ -14,10 +14,13 @@ import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.CorrelationResult;
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.engine.Engine;
 import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  *
@@ -31,9 +34,14 @@ public abstract class DisplacementCalculator {
     static {
         DATA = new EnumMap<>(DisplacementCalculation.class);
         DATA.put(DisplacementCalculation.MAX_WEIGHTED_AVERAGE, new MaxAndWeightedAverage());
+        DATA.put(DisplacementCalculation.SCATTERED_INTERPOLATION, new ScatteredInterpolation());
     }
 
     public static DisplacementResult computeDisplacement(final Map<AbstractROI, List<CorrelationResult>> correlationResults, Map<AbstractROI, List<AbstractSubset>> allSubsets, final TaskContainer tc, final int round) {
+        return computeDisplacement(correlationResults, allSubsets, tc, round, Engine.getInstance().getExecutorService());
+    }
+
+    public static DisplacementResult computeDisplacement(final Map<AbstractROI, List<CorrelationResult>> correlationResults, Map<AbstractROI, List<AbstractSubset>> allSubsets, final TaskContainer tc, final int round, final ExecutorService exec) {
         final Object o = tc.getParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD);
         if (o == null) {
             throw new IllegalArgumentException("NULL displacement calculation type.");
@@ -41,13 +49,13 @@ public abstract class DisplacementCalculator {
         final DisplacementCalculation type = (DisplacementCalculation) o;
 
         if (DATA.containsKey(type)) {
-            return DATA.get(type).buildFinalResults(correlationResults, allSubsets, tc, round);
+            return DATA.get(type).buildFinalResults(correlationResults, allSubsets, tc, round, exec);
         } else {
             throw new IllegalArgumentException("Unsupported displacement calculation - " + type.toString());
         }
     }
 
-    abstract DisplacementResult buildFinalResults(final Map<AbstractROI, List<CorrelationResult>> correlationResults, Map<AbstractROI, List<AbstractSubset>> allSubsets, final TaskContainer tc, final int round);
+    abstract DisplacementResult buildFinalResults(final Map<AbstractROI, List<CorrelationResult>> correlationResults, Map<AbstractROI, List<AbstractSubset>> allSubsets, final TaskContainer tc, final int round, final ExecutorService exec);
 
     public static DisplacementResult computeCumulativeDisplacement(final TaskContainer tc, final int roundFrom, final int roundTo) {
         if (roundFrom >= roundTo) {
@@ -55,7 +63,7 @@ public abstract class DisplacementCalculator {
         }
 
         DisplacementResult displacement = null;
-        Result tempResult = tc.getResult(roundFrom, roundTo);
+        Result tempResult = tc.getResult(roundFrom, roundTo, false);
         if (tempResult != null) {
             displacement = tempResult.getDisplacementResult();
         }
@@ -64,14 +72,15 @@ public abstract class DisplacementCalculator {
             final Image img = tc.getImage(roundFrom);
             final int width = img.getWidth();
             final int height = img.getHeight();
-            final double[][][] resultData = new double[width][height][];
-            final double[][] resultQuality = new double[width][height];
+            final VectorField resultData = new VectorField(width, height, Coordinates.DIMENSION);
+            final VectorField resultQuality = new VectorField(width, height, 1);
 
             final List<DisplacementResult> resultsCascade = findResultsCascade(tc, roundFrom, roundTo);
 
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    computeDisplacement(resultsCascade, resultData, resultQuality, x, y);
+            final double[] val = new double[INTERPOLATION_DIM];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    computeDisplacement(resultsCascade, resultData, resultQuality, x, y, val);
                 }
             }
 
@@ -88,7 +97,7 @@ public abstract class DisplacementCalculator {
         Result tempResult;
         while (indexFrom != roundTo) {
             do {
-                tempResult = tc.getResult(indexFrom, indexTo);
+                tempResult = tc.getResult(indexFrom, indexTo, false);
                 if (tempResult != null) {
                     result.add(tempResult.getDisplacementResult());
                     indexFrom = indexTo;
@@ -102,17 +111,15 @@ public abstract class DisplacementCalculator {
         return result;
     }
 
-    private static void computeDisplacement(final List<DisplacementResult> resultsCascade, final double[][][] resultData, final double[][] resultQuality, int x, int y) {
+    private static void computeDisplacement(final List<DisplacementResult> resultsCascade, final VectorField resultData, final VectorField resultQuality, int x, int y, final double[] val) {
         double posX = x;
         double posY = y;
 
-        double[] val;
         double quality = 0;
         boolean found = false;
         double counter = 0;
         for (DisplacementResult data : resultsCascade) {
-            val = interpolate(posX, posY, data.getDisplacement());
-            if (val != null) {
+            if (interpolate(posX, posY, data.getDisplacement(), val)) {
                 quality += interpolate(posX, posY, data.getQuality());
                 counter++;
 
@@ -125,88 +132,85 @@ public abstract class DisplacementCalculator {
         }
 
         if (found) {
-            resultData[x][y] = new double[]{posX - x, posY - y};
-            resultQuality[x][y] = quality / counter;
-        } else {
-            resultQuality[x][y] = Double.NaN;
+            resultData.set(x, y, Coordinates.X, posX - x);
+            resultData.set(x, y, Coordinates.Y, posY - y);
+            resultQuality.set(x, y, 0, quality / counter);
         }
     }
 
-    private static double[] interpolate(final double x, final double y, final double[][][] data) {
-        double[] result = new double[INTERPOLATION_DIM];
+    /**
+     * Bilinear interpolation of displacement, all used neighbours must have
+     * value.
+     *
+     * @return false if value could not be interpolated
+     */
+    private static boolean interpolate(final double x, final double y, final VectorField data, final double[] result) {
+        if (data == null) {
+            return false;
+        }
 
         final int intX = (int) x;
         final double dX = x - intX;
         final int intY = (int) y;
         final double dY = y - intY;
-
-        try {
-            calculateValue(result, data, intX, intY, dX, dY);
-        } catch (ArrayIndexOutOfBoundsException | NullPointerException ex) {
-            result = null;
+        final boolean nextX = intX < data.getWidth() - 1;
+        final boolean nextY = intY < data.getHeight() - 1;
+        if (!data.isValid(intX, intY)
+                || (nextX && !data.isValid(intX + 1, intY))
+                || (nextY && !data.isValid(intX, intY + 1))
+                || (nextX && nextY && !data.isValid(intX + 1, intY + 1))) {
+            return false;
         }
 
-        return result;
-    }
-
-    private static void calculateValue(final double[] result, final double[][][] data, final int intX, final int intY, final double dX, final double dY) {
         for (int dim = 0; dim < INTERPOLATION_DIM; dim++) {
-            result[dim] += data[intX][intY][dim] * (1 - dX) * (1 - dY);
-            if (intX < data.length - 1) {
-                result[dim] += data[intX + 1][intY][dim] * dX * (1 - dY);
-                if (intY < data[intX].length - 1) {
-                    result[dim] += data[intX + 1][intY + 1][dim] * dX * dY;
+            result[dim] = data.get(intX, intY, dim) * (1 - dX) * (1 - dY);
+            if (nextX) {
+                result[dim] += data.get(intX + 1, intY, dim) * dX * (1 - dY);
+                if (nextY) {
+                    result[dim] += data.get(intX + 1, intY + 1, dim) * dX * dY;
                 }
             }
-            if (intY < data[intX].length - 1) {
-                result[dim] += data[intX][intY + 1][dim] * (1 - dX) * dY;
+            if (nextY) {
+                result[dim] += data.get(intX, intY + 1, dim) * (1 - dX) * dY;
             }
         }
+        return true;
     }
 
-    private static double interpolate(final double x, final double y, final double[][] data) {
-        double result = Double.NaN;
-
+    /**
+     * Bilinear interpolation of quality, neighbours without value are
+     * skipped.
+     *
+     * @return interpolated value, NaN if position is outside of field
+     */
+    private static double interpolate(final double x, final double y, final VectorField data) {
         final int intX = (int) x;
         final double dX = x - intX;
         final int intY = (int) y;
         final double dY = y - intY;
-
-        try {
-            result = calculateValue(data, intX, intY, dX, dY);
-        } catch (ArrayIndexOutOfBoundsException | NullPointerException ex) {
-            // ignore value
+        if (data == null || !data.isInside(intX, intY)) {
+            return Double.NaN;
         }
 
-        return result;
-    }
-
-    private static double calculateValue(final double[][] data, final int intX, final int intY, final double dX, final double dY) {
+        final boolean nextX = intX < data.getWidth() - 1;
+        final boolean nextY = intY < data.getHeight() - 1;
         double result = 0;
-        double val;
-        val = data[intX][intY];
-        if (Double.isFinite(val)) {
-            result += val * (1 - dX) * (1 - dY);
-        }
-        if (intX < data.length - 1) {
-            val = data[intX + 1][intY];
-            if (Double.isFinite(val)) {
-                result += val * dX * (1 - dY);
-            }
-            if (intY < data[intX].length - 1) {
-                val = data[intX + 1][intY + 1];
-                if (Double.isFinite(val)) {
-                    result += val * dX * dY;
-                }
+        result += finiteValue(data, intX, intY) * (1 - dX) * (1 - dY);
+        if (nextX) {
+            result += finiteValue(data, intX + 1, intY) * dX * (1 - dY);
+            if (nextY) {
+                result += finiteValue(data, intX + 1, intY + 1) * dX * dY;
             }
         }
-        if (intY < data[intX].length - 1) {
-            val = data[intX][intY + 1];
-            if (Double.isFinite(val)) {
-                result += val * (1 - dX) * dY;
-            }
+        if (nextY) {
+            result += finiteValue(data, intX, intY + 1) * (1 - dX) * dY;
         }
         return result;
     }
 
+    private static double finiteValue(final VectorField data, final int x, final int y) {
+        final double val = data.get(x, y, 0);
+        return Double.isFinite(val) ? val : 0;
+    }
+
 }
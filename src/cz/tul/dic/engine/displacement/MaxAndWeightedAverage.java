@@ -5,176 +5,301 @@
  */
 package cz.tul.dic.engine.displacement;
 
-import cz.tul.dic.Utils;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.subset.SubsetUtils;
 import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.debug.DebugControl;
 import cz.tul.dic.debug.Stats;
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
 import cz.tul.dic.data.subset.SubsetDeformator;
 import cz.tul.dic.engine.cluster.Analyzer2D;
 import cz.tul.dic.engine.cluster.Analyzer2D.Analayzer2DData;
 import cz.tul.dic.output.NameGenerator;
-import java.util.HashMap;
+import cz.tul.pj.journal.Journal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+/**
+ * Each subset votes with displacement of all its points. Final displacement of
+ * pixel is quality weighted average of votes close to the most common
+ * (quantized) vote.
+ *
+ * Image is split to horizontal tiles computed in parallel. Votes of each tile
+ * are scattered to primitive arrays (grouped by pixel using prefix sum of vote
+ * counts), most common vote is found by sorting quantized votes of pixel.
+ */
 public class MaxAndWeightedAverage extends DisplacementCalculator {
 
     private static final double PRECISION = 0.5;
-    private double[][][] finalDisplacement;
-    private double[][] finalQuality;
+    private static final double CLUSTER_PRECISION = 0.1;
+    private static final int TILES_PER_THREAD = 4;
 
     @Override
-    public DisplacementResult buildFinalResults(
+    DisplacementResult buildFinalResults(
             final Map<AbstractROI, List<CorrelationResult>> correlationResults,
             final Map<AbstractROI, List<AbstractSubset>> allSubsets,
-            final TaskContainer tc, final int round) {
+            final TaskContainer tc, final int round, final ExecutorService exec) {
         final Image img = tc.getImage(round);
         final int width = img.getWidth();
         final int height = img.getHeight();
         final double resultQuality = (double) tc.getParameter(TaskParameter.RESULT_QUALITY);
 
-        final int linesPerGroup = (int) tc.getParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM) / width;
-        final int groupCount = (int) Math.ceil(height / (double) linesPerGroup);
+        final List<AbstractSubset> subsets = new ArrayList<>();
+        final List<double[]> deformations = new ArrayList<>();
+        final double[] qualities = pickValidResults(correlationResults, allSubsets, resultQuality, subsets, deformations);
 
-        finalDisplacement = new double[width][height][];
-        finalQuality = Utils.generateNaNarray(width, height);
-        final Map<Integer, Map<Integer, Analyzer2D>> counters = new HashMap<>();
-        int lowerBound, upperBound = 0;
-        for (int g = 0; g < groupCount; g++) {
-            lowerBound = upperBound;
-            upperBound += linesPerGroup;
-            upperBound = Math.min(upperBound, height - 1);
-            counters.clear();
+        // parameter limits pixel count of the tile (and so votes held by running tiles),
+        // small images are split further so all threads have work
+        final int maxLines = Math.max(1, (int) tc.getParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM) / width);
+        final int tileCount = Runtime.getRuntime().availableProcessors() * TILES_PER_THREAD;
+        final int linesPerTile = Math.min(maxLines, Math.max(1, (int) Math.ceil(height / (double) tileCount)));
 
-            prepareDeformedSubsetsToCounters(
-                    correlationResults, allSubsets, resultQuality,
-                    lowerBound, upperBound, counters);
+        final List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += linesPerTile) {
+            tiles.add(new Tile(subsets, deformations, qualities, width, y, Math.min(y + linesPerTile, height), tc, round));
+        }
 
-            calculateDisplacementFromCounters(counters, tc, round);
+        final VectorField finalDisplacement = new VectorField(width, height, Coordinates.DIMENSION);
+        final VectorField finalQuality = new VectorField(width, height, 1);
+        try {
+            for (Future<Tile> f : exec.invokeAll(tiles)) {
+                f.get().storeResults(finalDisplacement, finalQuality);
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            Journal.getInstance().addDataEntry(ex, "Error computing displacement from votes.");
         }
 
         return new DisplacementResult(finalDisplacement, finalQuality);
     }
 
-    private static void prepareDeformedSubsetsToCounters(
+    /**
+     * @return qualities of picked results
+     */
+    private static double[] pickValidResults(
             final Map<AbstractROI, List<CorrelationResult>> correlationResults,
             final Map<AbstractROI, List<AbstractSubset>> allSubsets, final double resultQuality,
-            final int lowerBound, final int upperBound,
-            final Map<Integer, Map<Integer, Analyzer2D>> counters) {
-        final SubsetDeformator deformator = new SubsetDeformator();
-
-        List<AbstractSubset> susbets;
-        List<CorrelationResult> results;
-        CorrelationResult cr;
+            final List<AbstractSubset> subsets, final List<double[]> deformations) {
+        int maxCount = 0;
+        for (AbstractROI roi : correlationResults.keySet()) {
+            maxCount += allSubsets.get(roi).size();
+        }
+        final double[] qualities = new double[maxCount];
+        List<AbstractSubset> roiSubsets;
+        CorrelationResultBlock roiResults;
         AbstractSubset f;
-        Map<int[], double[]> deformedSubset;
-        int x;
-        int y;
         for (Entry<AbstractROI, List<CorrelationResult>> e : correlationResults.entrySet()) {
-            susbets = allSubsets.get(e.getKey());
-            results = e.getValue();
+            roiSubsets = allSubsets.get(e.getKey());
+            roiResults = CorrelationResultBlock.asBlock(e.getValue());
 
-            for (int i = 0; i < susbets.size(); i++) {
-                cr = results.get(i);
-                if (cr == null || cr.getQuality() < resultQuality) {
+            for (int i = 0; i < roiSubsets.size(); i++) {
+                if (!roiResults.hasResult(i) || roiResults.getQuality(i) < resultQuality) {
                     continue;
                 }
 
-                f = susbets.get(i);
-                if (f == null) {
-                    continue;
-                }
-                if (!SubsetUtils.areLinesInsideSubset(f, lowerBound, upperBound)) {
-                    continue;
+                f = roiSubsets.get(i);
+                if (f != null) {
+                    qualities[subsets.size()] = roiResults.getQuality(i);
+                    subsets.add(f);
+                    deformations.add(roiResults.getDeformation(i));
                 }
+            }
+        }
+        return qualities;
+    }
 
-                deformedSubset = deformator.computePixelDeformationValues(f, cr.getDeformation());
-                for (Map.Entry<int[], double[]> e2 : deformedSubset.entrySet()) {
-                    x = e2.getKey()[Coordinates.X];
-                    y = e2.getKey()[Coordinates.Y];
+    private static final class Tile implements Callable<Tile> {
 
-                    if (y >= lowerBound && y <= upperBound) {
-                        getAnalyzer(counters, x, y).addValue(new Analayzer2DData(e2.getValue()[0], e2.getValue()[1], cr.getQuality()));
+        private final List<AbstractSubset> subsets;
+        private final List<double[]> deformations;
+        private final double[] qualities;
+        private final int width, lineStart, lineEnd;
+        private final TaskContainer tc;
+        private final int round;
+        private int[] offsets;
+        private double[] displacement, quality;
+
+        Tile(final List<AbstractSubset> subsets, final List<double[]> deformations, final double[] qualities,
+                final int width, final int lineStart, final int lineEnd,
+                final TaskContainer tc, final int round) {
+            this.subsets = subsets;
+            this.deformations = deformations;
+            this.qualities = qualities;
+            this.width = width;
+            this.lineStart = lineStart;
+            this.lineEnd = lineEnd;
+            this.tc = tc;
+            this.round = round;
+        }
+
+        @Override
+        public Tile call() {
+            final int pixelCount = width * (lineEnd - lineStart);
+
+            // count votes per pixel, then turn counts into start indices
+            offsets = new int[pixelCount + 1];
+            int maxPointCount = 0;
+            AbstractSubset f;
+            int index;
+            for (int s = 0; s < subsets.size(); s++) {
+                f = subsets.get(s);
+                if (!SubsetUtils.areLinesInsideSubset(f, lineStart, lineEnd - 1)) {
+                    continue;
+                }
+                maxPointCount = Math.max(maxPointCount, f.getPointCount());
+                for (int i = 0; i < f.getPointCount(); i++) {
+                    index = pixelIndex(f.getX(i), f.getY(i));
+                    if (index >= 0) {
+                        offsets[index + 1]++;
                     }
                 }
             }
-        }
-    }
+            int maxVoteCount = 0;
+            for (int i = 0; i < pixelCount; i++) {
+                maxVoteCount = Math.max(maxVoteCount, offsets[i + 1]);
+                offsets[i + 1] += offsets[i];
+            }
 
-    private void calculateDisplacementFromCounters(
-            final Map<Integer, Map<Integer, Analyzer2D>> counters,
-            final TaskContainer tc, final int round) {
-        int x, y;
-        double dx, dy;
-        Analyzer2D counter;
-        double qualitySum;
-        double qualitySumWeighed;
-        Analayzer2DData majorVal;
-        double maxDist2 = 4 * PRECISION * PRECISION;
-        double quality;
-        for (Entry<Integer, Map<Integer, Analyzer2D>> eX : counters.entrySet()) {
-            x = eX.getKey();
-            for (Entry<Integer, Analyzer2D> eY : eX.getValue().entrySet()) {
-                y = eY.getKey();
-                counter = eY.getValue();
-                if (counter != null) {
-                    majorVal = counter.findMajorValue();
-
-                    dx = 0;
-                    dy = 0;
-                    qualitySum = 0;
-                    qualitySumWeighed = 0;
-                    for (Analayzer2DData vals : counter.listValues()) {
-                        if (dist2(vals, majorVal) <= maxDist2) {
-                            quality = vals.getQuality();
-                            qualitySum += quality;
-                            qualitySumWeighed += quality * quality;
-                            dx += vals.getX() * quality;
-                            dy += vals.getY() * quality;
-                        }
+            // scatter votes
+            final int voteCount = offsets[pixelCount];
+            final double[] votesX = new double[voteCount];
+            final double[] votesY = new double[voteCount];
+            final double[] votesQ = new double[voteCount];
+            final int[] positions = Arrays.copyOf(offsets, pixelCount);
+            final double[] pointDisplacement = new double[2 * maxPointCount];
+            int pos;
+            for (int s = 0; s < subsets.size(); s++) {
+                f = subsets.get(s);
+                if (!SubsetUtils.areLinesInsideSubset(f, lineStart, lineEnd - 1)) {
+                    continue;
+                }
+                SubsetDeformator.computePixelDeformationValues(f, deformations.get(s), pointDisplacement);
+                for (int i = 0; i < f.getPointCount(); i++) {
+                    index = pixelIndex(f.getX(i), f.getY(i));
+                    if (index >= 0) {
+                        pos = positions[index]++;
+                        votesX[pos] = pointDisplacement[2 * i];
+                        votesY[pos] = pointDisplacement[2 * i + 1];
+                        votesQ[pos] = qualities[s];
                     }
+                }
+            }
+
+            // evaluate votes of each pixel
+            displacement = new double[2 * pixelCount];
+            quality = new double[pixelCount];
+            final long[] keys = new long[maxVoteCount];
+            final double maxDist2 = 4 * PRECISION * PRECISION;
+            int from, to;
+            long majorKey;
+            double majorX, majorY, dx, dy, dist2, q, qualitySum, qualitySumWeighed;
+            for (int p = 0; p < pixelCount; p++) {
+                from = offsets[p];
+                to = offsets[p + 1];
+                if (from == to) {
+                    continue;
+                }
 
-                    finalDisplacement[x][y] = new double[]{dx / qualitySum, dy / qualitySum};
-                    // normalize ZNCC quality result to percent [-1; 1] -> [0; 100]
-                    finalQuality[x][y] = 100 * (((qualitySumWeighed / qualitySum) + 1) / 2.0);
+                majorKey = findMajorKey(votesX, votesY, from, to, keys);
+                majorX = (int) (majorKey >> 32) * CLUSTER_PRECISION;
+                majorY = (int) majorKey * CLUSTER_PRECISION;
 
-                    if (DebugControl.isDebugMode()) {
-                        Stats.getInstance().exportPointSubResultsStatistics(counter, NameGenerator.generate2DValueHistogram(tc, round, x, y));
+                dx = 0;
+                dy = 0;
+                qualitySum = 0;
+                qualitySumWeighed = 0;
+                for (int v = from; v < to; v++) {
+                    dist2 = (votesX[v] - majorX) * (votesX[v] - majorX) + (votesY[v] - majorY) * (votesY[v] - majorY);
+                    if (dist2 <= maxDist2) {
+                        q = votesQ[v];
+                        qualitySum += q;
+                        qualitySumWeighed += q * q;
+                        dx += votesX[v] * q;
+                        dy += votesY[v] * q;
                     }
                 }
+
+                displacement[2 * p] = dx / qualitySum;
+                displacement[2 * p + 1] = dy / qualitySum;
+                // normalize ZNCC quality result to percent [-1; 1] -> [0; 100]
+                quality[p] = 100 * (((qualitySumWeighed / qualitySum) + 1) / 2.0);
+
+                if (DebugControl.isDebugMode()) {
+                    exportVotes(votesX, votesY, votesQ, from, to, p);
+                }
             }
+
+            return this;
         }
-    }
 
-    private static Analyzer2D getAnalyzer(final Map<Integer, Map<Integer, Analyzer2D>> maps, final int x, final int y) {
-        Map<Integer, Analyzer2D> m = maps.get(x);
-        if (m == null) {
-            m = new HashMap<>(1);
-            maps.put(x, m);
+        private int pixelIndex(final int x, final int y) {
+            if (x < 0 || x >= width || y < lineStart || y >= lineEnd) {
+                return -1;
+            }
+            return (y - lineStart) * width + x;
         }
 
-        Analyzer2D result = m.get(y);
-        if (result == null) {
-            result = new Analyzer2D();
-            m.put(y, result);
+        /**
+         * @return most common quantized vote, X in upper and Y in lower 32 bits
+         */
+        private static long findMajorKey(final double[] votesX, final double[] votesY, final int from, final int to, final long[] keys) {
+            final int count = to - from;
+            for (int v = 0; v < count; v++) {
+                keys[v] = (Math.round(votesX[from + v] / CLUSTER_PRECISION) << 32)
+                        | (Math.round(votesY[from + v] / CLUSTER_PRECISION) & 0xffffffffL);
+            }
+            Arrays.sort(keys, 0, count);
+
+            long result = keys[0];
+            int maxRun = 0;
+            int run = 0;
+            for (int v = 0; v < count; v++) {
+                run = v > 0 && keys[v] == keys[v - 1] ? run + 1 : 1;
+                if (run > maxRun) {
+                    maxRun = run;
+                    result = keys[v];
+                }
+            }
+            return result;
         }
 
-        return result;
-    }
+        private void exportVotes(final double[] votesX, final double[] votesY, final double[] votesQ, final int from, final int to, final int p) {
+            final Analyzer2D counter = new Analyzer2D();
+            counter.setPrecision(CLUSTER_PRECISION);
+            for (int v = from; v < to; v++) {
+                counter.addValue(new Analayzer2DData(votesX[v], votesY[v], votesQ[v]));
+            }
+            final int x = p % width;
+            final int y = lineStart + p / width;
+            Stats.getInstance().exportPointSubResultsStatistics(counter, NameGenerator.generate2DValueHistogram(tc, round, x, y));
+        }
 
-    private static double dist2(final Analayzer2DData val1, final Analayzer2DData val2) {
-        double a = val2.getX() - val1.getX();
-        double b = val2.getY() - val1.getY();
-        return a * a + b * b;
+        void storeResults(final VectorField finalDisplacement, final VectorField finalQuality) {
+            int p;
+            for (int y = lineStart; y < lineEnd; y++) {
+                for (int x = 0; x < width; x++) {
+                    p = (y - lineStart) * width + x;
+                    if (offsets[p] != offsets[p + 1]) {
+                        finalDisplacement.set(x, y, Coordinates.X, displacement[2 * p]);
+                        finalDisplacement.set(x, y, Coordinates.Y, displacement[2 * p + 1]);
+                        finalQuality.set(x, y, 0, quality[p]);
+                    }
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,454 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.displacement;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.deformation.DeformationDirection;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.generator.SubsetGenerator;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskParameter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Displacement of subset centers is taken as scattered samples, pixel values
+ * are interpolated from them. Subsets generated on regular grid use bilinear
+ * interpolation, other layouts use linear interpolation on Delaunay
+ * triangulation of subset centers. Each ROI is interpolated separately and
+ * only pixels inside ROI get values.
+ *
+ * Cost is linear in number of output pixels (plus triangulation of centers),
+ * compared to {@link MaxAndWeightedAverage} which deforms every subset
+ * point.
+ *
+ * @author Petr Jecmen
+ */
+public class ScatteredInterpolation extends DisplacementCalculator {
+
+    private static final int U = 0;
+    private static final int V = 1;
+    private static final int Q = 2;
+    private static final double GRID_PRECISION = 1e-6;
+    private static final double INSIDE_PRECISION = 1e-9;
+
+    @Override
+    DisplacementResult buildFinalResults(
+            final Map<AbstractROI, List<CorrelationResult>> correlationResults,
+            final Map<AbstractROI, List<AbstractSubset>> allSubsets,
+            final TaskContainer tc, final int round, final ExecutorService exec) {
+        final Image img = tc.getImage(round);
+        final VectorField finalDisplacement = new VectorField(img.getWidth(), img.getHeight(), Coordinates.DIMENSION);
+        final VectorField finalQuality = new VectorField(img.getWidth(), img.getHeight(), 1);
+        final double resultQuality = (double) tc.getParameter(TaskParameter.RESULT_QUALITY);
+        final boolean regular = tc.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD) == SubsetGenerator.EQUAL;
+        final Object spacingParam = tc.getParameter(TaskParameter.SUBSET_GENERATOR_PARAM);
+        final int spacing = spacingParam == null ? 1 : Math.max(1, (int) spacingParam);
+
+        for (Entry<AbstractROI, List<CorrelationResult>> e : correlationResults.entrySet()) {
+            final Samples samples = new Samples(allSubsets.get(e.getKey()), e.getValue(), resultQuality);
+            if (samples.count == 0) {
+                continue;
+            }
+            if (!regular || !interpolateGrid(samples, spacing, e.getKey(), finalDisplacement, finalQuality)) {
+                interpolateTriangulation(samples, e.getKey(), finalDisplacement, finalQuality);
+            }
+        }
+
+        return new DisplacementResult(finalDisplacement, finalQuality);
+    }
+
+    /**
+     * @return false if samples do not lie on regular grid with given spacing
+     */
+    private static boolean interpolateGrid(final Samples samples, final int spacing, final AbstractROI roi,
+            final VectorField finalDisplacement, final VectorField finalQuality) {
+        double originX = Double.POSITIVE_INFINITY, originY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < samples.count; i++) {
+            originX = Math.min(originX, samples.x[i]);
+            originY = Math.min(originY, samples.y[i]);
+            maxX = Math.max(maxX, samples.x[i]);
+            maxY = Math.max(maxY, samples.y[i]);
+        }
+        final int countX = (int) Math.round((maxX - originX) / spacing) + 1;
+        final int countY = (int) Math.round((maxY - originY) / spacing) + 1;
+        final VectorField nodes = new VectorField(countX, countY, 3);
+        double gx, gy;
+        for (int i = 0; i < samples.count; i++) {
+            gx = (samples.x[i] - originX) / spacing;
+            gy = (samples.y[i] - originY) / spacing;
+            if (Math.abs(gx - Math.round(gx)) > GRID_PRECISION || Math.abs(gy - Math.round(gy)) > GRID_PRECISION) {
+                return false;
+            }
+            nodes.set((int) Math.round(gx), (int) Math.round(gy), samples.values(i));
+        }
+
+        // pixels up to subset size from outer nodes are covered by subsets
+        final int size = samples.maxSize;
+        final int x1 = Math.max(0, (int) Math.ceil(originX - size));
+        final int y1 = Math.max(0, (int) Math.ceil(originY - size));
+        final int x2 = Math.min(finalDisplacement.getWidth() - 1, (int) Math.floor(maxX + size));
+        final int y2 = Math.min(finalDisplacement.getHeight() - 1, (int) Math.floor(maxY + size));
+        final double[][] corners = new double[4][3];
+        final boolean[] valid = new boolean[4];
+        double fx, fy, w0, w1, w2, w3;
+        int i0, j0, i1, j1, validCount;
+        boolean incomplete = false;
+        for (int y = y1; y <= y2; y++) {
+            gy = (y - originY) / spacing;
+            j0 = Math.max(0, Math.min(countY - 1, (int) Math.floor(gy)));
+            j1 = Math.min(countY - 1, j0 + 1);
+            fy = Math.max(0, Math.min(1, gy - j0));
+            for (int x = x1; x <= x2; x++) {
+                if (!roi.isPointInside(x, y)) {
+                    continue;
+                }
+                gx = (x - originX) / spacing;
+                i0 = Math.max(0, Math.min(countX - 1, (int) Math.floor(gx)));
+                i1 = Math.min(countX - 1, i0 + 1);
+                fx = Math.max(0, Math.min(1, gx - i0));
+
+                // corners ordered so that opposite corner of c is 3 - c
+                validCount = loadCorner(nodes, i0, j0, corners, valid, 0)
+                        + loadCorner(nodes, i1, j0, corners, valid, 1)
+                        + loadCorner(nodes, i0, j1, corners, valid, 2)
+                        + loadCorner(nodes, i1, j1, corners, valid, 3);
+                if (validCount < 3) {
+                    // cell cannot be interpolated bilinearly, left for triangulation
+                    incomplete = true;
+                    continue;
+                }
+                if (validCount == 3) {
+                    // missing corner from plane through remaining ones, exact for linear field
+                    for (int c = 0; c < 4; c++) {
+                        if (!valid[c]) {
+                            for (int k = 0; k < 3; k++) {
+                                corners[c][k] = corners[c ^ 1][k] + corners[c ^ 2][k] - corners[3 - c][k];
+                            }
+                        }
+                    }
+                }
+
+                w0 = (1 - fx) * (1 - fy);
+                w1 = fx * (1 - fy);
+                w2 = (1 - fx) * fy;
+                w3 = fx * fy;
+                store(x, y,
+                        w0 * corners[0][U] + w1 * corners[1][U] + w2 * corners[2][U] + w3 * corners[3][U],
+                        w0 * corners[0][V] + w1 * corners[1][V] + w2 * corners[2][V] + w3 * corners[3][V],
+                        w0 * corners[0][Q] + w1 * corners[1][Q] + w2 * corners[2][Q] + w3 * corners[3][Q],
+                        finalDisplacement, finalQuality);
+            }
+        }
+
+        if (incomplete) {
+            // only pixels not covered by grid are filled
+            interpolateTriangulation(samples, roi, finalDisplacement, finalQuality);
+        }
+        return true;
+    }
+
+    private static int loadCorner(final VectorField nodes, final int i, final int j, final double[][] corners, final boolean[] valid, final int c) {
+        valid[c] = nodes.isValid(i, j);
+        if (valid[c]) {
+            nodes.get(i, j, corners[c]);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static void interpolateTriangulation(final Samples samples, final AbstractROI roi,
+            final VectorField finalDisplacement, final VectorField finalQuality) {
+        final Triangulation triangulation = new Triangulation(samples.x, samples.y, samples.count);
+        final int width = finalDisplacement.getWidth();
+        final int height = finalDisplacement.getHeight();
+
+        int a, b, c, x1, y1, x2, y2;
+        double det, l1, l2, l3;
+        for (int t = 0; t < triangulation.triangleCount; t++) {
+            a = triangulation.vertices[3 * t];
+            b = triangulation.vertices[3 * t + 1];
+            c = triangulation.vertices[3 * t + 2];
+            det = (samples.y[b] - samples.y[c]) * (samples.x[a] - samples.x[c]) + (samples.x[c] - samples.x[b]) * (samples.y[a] - samples.y[c]);
+            if (det == 0) {
+                continue;
+            }
+
+            x1 = Math.max(0, (int) Math.ceil(Math.min(samples.x[a], Math.min(samples.x[b], samples.x[c]))));
+            y1 = Math.max(0, (int) Math.ceil(Math.min(samples.y[a], Math.min(samples.y[b], samples.y[c]))));
+            x2 = Math.min(width - 1, (int) Math.floor(Math.max(samples.x[a], Math.max(samples.x[b], samples.x[c]))));
+            y2 = Math.min(height - 1, (int) Math.floor(Math.max(samples.y[a], Math.max(samples.y[b], samples.y[c]))));
+            for (int y = y1; y <= y2; y++) {
+                for (int x = x1; x <= x2; x++) {
+                    if (finalDisplacement.isValid(x, y) || !roi.isPointInside(x, y)) {
+                        continue;
+                    }
+                    l1 = ((samples.y[b] - samples.y[c]) * (x - samples.x[c]) + (samples.x[c] - samples.x[b]) * (y - samples.y[c])) / det;
+                    l2 = ((samples.y[c] - samples.y[a]) * (x - samples.x[c]) + (samples.x[a] - samples.x[c]) * (y - samples.y[c])) / det;
+                    l3 = 1 - l1 - l2;
+                    if (l1 < -INSIDE_PRECISION || l2 < -INSIDE_PRECISION || l3 < -INSIDE_PRECISION) {
+                        continue;
+                    }
+                    store(x, y,
+                            l1 * samples.u[a] + l2 * samples.u[b] + l3 * samples.u[c],
+                            l1 * samples.v[a] + l2 * samples.v[b] + l3 * samples.v[c],
+                            l1 * samples.q[a] + l2 * samples.q[b] + l3 * samples.q[c],
+                            finalDisplacement, finalQuality);
+                }
+            }
+        }
+
+        // pixels outside of convex hull are covered by boundary subsets
+        int size;
+        for (int i = 0; i < samples.count; i++) {
+            if (!triangulation.boundary[i]) {
+                continue;
+            }
+            size = samples.size[i];
+            x1 = Math.max(0, (int) Math.ceil(samples.x[i] - size));
+            y1 = Math.max(0, (int) Math.ceil(samples.y[i] - size));
+            x2 = Math.min(width - 1, (int) Math.floor(samples.x[i] + size));
+            y2 = Math.min(height - 1, (int) Math.floor(samples.y[i] + size));
+            for (int y = y1; y <= y2; y++) {
+                for (int x = x1; x <= x2; x++) {
+                    if (!finalDisplacement.isValid(x, y) && roi.isPointInside(x, y)) {
+                        store(x, y, samples.u[i], samples.v[i], samples.q[i], finalDisplacement, finalQuality);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void store(final int x, final int y, final double u, final double v, final double q,
+            final VectorField finalDisplacement, final VectorField finalQuality) {
+        finalDisplacement.set(x, y, Coordinates.X, u);
+        finalDisplacement.set(x, y, Coordinates.Y, v);
+        // normalize ZNCC quality result to percent [-1; 1] -> [0; 100]
+        finalQuality.set(x, y, 0, 100 * ((q + 1) / 2.0));
+    }
+
+    /**
+     * Centers and center displacement of subsets with good enough result.
+     */
+    private static final class Samples {
+
+        private final double[] x, y, u, v, q;
+        private final int[] size;
+        private final int count;
+        private final int maxSize;
+
+        Samples(final List<AbstractSubset> subsets, final List<CorrelationResult> results, final double resultQuality) {
+            final int length = subsets.size();
+            x = new double[length];
+            y = new double[length];
+            u = new double[length];
+            v = new double[length];
+            q = new double[length];
+            size = new int[length];
+
+            final CorrelationResultBlock block = CorrelationResultBlock.asBlock(results);
+            int index = 0;
+            int max = 0;
+            AbstractSubset subset;
+            for (int i = 0; i < length; i++) {
+                subset = subsets.get(i);
+                if (!block.hasResult(i) || subset == null || block.getQuality(i) < resultQuality || block.getDeformationLength(i) <= DeformationDirection.V) {
+                    continue;
+                }
+                // deformation is relative to subset center, so center moves by U and V
+                x[index] = subset.getCenter()[Coordinates.X];
+                y[index] = subset.getCenter()[Coordinates.Y];
+                u[index] = block.getDeformation(i, DeformationDirection.U);
+                v[index] = block.getDeformation(i, DeformationDirection.V);
+                q[index] = block.getQuality(i);
+                size[index] = subset.getSize();
+                max = Math.max(max, size[index]);
+                index++;
+            }
+            count = index;
+            maxSize = max;
+        }
+
+        double[] values(final int i) {
+            return new double[]{u[i], v[i], q[i]};
+        }
+    }
+
+    /**
+     * Delaunay triangulation (Bowyer-Watson). Points are inserted sorted by x,
+     * so triangle whose circumcircle lies left of inserted point is final and
+     * is moved out of the active list. Duplicate points are ignored.
+     */
+    private static final class Triangulation {
+
+        private final double[] px, py;
+        private final boolean[] boundary;
+        // final triangles
+        private int[] vertices;
+        private int triangleCount;
+        // triangles which can still be split, with circumcircles
+        private int[] activeVertices;
+        private double[] circles;
+        private int activeCount;
+
+        Triangulation(final double[] x, final double[] y, final int count) {
+            // three extra vertices of super triangle
+            px = Arrays.copyOf(x, count + 3);
+            py = Arrays.copyOf(y, count + 3);
+            boundary = new boolean[count];
+            vertices = new int[3 * Math.max(16, 2 * count)];
+            activeVertices = new int[3 * 16];
+            circles = new double[activeVertices.length];
+
+            final Integer[] order = new Integer[count];
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> px[i]).thenComparingDouble(i -> py[i]));
+
+            final double delta = Math.max(1, Math.max(maxX - minX, maxY - minY)) * 20;
+            final double midX = (minX + maxX) / 2;
+            final double midY = (minY + maxY) / 2;
+            px[count] = midX - delta;
+            py[count] = midY - delta;
+            px[count + 1] = midX;
+            py[count + 1] = midY + delta;
+            px[count + 2] = midX + delta;
+            py[count + 2] = midY - delta;
+            addActive(count, count + 1, count + 2);
+
+            int[] edges = new int[64];
+            int edgeCount, p, last = -1;
+            double dx, dy;
+            for (int o = 0; o < count; o++) {
+                p = order[o];
+                if (last != -1 && px[p] == px[last] && py[p] == py[last]) {
+                    continue;
+                }
+                last = p;
+
+                edgeCount = 0;
+                for (int t = 0; t < activeCount; t++) {
+                    dx = px[p] - circles[3 * t];
+                    dy = py[p] - circles[3 * t + 1];
+                    if (dx > 0 && dx * dx > circles[3 * t + 2]) {
+                        finish(t, count);
+                        removeActive(t);
+                        t--;
+                    } else if (dx * dx + dy * dy < circles[3 * t + 2]) {
+                        if (2 * (edgeCount + 3) > edges.length) {
+                            edges = Arrays.copyOf(edges, edges.length * 2);
+                        }
+                        for (int k = 0; k < 3; k++) {
+                            edges[2 * edgeCount] = activeVertices[3 * t + k];
+                            edges[2 * edgeCount + 1] = activeVertices[3 * t + (k + 1) % 3];
+                            edgeCount++;
+                        }
+                        removeActive(t);
+                        t--;
+                    }
+                }
+
+                // edges shared by two removed triangles are inside the cavity
+                for (int i = 0; i < edgeCount; i++) {
+                    for (int j = i + 1; j < edgeCount; j++) {
+                        if (edges[2 * i] == edges[2 * j + 1] && edges[2 * i + 1] == edges[2 * j]) {
+                            edges[2 * i] = -1;
+                            edges[2 * j] = -1;
+                        }
+                    }
+                }
+                for (int i = 0; i < edgeCount; i++) {
+                    if (edges[2 * i] != -1) {
+                        addActive(edges[2 * i], edges[2 * i + 1], p);
+                    }
+                }
+            }
+
+            for (int t = 0; t < activeCount; t++) {
+                finish(t, count);
+            }
+            activeCount = 0;
+        }
+
+        /**
+         * Moves triangle to final list, triangles connected to super triangle
+         * are dropped and their vertices lie on convex hull.
+         */
+        private void finish(final int t, final int count) {
+            final int a = activeVertices[3 * t];
+            final int b = activeVertices[3 * t + 1];
+            final int c = activeVertices[3 * t + 2];
+            if (a >= count || b >= count || c >= count) {
+                markBoundary(a, count);
+                markBoundary(b, count);
+                markBoundary(c, count);
+                return;
+            }
+
+            if (3 * (triangleCount + 1) > vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            System.arraycopy(activeVertices, 3 * t, vertices, 3 * triangleCount, 3);
+            triangleCount++;
+        }
+
+        private void markBoundary(final int vertex, final int count) {
+            if (vertex < count) {
+                boundary[vertex] = true;
+            }
+        }
+
+        private void addActive(final int a, final int b, final int c) {
+            if (3 * (activeCount + 1) > activeVertices.length) {
+                activeVertices = Arrays.copyOf(activeVertices, activeVertices.length * 2);
+                circles = Arrays.copyOf(circles, circles.length * 2);
+            }
+            final int t = activeCount++;
+            activeVertices[3 * t] = a;
+            activeVertices[3 * t + 1] = b;
+            activeVertices[3 * t + 2] = c;
+
+            // circumcircle - center and squared radius
+            final double bx = px[b] - px[a];
+            final double by = py[b] - py[a];
+            final double cx = px[c] - px[a];
+            final double cy = py[c] - py[a];
+            final double d = 2 * (bx * cy - by * cx);
+            final double b2 = bx * bx + by * by;
+            final double c2 = cx * cx + cy * cy;
+            final double ux = (cy * b2 - by * c2) / d;
+            final double uy = (bx * c2 - cx * b2) / d;
+            circles[3 * t] = px[a] + ux;
+            circles[3 * t + 1] = py[a] + uy;
+            circles[3 * t + 2] = ux * ux + uy * uy;
+        }
+
+        private void removeActive(final int t) {
+            final int lastT = --activeCount;
+            System.arraycopy(activeVertices, 3 * lastT, activeVertices, 3 * t, 3);
+            System.arraycopy(circles, 3 * lastT, circles, 3 * t, 3);
+        }
+    }
+
+}
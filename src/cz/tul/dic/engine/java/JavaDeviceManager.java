@@ -18,4 +18,14 @@ public class JavaDeviceManager extends AbstractDeviceManager {
 
     }
 
+    @Override
+    public AbstractDeviceManager shareDevice() {
+        return new JavaDeviceManager();
+    }
+
+    @Override
+    public void release() {
+
+    }
+
 }
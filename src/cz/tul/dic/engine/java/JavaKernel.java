@@ -68,11 +68,21 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
 
     @Override
     public double[] computeRaw(ComputationTask task) throws ComputationException {
-        return compute(
-                task.getImageA().toBWArray(), task.getImageB().toBWArray(),
-                task.getSubsets(),
-                task.getDeformations(),
-                task.getImageA().getWidth(), task.getOrder());
+        final double[] result;
+        if (getKernelInfo().getInput().uses16Bit()) {
+            result = compute(
+                    task.getImageA().to16BitArray(), task.getImageB().to16BitArray(),
+                    task.getSubsets(),
+                    task.getDeformations(),
+                    task.getImageA().getWidth(), task.getOrder());
+        } else {
+            result = compute(
+                    task.getImageA().toBWArray(), task.getImageB().toBWArray(),
+                    task.getSubsets(),
+                    task.getDeformations(),
+                    task.getImageA().getWidth(), task.getOrder());
+        }
+        return result;
     }
 
     @Override
@@ -94,6 +104,26 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
             final byte[] imageA, final byte[] imageB,
             final List<AbstractSubset> subsets, final List<double[]> deformations,
             final int imageWidth, final DeformationOrder defOrder) {
+        return compute(
+                (int index) -> imageA[index] & 0xff, (int index) -> imageB[index] & 0xff,
+                subsets, deformations,
+                imageWidth, imageA.length / imageWidth, defOrder);
+    }
+
+    public double[] compute(
+            final short[] imageA, final short[] imageB,
+            final List<AbstractSubset> subsets, final List<double[]> deformations,
+            final int imageWidth, final DeformationOrder defOrder) {
+        return compute(
+                (int index) -> imageA[index] & 0xffff, (int index) -> imageB[index] & 0xffff,
+                subsets, deformations,
+                imageWidth, imageA.length / imageWidth, defOrder);
+    }
+
+    private double[] compute(
+            final Pixels imageA, final Pixels imageB,
+            final List<AbstractSubset> subsets, final List<double[]> deformations,
+            final int imageWidth, final int imageHeight, final DeformationOrder defOrder) {
         // preparation
         exec = Executors.newWorkStealingPool();
         final List<long[]> counts = DeformationUtils.generateDeformationCounts(deformations);
@@ -105,21 +135,12 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
 
         final List<int[]> workBounds = generateBounds(COUNT_THREADS + 1, subsetCount);
 
-        final int subsetDataArrayLength = subsets.get(0).getData().length;
-        final int[] subsetData = new int[subsetCount * subsetDataArrayLength];
-        final double[] subsetCenters = new double[subsetCount * 2];
-        for (int i = 0; i < subsetCount; i++) {
-            System.arraycopy(subsets.get(i).getData(), 0, subsetData, i * subsetDataArrayLength, subsetDataArrayLength);
-            System.arraycopy(subsets.get(i).getCenter(), 0, subsetCenters, i * 2, 2);
-        }
-
         workBounds.stream().forEach((bound) -> {
             workers.add(new Worker(
                     bound[0], bound[1],
                     imageA, imageB,
-                    imageWidth,
-                    subsetData, subsetCenters,
-                    subsets.get(0).getSize(),
+                    imageWidth, imageHeight,
+                    subsets,
                     deformations,
                     counts,
                     defOrder,
@@ -154,30 +175,35 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         return result;
     }
 
+    /**
+     * Unsigned samples of an image.
+     */
+    private interface Pixels {
+
+        int get(int index);
+    }
+
     private static class Worker implements Runnable {
 
         private final int startIndex, endIndex;
-        private final byte[] imageA, imageB;
-        private final int imageWidth;
-        private final int[] subsetData;
-        private final double[] subsetCenters;
-        private final int subsetSize;
+        private final Pixels imageA, imageB;
+        private final int imageWidth, imageHeight;
+        private final List<AbstractSubset> subsets;
         private final List<double[]> deformations;
         private final List<long[]> counts;
         private final DeformationOrder defOrder;
         private final double[] results;
 
-        public Worker(int startIndex, int endIndex, byte[] imageA, byte[] imageB, int imageWidth, int[] subsetData, double[] subsetCenters, int subsetSize, List<double[]> deformations, List<long[]> counts, DeformationOrder defOrder, double[] results) {
+        public Worker(int startIndex, int endIndex, Pixels imageA, Pixels imageB, int imageWidth, int imageHeight, List<AbstractSubset> subsets, List<double[]> deformations, List<long[]> counts, DeformationOrder defOrder, double[] results) {
             this.startIndex = startIndex;
             this.endIndex = endIndex;
             this.imageA = imageA;
             this.imageB = imageB;
             this.imageWidth = imageWidth;
-            this.subsetData = subsetData;
+            this.imageHeight = imageHeight;
+            this.subsets = subsets;
             this.deformations = deformations;
             this.counts = counts;
-            this.subsetCenters = subsetCenters;
-            this.subsetSize = subsetSize;
             this.results = results;
             this.defOrder = defOrder;
         }
@@ -188,23 +214,22 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
                 throw new IllegalArgumentException("Subset start index must be smaller than end index.");
             }
 
-            final int subsetArraySize = calculateFacetArraySize(subsetSize);
-            final int subsetArea = calculateFacetArea(subsetSize);
+            final int subsetArea = subsets.get(startIndex).getPointCount();
 
-            final double[] deformedSubset = new double[subsetArraySize];
+            final double[] deformedSubset = new double[subsetArea * 2];
             final int[] deformeSubsetI = new int[subsetArea];
             final int[] subsetI = new int[subsetArea];
 
             final int defArrayLength = DeformationUtils.getDeformationCoeffCount(defOrder);
 
-            final int imageHeight = imageA.length / imageWidth;
-
             final double[] deformation = new double[defArrayLength];
             double[] localDefLimits;
             long[] localCounts;
             int deformationCount;
+            AbstractSubset subset;
             for (int si = startIndex; si < endIndex; si++) {
-                interpolate(subsetData, si, subsetI, imageA, imageWidth, imageHeight);
+                subset = subsets.get(si);
+                interpolate(subset, subsetI, imageA, imageWidth);
                 localDefLimits = deformations.get(si);
                 localCounts = counts.get(si);
                 deformationCount = (int) localCounts[localCounts.length - 1];
@@ -214,13 +239,13 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
 
                     switch (defOrder) {
                         case ZERO:
-                            deform0(subsetData, subsetSize, si, deformedSubset, deformation);
+                            deform0(subset, deformedSubset, deformation);
                             break;
                         case FIRST:
-                            deform1(subsetData, subsetSize, subsetCenters, si, deformedSubset, deformation);
+                            deform1(subset, deformedSubset, deformation);
                             break;
                         case SECOND:
-                            deform2(subsetData, subsetSize, subsetCenters, si, deformedSubset, deformation);
+                            deform2(subset, deformedSubset, deformation);
                             break;
                         default:
                             throw new UnsupportedOperationException("Second order deformation not support yet.");
@@ -286,19 +311,15 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
     }
 
     private static void deform0(
-            final int[] subsets, final int subsetSize, final int subsetIndex,
+            final AbstractSubset subset,
             final double[] deformedFacet, final double[] deformation) {
-        final int facetBase = subsetIndex * calculateFacetArraySize(subsetSize);
-        final int facetArea = calculateFacetArea(subsetSize);
+        final int facetArea = subset.getPointCount();
 
         int x, y;
-        int baseIndex;
         double val;
         for (int i = 0; i < facetArea; i++) {
-            baseIndex = facetBase + i * 2;
-
-            x = subsets[baseIndex];
-            y = subsets[baseIndex + 1];
+            x = subset.getX(i);
+            y = subset.getY(i);
 
             val = x + deformation[0];
             if (val < 0) {
@@ -315,23 +336,19 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
     }
 
     private static void deform1(
-            final int[] subsets, final int subsetSize, final double[] subsetCenters, final int subsetIndex,
+            final AbstractSubset subset,
             final double[] deformedSubset, final double[] deformation) {
-        final int facetBase = subsetIndex * calculateFacetArraySize(subsetSize);
-        final int facetArea = calculateFacetArea(subsetSize);
+        final int facetArea = subset.getPointCount();
 
-        final double cx = subsetCenters[subsetIndex * 2];
-        final double cy = subsetCenters[subsetIndex * 2 + 1];
+        final double cx = subset.getCenter()[0];
+        final double cy = subset.getCenter()[1];
 
         int x, y;
         double dx, dy;
-        int baseIndex;
         double val;
         for (int i = 0; i < facetArea; i++) {
-            baseIndex = facetBase + i * 2;
-
-            x = subsets[baseIndex];
-            y = subsets[baseIndex + 1];
+            x = subset.getX(i);
+            y = subset.getY(i);
 
             dx = x - cx;
             dy = y - cy;
@@ -351,23 +368,19 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
     }
 
     private static void deform2(
-            final int[] subsets, final int subsetSize, final double[] subsetCenters, final int subsetIndex,
+            final AbstractSubset subset,
             final double[] deformedSubset, final double[] deformation) {
-        final int facetBase = subsetIndex * calculateFacetArraySize(subsetSize);
-        final int facetArea = calculateFacetArea(subsetSize);
+        final int facetArea = subset.getPointCount();
 
-        final double cx = subsetCenters[subsetIndex * 2];
-        final double cy = subsetCenters[subsetIndex * 2 + 1];
+        final double cx = subset.getCenter()[0];
+        final double cy = subset.getCenter()[1];
 
         int x, y;
         double dx, dy;
-        int baseIndex;
         double val;
         for (int i = 0; i < facetArea; i++) {
-            baseIndex = facetBase + i * 2;
-
-            x = subsets[baseIndex];
-            y = subsets[baseIndex + 1];
+            x = subset.getX(i);
+            y = subset.getY(i);
 
             dx = x - cx;
             dy = y - cy;
@@ -388,7 +401,7 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         }
     }
 
-    private static void interpolate(final double[] deformedFacet, final int[] intensities, final byte[] image, final int imageWidth, final int imageHeight) {
+    private static void interpolate(final double[] deformedFacet, final int[] intensities, final Pixels image, final int imageWidth, final int imageHeight) {
         int x, y, intensity, i2;
         double dx, dy, val;
         for (int i = 0; i < intensities.length; i++) {
@@ -403,38 +416,19 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
             dy = val - y;
 
             intensity = 0;
-            intensity += image[compute1DIndex(x, y, imageWidth)] * (1 - dx) * (1 - dy);
-            intensity += image[compute1DIndex(x + 1, y, imageWidth)] * dx * (1 - dy);
-            intensity += image[compute1DIndex(x, y + 1, imageWidth)] * (1 - dx) * dy;
-            intensity += image[compute1DIndex(x + 1, y + 1, imageWidth)] * dx * dy;
+            intensity += image.get(compute1DIndex(x, y, imageWidth)) * (1 - dx) * (1 - dy);
+            intensity += image.get(compute1DIndex(x + 1, y, imageWidth)) * dx * (1 - dy);
+            intensity += image.get(compute1DIndex(x, y + 1, imageWidth)) * (1 - dx) * dy;
+            intensity += image.get(compute1DIndex(x + 1, y + 1, imageWidth)) * dx * dy;
 
             intensities[i] = intensity;
         }
     }
 
-    private static void interpolate(final int[] facets, final int facetIndex, final int[] intensities, final byte[] image, final int imageWidth, final int imageHeight) {
-        final int facetBase = facetIndex * 2 * intensities.length;
-
-        int x, y, intensity, i2;
-        double dx, dy, val;
+    private static void interpolate(final AbstractSubset subset, final int[] intensities, final Pixels image, final int imageWidth) {
+        // subset points lie on pixel grid, no interpolation needed
         for (int i = 0; i < intensities.length; i++) {
-            i2 = i * 2;
-
-            val = facets[facetBase + i2];
-            x = (int) Math.floor(val);
-            dx = val - x;
-
-            val = facets[facetBase + i2 + 1];
-            y = (int) Math.floor(val);
-            dy = val - y;
-
-            intensity = 0;
-            intensity += image[compute1DIndex(x, y, imageWidth)] * (1 - dx) * (1 - dy);
-            intensity += image[compute1DIndex(Math.min(x + 1, imageWidth - 1), y, imageWidth)] * dx * (1 - dy);
-            intensity += image[compute1DIndex(x, Math.min(y + 1, imageHeight - 1), imageWidth)] * (1 - dx) * dy;
-            intensity += image[compute1DIndex(Math.min(x + 1, imageWidth - 1), Math.min(y + 1, imageHeight - 1), imageWidth)] * dx * dy;
-
-            intensities[i] = intensity;
+            intensities[i] = image.get(compute1DIndex(subset.getX(i), subset.getY(i), imageWidth));
         }
     }
 
@@ -481,14 +475,6 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         return (float) Math.sqrt(result);
     }
 
-    private static int calculateFacetArraySize(final int subsetSize) {
-        return (subsetSize * subsetSize) * 2;
-    }
-
-    private static int calculateFacetArea(final int subsetSize) {
-        return subsetSize * subsetSize;
-    }
-
     private static int compute1DIndex(final int x, final int y, final int width) {
         return (y * width) + x;
     }
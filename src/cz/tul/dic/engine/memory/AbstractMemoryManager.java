@@ -43,6 +43,15 @@ public abstract class AbstractMemoryManager {
 
     public abstract void clearMemory();
 
+    /**
+     * @param filterSize size of Gaussian prefilter, 0 disables filtering
+     * @return true if images are filtered by the manager during upload, so
+     * host filtering is not needed
+     */
+    public boolean filterImagesOnDevice(final int filterSize) {
+        return false;
+    }
+
     public enum Type {
         STATIC,
         DYNAMIC,
@@ -9,6 +9,7 @@ import com.jogamp.common.nio.Buffers;
 import com.jogamp.opencl.CLBuffer;
 import com.jogamp.opencl.CLCommandQueue;
 import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLException;
 import com.jogamp.opencl.CLImage2d;
 import com.jogamp.opencl.CLImageFormat;
 import com.jogamp.opencl.CLMemory;
@@ -23,9 +24,12 @@ import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.engine.AbstractKernel;
 import cz.tul.dic.engine.platform.Platform;
+import cz.tul.dic.engine.opencl.kernel.OpenCLGaussianFilter;
 import cz.tul.dic.engine.opencl.kernel.OpenCLKernel;
 import cz.tul.dic.engine.opencl.OpenCLDeviceManager;
 import cz.tul.dic.engine.opencl.OpenCLDataPackage;
+import cz.tul.pj.journal.Journal;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
@@ -40,6 +44,7 @@ public abstract class AbstractOpenCLMemoryManager extends AbstractMemoryManager
 
     private static final CLImageFormat.ChannelOrder IMAGE_ORDER = CLImageFormat.ChannelOrder.R;
     private static final CLImageFormat.ChannelType IMAGE_TYPE = CLImageFormat.ChannelType.UNSIGNED_INT8;
+    private static final CLImageFormat.ChannelType IMAGE_TYPE_16 = CLImageFormat.ChannelType.UNSIGNED_INT16;
     protected ComputationTask computationTask;
     protected long maxDeformationCount;
     // OpenCL entities
@@ -54,8 +59,13 @@ public abstract class AbstractOpenCLMemoryManager extends AbstractMemoryManager
     protected CLCommandQueue queue;
     protected CLContext context;
     protected OpenCLDeviceManager deviceManager;
+    // prefilter
+    private int filterSize;
+    private OpenCLGaussianFilter filter;
+    private boolean filterFailed;
 
     protected AbstractOpenCLMemoryManager() {
+        filterSize = -1;
     }
 
     @Override
@@ -94,6 +104,57 @@ public abstract class AbstractOpenCLMemoryManager extends AbstractMemoryManager
                 new CLImageFormat(IMAGE_ORDER, IMAGE_TYPE), CLMemory.Mem.READ_ONLY);
     }
 
+    @Override
+    public boolean filterImagesOnDevice(final int filterSize) {
+        this.filterSize = filterSize;
+        return true;
+    }
+
+    /**
+     * Creates device image and enqueues its upload. Image is filtered on
+     * device if possible, host filtering is used otherwise.
+     *
+     * @param image source image
+     * @param uses16Bit true for 16 bit device image
+     * @return device image
+     */
+    protected CLImage2d<ByteBuffer> writeImage2d(final Image image, final boolean uses16Bit) {
+        if (filterSize > 0) {
+            final OpenCLGaussianFilter gauss = prepareFilter();
+            if (gauss != null) {
+                try {
+                    return gauss.filter(queue, image, filterSize, uses16Bit);
+                } catch (CLException ex) {
+                    Journal.getInstance().addDataEntry(ex, "Device filtering failed, using host filtering.");
+                }
+            }
+        }
+        // negative size - filtering is not managed, image is used as it is
+        if (filterSize >= 0) {
+            image.filter(filterSize);
+        }
+
+        final CLImage2d<ByteBuffer> result = uses16Bit ? generateImage2d16(image) : generateImage2d(image);
+        queue.putWriteImage(result, false);
+        return result;
+    }
+
+    private OpenCLGaussianFilter prepareFilter() {
+        if (filter != null && filter.getContext() != context) {
+            filter.release();
+            filter = null;
+        }
+        if (filter == null && !filterFailed) {
+            try {
+                filter = new OpenCLGaussianFilter(context);
+            } catch (IOException | CLException ex) {
+                filterFailed = true;
+                Journal.getInstance().addDataEntry(ex, "Error preparing device filter, using host filtering.");
+            }
+        }
+        return filter;
+    }
+
     protected CLBuffer<ByteBuffer> generateImageArray(final Image image) {
         final byte[] data = image.toBWArray();
         final CLBuffer<ByteBuffer> result = context.createByteBuffer(data.length, CLMemory.Mem.READ_ONLY);
@@ -105,34 +166,44 @@ public abstract class AbstractOpenCLMemoryManager extends AbstractMemoryManager
         return result;
     }
 
+    protected CLImage2d<ByteBuffer> generateImage2d16(final Image image) {
+        final short[] data = image.toFiltered16();
+        final ByteBuffer buffer = Buffers.newDirectByteBuffer(data.length * Buffers.SIZEOF_SHORT);
+        buffer.asShortBuffer().put(data);
+        return context.createImage2d(
+                buffer,
+                image.getWidth(), image.getHeight(),
+                new CLImageFormat(IMAGE_ORDER, IMAGE_TYPE_16), CLMemory.Mem.READ_ONLY);
+    }
+
+    protected CLBuffer<ByteBuffer> generateImageArray16(final Image image) {
+        final short[] data = image.to16BitArray();
+        final CLBuffer<ByteBuffer> result = context.createByteBuffer(data.length * Buffers.SIZEOF_SHORT, CLMemory.Mem.READ_ONLY);
+        result.getBuffer().asShortBuffer().put(data);
+        return result;
+    }
+
     protected CLBuffer<IntBuffer> generateSubsetData(final List<AbstractSubset> subsets, final boolean useMemoryCoalescing) {
         final int subsetSize = subsets.get(0).getSize();
         final int subsetArea = SubsetUtils.computeSubsetCoordCount(subsetSize);
         final int dataSize = subsetArea * Coordinates.DIMENSION;
-        final int[] completeData = new int[subsets.size() * dataSize];
 
-        int pointer = 0;
-        int[] subsetData;
-        for (AbstractSubset f : subsets) {
-            subsetData = f.getData();
-            System.arraycopy(subsetData, 0, completeData, pointer, dataSize);
-            pointer += dataSize;
-        }
-
-        final CLBuffer<IntBuffer> result = context.createIntBuffer(completeData.length, CLMemory.Mem.READ_ONLY);
+        // coordinates are written directly from subsets, no intermediate array
+        final CLBuffer<IntBuffer> result = context.createIntBuffer(subsets.size() * dataSize, CLMemory.Mem.READ_ONLY);
         final IntBuffer resultBuffer = result.getBuffer();
         if (useMemoryCoalescing) {
-            int index;
             for (int i = 0; i < subsetArea; i++) {
-                for (int f = 0; f < subsets.size(); f++) {
-                    index = f * dataSize + 2 * i;
-                    resultBuffer.put(completeData[index]);
-                    resultBuffer.put(completeData[index + 1]);
+                for (AbstractSubset f : subsets) {
+                    resultBuffer.put(f.getX(i));
+                    resultBuffer.put(f.getY(i));
                 }
             }
         } else {
-            for (int i : completeData) {
-                resultBuffer.put(i);
+            for (AbstractSubset f : subsets) {
+                for (int i = 0; i < subsetArea; i++) {
+                    resultBuffer.put(f.getX(i));
+                    resultBuffer.put(f.getY(i));
+                }
             }
         }
         resultBuffer.rewind();
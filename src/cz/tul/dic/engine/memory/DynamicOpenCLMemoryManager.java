@@ -6,7 +6,6 @@
 package cz.tul.dic.engine.memory;
 
 import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLImage2d;
 import com.jogamp.opencl.CLMemory;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
@@ -39,13 +38,19 @@ public class DynamicOpenCLMemoryManager extends AbstractOpenCLMemoryManager {
                 } else {
                     switch (kernel.getKernelInfo().getInput()) {
                         case IMAGE:
-                            clImageA = generateImage2d(task.getImageA());
-                            queue.putWriteImage((CLImage2d<?>) clImageA, false);
+                            clImageA = writeImage2d(task.getImageA(), false);
                             break;
                         case ARRAY:
                             clImageA = generateImageArray(task.getImageA());
                             queue.putWriteBuffer((CLBuffer<?>) clImageA, false);
                             break;
+                        case IMAGE_16:
+                            clImageA = writeImage2d(task.getImageA(), true);
+                            break;
+                        case ARRAY_16:
+                            clImageA = generateImageArray16(task.getImageA());
+                            queue.putWriteBuffer((CLBuffer<?>) clImageA, false);
+                            break;
                         default:
                             throw new IllegalArgumentException("Unsupported type of input - " + kernel.getKernelInfo().getInput());
                     }
@@ -59,13 +64,19 @@ public class DynamicOpenCLMemoryManager extends AbstractOpenCLMemoryManager {
 
                 switch (kernel.getKernelInfo().getInput()) {
                     case IMAGE:
-                        clImageB = generateImage2d(task.getImageB());
-                        queue.putWriteImage((CLImage2d<?>) clImageB, false);
+                        clImageB = writeImage2d(task.getImageB(), false);
                         break;
                     case ARRAY:
                         clImageB = generateImageArray(task.getImageB());
                         queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
                         break;
+                    case IMAGE_16:
+                        clImageB = writeImage2d(task.getImageB(), true);
+                        break;
+                    case ARRAY_16:
+                        clImageB = generateImageArray16(task.getImageB());
+                        queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
+                        break;
                     default:
                         throw new IllegalArgumentException("Unsupported type of input - " + kernel.getKernelInfo().getInput());
                 }
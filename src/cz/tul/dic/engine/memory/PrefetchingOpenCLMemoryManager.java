@@ -6,7 +6,6 @@
 package cz.tul.dic.engine.memory;
 
 import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLImage2d;
 import com.jogamp.opencl.CLMemory;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
@@ -43,11 +42,11 @@ public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager
     @Override
     public void assignDataToGPU(final ComputationTask task, final OpenCLKernel kernel) throws ComputationException {
         try {
-            if (clImageA == null) {
-                if (!inited) {
-                    init(this.task);
-                }
-
+            if (clImageA == null && !inited) {
+                init(this.task);
+            }
+            // images outside of the task (e.g. tiles) are not prefetched
+            if (clImageA == null && imageBuffer.containsKey(task.getImageA()) && imageBuffer.containsKey(task.getImageB())) {
                 clImageA = imageBuffer.get(task.getImageA());
                 clImageB = imageBuffer.get(task.getImageB());
             } else {
@@ -55,10 +54,8 @@ public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager
                 release(clImageB);
                 switch (kernel.getKernelInfo().getInput()) {
                     case IMAGE:
-                        clImageA = generateImage2d(task.getImageA());
-                        queue.putWriteImage((CLImage2d<?>) clImageA, false);
-                        clImageB = generateImage2d(task.getImageB());
-                        queue.putWriteImage((CLImage2d<?>) clImageB, false);
+                        clImageA = writeImage2d(task.getImageA(), false);
+                        clImageB = writeImage2d(task.getImageB(), false);
                         break;
                     case ARRAY:
                         clImageA = generateImageArray(task.getImageA());
@@ -66,6 +63,16 @@ public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager
                         clImageB = generateImageArray(task.getImageB());
                         queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
                         break;
+                    case IMAGE_16:
+                        clImageA = writeImage2d(task.getImageA(), true);
+                        clImageB = writeImage2d(task.getImageB(), true);
+                        break;
+                    case ARRAY_16:
+                        clImageA = generateImageArray16(task.getImageA());
+                        queue.putWriteBuffer((CLBuffer<?>) clImageA, false);
+                        clImageB = generateImageArray16(task.getImageB());
+                        queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
+                        break;
                     default:
                         throw new IllegalArgumentException("Unsupported type of input - " + kernel.getKernelInfo().getInput());
                 }
@@ -138,10 +145,12 @@ public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager
         final KernelInfo kt = (KernelInfo) task.getParameter(TaskParameter.KERNEL);        
         switch (kt.getInput()) {
             case IMAGE:
-                generateImagesAsImage2Dt(task.getImages());
+            case IMAGE_16:
+                generateImagesAsImage2Dt(task.getImages(), kt.getInput().uses16Bit());
                 break;
             case ARRAY:
-                generateImagesAsArray(task.getImages());
+            case ARRAY_16:
+                generateImagesAsArray(task.getImages(), kt.getInput().uses16Bit());
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported type of input - " + kt.getInput());
@@ -150,19 +159,18 @@ public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager
         inited = true;
     }
 
-    private void generateImagesAsImage2Dt(final List<Image> images) {
+    private void generateImagesAsImage2Dt(final List<Image> images, final boolean uses16Bit) {
         CLMemory<ByteBuffer> clImage;
         for (Image image : images) {
-            clImage = generateImage2d(image);
-            queue.putWriteImage((CLImage2d<?>) clImage, false);
+            clImage = writeImage2d(image, uses16Bit);
             imageBuffer.put(image, clImage);
         }
     }
 
-    private void generateImagesAsArray(final List<Image> images) {
+    private void generateImagesAsArray(final List<Image> images, final boolean uses16Bit) {
         CLMemory<ByteBuffer> clImage;
         for (Image image : images) {
-            clImage = generateImageArray(image);
+            clImage = uses16Bit ? generateImageArray16(image) : generateImageArray(image);
             queue.putWriteBuffer((CLBuffer<?>) clImage, false);
             imageBuffer.put(image, clImage);
         }
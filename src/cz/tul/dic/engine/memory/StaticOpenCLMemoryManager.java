@@ -6,7 +6,6 @@
 package cz.tul.dic.engine.memory;
 
 import com.jogamp.opencl.CLBuffer;
-import com.jogamp.opencl.CLImage2d;
 import com.jogamp.opencl.CLMemory;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
@@ -26,10 +25,8 @@ public class StaticOpenCLMemoryManager extends AbstractOpenCLMemoryManager {
             release(clImageB);
             switch (kernel.getKernelInfo().getInput()) {
                 case IMAGE:
-                    clImageA = generateImage2d(task.getImageA());
-                    queue.putWriteImage((CLImage2d<?>) clImageA, false);
-                    clImageB = generateImage2d(task.getImageB());
-                    queue.putWriteImage((CLImage2d<?>) clImageB, false);
+                    clImageA = writeImage2d(task.getImageA(), false);
+                    clImageB = writeImage2d(task.getImageB(), false);
                     break;
                 case ARRAY:
                     clImageA = generateImageArray(task.getImageA());
@@ -37,6 +34,16 @@ public class StaticOpenCLMemoryManager extends AbstractOpenCLMemoryManager {
                     clImageB = generateImageArray(task.getImageB());
                     queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
                     break;
+                case IMAGE_16:
+                    clImageA = writeImage2d(task.getImageA(), true);
+                    clImageB = writeImage2d(task.getImageB(), true);
+                    break;
+                case ARRAY_16:
+                    clImageA = generateImageArray16(task.getImageA());
+                    queue.putWriteBuffer((CLBuffer<?>) clImageA, false);
+                    clImageB = generateImageArray16(task.getImageB());
+                    queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
+                    break;
                 default:
                     throw new IllegalArgumentException("Unsupported type of input - " + kernel.getKernelInfo().getInput());
             }
@@ -28,19 +28,29 @@ import org.pmw.tinylog.Logger;
  */
 public final class OpenCLDeviceManager extends AbstractDeviceManager {
 
+    private final boolean shared;
     private CLDevice device;
     private CLContext context;
     private CLCommandQueue queue;
 
     public OpenCLDeviceManager() {
+        shared = false;
         Runtime.getRuntime().addShutdownHook(
                 new Thread(() -> clearMemory()
                 ));
     }
 
+    private OpenCLDeviceManager(final OpenCLDeviceManager owner) {
+        shared = true;
+        device = owner.device;
+        context = owner.context;
+        queue = device.createCommandQueue(CLCommandQueue.Mode.PROFILING_MODE);
+    }
+
     @Override
     public void clearMemory() {
-        if (context != null) {
+        // memory of shared context is owned by the context owner
+        if (!shared && context != null) {
             for (CLMemory mem : context.getMemoryObjects()) {
                 if (mem != null && !mem.isReleased()) {
                     mem.release();
@@ -56,6 +66,9 @@ public final class OpenCLDeviceManager extends AbstractDeviceManager {
 
     @Override
     public void prepareDevice(DeviceType deviceType) {
+        if (shared) {
+            throw new IllegalStateException("Shared device manager cannot prepare new device.");
+        }
         clearMemory();
 
         device = findDevice(deviceType);        
@@ -72,6 +85,21 @@ public final class OpenCLDeviceManager extends AbstractDeviceManager {
         queue = device.createCommandQueue(CLCommandQueue.Mode.PROFILING_MODE);
     }
 
+    @Override
+    public AbstractDeviceManager shareDevice() {
+        if (context == null) {
+            throw new IllegalStateException("Device needs to be prepared before sharing.");
+        }
+        return new OpenCLDeviceManager(this);
+    }
+
+    @Override
+    public void release() {
+        if (shared && queue != null && !queue.isReleased()) {
+            queue.release();
+        }
+    }
+
     private static CLDevice findDevice(final DeviceType deviceType) {
         final List<CLDevice> results = new LinkedList<>();
 
@@ -0,0 +1,173 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.opencl.kernel;
+
+import com.jogamp.opencl.CLBuffer;
+import com.jogamp.opencl.CLCommandQueue;
+import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLImage2d;
+import com.jogamp.opencl.CLImageFormat;
+import com.jogamp.opencl.CLKernel;
+import com.jogamp.opencl.CLMemory;
+import com.jogamp.opencl.CLProgram;
+import cz.tul.dic.data.Image;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Separable Gaussian filter computed on OpenCL device. Raw image is uploaded,
+ * filtered by rows and columns and written to device image, which is used for
+ * correlation directly. Kernel weights and border handling (reflection
+ * without repeating the edge pixel) match OpenCV GaussianBlur used for host
+ * filtering in {@link Image#filter(int)}.
+ *
+ * @author Petr Jecmen
+ */
+public final class OpenCLGaussianFilter {
+
+    private static final String SOURCE = "gauss.cl";
+    private static final String KERNEL_ROWS = "gaussRows";
+    private static final String KERNEL_COLS = "gaussCols";
+    private static final CLImageFormat.ChannelOrder IMAGE_ORDER = CLImageFormat.ChannelOrder.R;
+    // fixed kernels used by OpenCV for small sizes
+    private static final float[][] SMALL_KERNELS = new float[][]{
+        {1f},
+        {0.25f, 0.5f, 0.25f},
+        {0.0625f, 0.25f, 0.375f, 0.25f, 0.0625f},
+        {0.03125f, 0.109375f, 0.21875f, 0.28125f, 0.21875f, 0.109375f, 0.03125f}};
+    private final CLContext context;
+    private final CLProgram program8, program16;
+    private final CLKernel rows8, cols8, rows16, cols16;
+
+    public OpenCLGaussianFilter(final CLContext context) throws IOException {
+        this.context = context;
+        final String source = loadSource();
+        program8 = context.createProgram(source).build("-D IMG_T=uchar -D IMG_MAX=255");
+        program16 = context.createProgram(source).build("-D IMG_T=ushort -D IMG_MAX=65535");
+        rows8 = program8.createCLKernel(KERNEL_ROWS);
+        cols8 = program8.createCLKernel(KERNEL_COLS);
+        rows16 = program16.createCLKernel(KERNEL_ROWS);
+        cols16 = program16.createCLKernel(KERNEL_COLS);
+    }
+
+    private String loadSource() throws IOException {
+        try (BufferedReader bin = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(SOURCE)))) {
+            final StringBuilder sb = new StringBuilder();
+            while (bin.ready()) {
+                sb.append(bin.readLine());
+                sb.append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param filterSize size of the filter, even size is increased by one
+     * @return normalized weights of separable Gaussian kernel
+     */
+    public static float[] computeWeights(int filterSize) {
+        if (filterSize <= 0) {
+            throw new IllegalArgumentException("Filter size must be positive - " + filterSize);
+        }
+        if (filterSize % 2 == 0) {
+            filterSize++;
+        }
+        if (filterSize / 2 < SMALL_KERNELS.length) {
+            return SMALL_KERNELS[filterSize / 2].clone();
+        }
+
+        final double sigma = 0.3 * ((filterSize - 1) * 0.5 - 1) + 0.8;
+        final double scale = -0.5 / (sigma * sigma);
+        final double[] values = new double[filterSize];
+        double sum = 0;
+        double x;
+        for (int i = 0; i < filterSize; i++) {
+            x = i - (filterSize - 1) * 0.5;
+            values[i] = Math.exp(scale * x * x);
+            sum += values[i];
+        }
+        final float[] result = new float[filterSize];
+        for (int i = 0; i < filterSize; i++) {
+            result[i] = (float) (values[i] / sum);
+        }
+        return result;
+    }
+
+    /**
+     * Uploads image and filters it on device, commands are enqueued to given
+     * queue.
+     *
+     * @param queue command queue of the context
+     * @param image source image, raw (unfiltered) data are used
+     * @param filterSize size of the filter
+     * @param uses16Bit true for 16 bit result image
+     * @return filtered device image
+     */
+    public CLImage2d<ByteBuffer> filter(final CLCommandQueue queue, final Image image, final int filterSize, final boolean uses16Bit) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final float[] weights = computeWeights(filterSize);
+
+        final CLBuffer<ByteBuffer> clInput;
+        if (uses16Bit) {
+            final short[] data = image.to16BitArray();
+            clInput = context.createByteBuffer(data.length * Short.BYTES, CLMemory.Mem.READ_ONLY);
+            clInput.getBuffer().asShortBuffer().put(data);
+        } else {
+            final byte[] data = image.toBWArray();
+            clInput = context.createByteBuffer(data.length, CLMemory.Mem.READ_ONLY);
+            clInput.getBuffer().put(data).rewind();
+        }
+        final CLBuffer<FloatBuffer> clWeights = context.createFloatBuffer(weights.length, CLMemory.Mem.READ_ONLY);
+        clWeights.getBuffer().put(weights).rewind();
+        final CLBuffer<FloatBuffer> clTemp = context.createFloatBuffer(width * height, CLMemory.Mem.READ_WRITE);
+        @SuppressWarnings("unchecked")
+        final CLImage2d<ByteBuffer> result = (CLImage2d<ByteBuffer>) context.createImage2d(
+                width, height,
+                new CLImageFormat(IMAGE_ORDER, uses16Bit ? CLImageFormat.ChannelType.UNSIGNED_INT16 : CLImageFormat.ChannelType.UNSIGNED_INT8),
+                CLMemory.Mem.READ_WRITE);
+
+        try {
+            final int radius = weights.length / 2;
+            final CLKernel rows = uses16Bit ? rows16 : rows8;
+            final CLKernel cols = uses16Bit ? cols16 : cols8;
+            rows.rewind();
+            rows.putArg(clInput).putArg(clTemp).putArg(clWeights).putArg(radius).putArg(width).putArg(height);
+            cols.rewind();
+            cols.putArg(clTemp).putArg(result).putArg(clWeights).putArg(radius).putArg(width).putArg(height);
+
+            queue.putWriteBuffer(clInput, false);
+            queue.putWriteBuffer(clWeights, false);
+            queue.put2DRangeKernel(rows, 0, 0, width, height, 0, 0);
+            queue.put2DRangeKernel(cols, 0, 0, width, height, 0, 0);
+            queue.finish();
+        } catch (RuntimeException ex) {
+            result.release();
+            throw ex;
+        } finally {
+            clInput.release();
+            clWeights.release();
+            clTemp.release();
+        }
+        return result;
+    }
+
+    public void release() {
+        rows8.release();
+        cols8.release();
+        rows16.release();
+        cols16.release();
+        program8.release();
+        program16.release();
+    }
+
+    public CLContext getContext() {
+        return context;
+    }
+}
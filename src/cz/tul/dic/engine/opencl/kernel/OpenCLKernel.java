@@ -92,9 +92,11 @@ public abstract class OpenCLKernel extends AbstractKernel<AbstractOpenCLMemoryMa
             final boolean usesImage;
             switch (kernelInfo.getInput()) {
                 case IMAGE:
+                case IMAGE_16:
                     usesImage = true;
                     break;
                 case ARRAY:
+                case ARRAY_16:
                     usesImage = false;
                     break;
                 default:
@@ -116,7 +118,7 @@ public abstract class OpenCLKernel extends AbstractKernel<AbstractOpenCLMemoryMa
             final String kernelSource = KernelSourcePreparator.prepareKernel(
                     subsetSize, deg, usesLimits,
                     is2D(), usesVectorization(),
-                    interpolation, usesImage, usesLocalMemory(), usesMemoryCoalescing, subsetsGroupped(), usesZncc, usesWeight);
+                    interpolation, usesImage, kernelInfo.getInput().uses16Bit(), usesLocalMemory(), usesMemoryCoalescing, subsetsGroupped(), usesZncc, usesWeight);
             CLProgram program = context.createProgram(kernelSource).build();
             clMem.add(program);
             kernelDIC = program.createCLKernel(KERNEL_DIC_NAME);
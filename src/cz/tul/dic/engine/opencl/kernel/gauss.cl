@@ -0,0 +1,53 @@
+int reflect101(int i, const int n) {
+    if (n == 1) {
+        return 0;
+    }
+    while (i < 0 || i >= n) {
+        if (i < 0) {
+            i = -i;
+        }
+        if (i >= n) {
+            i = 2 * n - 2 - i;
+        }
+    }
+    return i;
+}
+
+kernel void gaussRows(
+        global const IMG_T * in,
+        global float * tmp,
+        constant float * weights,
+        const int radius,
+        const int width, const int height) {
+    const int x = get_global_id(0);
+    const int y = get_global_id(1);
+    if (x >= width || y >= height) {
+        return;
+    }
+
+    const int base = y * width;
+    float sum = 0;
+    for (int k = -radius; k <= radius; k++) {
+        sum += weights[k + radius] * in[base + reflect101(x + k, width)];
+    }
+    tmp[base + x] = sum;
+}
+
+kernel void gaussCols(
+        global const float * tmp,
+        write_only image2d_t out,
+        constant float * weights,
+        const int radius,
+        const int width, const int height) {
+    const int x = get_global_id(0);
+    const int y = get_global_id(1);
+    if (x >= width || y >= height) {
+        return;
+    }
+
+    float sum = 0;
+    for (int k = -radius; k <= radius; k++) {
+        sum += weights[k + radius] * tmp[reflect101(y + k, height) * width + x];
+    }
+    write_imageui(out, (int2)(x, y), (uint4)(min(convert_uint_sat_rte(sum), (uint) IMG_MAX), 0, 0, 0));
+}
@@ -35,10 +35,13 @@ public class KernelSourcePreparator {
     private static final String REPLACE_DEFORMATION_DEGREE = "%DEF_D%";
     private static final String REPLACE_DEFORMATION_COEFFS = "%DEF-C%";
     private static final String REPLACE_HEADER = "%HEAD%";
+    private static final String REPLACE_IMAGE_TYPE = "%IMG-T%";
     private static final String REPLACE_INIT = "%INIT%";
     private static final String REPLACE_INTERPOLATION = "%INT%";
     private static final String REPLACE_STORE = "%S%";
     private static final String TEXT_DEFORMATION_ARRAY = "deformation[";
+    private static final String TYPE_8BIT = "uchar";
+    private static final String TYPE_16BIT = "ushort";
     private static final String PLUS = " + ";
     private static final String MUL = " * ";
     private String kernel;
@@ -49,7 +52,7 @@ public class KernelSourcePreparator {
     public static String prepareKernel(
             final int subsetSize, final DeformationOrder deg, final boolean usesLimits,
             final boolean is2D, final boolean usesVectorization, final Interpolation interpolation,
-            final boolean usesImage, final boolean usesLocalMemory, final boolean usesMemoryCoalescing,
+            final boolean usesImage, final boolean uses16Bit, final boolean usesLocalMemory, final boolean usesMemoryCoalescing,
             final boolean subsetsGroupped, final boolean usesZNCC, final boolean usesWeights) throws ComputationException {
         final KernelSourcePreparator kp = new KernelSourcePreparator();
 
@@ -62,6 +65,7 @@ public class KernelSourcePreparator {
             kp.prepareStore();
             kp.prepareDeformations(deg, usesLimits, usesVectorization, usesLocalMemory);
             kp.prepareSubsetSize(subsetSize);
+            kp.prepareImageType(uses16Bit);
             return kp.kernel;
         } catch (IOException ex) {
             throw new ComputationException(ComputationExceptionCause.IO, ex);
@@ -123,6 +127,11 @@ public class KernelSourcePreparator {
         kernel = kernel.replaceAll(REPLACE_HEADER, sb.toString());
     }
 
+    private void prepareImageType(final boolean uses16Bit) {
+        // samples are unsigned, image2d_t is read by read_imageui for both bit depths
+        kernel = kernel.replaceAll(REPLACE_IMAGE_TYPE, uses16Bit ? TYPE_16BIT : TYPE_8BIT);
+    }
+
     private void prepareInit(final boolean is2D, final boolean usesLocalMemory, final boolean usesMemoryCoalescing) {
         String resourceName = "init-";
         if (is2D) {
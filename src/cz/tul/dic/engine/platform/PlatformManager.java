@@ -12,6 +12,7 @@ import cz.tul.dic.engine.memory.AbstractMemoryManager;
 import cz.tul.dic.engine.memory.BasicMemoryManager;
 import cz.tul.dic.engine.memory.DynamicOpenCLMemoryManager;
 import cz.tul.dic.engine.opencl.OpenCLDeviceManager;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,6 +26,7 @@ public class PlatformManager {
     private final Map<PlatformType, AbstractDeviceManager> deviceManagers;
     private final Map<PlatformType, AbstractMemoryManager> memoryManagers;
     private final Map<PlatformType, AbstractTaskSplitter> taskSplitters;
+    private final Map<PlatformType, Map<DeviceType, PooledDevice>> devicePool;
 
     static {
         INSTANCE = new PlatformManager();
@@ -42,6 +44,8 @@ public class PlatformManager {
         taskSplitters = new HashMap<>(2);
         taskSplitters.put(PlatformType.JAVA, new NoSplit());
         taskSplitters.put(PlatformType.OPENCL, new OpenCLSplitter());
+
+        devicePool = new EnumMap<>(PlatformType.class);
     }
 
     public static PlatformManager getInstance() {
@@ -71,4 +75,114 @@ public class PlatformManager {
         return result;
     }
 
+    public Platform acquirePlatform() {
+        return acquirePlatform(KernelPerformanceManager.getInstance().getBestPlatform());
+    }
+
+    /**
+     * @param bitDepth bit depth of task images
+     * @return best platform for given images
+     * @see #acquirePlatform(PlatformDefinition)
+     */
+    public Platform acquirePlatform(final int bitDepth) {
+        return acquirePlatform(KernelPerformanceManager.getInstance().getBestPlatform(bitDepth));
+    }
+
+    /**
+     * Acquire platform from shared device pool. Device context is prepared
+     * only once and shared among all acquired platforms, memory manager and
+     * task splitter are private for each platform. Platform must be returned
+     * using {@link #releasePlatform(Platform)}.
+     *
+     * @param definition required platform
+     * @return platform using pooled device
+     */
+    public synchronized Platform acquirePlatform(final PlatformDefinition definition) {
+        Map<DeviceType, PooledDevice> m = devicePool.get(definition.getPlatform());
+        if (m == null) {
+            m = new EnumMap<>(DeviceType.class);
+            devicePool.put(definition.getPlatform(), m);
+        }
+        PooledDevice pooledDevice = m.get(definition.getDevice());
+        if (pooledDevice == null) {
+            final AbstractDeviceManager owner = createDeviceManager(definition.getPlatform());
+            owner.prepareDevice(definition.getDevice());
+            pooledDevice = new PooledDevice(owner);
+            m.put(definition.getDevice(), pooledDevice);
+        }
+        pooledDevice.referenceCount++;
+
+        final AbstractDeviceManager deviceManager = pooledDevice.owner.shareDevice();
+        final AbstractMemoryManager memoryManager = createMemoryManager(definition.getPlatform());
+        final AbstractTaskSplitter taskSplitter = createTaskSplitter(definition.getPlatform());
+        taskSplitter.assignDeviceManager(deviceManager);
+        final Platform result = new Platform(definition, memoryManager, deviceManager, taskSplitter);
+        memoryManager.setPlatform(result);
+        return result;
+    }
+
+    public synchronized void releasePlatform(final Platform platform) {
+        final PlatformDefinition definition = platform.getPlatformDefinition();
+        final Map<DeviceType, PooledDevice> m = devicePool.get(definition.getPlatform());
+        if (m == null || !m.containsKey(definition.getDevice())) {
+            throw new IllegalArgumentException("Platform has not been acquired from pool - " + platform);
+        }
+
+        platform.getMemoryManager().clearMemory();
+        platform.getDeviceManager().release();
+
+        final PooledDevice pooledDevice = m.get(definition.getDevice());
+        pooledDevice.referenceCount--;
+        if (pooledDevice.referenceCount <= 0) {
+            // keep the context for next task, release only leftover data
+            pooledDevice.referenceCount = 0;
+            pooledDevice.owner.clearMemory();
+        }
+    }
+
+    private static AbstractDeviceManager createDeviceManager(final PlatformType platform) {
+        switch (platform) {
+            case JAVA:
+                return new JavaDeviceManager();
+            case OPENCL:
+                return new OpenCLDeviceManager();
+            default:
+                throw new IllegalArgumentException("Unsupported platform - " + platform);
+        }
+    }
+
+    private static AbstractMemoryManager createMemoryManager(final PlatformType platform) {
+        switch (platform) {
+            case JAVA:
+                return new BasicMemoryManager();
+            case OPENCL:
+                return new DynamicOpenCLMemoryManager();
+            default:
+                throw new IllegalArgumentException("Unsupported platform - " + platform);
+        }
+    }
+
+    private static AbstractTaskSplitter createTaskSplitter(final PlatformType platform) {
+        switch (platform) {
+            case JAVA:
+                return new NoSplit();
+            case OPENCL:
+                return new OpenCLSplitter();
+            default:
+                throw new IllegalArgumentException("Unsupported platform - " + platform);
+        }
+    }
+
+    private static class PooledDevice {
+
+        private final AbstractDeviceManager owner;
+        private int referenceCount;
+
+        public PooledDevice(final AbstractDeviceManager owner) {
+            this.owner = owner;
+            referenceCount = 0;
+        }
+
+    }
+
 }
@@ -12,7 +12,8 @@ import cz.tul.dic.data.Interpolation;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.CorrelationResult;
-import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.subset.SubsetSet;
 import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.data.task.FullTask;
 import cz.tul.dic.data.task.TaskDefaultValues;
@@ -20,19 +21,19 @@ import cz.tul.dic.data.task.splitter.AbstractTaskSplitter;
 import cz.tul.dic.data.task.splitter.TaskSplitMethod;
 import cz.tul.dic.debug.IGPUResultsReceiver;
 import cz.tul.dic.engine.AbstractKernel;
+import cz.tul.dic.engine.Engine;
 import cz.tul.dic.engine.KernelInfo;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.pj.journal.Journal;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import org.pmw.tinylog.Logger;
 
 /**
@@ -50,16 +51,18 @@ public abstract class AbstractTaskSolver extends Observable {
     int subsetSize;
     Object taskSplitValue;
     boolean stop;
-    // data storage
+    protected ExecutorService exec;
+    // data storage, per-subset data are indexed by subset ID
     protected FullTask fullTask;
-    protected Map<AbstractSubset, CorrelationResult> results;
-    protected Map<AbstractSubset, double[]> deformations;
-    protected Map<AbstractSubset, Integer> weights;
-    protected List<AbstractSubset> subsetsToCompute;
+    protected SubsetSet subsets;
+    protected CorrelationResult[] results;
+    protected double[][] deformations;
+    protected int[] weights;
+    protected int[] subsetsToCompute;
     protected double[] gpuData;
     protected boolean usesWeights;
     // logging
-    private final Map<AbstractSubset, ComputationInfo> computationInfo;
+    private ComputationInfo[] computationInfo;
     private static final List<IGPUResultsReceiver> LISTENERS;
 
     static {
@@ -81,8 +84,7 @@ public abstract class AbstractTaskSolver extends Observable {
         interpolation = TaskDefaultValues.DEFAULT_INTERPOLATION;
         taskSplitVariant = TaskDefaultValues.DEFAULT_TASK_SPLIT_METHOD;
         taskSplitValue = null;
-
-        computationInfo = new HashMap<>();
+        exec = Engine.getInstance().getExecutorService();
     }
 
     public static AbstractTaskSolver initSolver(final SolverType type, final Platform platform) {
@@ -96,65 +98,63 @@ public abstract class AbstractTaskSolver extends Observable {
     }
 
     public void endTask() {
-        kernel.clearMemory();
-        platform.getDeviceManager().clearMemory();
+        if (kernel != null) {
+            kernel.clearMemory();
+        }
+        platform.getMemoryManager().clearMemory();
     }
 
-    public synchronized List<CorrelationResult> solve(
+    public synchronized CorrelationResultBlock solve(
             final FullTask fullTask) throws ComputationException {
         Journal.getInstance().addDataEntry(fullTask, "Solving full task", "Using \"{0}\" solver.", getClass().getSimpleName());
         Journal.getInstance().createSubEntry();
 
         stop = false;
-        computationInfo.clear();
 
         this.fullTask = fullTask;
 
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
+        subsets = new SubsetSet(fullTask.getSubsets(), fullTask.getSubsetWeights());
         if (subsets.isEmpty()) {
-            return new ArrayList<>(0);
+            return new CorrelationResultBlock(0, 0);
         }
         final int subsetCount = subsets.size();
 
-        results = new LinkedHashMap<>(subsetCount);
-        deformations = new ConcurrentHashMap<>(subsetCount);
-        subsetsToCompute = Collections.synchronizedList(new ArrayList<>(subsets));
-
-        weights = new ConcurrentHashMap<>(subsetCount);
-        for (int i = 0; i < fullTask.getSubsets().size(); i++) {
-            weights.put(fullTask.getSubsets().get(i), fullTask.getSubsetWeights().get(i));
-        }
+        results = new CorrelationResult[subsetCount];
+        deformations = new double[subsetCount][];
+        weights = subsets.getWeights();
+        subsetsToCompute = subsets.getIds();
+        computationInfo = new ComputationInfo[subsetCount];
 
         kernel = AbstractKernel.createInstance(platform);
 
-        this.subsetSize = fullTask.getSubsets().get(0).getSize();
+        this.subsetSize = subsets.get(0).getSize();
         usesWeights = kernel.getKernelInfo().getCorrelation() == KernelInfo.Correlation.WZNSSD;
 
         long time = System.nanoTime();
 
-        final List<CorrelationResult> result = solve();
+        final CorrelationResultBlock result = solve();
 
         kernel.clearMemory();
 
         time = System.nanoTime() - time;
-        Journal.getInstance().addDataEntry(computationInfo, "Full task solved", "Task completed in {0}ms.", time / 1_000_000);
+        Journal.getInstance().addDataEntry(Arrays.asList(computationInfo), "Full task solved", "Task completed in {0}ms.", time / 1_000_000);
         Journal.getInstance().closeSubEntry();
 
         return result;
     }
 
-    public abstract List<CorrelationResult> solve() throws ComputationException;
+    public abstract CorrelationResultBlock solve() throws ComputationException;
 
     protected abstract boolean needsBestResult();
 
     public abstract long getDeformationCount();
 
-    protected synchronized List<CorrelationResult> computeTask(
+    protected synchronized CorrelationResultBlock computeTask(
             final AbstractKernel kernel, ComputationTask computationTask) throws ComputationException {
-        final List<CorrelationResult> taskResults = new ArrayList<>(computationTask.getSubsets().size());
-        for (int i = 0; i < computationTask.getSubsets().size(); i++) {
-            taskResults.add(null);
-        }
+        // best results of subtasks are stored directly to the block
+        final CorrelationResultBlock taskResults = new CorrelationResultBlock(
+                computationTask.getSubsets().size(),
+                DeformationUtils.getDeformationCoeffCount(computationTask.getOrder()));
 
         try {
             computationTask = adjustLimitsUse(kernel, computationTask);
@@ -194,7 +194,7 @@ public abstract class AbstractTaskSolver extends Observable {
         }
     }
 
-    private void computeSubtasks(AbstractTaskSplitter ts, final List<CorrelationResult> results, final AbstractKernel<?> kernel, final ComputationTask fullTask) throws ComputationException {
+    private void computeSubtasks(AbstractTaskSplitter ts, final CorrelationResultBlock results, final AbstractKernel<?> kernel, final ComputationTask fullTask) throws ComputationException {
         final boolean needsBestResult = needsBestResult();
         boolean finished = false;
         List<double[]> gpuDataList = new LinkedList<>();
@@ -211,7 +211,7 @@ public abstract class AbstractTaskSolver extends Observable {
                         result = kernel.computeFindBest(ct);
                         ct.setResults(result);
                         // pick best results for this computation task and discard ct data                   
-                        pickBestResultsForTask(ct, results, fullTask.getSubsets());
+                        pickBestResultsForTask(ct, results);
                     } else {
                         // TODO join gpuData in case of split computation and no best results
                         gpuDataList.add(kernel.computeRaw(ct));
@@ -224,7 +224,7 @@ public abstract class AbstractTaskSolver extends Observable {
                 throw ex;
             }
         }
-        if (!gpuDataList.isEmpty() && !LISTENERS.isEmpty()) {
+        if (!gpuDataList.isEmpty()) {
             if (gpuDataList.size() == 1) {
                 gpuData = gpuDataList.get(0);
             } else {
@@ -242,29 +242,29 @@ public abstract class AbstractTaskSolver extends Observable {
                 }
             }
 
-            for (IGPUResultsReceiver rr : LISTENERS) {
+            for (IGPUResultsReceiver rr : getGPUDataListeners()) {
                 rr.dumpGpuResults(gpuData, fullTask.getSubsets(), fullTask.getDeformations());
             }
         }
     }
 
-    private static void pickBestResultsForTask(final ComputationTask task, final List<CorrelationResult> bestResults, final List<AbstractSubset> globalSubsets) throws ComputationException {
-        final List<AbstractSubset> localSubsets = task.getSubsets();
-        final int subsetCount = localSubsets.size();
+    private static void pickBestResultsForTask(final ComputationTask task, final CorrelationResultBlock bestResults) throws ComputationException {
+        final int subsetCount = task.getSubsets().size();
+        final int offset = task.getSubsetOffset();
+        if (offset < 0 || offset + subsetCount > bestResults.size()) {
+            throw new IllegalArgumentException("Local subsets out of global range - " + offset + " + " + subsetCount);
+        }
 
         int globaSubsetIndex;
         final List<CorrelationResult> taskResults = task.getResults();
         for (int localSubsetIndex = 0; localSubsetIndex < subsetCount; localSubsetIndex++) {
-            globaSubsetIndex = globalSubsets.indexOf(localSubsets.get(localSubsetIndex));
-            if (globaSubsetIndex < 0) {
-                throw new IllegalArgumentException("Local subset not found in global registry.");
-            }
+            globaSubsetIndex = offset + localSubsetIndex;
 
             if (localSubsetIndex >= taskResults.size()) {
                 Logger.warn("No best value found for subset nr." + globaSubsetIndex);
-                bestResults.set(globaSubsetIndex, new CorrelationResult(-1, null));
+                bestResults.put(globaSubsetIndex, new CorrelationResult(-1, null));
             } else {
-                bestResults.set(globaSubsetIndex, taskResults.get(localSubsetIndex));
+                bestResults.put(globaSubsetIndex, taskResults.get(localSubsetIndex));
             }
         }
     }
@@ -278,6 +278,10 @@ public abstract class AbstractTaskSolver extends Observable {
         this.taskSplitValue = taskSplitValue;
     }
 
+    public void setExecutorService(final ExecutorService exec) {
+        this.exec = exec;
+    }
+
     public void stop() {
         stop = true;
         if (kernel != null) {
@@ -286,30 +290,82 @@ public abstract class AbstractTaskSolver extends Observable {
         endTask();
     }
 
-    protected void addSubsetResultInfo(final AbstractSubset subset, final CorrelationResult result) {
-        getInfo(subset).addResult(result);
+    protected void addSubsetResultInfo(final int subsetId, final CorrelationResult result) {
+        getInfo(subsetId).addResult(result);
     }
 
-    private ComputationInfo getInfo(final AbstractSubset subset) {
-        ComputationInfo result = computationInfo.get(subset);
+    private ComputationInfo getInfo(final int subsetId) {
+        ComputationInfo result = computationInfo[subsetId];
         if (result == null) {
-            result = new ComputationInfo(subset);
-            computationInfo.put(subset, result);
+            result = new ComputationInfo(subsets.get(subsetId));
+            computationInfo[subsetId] = result;
         }
         return result;
     }
 
-    protected void addSubsetTerminationInfo(final AbstractSubset subset, final String info) {
-        getInfo(subset).setTerminationInfo(info);
+    protected void addSubsetTerminationInfo(final int subsetId, final String info) {
+        getInfo(subsetId).setTerminationInfo(info);
+    }
+
+    /**
+     * Creates task for given subsets, data are picked from arrays indexed by
+     * subset ID.
+     *
+     * @param ids subset IDs, order of IDs determines order of GPU results
+     * @param taskDeformations deformations indexed by subset ID
+     * @param taskWeights weights indexed by subset ID
+     * @param order
+     * @return computation task
+     */
+    protected ComputationTask createTask(final int[] ids, final double[][] taskDeformations, final int[] taskWeights, final DeformationOrder order) {
+        final List<double[]> deformationList = new ArrayList<>(ids.length);
+        final List<Integer> weightList = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            deformationList.add(taskDeformations[id]);
+            weightList.add(taskWeights[id]);
+        }
+        return new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsets.getSubsets(ids), weightList, deformationList, order, false);
+    }
+
+    /**
+     * @param ids
+     * @param done flags indexed by position in ids
+     * @return IDs not marked as done, in original order
+     */
+    protected static int[] filterIds(final int[] ids, final boolean[] done) {
+        int count = 0;
+        for (boolean b : done) {
+            if (!b) {
+                count++;
+            }
+        }
+        final int[] result = new int[count];
+        int index = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (!done[i]) {
+                result[index++] = ids[i];
+            }
+        }
+        return result;
+    }
+
+    private static List<IGPUResultsReceiver> getGPUDataListeners() {
+        synchronized (LISTENERS) {
+            return new ArrayList<>(LISTENERS);
+        }
     }
 
     public static void registerGPUDataListener(final IGPUResultsReceiver listener) {
-        LISTENERS.add(listener);
+        synchronized (LISTENERS) {
+            LISTENERS.add(listener);
+        }
         Logger.trace("Registering {} for GPU results.", listener);
     }
 
     public static void deregisterGPUDataListener(final IGPUResultsReceiver listener) {
-        LISTENERS.remove(listener);
+        synchronized (LISTENERS) {
+            LISTENERS.remove(listener);
+        }
         Logger.trace("Deregistering {} for GPU results.", listener);
     }
 
@@ -5,11 +5,10 @@
  */
 package cz.tul.dic.engine.solvers;
 
-import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
-import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.data.task.TaskDefaultValues;
 import cz.tul.dic.engine.AbstractDeviceManager;
@@ -23,16 +22,15 @@ public class BruteForce extends AbstractTaskSolver {
     }
 
     @Override
-    public List<CorrelationResult> solve() throws ComputationException {
+    public CorrelationResultBlock solve() throws ComputationException {
         final DeformationOrder order = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
-        final List<CorrelationResult> localResults = computeTask(kernel, new ComputationTask(
+        final CorrelationResultBlock localResults = computeTask(kernel, new ComputationTask(
                 fullTask.getImageA(), fullTask.getImageB(),
                 fullTask.getSubsets(), fullTask.getSubsetWeights(),
                 fullTask.getDeformationLimits(), order, true));
 
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
         for (int i = 0; i < subsets.size(); i++) {
-            addSubsetResultInfo(subsets.get(i), localResults.get(i));
+            addSubsetResultInfo(i, localResults.get(i));
         }
 
         return localResults;
@@ -5,13 +5,12 @@
  */
 package cz.tul.dic.engine.solvers;
 
-import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationLimit;
 import cz.tul.dic.data.deformation.DeformationUtils;
-import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.data.task.FullTask;
 import cz.tul.dic.data.task.TaskDefaultValues;
@@ -32,17 +31,17 @@ public class CoarseFine extends AbstractTaskSolver {
     }
 
     @Override
-    public List<CorrelationResult> solve() throws ComputationException {
+    public CorrelationResultBlock solve() throws ComputationException {
         final DeformationOrder defOrder = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
         if (defOrder != DeformationOrder.ZERO) {
             Journal.getInstance().addEntry("CoarseFine solver does not support higher order deformations.");
         }
 
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
         final int subsetCount = subsets.size();
         List<double[]> zeroOrderLimits = new ArrayList<>(subsetCount);
-        List<CorrelationResult> localResults;
+        CorrelationResultBlock localResults;
         double[] temp;
+        double coarseX, coarseY;
         double step = STEP_INITIAL;
 
         final int roundCount = coumputeRoundCount(fullTask);
@@ -65,13 +64,12 @@ public class CoarseFine extends AbstractTaskSolver {
                 kernel,
                 new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), fullTask.getSubsets(), localWeights, zeroOrderLimits, DeformationOrder.ZERO, true));
         for (int i = 0; i < subsetCount; i++) {
-            addSubsetResultInfo(subsets.get(i), localResults.get(i));
+            addSubsetResultInfo(i, localResults.get(i));
         }
         signalizeRoundComplete(++round, roundCount);
 
         //sub-pixel stepping
         final double minimalStep = findMinimalStep(fullTask);
-        double[] coarseResult;
         do {
             step /= 10.0;
             if (step < minimalStep) {
@@ -85,14 +83,15 @@ public class CoarseFine extends AbstractTaskSolver {
             zeroOrderLimits = new ArrayList<>(subsetCount);
 
             for (int i = 0; i < subsetCount; i++) {
-                coarseResult = localResults.get(i).getDeformation();
+                coarseX = localResults.getDeformation(i, Coordinates.X);
+                coarseY = localResults.getDeformation(i, Coordinates.Y);
                 temp = new double[COUNT_ZERO_ORDER_LIMITS];
 
-                temp[DeformationLimit.UMIN] = coarseResult[Coordinates.X] - (10 * step);
-                temp[DeformationLimit.UMAX] = coarseResult[Coordinates.X] + (10 * step);
+                temp[DeformationLimit.UMIN] = coarseX - (10 * step);
+                temp[DeformationLimit.UMAX] = coarseX + (10 * step);
                 temp[DeformationLimit.USTEP] = step;
-                temp[DeformationLimit.VMIN] = coarseResult[Coordinates.Y] - (10 * step);
-                temp[DeformationLimit.VMAX] = coarseResult[Coordinates.Y] + (10 * step);
+                temp[DeformationLimit.VMIN] = coarseY - (10 * step);
+                temp[DeformationLimit.VMAX] = coarseY + (10 * step);
                 temp[DeformationLimit.VSTEP] = step;
 
                 zeroOrderLimits.add(temp);
@@ -102,7 +101,7 @@ public class CoarseFine extends AbstractTaskSolver {
                     new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), fullTask.getSubsets(), localWeights, zeroOrderLimits, DeformationOrder.ZERO, true));
 
             for (int i = 0; i < subsetCount; i++) {
-                addSubsetResultInfo(subsets.get(i), localResults.get(i));
+                addSubsetResultInfo(i, localResults.get(i));
             }
             signalizeRoundComplete(++round, roundCount);
         } while (step > STEP_MINIMAL);
@@ -6,40 +6,28 @@
 package cz.tul.dic.engine.solvers;
 
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationLimit;
 import cz.tul.dic.data.deformation.DeformationUtils;
-import cz.tul.dic.data.task.ComputationTask;
-import cz.tul.dic.debug.IGPUResultsReceiver;
 import cz.tul.dic.data.task.FullTask;
-import cz.tul.dic.engine.Engine;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.pj.journal.Journal;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.apache.commons.math3.exception.InsufficientDataException;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.DecompositionSolver;
-import org.apache.commons.math3.linear.QRDecomposition;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
-import org.apache.commons.math3.linear.SingularMatrixException;
 
 /**
  *
  * @author Petr Ječmen
  */
-public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPUResultsReceiver {
+public abstract class NewtonRaphson extends AbstractTaskSolver {
 
     private static final int COUNT_ZERO_ORDER_LIMITS = 6;
     private static final int LIMITS_ITERATIONS = 10;
@@ -47,21 +35,23 @@ public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPURe
     private static final double LIMIT_Q_DONE = 1 - LIMIT_MIN_IMPROVEMENT;
     private static final double STEP_FIRST = 0.01;
     private static final double STEP_SECOND = 0.001;
+    private static final int BATCHES_PER_THREAD = 4;
     protected static final int STEP_WEIGHT = 1;
-    private final Set<AbstractSubset> smallerStep;
+    private boolean[] smallerStep;
+    // last evaluated solution of each subset, rewritten in every step
+    private CorrelationResultBlock currentResults;
     protected DeformationOrder deformationOrder;
 
     public NewtonRaphson(final Platform platform) {
         super(platform);
-        smallerStep = new HashSet<>();
     }
 
     @Override
-    public List<CorrelationResult> solve() throws ComputationException {
-        final int subsetCount = subsetsToCompute.size();
+    public CorrelationResultBlock solve() throws ComputationException {
+        final int subsetCount = subsets.size();
         deformationOrder = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
 
-        smallerStep.clear();
+        smallerStep = new boolean[subsetCount];
 
         // estimate initial solution by direct search
         prepareInitialResults();
@@ -71,26 +61,22 @@ public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPURe
         prepareDeformations();
 
         // initial data for NR solver
-        registerGPUDataListener(this);
-        computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, fullTask.getSubsetWeights(), new ArrayList<>(deformations.values()), deformationOrder, false));
+        computeTask(kernel, createTask(subsetsToCompute, deformations, weights, deformationOrder));
 
         for (int i = 0; i < LIMITS_ITERATIONS; i++) {
-            makeStep(subsetsToCompute, deformationOrder);
+            makeStep(deformationOrder);
 
-            notifyProgress(subsetsToCompute.size(), subsetCount);
+            notifyProgress(subsetsToCompute.length, subsetCount);
 
-            if (subsetsToCompute.isEmpty()) {
+            if (subsetsToCompute.length == 0) {
                 break;
             }
         }
 
-        deregisterGPUDataListener(this);
-
-        return new ArrayList<>(results.values());
+        return currentResults;
     }
 
     private void prepareInitialResults() throws ComputationException {
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
         final int subsetCount = subsets.size();
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(deformationOrder);
 
@@ -109,27 +95,27 @@ public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPURe
             temp[DeformationLimit.VSTEP] = 1;
             zeroOrderLimits.add(temp);
         }
-        final List<CorrelationResult> localResults = AbstractTaskSolver.initSolver(SolverType.COARSE_FINE, platform).solve(
+        final CorrelationResultBlock localResults = AbstractTaskSolver.initSolver(SolverType.COARSE_FINE, platform).solve(
                 new FullTask(fullTask.getImageA(), fullTask.getImageB(), fullTask.getSubsets(), fullTask.getSubsetWeights(), zeroOrderLimits));
-        CorrelationResult paddedResult, currentResult;
+        currentResults = new CorrelationResultBlock(subsetCount, coeffCount);
+        CorrelationResult currentResult;
         for (int i = 0; i < subsetCount; i++) {
             // set the length of the result to match correlation degree
             currentResult = localResults.get(i);
-            paddedResult = new CorrelationResult(currentResult.getQuality(), Arrays.copyOf(currentResult.getDeformation(), coeffCount));
-            results.put(subsets.get(i), paddedResult);
-            addSubsetResultInfo(fullTask.getSubsets().get(i), localResults.get(i));
+            currentResults.put(i, currentResult.getQuality(), Arrays.copyOf(currentResult.getDeformation(), coeffCount), coeffCount);
+            addSubsetResultInfo(i, currentResult);
         }
     }
 
     private void prepareDeformations() {
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
-
-        double[] deformation;
+        final int coeffCount = getCoeffCount();
+        final int length = (int) getDeformationCount() * coeffCount;
         double step;
-        for (AbstractSubset subset : subsets) {
-            step = smallerStep.contains(subset) ? STEP_SECOND : STEP_FIRST;
-            deformation = generateDeformations(results.get(subset).getDeformation(), step);
-            deformations.put(subset, deformation);
+        for (int id = 0; id < subsets.size(); id++) {
+            step = smallerStep[id] ? STEP_SECOND : STEP_FIRST;
+            // arrays are rewritten in place in each step
+            deformations[id] = new double[length];
+            generateDeformations(currentResults.getDeformation(id), step, deformations[id]);
         }
     }
 
@@ -138,39 +124,32 @@ public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPURe
      * equation H(x(k)) * [x(k+1) - x(k)] = -G(x(k)). We find solution for
      * [x(k+1) - x(k)] and then add x(k).
      *
-     * @param subsetsToCompute
      * @param order
      * @throws ComputationException
      */
-    private void makeStep(final List<AbstractSubset> subsetsToCompute, final DeformationOrder order) throws ComputationException {
+    private void makeStep(final DeformationOrder order) throws ComputationException {
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(order);
-
-        final ExecutorService exec = Engine.getInstance().getExecutorService();
-        final Set<Future<AbstractSubset>> steps = new HashSet<>(subsetsToCompute.size());
-
-        final Iterator<AbstractSubset> it = subsetsToCompute.iterator();
-        while (it.hasNext()) {
-            final AbstractSubset as = it.next();
-            steps.add(exec.submit(new StepMaker(as, coeffCount)));
+        final int deformationCount = (int) getDeformationCount();
+
+        // subsets are split to batches, each batch reuses its buffers for all its subsets
+        final int count = subsetsToCompute.length;
+        final int batchCount = Math.min(count, Runtime.getRuntime().availableProcessors() * BATCHES_PER_THREAD);
+        final boolean[] done = new boolean[count];
+        final List<StepBatch> batches = new ArrayList<>(batchCount);
+        for (int b = 0; b < batchCount; b++) {
+            batches.add(new StepBatch(b * count / batchCount, (b + 1) * count / batchCount, deformationCount, coeffCount, done));
         }
-
-        for (Future<AbstractSubset> fas : steps) {
-            try {
-                final AbstractSubset as = fas.get();
-                subsetsToCompute.remove(as);
-            } catch (InterruptedException | ExecutionException ex) {
-                Journal.getInstance().addDataEntry(ex, "Solver error", "Error retrieving result after computing new step.");
+        try {
+            for (Future<Void> f : exec.invokeAll(batches)) {
+                f.get();
             }
+        } catch (InterruptedException | ExecutionException ex) {
+            Journal.getInstance().addDataEntry(ex, "Solver error", "Error retrieving result after computing new step.");
         }
+        subsetsToCompute = filterIds(subsetsToCompute, done);
 
-        if (!subsetsToCompute.isEmpty()) {
-            final List<double[]> deformationsToCompute = new ArrayList<>(subsetsToCompute.size());
-            final List<Integer> weightToCompute = new ArrayList<>(subsetsToCompute.size());
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(deformations.get(subset));
-                weightToCompute.add(weights.get(subset));
-            }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightToCompute, deformationsToCompute, order, false));
+        if (subsetsToCompute.length > 0) {
+            computeTask(kernel, createTask(subsetsToCompute, deformations, weights, order));
         }
     }
 
@@ -179,26 +158,64 @@ public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPURe
         return DeformationUtils.getDeformationCoeffCount(deformationOrder);
     }
 
-    protected double[] extractDeformation(final AbstractSubset subset) {
+    protected double[] extractDeformation(final int subsetId) {
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(deformationOrder);
         final double[] result = new double[coeffCount];
-        System.arraycopy(deformations.get(subset), 0, result, 0, coeffCount);
+        System.arraycopy(deformations[subsetId], 0, result, 0, coeffCount);
         return result;
     }
 
     // ABSTRACT
-    protected abstract RealVector generateNegativeGradient(final AbstractSubset subset, final double step);
+    /**
+     * @param subsetId
+     * @param resultsBase index of subset results in gpuData
+     * @param step
+     * @param gradient target for negative gradient, coeff count long
+     */
+    protected abstract void generateNegativeGradient(final int subsetId, final int resultsBase, final double step, final double[] gradient);
 
-    protected abstract RealMatrix generateHessianMatrix(final AbstractSubset subset, final double step);
+    /**
+     * @param subsetId
+     * @param resultsBase index of subset results in gpuData
+     * @param step
+     * @param hessian target for hessian matrix, coeff count x coeff count
+     * (row-major)
+     */
+    protected abstract void generateHessianMatrix(final int subsetId, final int resultsBase, final double step, final double[] hessian);
 
-    protected abstract double[] generateDeformations(final double[] solution, final double step);
+    /**
+     * @param solution
+     * @param step
+     * @param target target for deformations, getDeformationCount() x
+     * solution length
+     */
+    protected abstract void generateDeformations(final double[] solution, final double step, final double[] target);
 
-    ///// MISC
-    @Override
-    public void dumpGpuResults(double[] resultData, List<AbstractSubset> subsets, List<double[]> deformationLimits) {
-        this.gpuData = resultData;
+    /**
+     * Copies solution to target and adds steps to given coefficients.
+     *
+     * @param target
+     * @param offset
+     * @param solution
+     * @param i index of first shifted coefficient, negative for none
+     * @param stepI
+     * @param j index of second shifted coefficient, negative for none
+     * @param stepJ
+     * @return offset of next deformation
+     */
+    protected static int appendDeformation(final double[] target, final int offset, final double[] solution,
+            final int i, final double stepI, final int j, final double stepJ) {
+        System.arraycopy(solution, 0, target, offset, solution.length);
+        if (i >= 0) {
+            target[offset + i] += stepI;
+        }
+        if (j >= 0) {
+            target[offset + j] += stepJ;
+        }
+        return offset + solution.length;
     }
 
+    ///// MISC
     @Override
     protected boolean needsBestResult() {
         return false;
@@ -211,79 +228,92 @@ public abstract class NewtonRaphson extends AbstractTaskSolver implements IGPURe
         }
     }
 
-    private class StepMaker implements Callable<AbstractSubset> {
+    private class StepBatch implements Callable<Void> {
 
-        private final AbstractSubset subset;
-        final int coeffCount;
+        private final int from, to;
+        private final int deformationCount;
+        private final int coeffCount;
+        private final boolean[] done;
+        private final double[] gradient;
+        private final double[] hessian;
 
-        public StepMaker(AbstractSubset subset, int coeffCount) {
-            this.subset = subset;
+        StepBatch(final int from, final int to, final int deformationCount, final int coeffCount, final boolean[] done) {
+            this.from = from;
+            this.to = to;
+            this.deformationCount = deformationCount;
             this.coeffCount = coeffCount;
+            this.done = done;
+            gradient = new double[coeffCount];
+            hessian = new double[coeffCount * coeffCount];
         }
 
         @Override
-        public AbstractSubset call() throws Exception {
+        public Void call() {
+            for (int i = from; i < to; i++) {
+                done[i] = makeStep(subsetsToCompute[i], i * deformationCount);
+            }
+            return null;
+        }
+
+        /**
+         * @return true if subset computation is finished
+         */
+        private boolean makeStep(final int subsetId, final int resultsBase) {
+            final AbstractSubset subset = subsets.get(subsetId);
             try {
-                final CorrelationResult oldResult = results.get(subset);
+                // deformation evaluated by last computation is at the start of subset deformations
+                final double[] currentDeformation = deformations[subsetId];
+                final double improvement = computeImprovement(subsetId, currentDeformation);
 
-                final int resultIndex = generateResultIndex(subset);
-                final double currentCorrelationValue = gpuData[resultIndex];
-                final double[] currentDeformation = extractDeformation(subset);
-                final CorrelationResult currentResult = new CorrelationResult(currentCorrelationValue, currentDeformation);
-                results.put(subset, currentResult);
+                final double currentCorrelationValue = gpuData[resultsBase];
+                currentResults.put(subsetId, currentCorrelationValue, currentDeformation, coeffCount);
                 if (currentCorrelationValue > LIMIT_Q_DONE) {
-                    return subset;
+                    return true;
                 }
 
-                final double improvement = computeImprovement(oldResult.getDeformation(), currentResult.getDeformation());
                 if (improvement > LIMIT_MIN_IMPROVEMENT) {
-                    results.put(subset, currentResult);
-                    addSubsetResultInfo(subset, currentResult);
-                } else if (!smallerStep.contains(subset)) {
-                    smallerStep.add(subset);
+                    addSubsetResultInfo(subsetId, currentResults.get(subsetId));
+                } else if (!smallerStep[subsetId]) {
+                    smallerStep[subsetId] = true;
                 } else {
-                    addSubsetTerminationInfo(subset, "Low quality increment");
-                    return subset;
+                    addSubsetTerminationInfo(subsetId, "Low quality increment");
+                    return true;
                 }
 
                 // prepare data for computation
-                final double step = smallerStep.contains(subset) ? STEP_SECOND : STEP_FIRST;
-                final RealVector negativeGradient = generateNegativeGradient(subset, step);
-                final RealMatrix hessianMatrix = generateHessianMatrix(subset, step);
-                // calculate next step
-                final DecompositionSolver solver = new QRDecomposition(hessianMatrix).getSolver();
-                final RealVector solutionVec = solver.solve(negativeGradient);
-                double[] old = results.get(subset).getDeformation();
-                solutionVec.add(new ArrayRealVector(old));
-                // prepare data for next step
-                final double[] solution = solutionVec.toArray();
-                deformations.put(subset, generateDeformations(solution, step));
+                final double step = smallerStep[subsetId] ? STEP_SECOND : STEP_FIRST;
+                generateNegativeGradient(subsetId, resultsBase, step, gradient);
+                generateHessianMatrix(subsetId, resultsBase, step, hessian);
+                // calculate next step, gradient is replaced by solution
+                if (!SymmetricSystemSolver.solve(hessian, gradient, coeffCount)) {
+                    addSubsetTerminationInfo(subsetId, "Singular hessian matrix");
+                    return true;
+                }
+                // prepare data for next step, solution is not added to current deformation
+                // (same update as the original solver), current deformation is already stored in results
+                generateDeformations(gradient, step, currentDeformation);
             } catch (InsufficientDataException ex) {
-                addSubsetTerminationInfo(subset, "Cannot create interpolator.");
-                return subset;
-            } catch (SingularMatrixException ex) {
-                addSubsetTerminationInfo(subset, "Singular hessian matrix");
-                return subset;
+                addSubsetTerminationInfo(subsetId, "Cannot create interpolator.");
+                return true;
             } catch (Exception ex) {
                 if (ex.getStackTrace().length == 0) {
                     Journal.getInstance().addEntry("Subset computation stopped", "{0} stop, exception occured - {1}, no stack trace...", subset, ex);
                 } else {
                     Journal.getInstance().addDataEntry(ex,"Subset computation stopped",  "{0} stop, exception occured.", subset);
                 }
-                addSubsetTerminationInfo(subset, "StepMaker exception - " + ex);
-                return subset;
+                addSubsetTerminationInfo(subsetId, "StepMaker exception - " + ex);
+                return true;
             }
-            return null;
-        }
-
-        private int generateResultIndex(final AbstractSubset subset) {
-            return (int) (subsetsToCompute.indexOf(subset) * getDeformationCount());
+            return false;
         }
 
-        private double computeImprovement(final double[] oldResult, final double[] newResult) {
+        /**
+         * @return improvement of new deformation against stored result
+         */
+        private double computeImprovement(final int subsetId, final double[] newResult) {
             double sum = 0, impr;
-            for (int i = 0; i < oldResult.length; i++) {
-                impr = computeImprovement(oldResult[i], newResult[i]);
+            for (int i = 0; i < coeffCount; i++) {
+                impr = computeImprovement(currentResults.getDeformation(subsetId, i), newResult[i]);
                 sum += impr * impr;
             }
             return Math.sqrt(sum);
@@ -6,16 +6,8 @@
 package cz.tul.dic.engine.solvers;
 
 import cz.tul.dic.data.deformation.DeformationUtils;
-import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.engine.AbstractDeviceManager;
 import cz.tul.dic.engine.platform.Platform;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 
 /**
  *
@@ -30,126 +22,87 @@ public class NewtonRaphsonCentral extends NewtonRaphson {
     // central difference
     // dF / dx = (F(x + h) - F(x - h)) / 2h
     @Override
-    protected RealVector generateNegativeGradient(final AbstractSubset subset, final double step) {
+    protected void generateNegativeGradient(final int subsetId, final int resultsBase, final double step, final double[] data) {
         final int coeffCount = getCoeffCount();
-        final double[] data = new double[coeffCount];
 
-        final int deformationCount = (int) getDeformationCount();
-        final int resultsBase = (subsetsToCompute.indexOf(subset) * deformationCount);
-
-        try {            
-            for (int i = 0; i < coeffCount; i++) {
-                // f(x+h)            
-                data[i] = gpuData[resultsBase + 1 + i];
-                // f(x-h)
-                data[i] -= gpuData[resultsBase + 1 + coeffCount + i];
+        for (int i = 0; i < coeffCount; i++) {
+            // f(x+h)
+            data[i] = gpuData[resultsBase + 1 + i];
+            // f(x-h)
+            data[i] -= gpuData[resultsBase + 1 + coeffCount + i];
 
-                data[i] /= 2 * step;
-                data[i] *= -1;
-            }
-        } catch (Exception ex) {
-            System.err.println("ERROR");
+            data[i] /= 2 * step;
+            data[i] *= -1;
         }
-        return new ArrayRealVector(data);
     }
 
     // d^2 F / dx1 dx2 = (F(x1 + h, x2 + h) - F(x1 + h, x2 - h) - F(x1 - h, x2 + h) + F(x1 - h, x2 - h)) / (2h)^2
     @Override
-    protected RealMatrix generateHessianMatrix(final AbstractSubset subset, final double step) {
+    protected void generateHessianMatrix(final int subsetId, final int resultsBase, final double step, final double[] data) {
         final int coeffCount = getCoeffCount();
-        final double[][] data = new double[coeffCount][coeffCount];
-
-        final int deformationCount = (int) getDeformationCount();
-        final int resultsBase = (subsetsToCompute.indexOf(subset) * deformationCount);
 
         final double step212 = 12 * step * step;
         for (int i = 0; i < coeffCount; i++) {
-            data[i][i] = -gpuData[resultsBase + generatePositiveDoubleStepIndex(i, i, coeffCount)];
-            data[i][i] += 16 * gpuData[resultsBase + 1 + i];
-            data[i][i] -= 30 * gpuData[resultsBase];
-            data[i][i] += 16 * gpuData[resultsBase + 1 + coeffCount + i];
-            data[i][i] -= gpuData[resultsBase + generateNegativeDoubleStepIndex(i, i, coeffCount)];
+            data[i * coeffCount + i] = -gpuData[resultsBase + generatePositiveDoubleStepIndex(i, i, coeffCount)];
+            data[i * coeffCount + i] += 16 * gpuData[resultsBase + 1 + i];
+            data[i * coeffCount + i] -= 30 * gpuData[resultsBase];
+            data[i * coeffCount + i] += 16 * gpuData[resultsBase + 1 + coeffCount + i];
+            data[i * coeffCount + i] -= gpuData[resultsBase + generateNegativeDoubleStepIndex(i, i, coeffCount)];
 
-            data[i][i] /= step212;
+            data[i * coeffCount + i] /= step212;
         }
 
         final double step4 = 4 * step * step;
         for (int i = 0; i < coeffCount; i++) {
             for (int j = i + 1; j < coeffCount; j++) {
-                data[i][j] = gpuData[resultsBase + generatePositiveDoubleStepIndex(i, j, coeffCount)];
-                data[i][j] -= gpuData[resultsBase + generatePositiveNegativeDoubleStepIndex(i, j, coeffCount)];
-                data[i][j] -= gpuData[resultsBase + generateNegativePositiveDoubleStepIndex(i, j, coeffCount)];
-                data[i][j] += gpuData[resultsBase + generateNegativeDoubleStepIndex(i, j, coeffCount)];
+                data[i * coeffCount + j] = gpuData[resultsBase + generatePositiveDoubleStepIndex(i, j, coeffCount)];
+                data[i * coeffCount + j] -= gpuData[resultsBase + generatePositiveNegativeDoubleStepIndex(i, j, coeffCount)];
+                data[i * coeffCount + j] -= gpuData[resultsBase + generateNegativePositiveDoubleStepIndex(i, j, coeffCount)];
+                data[i * coeffCount + j] += gpuData[resultsBase + generateNegativeDoubleStepIndex(i, j, coeffCount)];
 
-                data[i][j] /= step4;
-                data[j][i] = data[i][j];
+                data[i * coeffCount + j] /= step4;
+                data[j * coeffCount + i] = data[i * coeffCount + j];
             }
         }
-
-        return new Array2DRowRealMatrix(data, false);
     }
 
     @Override
-    protected double[] generateDeformations(double[] solution, double step) {
+    protected void generateDeformations(final double[] solution, final double step, final double[] result) {
         final int coeffCount = solution.length;
-        final List<double[]> resultA = new ArrayList<>();
         // f(x)
-        resultA.add(Arrays.copyOf(solution, coeffCount));
+        int offset = appendDeformation(result, 0, solution, -1, 0, -1, 0);
         // f(x + h)
-        double[] deformation;
         for (int i = 0; i < coeffCount; i++) {
-            deformation = Arrays.copyOf(solution, coeffCount);
-            deformation[i] += step;
-            resultA.add(deformation);
+            offset = appendDeformation(result, offset, solution, i, step, -1, 0);
         }
         // f(x - h)
         for (int i = 0; i < coeffCount; i++) {
-            deformation = Arrays.copyOf(solution, coeffCount);
-            deformation[i] -= step;
-            resultA.add(deformation);
+            offset = appendDeformation(result, offset, solution, i, -step, -1, 0);
         }
         // f(x + h + k)
         for (int i = 0; i < coeffCount; i++) {
             for (int j = 0; j < coeffCount; j++) {
-                deformation = Arrays.copyOf(solution, coeffCount);
-                deformation[i] += step;
-                deformation[j] += step;
-                resultA.add(deformation);
+                offset = appendDeformation(result, offset, solution, i, step, j, step);
             }
         }
         // f(x - h - k)
         for (int i = 0; i < coeffCount; i++) {
             for (int j = 0; j < coeffCount; j++) {
-                deformation = Arrays.copyOf(solution, coeffCount);
-                deformation[i] -= step;
-                deformation[j] -= step;
-                resultA.add(deformation);
+                offset = appendDeformation(result, offset, solution, i, -step, j, -step);
             }
         }
         // f(x + h - k)
         for (int i = 0; i < coeffCount; i++) {
             for (int j = 0; j < coeffCount; j++) {
-                deformation = Arrays.copyOf(solution, coeffCount);
-                deformation[i] += step;
-                deformation[j] -= step;
-                resultA.add(deformation);
+                offset = appendDeformation(result, offset, solution, i, step, j, -step);
             }
         }
         // f(x - h + k)
         for (int i = 0; i < coeffCount; i++) {
             for (int j = 0; j < coeffCount; j++) {
-                deformation = Arrays.copyOf(solution, coeffCount);
-                deformation[i] -= step;
-                deformation[j] += step;
-                resultA.add(deformation);
+                offset = appendDeformation(result, offset, solution, i, -step, j, step);
             }
         }
-        // create resulting array
-        final double[] result = new double[coeffCount * resultA.size()];
-        for (int i = 0; i < resultA.size(); i++) {
-            System.arraycopy(resultA.get(i), 0, result, i * coeffCount, coeffCount);
-        }
-        return result;
     }
 
     private int generatePositiveDoubleStepIndex(final int i, final int j, final int coeffCount) {
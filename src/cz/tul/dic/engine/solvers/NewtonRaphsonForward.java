@@ -6,16 +6,8 @@
 package cz.tul.dic.engine.solvers;
 
 import cz.tul.dic.data.deformation.DeformationUtils;
-import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.engine.AbstractDeviceManager;
 import cz.tul.dic.engine.platform.Platform;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 
 /**
  *
@@ -30,12 +22,8 @@ public class NewtonRaphsonForward extends NewtonRaphson {
     // forward difference
     // dF / dx = (F(x + h) - F(x)) / h
     @Override
-    protected RealVector generateNegativeGradient(final AbstractSubset subset, final double step) {
+    protected void generateNegativeGradient(final int subsetId, final int resultsBase, final double step, final double[] data) {
         final int coeffCount = getCoeffCount();
-        final double[] data = new double[coeffCount];
-
-        final int deformationCount = (int) getDeformationCount();
-        final int resultsBase = (subsetsToCompute.indexOf(subset) * deformationCount);
 
         for (int i = 0; i < coeffCount; i++) {
             // right
@@ -46,33 +34,26 @@ public class NewtonRaphsonForward extends NewtonRaphson {
             data[i] /= step;
             data[i] *= -1;
         }
-        return new ArrayRealVector(data);
     }
 
     // d^2 F / dx1 dx2 = (F(x1 + h, x2 + h) - F(x1 + h) - F(x2 + h) + F(x)) / (2h)
     @Override
-    protected RealMatrix generateHessianMatrix(final AbstractSubset subset, final double step) {
+    protected void generateHessianMatrix(final int subsetId, final int resultsBase, final double step, final double[] data) {
         final int coeffCount = getCoeffCount();
-        final double[][] data = new double[coeffCount][coeffCount];
-
-        final int deformationCount = (int) getDeformationCount();
-        final int resultsBase = (subsetsToCompute.indexOf(subset) * deformationCount);
 
         final double step2 = step * step;
         // direct approach with forward difference        
         for (int i = 0; i < coeffCount; i++) {
             for (int j = i; j < coeffCount; j++) {
-                data[i][j] = gpuData[resultsBase + generateDoubleStepIndex(i, j, coeffCount)];
-                data[i][j] -= gpuData[resultsBase + 1 + i];
-                data[i][j] -= gpuData[resultsBase + 1 + j];
-                data[i][j] += gpuData[resultsBase];
-                data[i][j] /= step2;
+                data[i * coeffCount + j] = gpuData[resultsBase + generateDoubleStepIndex(i, j, coeffCount)];
+                data[i * coeffCount + j] -= gpuData[resultsBase + 1 + i];
+                data[i * coeffCount + j] -= gpuData[resultsBase + 1 + j];
+                data[i * coeffCount + j] += gpuData[resultsBase];
+                data[i * coeffCount + j] /= step2;
                 
-                data[j][i] = data[i][j];
+                data[j * coeffCount + i] = data[i * coeffCount + j];
             }
         }
-
-        return new Array2DRowRealMatrix(data);
     }
     
     private int generateDoubleStepIndex(final int i, final int j, final int coeffCount) {
@@ -88,34 +69,21 @@ public class NewtonRaphsonForward extends NewtonRaphson {
     }
 
     @Override
-    protected double[] generateDeformations(double[] solution, double step) {
+    protected void generateDeformations(final double[] solution, final double step, final double[] result) {
         final int coeffCount = solution.length;
-        final List<double[]> resultA = new ArrayList<>();
         // f(x)
-        resultA.add(Arrays.copyOf(solution, coeffCount));
+        int offset = appendDeformation(result, 0, solution, -1, 0, -1, 0);
         // f(x + h)
-        double[] deformation;
         for (int i = 0; i < coeffCount; i++) {
-            deformation = Arrays.copyOf(solution, coeffCount);
-            deformation[i] += step;
-            resultA.add(deformation);
+            offset = appendDeformation(result, offset, solution, i, step, -1, 0);
         }
         // f(x + h + k)
         for (int i = 0; i < coeffCount; i++) {
             for (int j = i; j < coeffCount; j++) {
-                deformation = Arrays.copyOf(solution, coeffCount);
-                deformation[i] += step;
-                deformation[j] += step;
-                resultA.add(deformation);
+                offset = appendDeformation(result, offset, solution, i, step, j, step);
             }
         }
-        // create resulting array
-        final double[] result = new double[coeffCount * resultA.size()];
-        for (int i = 0; i < resultA.size(); i++) {
-            System.arraycopy(resultA.get(i), 0, result, i * coeffCount, coeffCount);
-        }
-        return result;
-    }       
+    }
 
     @Override
     public long getDeformationCount() {
@@ -5,20 +5,18 @@
  */
 package cz.tul.dic.engine.solvers;
 
+import cz.tul.dic.data.Image;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.subset.SubsetDeformator;
 import cz.tul.dic.engine.AbstractDeviceManager;
 import cz.tul.dic.engine.platform.Platform;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.math3.analysis.BivariateFunction;
 import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
 import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolator;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.RealMatrix;
 
 /**
  *
@@ -34,26 +32,16 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
     }
 
     @Override
-    protected double[] generateDeformations(double[] solution, double step) {
+    protected void generateDeformations(final double[] solution, final double step, final double[] result) {
         final int coeffCount = solution.length;
-        final List<double[]> resultA = new ArrayList<>();
         // f(x)
-        resultA.add(Arrays.copyOf(solution, coeffCount));
+        int offset = appendDeformation(result, 0, solution, -1, 0, -1, 0);
         // f(x + h)
-        double[] deformation;
         for (int i = 0; i < coeffCount; i++) {
-            deformation = Arrays.copyOf(solution, coeffCount);
-            deformation[i] += step;
-            resultA.add(deformation);
+            offset = appendDeformation(result, offset, solution, i, step, -1, 0);
         }
-        // create resulting array
-        final double[] result = new double[coeffCount * resultA.size()];
-        for (int i = 0; i < resultA.size(); i++) {
-            System.arraycopy(resultA.get(i), 0, result, i * coeffCount, coeffCount);
-        }
-        return result;
-    }   
-    
+    }
+
     @Override
     public long getDeformationCount() {
         deformationOrder = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
@@ -62,26 +50,24 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
     }
 
     @Override
-    protected RealMatrix generateHessianMatrix(final AbstractSubset subset, final double step) {
+    protected void generateHessianMatrix(final int subsetId, final int resultsBase, final double step, final double[] data) {
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(deformationOrder);
-        final double[][] data = new double[coeffCount][coeffCount];
 
-        final double[] deformation = extractDeformation(subset);
+        final AbstractSubset subset = subsets.get(subsetId);
+        final double[] deformation = extractDeformation(subsetId);
         final SubsetDeformator deformator = new SubsetDeformator();
 
-        final byte[][] image = fullTask.getImageB().to2DBWArray();
+        final Image image = fullTask.getImageB();
         final Map<int[], double[]> deformedSubset = deformator.deformSubset(subset, deformation);
         final PiecewiseBicubicSplineInterpolatingFunction interpolationFunction = prepareInterpolator(deformedSubset, image);
         final double firstSum = computeFirstSum(deformedSubset, interpolationFunction);
 
         for (int i = 0; i < coeffCount; i++) {
             for (int j = i; j < coeffCount; j++) {
-                data[i][j] = firstSum * computeSecondSum(i, j, subset, deformedSubset, interpolationFunction);
-                data[j][i] = data[i][j];
+                data[i * coeffCount + j] = firstSum * computeSecondSum(i, j, subset, deformedSubset, interpolationFunction);
+                data[j * coeffCount + i] = data[i * coeffCount + j];
             }
         }
-
-        return new Array2DRowRealMatrix(data, false);
     }
 
     private double computeFirstSum(final Map<int[], double[]> deformedSubset, final PiecewiseBicubicSplineInterpolatingFunction interpolation) {
@@ -113,9 +99,11 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
     }
 
     private PiecewiseBicubicSplineInterpolatingFunction prepareInterpolator(
-            final Map<int[], double[]> deformedSubset, final byte[][] image) {
-        int leftX = image.length - 1;
-        int topY = image[0].length - 1;
+            final Map<int[], double[]> deformedSubset, final Image image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        int leftX = width - 1;
+        int topY = height - 1;
         int rightX = 0;
         int bottomY = 0;
         for (double[] val : deformedSubset.values()) {
@@ -130,20 +118,20 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
         } else {
             leftX = 0;
         }
-        if (rightX < image.length - 1) {
+        if (rightX < width - 1) {
             rightX++;
         } else {
-            rightX = image.length - 1;
+            rightX = width - 1;
         }
         if (topY > 0) {
             topY--;
         } else {
             topY = 0;
         }
-        if (bottomY < image[0].length - 1) {
+        if (bottomY < height - 1) {
             bottomY++;
         } else {
-            bottomY = image[0].length - 1;
+            bottomY = height - 1;
         }
 
         final int pointCountX = rightX - leftX + 1;
@@ -156,7 +144,7 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
 
             for (int y = topY; y <= bottomY; y++) {
                 yval[y - topY] = y;
-                fval[x - leftX][y - topY] = image[x][y];
+                fval[x - leftX][y - topY] = image.getSample(x, y);
             }
         }
 
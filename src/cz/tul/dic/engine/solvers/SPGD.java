@@ -9,27 +9,19 @@ import cz.tul.dic.ComputationException;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
 import cz.tul.dic.data.subset.AbstractSubset;
-import cz.tul.dic.data.task.ComputationTask;
-import cz.tul.dic.debug.IGPUResultsReceiver;
-import cz.tul.dic.engine.Engine;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.pj.journal.Journal;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
-public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
+public class SPGD extends AbstractTaskSolver {
 
     private static final int LIMIT_ITERATIONS = 200;
     private static final double LIMIT_Q_DONE = 0.999;
@@ -39,8 +31,8 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
     private static final double PERTUBATION_AMPLITUDE_SECOND = 0.01;
     private static final int PERTUBATION_AMPLITUDE_WEIGHT = 5;
     private static final double GAIN_SYSTEM = 100;
-    private Map<AbstractSubset, double[]> deformationsPertubations;
-    private Map<AbstractSubset, Integer> weightsPertubations;
+    private double[][] deformationsPertubations;
+    private int[] weightsPertubations;
     private DeformationOrder defOrder;
 
     public SPGD(Platform platform) {
@@ -48,15 +40,14 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
     }
 
     @Override
-    public List<CorrelationResult> solve() throws ComputationException {
-        if (fullTask.getSubsets().isEmpty()) {
-            return new ArrayList<>(0);
+    public CorrelationResultBlock solve() throws ComputationException {
+        if (subsets.isEmpty()) {
+            return new CorrelationResultBlock(0, 0);
         }
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
         final int subsetCount = subsets.size();
 
-        deformationsPertubations = new LinkedHashMap<>(subsetCount);
-        weightsPertubations = new LinkedHashMap<>(subsetCount);
+        deformationsPertubations = new double[subsetCount][];
+        weightsPertubations = new int[subsetCount];
 
         defOrder = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
 
@@ -65,7 +56,6 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         notifyProgress(subsetCount, subsetCount);
 
         // initial data for solver
-        registerGPUDataListener(this);
         prepareDeformations();
         prepareWeightsPertubations(usesWeights);
         computeStep();
@@ -73,56 +63,46 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         for (int i = 0; i < LIMIT_ITERATIONS; i++) {
             makeStep();
 
-            notifyProgress(subsetsToCompute.size(), subsetCount);
+            notifyProgress(subsetsToCompute.length, subsetCount);
 
-            if (subsetsToCompute.isEmpty()) {
+            if (subsetsToCompute.length == 0) {
                 break;
             }
         }
 
-        deregisterGPUDataListener(this);
-
-        return new ArrayList<>(results.values());
+        return CorrelationResultBlock.pack(Arrays.asList(results));
     }
 
     private void computeStep() throws ComputationException {
-        final List<double[]> deformationsToCompute = new ArrayList<>(subsetsToCompute.size());
-        final List<Integer> weightsToCompute = new ArrayList<>(subsetsToCompute.size());
+        final int subsetCount = subsets.size();
+        final double[][] deformationsToCompute = new double[subsetCount][];
         if (!usesWeights) {
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(generateDeformation(deformations.get(subset), deformationsPertubations.get(subset)));
-                weightsToCompute.add(weights.get(subset));
+            for (int id : subsetsToCompute) {
+                deformationsToCompute[id] = generateDeformation(deformations[id], deformationsPertubations[id]);
             }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeTask(kernel, createTask(subsetsToCompute, deformationsToCompute, weights, defOrder));
         } else {
             final List<double[]> gpuDataList = new ArrayList<>(3);
+            final int[] weightsToCompute = new int[subsetCount];
 
             // result after step
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(deformations.get(subset));
-                weightsToCompute.add(weights.get(subset));
-            }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeTask(kernel, createTask(subsetsToCompute, deformations, weights, defOrder));
             gpuDataList.add(gpuData);
 
             // result - pertubation
-            deformationsToCompute.clear();
-            weightsToCompute.clear();
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(subtract(deformations.get(subset), deformationsPertubations.get(subset)));
-                weightsToCompute.add(weights.get(subset) - weightsPertubations.get(subset));
+            for (int id : subsetsToCompute) {
+                deformationsToCompute[id] = subtract(deformations[id], deformationsPertubations[id]);
+                weightsToCompute[id] = weights[id] - weightsPertubations[id];
             }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeTask(kernel, createTask(subsetsToCompute, deformationsToCompute, weightsToCompute, defOrder));
             gpuDataList.add(gpuData);
 
             // result + pertubation
-            deformationsToCompute.clear();
-            weightsToCompute.clear();
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(add(deformations.get(subset), deformationsPertubations.get(subset)));
-                weightsToCompute.add(weights.get(subset) + weightsPertubations.get(subset));
+            for (int id : subsetsToCompute) {
+                deformationsToCompute[id] = add(deformations[id], deformationsPertubations[id]);
+                weightsToCompute[id] = weights[id] + weightsPertubations[id];
             }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeTask(kernel, createTask(subsetsToCompute, deformationsToCompute, weightsToCompute, defOrder));
             gpuDataList.add(gpuData);
 
             // join data together
@@ -160,20 +140,17 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
 
     private void prepareInitialResults() throws ComputationException {
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(defOrder);
-        final List<AbstractSubset> subsets = fullTask.getSubsets();
         final int subsetCount = subsets.size();
-        AbstractSubset subset;
-        for (int i = 0; i < subsetCount; i++) {
-            subset = subsets.get(i);
-            results.put(subset, new CorrelationResult(-Double.MAX_VALUE, new double[coeffCount]));
-            addSubsetResultInfo(subset, results.get(subset));
+        for (int id = 0; id < subsetCount; id++) {
+            results[id] = new CorrelationResult(-Double.MAX_VALUE, new double[coeffCount]);
+            addSubsetResultInfo(id, results[id]);
         }
     }
 
     private void prepareDeformations() {
-        for (AbstractSubset subset : subsetsToCompute) {
-            deformationsPertubations.put(subset, generateDeformationPertubation(defOrder));
-            deformations.put(subset, results.get(subset).getDeformation());
+        for (int id : subsetsToCompute) {
+            deformationsPertubations[id] = generateDeformationPertubation(defOrder);
+            deformations[id] = results[id].getDeformation();
         }
     }
 
@@ -213,8 +190,8 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
     }
 
     private void prepareWeightsPertubations(final boolean usesWeights) {
-        for (AbstractSubset subset : subsetsToCompute) {
-            weightsPertubations.put(subset, generateWeightPertubation(usesWeights));
+        for (int id : subsetsToCompute) {
+            weightsPertubations[id] = generateWeightPertubation(usesWeights);
         }
     }
 
@@ -235,24 +212,23 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
      * @throws ComputationException
      */
     private void makeStep() throws ComputationException {
-        final ExecutorService exec = Engine.getInstance().getExecutorService();
-        final Set<Future<AbstractSubset>> steps = new HashSet<>(subsetsToCompute.size());
-
-        final Iterator<AbstractSubset> it = subsetsToCompute.iterator();
-        while (it.hasNext()) {
-            final AbstractSubset as = it.next();
-            steps.add(exec.submit(new StepMaker(as, defOrder, usesWeights)));
+        final int count = subsetsToCompute.length;
+        final List<Future<Boolean>> steps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            steps.add(exec.submit(new StepMaker(subsetsToCompute[i], i * 3, defOrder, usesWeights)));
         }
 
-        for (Future<AbstractSubset> fas : steps) {
+        final boolean[] done = new boolean[count];
+        for (int i = 0; i < count; i++) {
             try {
-                subsetsToCompute.remove(fas.get());
+                done[i] = steps.get(i).get();
             } catch (InterruptedException | ExecutionException ex) {
                 Journal.getInstance().addDataEntry(ex, "Solver error", "Error retrieving result after computing new step.");
             }
         }
+        subsetsToCompute = filterIds(subsetsToCompute, done);
 
-        if (!subsetsToCompute.isEmpty()) {
+        if (subsetsToCompute.length > 0) {
             computeStep();
         }
     }
@@ -271,43 +247,42 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         }
     }
 
-    @Override
-    public void dumpGpuResults(double[] resultData, List<AbstractSubset> subsets, List<double[]> deformationLimits) {
-        this.gpuData = resultData;
-    }
-
     @Override
     public long getDeformationCount() {
         return 3;
     }
 
-    private class StepMaker implements Callable<AbstractSubset> {
+    private class StepMaker implements Callable<Boolean> {
 
-        private final AbstractSubset subset;
+        private final int subsetId;
+        private final int resultsBase;
         private final DeformationOrder order;
         private final boolean usesWeights;
 
-        public StepMaker(AbstractSubset subset, final DeformationOrder order, boolean usesWeights) {
-            this.subset = subset;
+        public StepMaker(final int subsetId, final int resultsBase, final DeformationOrder order, boolean usesWeights) {
+            this.subsetId = subsetId;
+            this.resultsBase = resultsBase;
             this.order = order;
             this.usesWeights = usesWeights;
         }
 
+        /**
+         * @return true if subset computation is finished
+         */
         @Override
-        public AbstractSubset call() throws Exception {
+        public Boolean call() throws Exception {
+            final AbstractSubset subset = subsets.get(subsetId);
             try {
-                final int subsetIndex = subsetsToCompute.indexOf(subset);
-                final int resultsBase = (subsetIndex * 3);
                 // check result quality
                 final double correlationValue = gpuData[resultsBase];
-                final double[] currentDeformation = extractDeformation(subset, order);
+                final double[] currentDeformation = extractDeformation(order);
                 final CorrelationResult newResult = new CorrelationResult(correlationValue, currentDeformation);
-                results.put(subset, newResult);
-                addSubsetResultInfo(subset, newResult);
+                results[subsetId] = newResult;
+                addSubsetResultInfo(subsetId, newResult);
 
                 if (newResult.getQuality() >= LIMIT_Q_DONE) {
-                    addSubsetTerminationInfo(subset, "Good quality");
-                    return subset;
+                    addSubsetTerminationInfo(subsetId, "Good quality");
+                    return true;
                 }
 
                 final double correlationMinus = gpuData[resultsBase + 1];
@@ -315,43 +290,43 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
                 final double dJ = correlationPlus - correlationMinus;
 
                 if (Math.abs(dJ) < LIMIT_Q_DIFF) {
-                    addSubsetTerminationInfo(subset, "Low dJ");
-                    return subset;
+                    addSubsetTerminationInfo(subsetId, "Low dJ");
+                    return true;
                 }
 
                 // prepare data for next step
-                final double[] currentDeformationPertubation = deformationsPertubations.get(subset);
+                final double[] currentDeformationPertubation = deformationsPertubations[subsetId];
                 final double[] nextDeformation = new double[currentDeformation.length];
                 for (int i = 0; i < nextDeformation.length; i++) {
                     // new = old + Gain * Pertubation * dJ
                     nextDeformation[i] = currentDeformation[i] + (GAIN_SYSTEM * currentDeformationPertubation[i] * dJ);
                 }
                 final double[] nextDeformationPertubation = generateDeformationPertubation(order);
-                deformationsPertubations.put(subset, nextDeformationPertubation);
-                deformations.put(subset, nextDeformation);
+                deformationsPertubations[subsetId] = nextDeformationPertubation;
+                deformations[subsetId] = nextDeformation;
 
-                final int currentWeight = weights.get(subset);
-                final int currentWeightPertuation = weightsPertubations.get(subset);
+                final int currentWeight = weights[subsetId];
+                final int currentWeightPertuation = weightsPertubations[subsetId];
                 final int nextWeight = (int) (currentWeight + Math.round(GAIN_SYSTEM * currentWeightPertuation + dJ));
                 final int nextWeightPertubation = generateWeightPertubation(usesWeights);
-                weightsPertubations.put(subset, nextWeightPertubation);
-                weights.put(subset, nextWeight);
+                weightsPertubations[subsetId] = nextWeightPertubation;
+                weights[subsetId] = nextWeight;
             } catch (Exception ex) {
                 if (ex.getStackTrace().length == 0) {
                     Journal.getInstance().addEntry("Subset computation stopped", "{0} stop, exception occured - {1}, no stack trace...", subset, ex);
                 } else {
                     Journal.getInstance().addDataEntry(ex, "Subset computation stopped", "{0} stop, exception occured.", subset);
                 }
-                addSubsetTerminationInfo(subset, "StepMaker exception - " + ex);
-                return subset;
+                addSubsetTerminationInfo(subsetId, "StepMaker exception - " + ex);
+                return true;
             }
-            return null;
+            return false;
         }
 
-        private double[] extractDeformation(final AbstractSubset subset, final DeformationOrder order) {
+        private double[] extractDeformation(final DeformationOrder order) {
             final int coeffCount = DeformationUtils.getDeformationCoeffCount(order);
             final double[] result = new double[coeffCount];
-            System.arraycopy(deformations.get(subset), 0, result, 0, coeffCount);
+            System.arraycopy(deformations[subsetId], 0, result, 0, coeffCount);
             return result;
         }
     }
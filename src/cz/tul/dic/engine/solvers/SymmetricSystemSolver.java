@@ -0,0 +1,88 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.solvers;
+
+/**
+ * LDL^T solver for small dense symmetric systems (Newton steps). Works in
+ * place on flat row-major arrays, so callers can reuse their buffers and no
+ * objects are allocated.
+ *
+ * @author Petr Jecmen
+ */
+final class SymmetricSystemSolver {
+
+    // diagonal is scaled by (1 + REGULARIZATION) to keep nearly singular systems stable
+    private static final double REGULARIZATION = 1e-12;
+    private static final double LIMIT_PIVOT = 1e-10;
+
+    private SymmetricSystemSolver() {
+    }
+
+    /**
+     * Solves A * x = b. Lower triangle of A is used as input, whole array is
+     * overwritten by factorization.
+     *
+     * @param a symmetric matrix n x n, row-major
+     * @param b right side, replaced by solution
+     * @param n system size
+     * @return false if the matrix is singular (b content is undefined)
+     */
+    static boolean solve(final double[] a, final double[] b, final int n) {
+        double scale = 0;
+        for (int i = 0; i < n; i++) {
+            scale = Math.max(scale, Math.abs(a[i * n + i]));
+        }
+        if (scale == 0 || !Double.isFinite(scale)) {
+            return false;
+        }
+        final double limit = LIMIT_PIVOT * scale;
+
+        // L is stored below diagonal, D on diagonal, L(j, k) * D(k) above diagonal
+        double d, sum;
+        for (int j = 0; j < n; j++) {
+            d = a[j * n + j] * (1 + REGULARIZATION);
+            for (int k = 0; k < j; k++) {
+                a[k * n + j] = a[j * n + k] * a[k * n + k];
+                d -= a[j * n + k] * a[k * n + j];
+            }
+            if (Math.abs(d) <= limit || !Double.isFinite(d)) {
+                return false;
+            }
+            a[j * n + j] = d;
+
+            for (int i = j + 1; i < n; i++) {
+                sum = a[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= a[i * n + k] * a[k * n + j];
+                }
+                a[i * n + j] = sum / d;
+            }
+        }
+
+        // L * y = b
+        for (int i = 0; i < n; i++) {
+            sum = b[i];
+            for (int k = 0; k < i; k++) {
+                sum -= a[i * n + k] * b[k];
+            }
+            b[i] = sum;
+        }
+        // D * z = y
+        for (int i = 0; i < n; i++) {
+            b[i] /= a[i * n + i];
+        }
+        // L^T * x = z
+        for (int i = n - 1; i >= 0; i--) {
+            sum = b[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= a[k * n + i] * b[k];
+            }
+            b[i] = sum;
+        }
+        return true;
+    }
+
+}
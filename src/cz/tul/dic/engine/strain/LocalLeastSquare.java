@@ -5,13 +5,13 @@
  */
 package cz.tul.dic.engine.strain;
 
-import cz.tul.dic.Utils;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.debug.DebugControl;
 import cz.tul.dic.debug.Stats;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.output.Direction;
 import cz.tul.dic.output.NameGenerator;
 import cz.tul.pj.journal.Journal;
@@ -49,40 +49,40 @@ public class LocalLeastSquare extends StrainEstimator {
         }
 
         final Result subResult = tc.getResult(roundFrom, roundTo);
-        final double[][][] displacement = subResult.getDisplacementResult().getDisplacement();
+        final VectorField displacement = subResult.getDisplacementResult().getDisplacement();
         if (displacement != null) {
-            final int width = displacement.length;
-            final int height = displacement[0].length;
+            final int width = displacement.getWidth();
+            final int height = displacement.getHeight();
 
             final double mm = (double) tc.getParameter(TaskParameter.STRAIN_ESTIMATION_PARAM);
             final double mmToPx = (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
             final int windowSize = (int) Math.ceil(mm * mmToPx);
 
-            final List<ExecutionUnit> l = new ArrayList<>(width * height);
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
+            final List<ExecutionUnit> l = new ArrayList<>(displacement.countValid());
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
                     if (stop) {
                         return;
                     }
 
-                    if (displacement[x][y] != null) {
+                    if (displacement.isValid(x, y)) {
                         l.add(new ExecutionUnit(x, y, displacement, windowSize));
                     }
                 }
             }
 
-            final double[][][] result = new double[width][height][];
-            final double[][] resultQualityU = Utils.generateNaNarray(width, height);
-            final double[][] resultQualityV = Utils.generateNaNarray(width, height);
+            final VectorField result = new VectorField(width, height, 3);
+            final VectorField resultQualityU = new VectorField(width, height, 1);
+            final VectorField resultQualityV = new VectorField(width, height, 1);
             try {
                 final List<Future<ExecutionUnit>> results = exec.invokeAll(l);
 
                 ExecutionUnit eu;
                 for (Future<ExecutionUnit> f : results) {
                     eu = f.get();
-                    result[eu.getX()][eu.getY()] = eu.getResult();
-                    resultQualityU[eu.getX()][eu.getY()] = eu.getErrors()[0];
-                    resultQualityV[eu.getX()][eu.getY()] = eu.getErrors()[1];
+                    result.set(eu.getX(), eu.getY(), eu.getResult());
+                    resultQualityU.set(eu.getX(), eu.getY(), 0, eu.getErrors()[0]);
+                    resultQualityV.set(eu.getX(), eu.getY(), 0, eu.getErrors()[1]);
                 }
             } catch (InterruptedException | ExecutionException ex) {
                 Journal.getInstance().addDataEntry(ex, "Error wcomputing strain using LLS.");
@@ -99,21 +99,19 @@ public class LocalLeastSquare extends StrainEstimator {
         }
     }
 
-    private static double[] computeCoeffs(final double[][][] data, final int x, final int y, final int radius) {
+    private static double[] computeCoeffs(final VectorField data, final int x, final int y, final int radius) {
         final List<double[]> xU = new LinkedList<>();
         final List<Double> yU = new LinkedList<>();
         final List<double[]> xV = new LinkedList<>();
         final List<Double> yV = new LinkedList<>();
 
-        final int width = data.length;
-        final int height = data[x].length;
         for (int i = x - radius; i <= x + radius; i++) {
             for (int j = y - radius; j <= y + radius; j++) {
-                if (areIndexesValid(i, j, width, height, data)) {
+                if (data.isValid(i, j)) {
                     xU.add(new double[]{1, i - x, j - y});
-                    yU.add(data[i][j][0]);
+                    yU.add(data.get(i, j, 0));
                     xV.add(new double[]{1, i - x, j - y});
-                    yV.add(data[i][j][1]);
+                    yV.add(data.get(i, j, 1));
                 }
             }
         }
@@ -156,10 +154,6 @@ public class LocalLeastSquare extends StrainEstimator {
         return result;
     }
 
-    private static boolean areIndexesValid(int i, int j, final int width, final int height, final double[][][] data) {
-        return i >= 0 && j >= 0 && i < width && j < height && data[i][j] != null;
-    }
-
     private static double[] computeStrains(final double[] coeffs) {
         final double[] result = new double[3];
 
@@ -178,10 +172,10 @@ public class LocalLeastSquare extends StrainEstimator {
     private static class ExecutionUnit implements Callable<ExecutionUnit> {
 
         private final int x, y, ws;
-        private final double[][][] data;
+        private final VectorField data;
         private double[] result, errors;
 
-        public ExecutionUnit(int x, int y, double[][][] data, final int ws) {
+        public ExecutionUnit(int x, int y, VectorField data, final int ws) {
             this.x = x;
             this.y = y;
             this.ws = ws;
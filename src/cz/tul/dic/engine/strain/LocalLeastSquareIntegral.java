@@ -0,0 +1,360 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.strain;
+
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.StrainGrid;
+import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskParameter;
+import cz.tul.dic.debug.DebugControl;
+import cz.tul.dic.debug.Stats;
+import cz.tul.dic.output.Direction;
+import cz.tul.dic.output.NameGenerator;
+import cz.tul.pj.journal.Journal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Same plane fit as {@link LocalLeastSquare}, but sums needed for normal
+ * equations are taken from integral images (summed area tables) built over
+ * valid pixels, so the cost per pixel does not depend on window size. Image
+ * is processed in horizontal tiles (each with its own tables) to limit memory
+ * usage.
+ *
+ * @author Petr Jecmen
+ */
+public class LocalLeastSquareIntegral extends StrainEstimator {
+
+    private static final int TILE_HEIGHT = 64;
+    private static final int MIN_POINT_COUNT = 4;
+    private static final double COEFF_ADJUST = 100;
+    private static final double LIMIT_SINGULAR = 1e-12;
+    // sums stored in integral image, coordinates are relative to tile
+    private static final int S_N = 0;
+    private static final int S_X = 1;
+    private static final int S_Y = 2;
+    private static final int S_XX = 3;
+    private static final int S_XY = 4;
+    private static final int S_YY = 5;
+    private static final int S_U = 6;
+    private static final int S_XU = 7;
+    private static final int S_YU = 8;
+    private static final int S_UU = 9;
+    private static final int S_V = 10;
+    private static final int S_XV = 11;
+    private static final int S_YV = 12;
+    private static final int S_VV = 13;
+    private static final int SUM_COUNT = 14;
+    protected boolean stop;
+
+    public LocalLeastSquareIntegral() {
+        super();
+    }
+
+    @Override
+    public void estimateStrain(TaskContainer tc, int roundFrom, int roundTo) {
+        stop = false;
+        if (roundFrom >= roundTo) {
+            throw new IllegalArgumentException("Source round must be lower than target round.");
+        }
+
+        final Result subResult = tc.getResult(roundFrom, roundTo);
+        final VectorField displacement = subResult.getDisplacementResult().getDisplacement();
+        if (displacement != null) {
+            final int width = displacement.getWidth();
+            final int height = displacement.getHeight();
+
+            final double mm = (double) tc.getParameter(TaskParameter.STRAIN_ESTIMATION_PARAM);
+            final double mmToPx = (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
+            final int windowSize = (int) Math.ceil(mm * mmToPx);
+            final int radius = (int) Math.ceil(windowSize / 2.0);
+
+            final VectorField result = new VectorField(width, height, 3);
+            final VectorField resultQualityU = new VectorField(width, height, 1);
+            final VectorField resultQualityV = new VectorField(width, height, 1);
+            for (Tile tile : computeTiles(displacement, radius, 1, true)) {
+                tile.storeResults(result, resultQualityU, resultQualityV);
+            }
+            if (stop) {
+                return;
+            }
+
+            if (DebugControl.isDebugMode()) {
+                Stats.getInstance().drawRegressionQualities(
+                        tc.getImage(roundTo), resultQualityU, resultQualityV,
+                        NameGenerator.generateRegressionQualityMap(tc, roundTo, Direction.EXX),
+                        NameGenerator.generateRegressionQualityMap(tc, roundTo, Direction.EYY));
+            }
+
+            tc.setResult(roundFrom, roundTo, new Result(subResult, new StrainResult(result, resultQualityU, resultQualityV)));
+        }
+    }
+
+    @Override
+    public void stop() {
+        stop = true;
+    }
+
+    /**
+     * Computes plane fit in grid nodes [i * step, j * step].
+     *
+     * @param displacement
+     * @param radius window radius
+     * @param step grid spacing, 1 for computation in every pixel
+     * @return grid with strain and regression errors
+     */
+    protected StrainGrid computeGrid(final VectorField displacement, final int radius, final int step) {
+        final StrainGrid grid = new StrainGrid(0, 0, step, (displacement.getWidth() - 1) / step + 1, (displacement.getHeight() - 1) / step + 1);
+        for (Tile tile : computeTiles(displacement, radius, step, false)) {
+            tile.storeResults(grid);
+        }
+        return grid;
+    }
+
+    private List<Tile> computeTiles(final VectorField displacement, final int radius, final int step, final boolean requireCenter) {
+        // tiles have to start in grid nodes
+        final int tileHeight = (int) Math.ceil(TILE_HEIGHT / (double) step) * step;
+        final List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < displacement.getHeight(); y += tileHeight) {
+            tiles.add(new Tile(displacement, y, Math.min(y + tileHeight, displacement.getHeight()), radius, step, requireCenter));
+        }
+
+        final List<Tile> result = new ArrayList<>(tiles.size());
+        try {
+            for (Future<Tile> f : exec.invokeAll(tiles)) {
+                result.add(f.get());
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            Journal.getInstance().addDataEntry(ex, "Error computing strain using integral LLS.");
+        }
+        return result;
+    }
+
+    /**
+     * Computes plane fit in grid nodes lying in given lines. Only nodes with
+     * enough valid points in window are computed, if center is required, node
+     * itself has to be valid.
+     */
+    private final class Tile implements Callable<Tile> {
+
+        private final VectorField data;
+        private final int lineStart, lineEnd, radius, step;
+        private final boolean requireCenter;
+        private final int width, tableStart, tableEnd, nodesX, nodesY;
+        private double[] strains, errors;
+        private boolean[] hasStrain, hasError;
+
+        Tile(final VectorField data, final int lineStart, final int lineEnd, final int radius, final int step, final boolean requireCenter) {
+            this.data = data;
+            this.lineStart = lineStart;
+            this.lineEnd = lineEnd;
+            this.radius = radius;
+            this.step = step;
+            this.requireCenter = requireCenter;
+            width = data.getWidth();
+            tableStart = Math.max(0, lineStart - radius);
+            tableEnd = Math.min(data.getHeight(), lineEnd + radius);
+            nodesX = (width - 1) / step + 1;
+            nodesY = (lineEnd - lineStart - 1) / step + 1;
+        }
+
+        @Override
+        public Tile call() {
+            final int nodeCount = nodesX * nodesY;
+            strains = new double[3 * nodeCount];
+            errors = new double[2 * nodeCount];
+            hasStrain = new boolean[nodeCount];
+            hasError = new boolean[nodeCount];
+            if (stop) {
+                return this;
+            }
+
+            final double[] table = buildTable();
+            final double[] sums = new double[SUM_COUNT];
+            final double[] coeffs = new double[6];
+            int p, x, y;
+            for (int j = 0; j < nodesY; j++) {
+                if (stop) {
+                    return this;
+                }
+                y = lineStart + j * step;
+                for (int i = 0; i < nodesX; i++) {
+                    x = i * step;
+                    if (requireCenter && !data.isValid(x, y)) {
+                        continue;
+                    }
+                    p = j * nodesX + i;
+                    windowSums(table, x, y, sums);
+                    if (sums[S_N] < MIN_POINT_COUNT) {
+                        if (requireCenter) {
+                            errors[2 * p] = 1;
+                            errors[2 * p + 1] = 1;
+                            hasError[p] = true;
+                        }
+                        continue;
+                    }
+
+                    hasStrain[p] = true;
+                    hasError[p] = true;
+                    if (solve(sums, x, y - tableStart, coeffs, errors, 2 * p)) {
+                        strains[3 * p + StrainResult.E_XX] = coeffs[1] * COEFF_ADJUST;
+                        strains[3 * p + StrainResult.E_YY] = coeffs[5] * COEFF_ADJUST;
+                        strains[3 * p + StrainResult.E_XY] = 0.5 * (coeffs[4] + coeffs[2]) * COEFF_ADJUST;
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return integral image with {@link #SUM_COUNT} sums per cell,
+         * (width + 1) x (rows + 1) cells
+         */
+        private double[] buildTable() {
+            final int rowLength = (width + 1) * SUM_COUNT;
+            final double[] table = new double[(tableEnd - tableStart + 1) * rowLength];
+            final double[] rowSums = new double[SUM_COUNT];
+            double u, v;
+            int y, base;
+            for (int row = 0; row < tableEnd - tableStart; row++) {
+                y = row + tableStart;
+                Arrays.fill(rowSums, 0);
+                for (int x = 0; x < width; x++) {
+                    if (data.isValid(x, y)) {
+                        u = data.get(x, y, 0);
+                        v = data.get(x, y, 1);
+                        rowSums[S_N] += 1;
+                        rowSums[S_X] += x;
+                        rowSums[S_Y] += row;
+                        rowSums[S_XX] += x * (double) x;
+                        rowSums[S_XY] += x * (double) row;
+                        rowSums[S_YY] += row * (double) row;
+                        rowSums[S_U] += u;
+                        rowSums[S_XU] += x * u;
+                        rowSums[S_YU] += row * u;
+                        rowSums[S_UU] += u * u;
+                        rowSums[S_V] += v;
+                        rowSums[S_XV] += x * v;
+                        rowSums[S_YV] += row * v;
+                        rowSums[S_VV] += v * v;
+                    }
+                    base = (row + 1) * rowLength + (x + 1) * SUM_COUNT;
+                    for (int s = 0; s < SUM_COUNT; s++) {
+                        table[base + s] = table[base - rowLength + s] + rowSums[s];
+                    }
+                }
+            }
+            return table;
+        }
+
+        private void windowSums(final double[] table, final int x, final int y, final double[] sums) {
+            final int rowLength = (width + 1) * SUM_COUNT;
+            final int x1 = Math.max(0, x - radius) * SUM_COUNT;
+            final int x2 = (Math.min(width - 1, x + radius) + 1) * SUM_COUNT;
+            final int y1 = (Math.max(tableStart, y - radius) - tableStart) * rowLength;
+            final int y2 = (Math.min(tableEnd - 1, y + radius) + 1 - tableStart) * rowLength;
+            for (int s = 0; s < SUM_COUNT; s++) {
+                sums[s] = table[y2 + x2 + s] - table[y1 + x2 + s] - table[y2 + x1 + s] + table[y1 + x1 + s];
+            }
+        }
+
+        void storeResults(final VectorField result, final VectorField qualityU, final VectorField qualityV) {
+            int p, x, y;
+            for (int j = 0; j < nodesY; j++) {
+                y = lineStart + j * step;
+                for (int i = 0; i < nodesX; i++) {
+                    x = i * step;
+                    p = j * nodesX + i;
+                    if (hasStrain[p]) {
+                        result.set(x, y, StrainResult.E_XX, strains[3 * p + StrainResult.E_XX]);
+                        result.set(x, y, StrainResult.E_YY, strains[3 * p + StrainResult.E_YY]);
+                        result.set(x, y, StrainResult.E_XY, strains[3 * p + StrainResult.E_XY]);
+                    }
+                    if (hasError[p]) {
+                        qualityU.set(x, y, 0, errors[2 * p]);
+                        qualityV.set(x, y, 0, errors[2 * p + 1]);
+                    }
+                }
+            }
+        }
+
+        void storeResults(final StrainGrid grid) {
+            final int firstRow = lineStart / step;
+            int p;
+            for (int j = 0; j < nodesY; j++) {
+                for (int i = 0; i < nodesX; i++) {
+                    p = j * nodesX + i;
+                    if (hasStrain[p]) {
+                        grid.set(i, firstRow + j,
+                                strains[3 * p + StrainResult.E_XX], strains[3 * p + StrainResult.E_YY], strains[3 * p + StrainResult.E_XY],
+                                errors[2 * p], errors[2 * p + 1]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves normal equations of plane fit centered at [x, y] for both
+     * displacement components.
+     *
+     * @param sums window sums (coordinates relative to tile)
+     * @param coeffs output, a0, a1, a2 (U) and b0, b1, b2 (V)
+     * @param errors output, regression standard error of U and V stored at
+     * offset
+     * @return false if the system is singular (coefficients and errors are
+     * zero then)
+     */
+    private static boolean solve(final double[] sums, final int x, final int y, final double[] coeffs, final double[] errors, final int offset) {
+        final double n = sums[S_N];
+        // center coordinates to [x, y]
+        final double sx = sums[S_X] - n * x;
+        final double sy = sums[S_Y] - n * y;
+        final double sxx = sums[S_XX] - 2 * x * sums[S_X] + n * x * x;
+        final double syy = sums[S_YY] - 2 * y * sums[S_Y] + n * y * y;
+        final double sxy = sums[S_XY] - x * sums[S_Y] - y * sums[S_X] + n * x * y;
+        final double sxu = sums[S_XU] - x * sums[S_U];
+        final double syu = sums[S_YU] - y * sums[S_U];
+        final double sxv = sums[S_XV] - x * sums[S_V];
+        final double syv = sums[S_YV] - y * sums[S_V];
+
+        // inverse of symmetric matrix [n sx sy; sx sxx sxy; sy sxy syy] using cofactors
+        final double c00 = sxx * syy - sxy * sxy;
+        final double c01 = sy * sxy - sx * syy;
+        final double c02 = sx * sxy - sy * sxx;
+        final double c11 = n * syy - sy * sy;
+        final double c12 = sx * sy - n * sxy;
+        final double c22 = n * sxx - sx * sx;
+        final double det = n * c00 + sx * c01 + sy * c02;
+        if (Math.abs(det) <= LIMIT_SINGULAR * n * sxx * syy || det == 0) {
+            Arrays.fill(coeffs, 0);
+            errors[offset] = 0;
+            errors[offset + 1] = 0;
+            return false;
+        }
+
+        coeffs[0] = (c00 * sums[S_U] + c01 * sxu + c02 * syu) / det;
+        coeffs[1] = (c01 * sums[S_U] + c11 * sxu + c12 * syu) / det;
+        coeffs[2] = (c02 * sums[S_U] + c12 * sxu + c22 * syu) / det;
+        coeffs[3] = (c00 * sums[S_V] + c01 * sxv + c02 * syv) / det;
+        coeffs[4] = (c01 * sums[S_V] + c11 * sxv + c12 * syv) / det;
+        coeffs[5] = (c02 * sums[S_V] + c12 * sxv + c22 * syv) / det;
+
+        // residual sum of squares = y'y - beta'X'y
+        final double ssrU = sums[S_UU] - (coeffs[0] * sums[S_U] + coeffs[1] * sxu + coeffs[2] * syu);
+        final double ssrV = sums[S_VV] - (coeffs[3] * sums[S_V] + coeffs[4] * sxv + coeffs[5] * syv);
+        errors[offset] = Math.sqrt(Math.max(0, ssrU) / (n - 3));
+        errors[offset + 1] = Math.sqrt(Math.max(0, ssrV) / (n - 3));
+        return true;
+    }
+
+}
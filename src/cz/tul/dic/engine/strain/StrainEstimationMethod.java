@@ -11,5 +11,7 @@ package cz.tul.dic.engine.strain;
  */
 public enum StrainEstimationMethod {
 
-    LOCAL_LEAST_SQUARES;
+    LOCAL_LEAST_SQUARES,
+    LOCAL_LEAST_SQUARES_INTEGRAL,
+    SUBSET_GRID;
 }
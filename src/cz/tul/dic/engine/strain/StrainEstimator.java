@@ -14,6 +14,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Observable;
 import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
 
 /**
  *
@@ -21,25 +22,29 @@ import java.util.concurrent.ExecutorService;
  */
 public abstract class StrainEstimator extends Observable {
 
-    private static final Map<StrainEstimationMethod, StrainEstimator> data;
-    protected final ExecutorService exec;
+    private static final Map<StrainEstimationMethod, Supplier<StrainEstimator>> data;
+    protected ExecutorService exec;
 
     static {
         data = new EnumMap<>(StrainEstimationMethod.class);
-        data.put(StrainEstimationMethod.LOCAL_LEAST_SQUARES, new LocalLeastSquare());
+        data.put(StrainEstimationMethod.LOCAL_LEAST_SQUARES, LocalLeastSquare::new);
+        data.put(StrainEstimationMethod.LOCAL_LEAST_SQUARES_INTEGRAL, LocalLeastSquareIntegral::new);
+        data.put(StrainEstimationMethod.SUBSET_GRID, SubsetGridStrain::new);
     }
 
-    public StrainEstimator() {
-        this.exec = Engine.getInstance().getExecutorService();
-    }
-    
     public static StrainEstimator initStrainEstimator(final StrainEstimationMethod type) {
+        return initStrainEstimator(type, Engine.getInstance().getExecutorService());
+    }
+
+    public static StrainEstimator initStrainEstimator(final StrainEstimationMethod type, final ExecutorService exec) {
         if (data.containsKey(type)) {
-            return data.get(type);
+            final StrainEstimator result = data.get(type).get();
+            result.exec = exec;
+            return result;
         } else {
             throw new IllegalArgumentException("Unsupported strain estimation - " + type.toString());
         }
-    }    
+    }
 
     public abstract void estimateStrain(final TaskContainer tc, final int roundFrom, int roundTo);
 
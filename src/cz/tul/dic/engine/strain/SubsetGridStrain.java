@@ -0,0 +1,167 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.strain;
+
+import cz.tul.dic.data.deformation.DeformationDirection;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.StrainGrid;
+import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.generator.SubsetGenerator;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskParameter;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Strain is computed only on subset grid and interpolated to pixels when
+ * needed (see {@link StrainResult#StrainResult(StrainGrid, VectorField)}).
+ * If the result contains first order correlation results, strain is taken
+ * directly from deformation gradients of subsets, otherwise plane is fitted
+ * to displacement (as in {@link LocalLeastSquareIntegral}) in grid nodes
+ * with subset spacing. If subsets do not lie on regular grid (random
+ * generator or dynamic generator refining the grid), plane is fitted in every
+ * pixel.
+ *
+ * @author Petr Jecmen
+ */
+public class SubsetGridStrain extends LocalLeastSquareIntegral {
+
+    private static final double COEFF_ADJUST = 100;
+
+    public SubsetGridStrain() {
+        super();
+    }
+
+    @Override
+    public void estimateStrain(TaskContainer tc, int roundFrom, int roundTo) {
+        stop = false;
+        if (roundFrom >= roundTo) {
+            throw new IllegalArgumentException("Source round must be lower than target round.");
+        }
+
+        final Result subResult = tc.getResult(roundFrom, roundTo);
+        final VectorField displacement = subResult.getDisplacementResult().getDisplacement();
+        if (displacement != null) {
+            final int spacing = findSubsetSpacing(tc);
+
+            StrainGrid grid = null;
+            if (spacing > 0 && subResult.getCorrelations() != null) {
+                grid = gridFromGradients(subResult.getSubsets(), subResult.getCorrelations(), (double) tc.getParameter(TaskParameter.RESULT_QUALITY), spacing);
+            }
+            if (grid == null) {
+                final double mm = (double) tc.getParameter(TaskParameter.STRAIN_ESTIMATION_PARAM);
+                final double mmToPx = (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
+                final int windowSize = (int) Math.ceil(mm * mmToPx);
+                grid = computeGrid(displacement, (int) Math.ceil(windowSize / 2.0), Math.max(1, spacing));
+            }
+            if (stop) {
+                return;
+            }
+
+            tc.setResult(roundFrom, roundTo, new Result(subResult, new StrainResult(grid, displacement)));
+        }
+    }
+
+    /**
+     * @return spacing of subset centers, 0 if subsets are not generated on
+     * regular grid (generator parameter is subset count for random subsets,
+     * dynamic generator adds subsets between grid nodes)
+     */
+    private static int findSubsetSpacing(final TaskContainer tc) {
+        final Object generator = tc.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD);
+        final Object spacingParam = tc.getParameter(TaskParameter.SUBSET_GENERATOR_PARAM);
+        if (spacingParam != null && (generator == SubsetGenerator.EQUAL)) {
+            return Math.max(1, (int) spacingParam);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Builds grid from subset centers, values of subsets falling to the same
+     * node are averaged. Regression errors are zero.
+     *
+     * @return null if there is no usable result or some result does not
+     * contain deformation gradient
+     */
+    private static StrainGrid gridFromGradients(
+            final Map<AbstractROI, List<AbstractSubset>> subsets,
+            final Map<AbstractROI, List<CorrelationResult>> correlations,
+            final double resultQuality, final int spacing) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int count = 0;
+        List<AbstractSubset> roiSubsets;
+        CorrelationResultBlock block;
+        double[] center;
+        for (Entry<AbstractROI, List<CorrelationResult>> e : correlations.entrySet()) {
+            roiSubsets = subsets.get(e.getKey());
+            block = CorrelationResultBlock.asBlock(e.getValue());
+            for (int i = 0; i < roiSubsets.size(); i++) {
+                if (!block.hasResult(i) || block.getQuality(i) < resultQuality) {
+                    continue;
+                }
+                if (block.getDeformationLength(i) <= DeformationDirection.VY) {
+                    return null;
+                }
+                center = roiSubsets.get(i).getCenter();
+                minX = Math.min(minX, center[0]);
+                minY = Math.min(minY, center[1]);
+                maxX = Math.max(maxX, center[0]);
+                maxY = Math.max(maxY, center[1]);
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        final int countX = (int) Math.round((maxX - minX) / spacing) + 1;
+        final int countY = (int) Math.round((maxY - minY) / spacing) + 1;
+        final double[] sums = new double[3 * countX * countY];
+        final int[] counts = new int[countX * countY];
+        int node;
+        for (Entry<AbstractROI, List<CorrelationResult>> e : correlations.entrySet()) {
+            roiSubsets = subsets.get(e.getKey());
+            block = CorrelationResultBlock.asBlock(e.getValue());
+            for (int i = 0; i < roiSubsets.size(); i++) {
+                if (!block.hasResult(i) || block.getQuality(i) < resultQuality) {
+                    continue;
+                }
+                center = roiSubsets.get(i).getCenter();
+                node = (int) Math.round((center[1] - minY) / spacing) * countX + (int) Math.round((center[0] - minX) / spacing);
+                sums[3 * node + StrainResult.E_XX] += block.getDeformation(i, DeformationDirection.UX);
+                sums[3 * node + StrainResult.E_YY] += block.getDeformation(i, DeformationDirection.VY);
+                sums[3 * node + StrainResult.E_XY] += 0.5 * (block.getDeformation(i, DeformationDirection.UY) + block.getDeformation(i, DeformationDirection.VX));
+                counts[node]++;
+            }
+        }
+
+        final StrainGrid result = new StrainGrid(minX, minY, spacing, countX, countY);
+        double coeff;
+        for (int j = 0; j < countY; j++) {
+            for (int i = 0; i < countX; i++) {
+                node = j * countX + i;
+                if (counts[node] > 0) {
+                    coeff = COEFF_ADJUST / counts[node];
+                    result.set(i, j,
+                            sums[3 * node + StrainResult.E_XX] * coeff,
+                            sums[3 * node + StrainResult.E_YY] * coeff,
+                            sums[3 * node + StrainResult.E_XY] * coeff,
+                            0, 0);
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -25,6 +25,8 @@ public final class NameGenerator {
     public static final String EXT_MAP = ".bmp";
     public static final String EXT_SEQUENCE = ".avi";
     public static final String EXT_BINARY = ".task";
+    public static final String EXT_BINARY_ROUND = ".round";
+    public static final String EXT_CHECKPOINT = ".checkpoint";
     private static final String TEXT_GPU_RESULTS = "gpuResults";
     private static final String TEXT_QUALITY_DEFORMATION = "deformationQuality";
     private static final String TEXT_QUALITY_DEFORMATION_BOOL = "deformationQualityBool";
@@ -49,6 +51,14 @@ public final class NameGenerator {
         return new Generator(tc).name().finalizeName(EXT_BINARY);
     }
 
+    public static String generateBinaryRound(final TaskContainer tc, final int round) {
+        return new Generator(tc).name().intVal(round).finalizeName(EXT_BINARY_ROUND);
+    }
+
+    public static String generateCheckpoint(final TaskContainer tc) {
+        return new Generator(tc).name().finalizeName(EXT_CHECKPOINT);
+    }
+
     public static String generateConfig(final TaskContainer tc) {
         return new Generator(tc).name().finalizeName(EXT_CONFIG);
     }
@@ -6,6 +6,7 @@
 package cz.tul.dic.output.data;
 
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.output.Direction;
@@ -33,7 +34,7 @@ public class ExportModeDoublePoint implements IExportMode<Map<Direction, double[
         final int y2 = dataParams[3];
 
         Result res;
-        double[][][] results;
+        VectorField results;
         double[] data;
         for (Direction dir : Direction.values()) {
             data = result.get(dir);
@@ -81,15 +82,15 @@ public class ExportModeDoublePoint implements IExportMode<Map<Direction, double[
         return result;
     }
 
-    private static boolean isResultValid(double[][][] results, final int x, final int y) {
-        return results != null && results.length >= x && results[0].length >= y && results[x][y] != null;
+    private static boolean isResultValid(final VectorField results, final int x, final int y) {
+        return results != null && results.isValid(x, y);
     }
 
-    private double calculateStrain(final double[][][] displacement, final Direction dir, final int x1, final int y1, final int x2, final int y2) {
+    private double calculateStrain(final VectorField displacement, final Direction dir, final int x1, final int y1, final int x2, final int y2) {
         final double dx = (double) x2 - x1;
         final double dy = (double) y2 - y1;
-        final double difX = displacement[x2][y2][0] - displacement[x1][y1][0];
-        final double difY = displacement[x2][y2][1] - displacement[x1][y1][1];
+        final double difX = displacement.get(x2, y2, 0) - displacement.get(x1, y1, 0);
+        final double difY = displacement.get(x2, y2, 1) - displacement.get(x1, y1, 1);
         final double val;
         switch (dir) {
             case EXX:
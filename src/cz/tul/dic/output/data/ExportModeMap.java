@@ -8,6 +8,7 @@ package cz.tul.dic.output.data;
 import cz.tul.dic.FpsManager;
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
@@ -77,8 +78,8 @@ public class ExportModeMap implements IExportMode<double[][]> {
             case EYY:
             case EXY:
             case EABS:
-                final double[][][] results = extractDataResult(direction, tc, round, roundZero);
-                if (results == null || results.length == 0 || results[0].length == 0) {
+                final VectorField results = extractDataResult(direction, tc, round, roundZero);
+                if (results == null || results.getWidth() == 0 || results.getHeight() == 0) {
                     result = null;
                     break;
                 }
@@ -100,9 +101,9 @@ public class ExportModeMap implements IExportMode<double[][]> {
         return result;
     }    
 
-    private static double[][][] extractDataResult(final Direction direction, final TaskContainer tc, final int round, final int roundZero) {
+    private static VectorField extractDataResult(final Direction direction, final TaskContainer tc, final int round, final int roundZero) {
         Result res;
-        final double[][][] results;
+        final VectorField results;
         switch (direction) {
             case D_DX:
             case D_DY:
@@ -139,9 +140,10 @@ public class ExportModeMap implements IExportMode<double[][]> {
         return results;
     }
 
-    private static double[][] reduceDataDimension(final TaskContainer tc, final double[][][] results, final Direction direction) {
-        final int width = results.length;
-        final int height = results[0].length;
+    private static double[][] reduceDataDimension(final TaskContainer tc, final VectorField results, final Direction direction) {
+        final int width = results.getWidth();
+        final int height = results.getHeight();
+        final double[] val = new double[results.getComponentCount()];
 
         double[][] result = new double[width][height];
         final FpsManager fpsM = new FpsManager(tc);
@@ -149,10 +151,11 @@ public class ExportModeMap implements IExportMode<double[][]> {
         final double pxToMm = 1 / (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                if (results[x][y] == null) {
+                if (!results.isValid(x, y)) {
                     result[x][y] = Double.NaN;
                     continue;
                 }
+                results.get(x, y, val);
 
                 switch (direction) {
                     case D_DX:
@@ -161,7 +164,7 @@ public class ExportModeMap implements IExportMode<double[][]> {
                     case DX:
                     case DY:
                     case DABS:
-                        result[x][y] = ExportUtils.calculateDisplacement(results[x][y], direction);
+                        result[x][y] = ExportUtils.calculateDisplacement(val, direction);
                         break;
                     case D_EXX:
                     case D_EYY:
@@ -171,12 +174,12 @@ public class ExportModeMap implements IExportMode<double[][]> {
                     case EYY:
                     case EXY:
                     case EABS:
-                        result[x][y] = ExportUtils.calculateStrain(results[x][y], direction);
+                        result[x][y] = ExportUtils.calculateStrain(val, direction);
                         break;
                     case R_DX:
                     case R_DY:
                     case R_DABS:
-                        result[x][y] = ExportUtils.calculateSpeed(results[x][y], direction, time);
+                        result[x][y] = ExportUtils.calculateSpeed(val, direction, time);
                         break;
                     default:
                         throw new IllegalArgumentException(UNSUPPORTED_DIRECTION + direction);
@@ -192,7 +195,7 @@ public class ExportModeMap implements IExportMode<double[][]> {
 
     private static double[][] extractQualityResult(final Direction direction, final TaskContainer tc, final int round, final int roundZero) {
         Result res;
-        final double[][] results;
+        final VectorField results;
         switch (direction) {
             case Q_D_D:
                 res = tc.getResult(round - 1, round);
@@ -221,7 +224,7 @@ public class ExportModeMap implements IExportMode<double[][]> {
             default:
                 throw new IllegalArgumentException(UNSUPPORTED_DIRECTION + direction);
         }
-        return results;
+        return results == null ? null : results.toArray(0);
     }
 
     private static double interpolate(final double val1, final double val2, final double ratio) {
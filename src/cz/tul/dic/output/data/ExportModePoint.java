@@ -10,6 +10,7 @@ import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.output.Direction;
 import cz.tul.dic.output.ExportUtils;
 import java.util.EnumMap;
@@ -39,8 +40,9 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
         final double pxToMm = 1 / (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
 
         Result res;
-        double[][][] results3D = null;
-        double[][] results2D = null;
+        VectorField results3D = null;
+        VectorField results2D = null;
+        final double[] val = new double[3];
         double[] data;
         for (Direction dir : Direction.values()) {
             data = result.get(dir);
@@ -110,13 +112,11 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
                     case DX:
                     case DY:
                     case DABS:
-                        if (results3D == null
-                                || results3D.length < x
-                                || results3D[0].length < y
-                                || results3D[x][y] == null) {
+                        if (results3D == null || !results3D.isValid(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = ExportUtils.calculateDisplacement(results3D[x][y], dir);
+                            results3D.get(x, y, val);
+                            data[round] = ExportUtils.calculateDisplacement(val, dir);
                         }
 
                         break;
@@ -128,25 +128,21 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
                     case EYY:
                     case EXY:
                     case EABS:
-                        if (results3D == null
-                                || results3D.length < x
-                                || results3D[0].length < y
-                                || results3D[x][y] == null) {
+                        if (results3D == null || !results3D.isValid(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = ExportUtils.calculateStrain(results3D[x][y], dir);
+                            results3D.get(x, y, val);
+                            data[round] = ExportUtils.calculateStrain(val, dir);
                         }
                         break;
                     case R_DX:
                     case R_DY:
                     case R_DABS:
-                        if (results3D == null
-                                || results3D.length < x
-                                || results3D[0].length < y
-                                || results3D[x][y] == null) {
+                        if (results3D == null || !results3D.isValid(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = ExportUtils.calculateSpeed(results3D[x][y], dir, time);
+                            results3D.get(x, y, val);
+                            data[round] = ExportUtils.calculateSpeed(val, dir, time);
                         }
 
                         break;
@@ -156,10 +152,10 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
                     case O_D_EY:
                     case O_EX:
                     case O_EY:
-                        if (results2D == null) {
+                        if (results2D == null || !results2D.isInside(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = results2D[x][y];
+                            data[round] = results2D.get(x, y, 0);
                         }
                         break;
                     default:
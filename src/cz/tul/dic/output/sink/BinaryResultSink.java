@@ -0,0 +1,46 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.output.sink;
+
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskContainerUtils;
+import cz.tul.dic.output.NameGenerator;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * Serializes round result and cumulative result of each finished round into
+ * separate binary file.
+ *
+ * @author Petr Jecmen
+ */
+public class BinaryResultSink implements ResultSink {
+
+    @Override
+    public void taskStarted(final TaskContainer task, final boolean resumed) {
+        // nothing to prepare, each round is stored separately
+    }
+
+    @Override
+    public void roundFinished(final TaskContainer task, final int roundFrom, final int roundTo) throws IOException {
+        final int roundZero = TaskContainerUtils.getFirstRound(task);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(NameGenerator.generateBinaryRound(task, roundTo)))))) {
+            out.writeInt(roundFrom);
+            out.writeInt(roundTo);
+            out.writeObject(task.getResult(roundFrom, roundTo));
+            out.writeObject(task.getResult(roundZero, roundTo));
+        }
+    }
+
+    @Override
+    public void taskFinished(final TaskContainer task) {
+        // nothing to finish, each round is stored separately
+    }
+
+}
@@ -0,0 +1,40 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.output.sink;
+
+import cz.tul.dic.data.task.TaskCheckpoint;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.output.NameGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Appends each finished round to checkpoint file, which allows to resume
+ * interrupted computation.
+ *
+ * @author Petr Jecmen
+ */
+public class CheckpointSink implements ResultSink {
+
+    @Override
+    public void taskStarted(final TaskContainer task, final boolean resumed) throws IOException {
+        if (!resumed) {
+            Files.deleteIfExists(new File(NameGenerator.generateCheckpoint(task)).toPath());
+        }
+    }
+
+    @Override
+    public void roundFinished(final TaskContainer task, final int roundFrom, final int roundTo) throws IOException {
+        TaskCheckpoint.appendRound(new File(NameGenerator.generateCheckpoint(task)), task, roundFrom, roundTo);
+    }
+
+    @Override
+    public void taskFinished(final TaskContainer task) {
+        // checkpoint is kept, resuming finished task only restores results
+    }
+
+}
@@ -0,0 +1,76 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.output.sink;
+
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.output.Direction;
+import cz.tul.dic.output.ExportTask;
+import cz.tul.dic.output.Exporter;
+import cz.tul.dic.output.NameGenerator;
+import cz.tul.dic.output.target.ExportTarget;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Exports map of each finished round using standard exporters (CSV, image
+ * file or GUI).
+ *
+ * @author Petr Jecmen
+ */
+public class ExportResultSink implements ResultSink {
+
+    private static final double[] NO_LIMITS = new double[]{Double.NaN, Double.NaN};
+    private final ExportTarget target;
+    private final Object targetParam;
+    private final Direction[] directions;
+
+    /**
+     * @param target export target
+     * @param targetParam target parameter, if null, file name is generated
+     * for each round and direction
+     * @param directions exported directions
+     */
+    public ExportResultSink(final ExportTarget target, final Object targetParam, final Direction... directions) {
+        if (directions == null || directions.length == 0) {
+            throw new IllegalArgumentException("At least one direction is required for export.");
+        }
+        this.target = target;
+        this.targetParam = targetParam;
+        this.directions = directions;
+    }
+
+    @Override
+    public void taskStarted(final TaskContainer task, final boolean resumed) {
+        // nothing to prepare, each round is exported separately
+    }
+
+    @Override
+    public void roundFinished(final TaskContainer task, final int roundFrom, final int roundTo) throws IOException {
+        for (Direction dir : directions) {
+            Exporter.export(task, ExportTask.generateMapExport(dir, target, generateTargetParam(task, roundTo, dir), roundTo, NO_LIMITS));
+        }
+    }
+
+    private Object generateTargetParam(final TaskContainer task, final int round, final Direction dir) {
+        if (targetParam != null) {
+            return targetParam;
+        }
+        switch (target) {
+            case CSV:
+                return new File(NameGenerator.generateCsvMap(task, round, dir));
+            case FILE:
+                return new File(NameGenerator.generateMap(task, round, dir));
+            default:
+                throw new IllegalArgumentException("Target parameter required for export target " + target);
+        }
+    }
+
+    @Override
+    public void taskFinished(final TaskContainer task) {
+        // nothing to finish, each round is exported separately
+    }
+
+}
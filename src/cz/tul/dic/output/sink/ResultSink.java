@@ -0,0 +1,26 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.output.sink;
+
+import cz.tul.dic.data.task.TaskContainer;
+import java.io.IOException;
+
+/**
+ * Receiver of finished rounds. Engine pushes every round in order once both
+ * round result (roundFrom, roundTo) and cumulative result (first round,
+ * roundTo) are complete including strain.
+ *
+ * @author Petr Jecmen
+ */
+public interface ResultSink {
+
+    void taskStarted(final TaskContainer task, final boolean resumed) throws IOException;
+
+    void roundFinished(final TaskContainer task, final int roundFrom, final int roundTo) throws IOException;
+
+    void taskFinished(final TaskContainer task) throws IOException;
+
+}
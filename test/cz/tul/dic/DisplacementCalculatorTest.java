@@ -11,10 +11,14 @@ import cz.tul.dic.data.roi.RectangleROI;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.CorrelationResultBlock;
 import cz.tul.dic.engine.displacement.DisplacementCalculation;
 import cz.tul.dic.engine.displacement.DisplacementCalculator;
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
 import cz.tul.dic.data.subset.generator.AbstractSubsetGenerator;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.subset.generator.SubsetGenerator;
@@ -27,7 +31,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -36,6 +42,8 @@ import org.junit.Test;
 public class DisplacementCalculatorTest {
 
     private static final int ROUND = 0;
+    private static final int LINEAR_MIN = 20;
+    private static final int LINEAR_MAX = 60;
 
     @Test
     public void testDisplacementCalculator() throws IOException, URISyntaxException, ComputationException {
@@ -49,7 +57,171 @@ public class DisplacementCalculatorTest {
         checkResults(result, 2, -2, 62.5);
     }
 
+    @Test
+    public void testScatteredInterpolation() throws IOException, URISyntaxException, ComputationException {
+        DisplacementResult result = prepareAndComputeDisplacement(new CorrelationResult(1.0, new double[]{2, 0, 0, 0, 0, 0}), DisplacementCalculation.SCATTERED_INTERPOLATION);
+        checkResults(result, 2, 0, 100.0);
+
+        result = prepareAndComputeDisplacement(new CorrelationResult(0.25, new double[]{2, -2, 0, 0, 0, 0}), DisplacementCalculation.SCATTERED_INTERPOLATION);
+        checkResults(result, 2, -2, 62.5);
+    }
+
+    @Test
+    public void testScatteredInterpolationTriangulation() throws IOException, URISyntaxException, ComputationException {
+        // corners make convex hull of centers equal to checked area
+        final List<double[]> centers = new ArrayList<>();
+        centers.add(new double[]{LINEAR_MIN, LINEAR_MIN});
+        centers.add(new double[]{LINEAR_MAX, LINEAR_MIN});
+        centers.add(new double[]{LINEAR_MIN, LINEAR_MAX});
+        centers.add(new double[]{LINEAR_MAX, LINEAR_MAX});
+        final Random rnd = new Random(42);
+        for (int i = 0; i < 30; i++) {
+            centers.add(new double[]{
+                LINEAR_MIN + 1 + rnd.nextInt(LINEAR_MAX - LINEAR_MIN - 1),
+                LINEAR_MIN + 1 + rnd.nextInt(LINEAR_MAX - LINEAR_MIN - 1)});
+        }
+
+        final DisplacementResult result = computeLinearField(SubsetGenerator.RANDOM, centers, new boolean[centers.size()]);
+        checkLinearField(result);
+    }
+
+    @Test
+    public void testScatteredInterpolationRejectedNodes() throws IOException, URISyntaxException, ComputationException {
+        final int spacing = 10;
+        final List<double[]> centers = new ArrayList<>();
+        final List<Boolean> rejectedNodes = new ArrayList<>();
+        for (int y = LINEAR_MIN; y <= LINEAR_MAX; y += spacing) {
+            for (int x = LINEAR_MIN; x <= LINEAR_MAX; x += spacing) {
+                centers.add(new double[]{x, y});
+                // two adjacent nodes leave cells with two valid corners, single node leaves three
+                rejectedNodes.add((y == 40 && (x == 30 || x == 40)) || (y == 30 && x == 50));
+            }
+        }
+        final boolean[] rejected = new boolean[centers.size()];
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = rejectedNodes.get(i);
+        }
+
+        final DisplacementResult result = computeLinearField(SubsetGenerator.EQUAL, centers, rejected);
+        checkLinearField(result);
+    }
+
+    @Test
+    public void testTiledVoting() throws IOException, URISyntaxException, ComputationException {
+        final List<File> input = new ArrayList<>(2);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+        final AbstractROI roi = new RectangleROI(0, 0, 40, 40);
+        tc.addRoi(ROUND, roi);
+        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, DisplacementCalculation.MAX_WEIGHTED_AVERAGE);
+        tc.setParameter(TaskParameter.RESULT_QUALITY, 0.25);
+
+        // two subsets voting for (2, 0) overlap with one voting for (0, 2)
+        final List<AbstractSubset> subsets = new ArrayList<>(3);
+        subsets.add(new SquareSubset2D(5, 15, 15));
+        subsets.add(new SquareSubset2D(5, 16, 16));
+        subsets.add(new SquareSubset2D(5, 22, 18));
+        final List<CorrelationResult> results = new ArrayList<>(3);
+        results.add(new CorrelationResult(1.0, new double[]{2, 0, 0, 0, 0, 0}));
+        results.add(new CorrelationResult(0.5, new double[]{2, 0, 0, 0, 0, 0}));
+        results.add(new CorrelationResult(1.0, new double[]{0, 2, 0, 0, 0, 0}));
+        final Map<AbstractROI, List<AbstractSubset>> subsetMap = new HashMap<>(1);
+        subsetMap.put(roi, subsets);
+        final Map<AbstractROI, List<CorrelationResult>> resultMap = new HashMap<>(1);
+        resultMap.put(roi, results);
+
+        // single line tiles
+        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM, tc.getImage(ROUND).getWidth());
+        final DisplacementResult lines = DisplacementCalculator.computeDisplacement(resultMap, subsetMap, tc, ROUND);
+        // whole image in one tile
+        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM, Integer.MAX_VALUE);
+        final DisplacementResult whole = DisplacementCalculator.computeDisplacement(resultMap, subsetMap, tc, ROUND);
+
+        final double[][][] linesDisplacement = lines.getDisplacement().toArray();
+        final double[][][] wholeDisplacement = whole.getDisplacement().toArray();
+        final double[][] linesQuality = lines.getQuality().toArray(0);
+        final double[][] wholeQuality = whole.getQuality().toArray(0);
+        for (int x = 0; x < wholeDisplacement.length; x++) {
+            for (int y = 0; y < wholeDisplacement[x].length; y++) {
+                assertArrayEquals(wholeDisplacement[x][y], linesDisplacement[x][y], 0);
+                assertEquals(wholeQuality[x][y], linesQuality[x][y], 0);
+            }
+        }
+
+        // covered by first subset only
+        assertArrayEquals(new double[]{2, 0}, wholeDisplacement[10][10], 0);
+        assertEquals(100.0, wholeQuality[10][10], 0);
+        // both (2, 0) subsets, quality weighted by itself
+        assertArrayEquals(new double[]{2, 0}, wholeDisplacement[15][15], 0);
+        assertEquals(100 * ((1.25 / 1.5) + 1) / 2, wholeQuality[15][15], 1e-9);
+        // all three subsets, majority wins
+        assertArrayEquals(new double[]{2, 0}, wholeDisplacement[18][18], 0);
+        // last subset only
+        assertArrayEquals(new double[]{0, 2}, wholeDisplacement[26][18], 0);
+        // outside of all subsets
+        assertNull(wholeDisplacement[30][30]);
+    }
+
+    private DisplacementResult computeLinearField(final SubsetGenerator generator, final List<double[]> centers, final boolean[] rejected) throws IOException, URISyntaxException, ComputationException {
+        final List<File> input = new ArrayList<>(2);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+        final AbstractROI roi = new RectangleROI(LINEAR_MIN - 10, LINEAR_MIN - 10, LINEAR_MAX + 10, LINEAR_MAX + 10);
+        tc.addRoi(ROUND, roi);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, generator);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 10);
+        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, DisplacementCalculation.SCATTERED_INTERPOLATION);
+        tc.setParameter(TaskParameter.RESULT_QUALITY, 0.5);
+
+        final List<AbstractSubset> subsets = new ArrayList<>(centers.size());
+        final List<CorrelationResult> results = new ArrayList<>(centers.size());
+        double[] center;
+        for (int i = 0; i < centers.size(); i++) {
+            center = centers.get(i);
+            subsets.add(new SquareSubset2D(5, center[Coordinates.X], center[Coordinates.Y]));
+            results.add(new CorrelationResult(rejected[i] ? 0.0 : 1.0, new double[]{
+                linearU(center[Coordinates.X], center[Coordinates.Y]),
+                linearV(center[Coordinates.X], center[Coordinates.Y]),
+                0, 0, 0, 0}));
+        }
+        final Map<AbstractROI, List<AbstractSubset>> subsetMap = new HashMap<>(1);
+        subsetMap.put(roi, subsets);
+        final Map<AbstractROI, List<CorrelationResult>> resultMap = new HashMap<>(1);
+        resultMap.put(roi, results);
+
+        return DisplacementCalculator.computeDisplacement(resultMap, subsetMap, tc, ROUND);
+    }
+
+    private static void checkLinearField(final DisplacementResult result) {
+        final double[][][] results = result.getDisplacement().toArray();
+        final double[][] quality = result.getQuality().toArray(0);
+        for (int x = LINEAR_MIN; x <= LINEAR_MAX; x++) {
+            for (int y = LINEAR_MIN; y <= LINEAR_MAX; y++) {
+                assertNotNull("Missing result at " + x + ", " + y, results[x][y]);
+                assertEquals(linearU(x, y), results[x][y][Coordinates.X], 1e-9);
+                assertEquals(linearV(x, y), results[x][y][Coordinates.Y], 1e-9);
+                assertEquals(100.0, quality[x][y], 1e-9);
+            }
+        }
+    }
+
+    private static double linearU(final double x, final double y) {
+        return 0.5 + 0.02 * x - 0.01 * y;
+    }
+
+    private static double linearV(final double x, final double y) {
+        return -1 + 0.015 * x + 0.005 * y;
+    }
+
     private DisplacementResult prepareAndComputeDisplacement(final CorrelationResult deformation) throws IOException, URISyntaxException, ComputationException {
+        return prepareAndComputeDisplacement(deformation, DisplacementCalculation.MAX_WEIGHTED_AVERAGE);
+    }
+
+    private DisplacementResult prepareAndComputeDisplacement(final CorrelationResult deformation, final DisplacementCalculation method) throws IOException, URISyntaxException, ComputationException {
         final List<File> input = new ArrayList<>(2);
         input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
         input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
@@ -64,7 +236,7 @@ public class DisplacementCalculatorTest {
         tc.setParameter(TaskParameter.SUBSET_SIZE, 5);
         tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.EQUAL);
         tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 11);
-        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, DisplacementCalculation.MAX_WEIGHTED_AVERAGE);
+        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, method);
         tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM, 2000);
         tc.setParameter(TaskParameter.RESULT_QUALITY, 0.25);
 
@@ -78,8 +250,8 @@ public class DisplacementCalculatorTest {
     }
 
     private void checkResults(final DisplacementResult result, final double dx, final double dy, final double q) {
-        final double[][][] results = result.getDisplacement();
-        final double[][] quality = result.getQuality();
+        final double[][][] results = result.getDisplacement().toArray();
+        final double[][] quality = result.getQuality().toArray(0);
 
         for (int x = 0; x < results.length; x++) {
             for (int y = 0; y < results[x].length; y++) {
@@ -93,6 +265,91 @@ public class DisplacementCalculatorTest {
         }
     }
 
+    @Test
+    public void testCorrelationResultBlock() {
+        final List<CorrelationResult> results = new ArrayList<>(4);
+        results.add(new CorrelationResult(0.9, new double[]{1, -2, 0.1, 0.2, 0.3, 0.4}));
+        results.add(null);
+        results.add(new CorrelationResult(0.5, null));
+        results.add(new CorrelationResult(-0.25, new double[]{3, 4}));
+
+        final CorrelationResultBlock block = CorrelationResultBlock.pack(results);
+        assertSame(block, CorrelationResultBlock.asBlock(block));
+        assertEquals(results.size(), block.size());
+        assertEquals(6, block.getStride());
+        for (int i = 0; i < results.size(); i++) {
+            assertResultEquals(results.get(i), block.get(i));
+            assertEquals(results.get(i) != null, block.hasResult(i));
+        }
+
+        assertEquals(0.9, block.getQuality(0), 0);
+        assertEquals(6, block.getDeformationLength(0));
+        assertEquals(0.3, block.getDeformation(0, 4), 0);
+        assertFalse(block.hasDeformation(2));
+        assertEquals(0, block.getDeformationLength(2));
+        assertNull(block.getDeformation(2));
+        assertEquals(2, block.getDeformationLength(3));
+        assertArrayEquals(new double[]{3, 4}, block.getDeformation(3), 0);
+        try {
+            block.getDeformation(3, 2);
+            fail("Coefficient outside of deformation must not be available.");
+        } catch (IndexOutOfBoundsException ex) {
+        }
+
+        // copies between blocks and replacing results
+        final CorrelationResultBlock copy = new CorrelationResultBlock(results.size(), block.getStride());
+        for (int i = 0; i < results.size(); i++) {
+            copy.put(results.size() - 1 - i, block, i);
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertResultEquals(results.get(i), copy.get(results.size() - 1 - i));
+        }
+        assertResultEquals(results.get(0), copy.set(3, null));
+        assertFalse(copy.hasResult(3));
+        try {
+            new CorrelationResultBlock(1, 2).put(0, results.get(0));
+            fail("Deformation longer than stride must not be stored.");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testCorrelationResultBlockRetry() {
+        final List<CorrelationResult> results = new ArrayList<>(4);
+        results.add(new CorrelationResult(0.9, new double[]{1, 2}));
+        results.add(null);
+        results.add(new CorrelationResult(0.3, new double[]{3, 4}));
+        results.add(new CorrelationResult(0.2, new double[]{5, 6}));
+        final CorrelationResultBlock block = CorrelationResultBlock.pack(results);
+
+        final int[] retry = block.findResultsBelow(0.5);
+        assertArrayEquals(new int[]{1, 2, 3}, retry);
+
+        // recomputed result replaces only missing or worse result
+        final List<CorrelationResult> retried = new ArrayList<>(3);
+        retried.add(new CorrelationResult(0.1, new double[]{7, 8}));
+        retried.add(new CorrelationResult(0.95, new double[]{9, 10, 11, 12, 13, 14}));
+        retried.add(new CorrelationResult(0.1, new double[]{15, 16}));
+        final CorrelationResultBlock merged = block.mergeBetter(retry, CorrelationResultBlock.pack(retried));
+        assertEquals(6, merged.getStride());
+        assertResultEquals(results.get(0), merged.get(0));
+        assertResultEquals(retried.get(0), merged.get(1));
+        assertResultEquals(retried.get(1), merged.get(2));
+        assertResultEquals(results.get(3), merged.get(3));
+        // original block is not changed
+        assertResultEquals(results.get(2), block.get(2));
+        assertFalse(block.hasResult(1));
+    }
+
+    private static void assertResultEquals(final CorrelationResult expected, final CorrelationResult actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expected.getQuality(), actual.getQuality(), 0);
+            assertArrayEquals(expected.getDeformation(), actual.getDeformation(), 0);
+        }
+    }
+
     @Test
     public void testCumulativeResultCounter() throws IOException, URISyntaxException, ComputationException {
         final List<File> input = new ArrayList<>(4);
@@ -107,23 +364,23 @@ public class DisplacementCalculatorTest {
 
         final int width = tc.getImage(ROUND).getWidth();
         final int height = tc.getImage(ROUND).getHeight();
-        tc.setResult(0, 1, new Result(new DisplacementResult(prepareArray3D(width, height, 0), prepareArray2D(width, height, 100))));
-        tc.setResult(1, 2, new Result(new DisplacementResult(prepareArray3D(width, height, 0), prepareArray2D(width, height, 100))));
-        tc.setResult(2, 3, new Result(new DisplacementResult(prepareArray3D(width, height, 1), prepareArray2D(width, height, 50))));
-        tc.setResult(3, 4, new Result(new DisplacementResult(prepareArray3D(width, height, 1), prepareArray2D(width, height, 50))));
+        tc.setResult(0, 1, new Result(new DisplacementResult(VectorField.fromArray(prepareArray3D(width, height, 0)), VectorField.fromArray(prepareArray2D(width, height, 100)))));
+        tc.setResult(1, 2, new Result(new DisplacementResult(VectorField.fromArray(prepareArray3D(width, height, 0)), VectorField.fromArray(prepareArray2D(width, height, 100)))));
+        tc.setResult(2, 3, new Result(new DisplacementResult(VectorField.fromArray(prepareArray3D(width, height, 1)), VectorField.fromArray(prepareArray2D(width, height, 50)))));
+        tc.setResult(3, 4, new Result(new DisplacementResult(VectorField.fromArray(prepareArray3D(width, height, 1)), VectorField.fromArray(prepareArray2D(width, height, 50)))));
 
         tc.setResult(0, 2, new Result(DisplacementCalculator.computeCumulativeDisplacement(tc, 0, 2)));
         tc.setResult(0, 3, new Result(DisplacementCalculator.computeCumulativeDisplacement(tc, 0, 3)));
         tc.setResult(0, 4, new Result(DisplacementCalculator.computeCumulativeDisplacement(tc, 0, 4)));
 
-        assert equals(tc.getResult(0, 1).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 0), 0);
-        assert equals(tc.getResult(0, 1).getDisplacementResult().getQuality(), prepareArray2D(width, height, 100.0), 0);
-        assert equals(tc.getResult(0, 2).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 0), 0);
-        assert equals(tc.getResult(0, 2).getDisplacementResult().getQuality(), prepareArray2D(width, height, 100.0), 0);
-        assert equals(tc.getResult(0, 3).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 1), 0);
-        assert equals(tc.getResult(0, 3).getDisplacementResult().getQuality(), prepareArray2D(width, height, 150 / 2.0), 0);
-        assert equals(tc.getResult(0, 4).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 2), 1);
-        assert equals(tc.getResult(0, 4).getDisplacementResult().getQuality(), prepareArray2D(width, height, 125 / 2.0), 1);
+        assert equals(tc.getResult(0, 1).getDisplacementResult().getDisplacement().toArray(), prepareArray3D(width, height, 0), 0);
+        assert equals(tc.getResult(0, 1).getDisplacementResult().getQuality().toArray(0), prepareArray2D(width, height, 100.0), 0);
+        assert equals(tc.getResult(0, 2).getDisplacementResult().getDisplacement().toArray(), prepareArray3D(width, height, 0), 0);
+        assert equals(tc.getResult(0, 2).getDisplacementResult().getQuality().toArray(0), prepareArray2D(width, height, 100.0), 0);
+        assert equals(tc.getResult(0, 3).getDisplacementResult().getDisplacement().toArray(), prepareArray3D(width, height, 1), 0);
+        assert equals(tc.getResult(0, 3).getDisplacementResult().getQuality().toArray(0), prepareArray2D(width, height, 150 / 2.0), 0);
+        assert equals(tc.getResult(0, 4).getDisplacementResult().getDisplacement().toArray(), prepareArray3D(width, height, 2), 1);
+        assert equals(tc.getResult(0, 4).getDisplacementResult().getQuality().toArray(0), prepareArray2D(width, height, 125 / 2.0), 1);
     }
 
     private double[][][] prepareArray3D(final int width, final int height, final double val) {
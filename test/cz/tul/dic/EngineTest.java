@@ -7,7 +7,6 @@ package cz.tul.dic;
 
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.subset.SquareSubset2D;
-import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
 import cz.tul.dic.data.result.DisplacementResult;
@@ -18,7 +17,9 @@ import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.task.splitter.TaskSplitMethod;
 import cz.tul.dic.engine.solvers.AbstractTaskSolver;
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.engine.ComputationPolicy;
 import cz.tul.dic.engine.Engine;
+import cz.tul.dic.engine.EngineSession;
 import cz.tul.dic.engine.displacement.DisplacementCalculator;
 import cz.tul.dic.data.Interpolation;
 import cz.tul.dic.engine.solvers.SolverType;
@@ -32,6 +33,7 @@ import cz.tul.dic.engine.KernelPerformanceManager;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.dic.engine.platform.PlatformManager;
 import cz.tul.dic.engine.platform.PlatformType;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -216,9 +218,9 @@ public class EngineTest {
     }
 
     private String checkTask(final TaskContainer tc, final String fileName) {
-        final Image img1 = tc.getImage(ROUND);
-        final Image img2 = tc.getImage(ROUND + 1);
-        double[][][] results = tc.getResult(ROUND, ROUND + 1).getDisplacementResult().getDisplacement();
+        final BufferedImage img1 = tc.getImage(ROUND).toBufferedImage();
+        final BufferedImage img2 = tc.getImage(ROUND + 1).toBufferedImage();
+        double[][][] results = tc.getResult(ROUND, ROUND + 1).getDisplacementResult().getDisplacement().toArray();
 
         // displacement map
         final Map<Integer, Map<Integer, List<Integer>>> defMap = new HashMap<>();
@@ -367,6 +369,40 @@ public class EngineTest {
         Assert.assertNull(checkTask(tc, DEF_ZERO_FIRST_FILES[0]));
     }
 
+    @Test
+    public void testLazyResultsAfterClose() throws IOException, URISyntaxException, ComputationException {
+        final List<File> input = new ArrayList<>(3);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/" + DEF_ZERO_FILES[0] + ".bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/" + DEF_ZERO_FILES[1] + ".bmp").toURI()).toFile());
+
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+        final AbstractROI roi = new RectangleROI(85, 85, 95, 95);
+        tc.addRoi(ROUND, roi);
+        tc.setDeformationLimits(ROUND, roi, DEF_ZERO);
+        tc.setParameter(TaskParameter.IN, input.get(0));
+        tc.setParameter(TaskParameter.SUBSET_SIZE, 5);
+        tc.setParameter(TaskParameter.SOLVER, SolverType.BRUTE_FORCE);
+        tc.setParameter(TaskParameter.FILTER_KERNEL_SIZE, -1);
+
+        try (EngineSession session = new EngineSession(1)) {
+            session.setComputationPolicy(ComputationPolicy.LAZY);
+            session.computeTask(tc);
+        }
+        Assert.assertTrue(tc.hasPendingComputations());
+
+        // copy computes its own results
+        final TaskContainer copy = new TaskContainer(tc);
+        Assert.assertNotNull(copy.getResult(ROUND, ROUND + 2).getStrainResult());
+        Assert.assertTrue(tc.hasPendingComputations());
+
+        // strain is estimated although the executor of the session is shut down
+        Assert.assertNotNull(tc.getResult(ROUND, ROUND + 2).getDisplacementResult());
+        Assert.assertNotNull(tc.getResult(ROUND, ROUND + 2).getStrainResult());
+        Assert.assertNotNull(tc.getResult(ROUND + 1, ROUND + 2).getStrainResult());
+        Assert.assertFalse(tc.hasPendingComputations());
+    }
+
     private static List<double[]> generateDeformations(final double[] limits, final int subsetCount) {
         return Collections.nCopies(subsetCount, limits);
     }
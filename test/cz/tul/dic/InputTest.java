@@ -5,13 +5,36 @@
  */
 package cz.tul.dic;
 
+import com.jogamp.opencl.CLCommandQueue;
+import com.jogamp.opencl.CLContext;
+import com.jogamp.opencl.CLImage2d;
+import com.jogamp.opencl.CLMemory;
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import cz.tul.dic.data.task.FrameSource;
+import cz.tul.dic.data.task.FullTask;
 import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.data.task.TaskTiling;
+import cz.tul.dic.data.task.loaders.FrameStack;
+import cz.tul.dic.data.task.loaders.FrameStackLoader;
+import cz.tul.dic.engine.opencl.kernel.OpenCLGaussianFilter;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import org.junit.Assume;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -34,10 +57,356 @@ public class InputTest {
 
     }
 
+    @Test
+    public void testFrameWindow() throws URISyntaxException, IOException, ComputationException {
+        final List<File> inputs = new ArrayList<>(3);
+        inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi00000.bmp").toURI()).toFile());
+        inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi00001.bmp").toURI()).toFile());
+        inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi00002.bmp").toURI()).toFile());
+        final TaskContainer task = TaskContainer.initTaskContainer(inputs);
+        task.getFrameSource().setWindowSize(2);
+
+        final Image first = task.getImage(0);
+        final Image second = task.getImage(1);
+        assertSame(first, task.getImage(0));
+        assertNotNull(task.getImage(2));
+        // least recently used image was dropped and is loaded again
+        assertNotSame(second, task.getImage(1));
+        assertEquals(second.getWidth(), task.getImage(1).getWidth());
+        assertNull(task.getImage(3));
+    }
+
     @Test
     public void testVideoLoader() throws URISyntaxException, IOException, ComputationException {
         final TaskContainer task = TaskContainer.initTaskContainer(Paths.get(getClass().getResource("/resources/input/image.avi").toURI()).toFile());
         assertEquals(5, task.getImages().size());
     }
 
+    @Test
+    public void testVideoFrames() throws URISyntaxException, IOException, ComputationException {
+        final TaskContainer task = TaskContainer.initTaskContainer(Paths.get(getClass().getResource("/resources/input/image.avi").toURI()).toFile());
+        Image image;
+        for (int i = 0; i < 5; i++) {
+            image = Image.loadImageFromDisk(Paths.get(getClass().getResource("/resources/input/image.avi0000" + i + ".bmp").toURI()).toFile());
+            assertArrayEquals(image.toBWArray(), task.getImage(i).toBWArray());
+        }
+    }
+
+    @Test
+    public void testBrokenInput() throws URISyntaxException, IOException {
+        final File broken = File.createTempFile("broken", ".bmp");
+        broken.deleteOnExit();
+        Files.write(broken.toPath(), new byte[]{1, 2, 3});
+        final List<File> inputs = new ArrayList<>(2);
+        inputs.add(broken);
+        inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi00000.bmp").toURI()).toFile());
+        try {
+            TaskContainer.initTaskContainer(inputs);
+            fail("Broken image accepted.");
+        } catch (ComputationException ex) {
+            assertEquals(ComputationExceptionCause.IO, ex.getExceptionCause());
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+
+        final FrameSource frames = FrameSource.fromFiles(Arrays.asList(inputs.get(1), broken));
+        assertNotNull(frames.getFrame(0));
+        try {
+            frames.getFrame(1);
+            fail("Broken image returned.");
+        } catch (UncheckedIOException ex) {
+            assertTrue(ex.getCause().getMessage().contains(broken.getName()));
+        }
+    }
+
+    @Test
+    public void testFrameStack() throws URISyntaxException, IOException, ComputationException {
+        final List<File> inputs = new ArrayList<>(5);
+        for (int i = 0; i < 5; i++) {
+            inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi0000" + i + ".bmp").toURI()).toFile());
+        }
+        final File stack = File.createTempFile("input", "." + FrameStackLoader.SUPPORTED_TYPES);
+        stack.deleteOnExit();
+        FrameStack.importImages(inputs, stack);
+
+        final TaskContainer task = TaskContainer.initTaskContainer(stack);
+        assertEquals(5, task.getImages().size());
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(Image.loadImageFromDisk(inputs.get(i)).toBWArray(), task.getImage(i).toBWArray());
+        }
+    }
+
+    @Test
+    public void testImageGray() {
+        final int[] levels = new int[]{0, 50, 100, 200, 255};
+        final BufferedImage img = new BufferedImage(levels.length, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int x = 0; x < levels.length; x++) {
+            img.getRaster().setSample(x, 0, 0, levels[x]);
+        }
+
+        // raw samples are used, getRGB would convert linear gray to sRGB (50 -> 122)
+        final Image image = Image.createImage(img);
+        assertEquals(8, image.getBitDepth());
+        for (int x = 0; x < levels.length; x++) {
+            assertEquals(levels[x], image.getSample(x, 0));
+        }
+        assertTrue(levels[1] != (img.getRGB(1, 0) & 0xff));
+
+        // GUI view keeps the levels and converts back to the same data
+        final BufferedImage view = image.toBufferedImage();
+        final Image converted = Image.createImage(view);
+        for (int x = 0; x < levels.length; x++) {
+            assertEquals(levels[x], view.getRGB(x, 0) & 0xff);
+            assertEquals(levels[x], converted.getSample(x, 0));
+        }
+    }
+
+    @Test
+    public void testImage16Bit() {
+        final BufferedImage img = new BufferedImage(4, 3, BufferedImage.TYPE_USHORT_GRAY);
+        final WritableRaster raster = img.getRaster();
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                raster.setSample(x, y, 0, x * 16000 + y * 10);
+            }
+        }
+
+        final Image image = Image.createImage(img);
+        assertEquals(16, image.getBitDepth());
+        assertEquals(3 * 16000 + 2 * 10, image.to16BitArray()[2 * 4 + 3] & 0xffff);
+        assertEquals((3 * 16000 + 2 * 10) >> 8, image.toBWArray()[2 * 4 + 3] & 0xff);
+        // samples are unsigned in native bit depth
+        assertEquals(3 * 16000 + 2 * 10, image.getSample(3, 2));
+
+        final Image image8 = Image.createImage(2, 1, new byte[]{0, (byte) 255}, null);
+        assertEquals(8, image8.getBitDepth());
+        assertEquals(0xffff, image8.to16BitArray()[1] & 0xffff);
+        assertEquals(255, image8.getSample(1, 0));
+    }
+
+    @Test
+    public void testGaussianWeights() {
+        assertArrayEquals(new float[]{0.0625f, 0.25f, 0.375f, 0.25f, 0.0625f}, OpenCLGaussianFilter.computeWeights(5), 0);
+        assertArrayEquals(OpenCLGaussianFilter.computeWeights(5), OpenCLGaussianFilter.computeWeights(4), 0);
+
+        float[] weights;
+        float sum;
+        for (int size : new int[]{3, 7, 9, 15}) {
+            weights = OpenCLGaussianFilter.computeWeights(size);
+            assertEquals(size, weights.length);
+            sum = 0;
+            for (int i = 0; i < weights.length; i++) {
+                assertEquals(weights[i], weights[weights.length - 1 - i], 1e-7f);
+                sum += weights[i];
+            }
+            assertEquals(1, sum, 1e-5f);
+        }
+    }
+
+    /**
+     * Checks Java port of gauss.cl kernels, port is compared with the device
+     * in {@link #testGaussianDevice()}.
+     */
+    @Test
+    public void testGaussianReference() {
+        // single row, pixel next to border is reflected without repeating the edge pixel
+        final float[] weights5 = OpenCLGaussianFilter.computeWeights(5);
+        assertArrayEquals(new int[]{80, 70, 40, 10, 0, 0}, gauss(new int[]{0, 160, 0, 0, 0, 0}, 6, 1, weights5, 255));
+
+        // separable passes match direct 2D filtering with mirrored coordinates
+        final int width = 23;
+        final int height = 17;
+        final float[] weights = OpenCLGaussianFilter.computeWeights(7);
+        final int radius = weights.length / 2;
+        final Random rnd = new Random(7);
+        final int[] data = new int[width * height];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rnd.nextInt(256);
+        }
+        final int[] filtered = gauss(data, width, height, weights, 255);
+        double sum;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sum = 0;
+                for (int j = -radius; j <= radius; j++) {
+                    for (int i = -radius; i <= radius; i++) {
+                        sum += weights[i + radius] * weights[j + radius] * data[mirror(y + j, height) * width + mirror(x + i, width)];
+                    }
+                }
+                assertEquals(sum, filtered[y * width + x], 1);
+            }
+        }
+    }
+
+    @Test
+    public void testGaussianTiles() {
+        final int width = 100;
+        final int height = 70;
+        final byte[] data = new byte[width * height];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + i / width * 13);
+        }
+        final Image image = Image.createImage(width, height, data, "tiles");
+        final List<AbstractSubset> subsets = new ArrayList<>();
+        for (int y = 10; y < height - 5; y += 10) {
+            for (int x = 10; x < width - 5; x += 10) {
+                subsets.add(new SquareSubset2D(3, x, y));
+            }
+        }
+        final double[] limits = new double[]{-2, 2, 1, -1, 1, 1};
+        final FullTask task = new FullTask(image, image, subsets, Collections.nCopies(subsets.size(), 1), Collections.nCopies(subsets.size(), limits));
+
+        final float[] weights = OpenCLGaussianFilter.computeWeights(7);
+        final int[] full = gauss(toUnsigned(data), width, height, weights, 255);
+        final List<TaskTiling.Tile> windows = TaskTiling.splitToTiles(task, 32);
+        final List<TaskTiling.Tile> tiles = TaskTiling.splitToTiles(task, 32, weights.length / 2);
+        assertEquals(windows.size(), tiles.size());
+
+        // tile filtered after cropping matches filtered image inside the window used by subsets
+        boolean differs = false;
+        TaskTiling.Tile window, tile;
+        Image windowImage, tileImage;
+        int[] windowFiltered, tileFiltered;
+        int dx, dy;
+        for (int t = 0; t < tiles.size(); t++) {
+            window = windows.get(t);
+            tile = tiles.get(t);
+            assertArrayEquals(window.getSubsetIndices(), tile.getSubsetIndices());
+            windowImage = window.getTask().getImageA();
+            tileImage = tile.getTask().getImageA();
+            windowFiltered = gauss(toUnsigned(windowImage.toBWArray()), windowImage.getWidth(), windowImage.getHeight(), weights, 255);
+            tileFiltered = gauss(toUnsigned(tileImage.toBWArray()), tileImage.getWidth(), tileImage.getHeight(), weights, 255);
+            dx = window.getX() - tile.getX();
+            dy = window.getY() - tile.getY();
+            for (int y = 0; y < windowImage.getHeight(); y++) {
+                for (int x = 0; x < windowImage.getWidth(); x++) {
+                    assertEquals(full[(y + window.getY()) * width + x + window.getX()], tileFiltered[(y + dy) * tileImage.getWidth() + x + dx]);
+                    differs |= full[(y + window.getY()) * width + x + window.getX()] != windowFiltered[y * windowImage.getWidth() + x];
+                }
+            }
+        }
+        // without border the crop edge changes the result
+        assertTrue(differs);
+    }
+
+    @Test
+    public void testGaussianDevice() throws IOException {
+        final CLContext context;
+        try {
+            context = CLContext.create();
+        } catch (RuntimeException | LinkageError ex) {
+            // OpenCL is not available, only the Java port can be tested
+            Assume.assumeNoException(ex);
+            return;
+        }
+
+        try {
+            final CLCommandQueue queue = context.getMaxFlopsDevice().createCommandQueue();
+            final OpenCLGaussianFilter filter = new OpenCLGaussianFilter(context);
+            final int width = 23;
+            final int height = 17;
+            final Random rnd = new Random(11);
+            final byte[] data8 = new byte[width * height];
+            rnd.nextBytes(data8);
+            final short[] data16 = new short[width * height];
+            for (int i = 0; i < data16.length; i++) {
+                data16[i] = (short) rnd.nextInt(0x10000);
+            }
+
+            for (int size : new int[]{5, 7, 11}) {
+                final float[] weights = OpenCLGaussianFilter.computeWeights(size);
+                final int[] expected8 = gauss(toUnsigned(data8), width, height, weights, 255);
+                final ByteBuffer result8 = filterOnDevice(context, queue, filter, Image.createImage(width, height, data8, null), size, false);
+                for (int i = 0; i < expected8.length; i++) {
+                    // device can fuse multiply and add, rounding may differ by one
+                    assertEquals(expected8[i], result8.get(i) & 0xff, 1);
+                }
+
+                final int[] in16 = new int[data16.length];
+                for (int i = 0; i < in16.length; i++) {
+                    in16[i] = data16[i] & 0xffff;
+                }
+                final int[] expected16 = gauss(in16, width, height, weights, 0xffff);
+                final ByteBuffer result16 = filterOnDevice(context, queue, filter, Image.createImage(width, height, data16, null), size, true);
+                for (int i = 0; i < expected16.length; i++) {
+                    assertEquals(expected16[i], result16.getShort(i * Short.BYTES) & 0xffff, 1);
+                }
+            }
+            filter.release();
+        } finally {
+            context.release();
+        }
+    }
+
+    private static ByteBuffer filterOnDevice(final CLContext context, final CLCommandQueue queue, final OpenCLGaussianFilter filter, final Image image, final int size, final boolean uses16Bit) {
+        final CLImage2d<ByteBuffer> filtered = filter.filter(queue, image, size, uses16Bit);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(image.getWidth() * image.getHeight() * (uses16Bit ? Short.BYTES : 1)).order(ByteOrder.nativeOrder());
+        final CLImage2d<ByteBuffer> host = context.createImage2d(buffer, image.getWidth(), image.getHeight(), filtered.getFormat(), CLMemory.Mem.WRITE_ONLY);
+        queue.putCopyImage(filtered, host).putReadImage(host, true);
+        filtered.release();
+        host.release();
+        return buffer;
+    }
+
+    /**
+     * Java version of gaussRows and gaussCols kernels from gauss.cl.
+     */
+    private static int[] gauss(final int[] in, final int width, final int height, final float[] weights, final int max) {
+        final int radius = weights.length / 2;
+        final float[] tmp = new float[width * height];
+        float sum;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sum = 0;
+                for (int k = -radius; k <= radius; k++) {
+                    sum += weights[k + radius] * in[y * width + reflect101(x + k, width)];
+                }
+                tmp[y * width + x] = sum;
+            }
+        }
+        final int[] out = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sum = 0;
+                for (int k = -radius; k <= radius; k++) {
+                    sum += weights[k + radius] * tmp[reflect101(y + k, height) * width + x];
+                }
+                out[y * width + x] = (int) Math.min(Math.max(0, Math.rint(sum)), max);
+            }
+        }
+        return out;
+    }
+
+    private static int reflect101(int i, final int n) {
+        if (n == 1) {
+            return 0;
+        }
+        while (i < 0 || i >= n) {
+            if (i < 0) {
+                i = -i;
+            }
+            if (i >= n) {
+                i = 2 * n - 2 - i;
+            }
+        }
+        return i;
+    }
+
+    private static int mirror(final int i, final int n) {
+        if (i < 0) {
+            return -i;
+        } else if (i >= n) {
+            return 2 * (n - 1) - i;
+        } else {
+            return i;
+        }
+    }
+
+    private static int[] toUnsigned(final byte[] data) {
+        final int[] result = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = data[i] & 0xff;
+        }
+        return result;
+    }
+
 }
@@ -6,11 +6,18 @@
 package cz.tul.dic;
 
 import cz.tul.dic.data.Image;
+import cz.tul.dic.data.result.CorrelationResult;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.roi.RectangleROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import cz.tul.dic.data.subset.generator.SubsetGenerator;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.engine.strain.StrainEstimator;
 import cz.tul.dic.engine.strain.StrainEstimationMethod;
 import java.io.File;
@@ -18,7 +25,9 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 import junit.framework.Assert;
 import org.junit.Test;
 
@@ -50,10 +59,10 @@ public class StrainEstimatorTest {
             {{0, 0}, null, {2, 0.5}, {2, 0.0}, null},
             {null, null, {0, 0}, null, null},
             {null, null, null, null, null},};
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain().toArray();
 
         Assert.assertNotNull(strains[2][2]);
 
@@ -92,11 +101,11 @@ public class StrainEstimatorTest {
                 dA[1] = dY;
             }
         }
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
 
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain().toArray();
 
         for (int x = 0; x < img.getWidth(); x++) {
             for (int y = 0; y < img.getHeight(); y++) {
@@ -126,10 +135,10 @@ public class StrainEstimatorTest {
             {{2, 1}, {2, 0.5}, {2, 0.0}},
             {{3, 1}, {3, 0.5}, {3, 0.0}}
         };
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain().toArray();
 
         for (double[][] strain : strains) {
             for (double[] strain1 : strain) {
@@ -159,10 +168,10 @@ public class StrainEstimatorTest {
             {{1, 0.5}, {0, 0.5}, {-1, 0.5}},
             {{1, 0.0}, {0, 0.0}, {-1, 0.0}}
         };
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain().toArray();
 
         for (double[][] strain : strains) {
             for (double[] strain1 : strain) {
@@ -173,4 +182,178 @@ public class StrainEstimatorTest {
             }
         }
     }
+
+    @Test
+    public void testIntegralEstimator() throws URISyntaxException, ComputationException, IOException {
+        final List<File> input = new ArrayList<>(2);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+        tc.setParameter(TaskParameter.STRAIN_ESTIMATION_PARAM, 5.0);
+        tc.setParameter(TaskParameter.MM_TO_PX_RATIO, 1.0);
+
+        // noisy field with missing values, taller than two tiles of the integral estimator
+        final Random rnd = new Random(1);
+        final double[][][] displacement = new double[40][150][];
+        for (int x = 0; x < displacement.length; x++) {
+            for (int y = 0; y < displacement[x].length; y++) {
+                if (rnd.nextDouble() > 0.2) {
+                    displacement[x][y] = new double[]{0.01 * x + 0.02 * y + rnd.nextGaussian() * 0.1, -0.03 * x + rnd.nextGaussian() * 0.1};
+                }
+            }
+        }
+
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
+        StrainEstimator.initStrainEstimator(StrainEstimationMethod.LOCAL_LEAST_SQUARES).estimateStrain(tc, ROUND, ROUND + 1);
+        final StrainResult expected = tc.getResult(ROUND, ROUND + 1).getStrainResult();
+
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
+        StrainEstimator.initStrainEstimator(StrainEstimationMethod.LOCAL_LEAST_SQUARES_INTEGRAL).estimateStrain(tc, ROUND, ROUND + 1);
+        final StrainResult actual = tc.getResult(ROUND, ROUND + 1).getStrainResult();
+
+        final double[][][] strainsE = expected.getStrain().toArray();
+        final double[][][] strainsA = actual.getStrain().toArray();
+        final double[][] qualityE = expected.getQualityX().toArray(0);
+        final double[][] qualityA = actual.getQualityX().toArray(0);
+        for (int x = 0; x < strainsE.length; x++) {
+            for (int y = 0; y < strainsE[x].length; y++) {
+                if (strainsE[x][y] == null) {
+                    Assert.assertNull(strainsA[x][y]);
+                } else {
+                    Assert.assertNotNull(strainsA[x][y]);
+                    Assert.assertEquals("Exx", strainsE[x][y][StrainResult.E_XX], strainsA[x][y][StrainResult.E_XX], DELTA);
+                    Assert.assertEquals("Eyy", strainsE[x][y][StrainResult.E_YY], strainsA[x][y][StrainResult.E_YY], DELTA);
+                    Assert.assertEquals("Exy", strainsE[x][y][StrainResult.E_XY], strainsA[x][y][StrainResult.E_XY], DELTA);
+                }
+                Assert.assertEquals("Quality", qualityE[x][y], qualityA[x][y], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testSubsetGridEstimator() throws URISyntaxException, ComputationException, IOException {
+        final List<File> input = new ArrayList<>(2);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+        tc.setParameter(TaskParameter.STRAIN_ESTIMATION_PARAM, 3.0);
+        tc.setParameter(TaskParameter.MM_TO_PX_RATIO, 1.0);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 3);
+
+        final double[][][] displacement = new double[12][10][];
+        for (int x = 0; x < displacement.length; x++) {
+            for (int y = 0; y < displacement[x].length; y++) {
+                displacement[x][y] = new double[]{x, -0.5 * y};
+            }
+        }
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
+
+        StrainEstimator.initStrainEstimator(StrainEstimationMethod.SUBSET_GRID).estimateStrain(tc, ROUND, ROUND + 1);
+        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain().toArray();
+
+        for (double[][] strain : strains) {
+            for (double[] strain1 : strain) {
+                Assert.assertNotNull(strain1);
+                Assert.assertEquals("Exx", 100.0, strain1[StrainResult.E_XX], DELTA);
+                Assert.assertEquals("Eyy", -50.0, strain1[StrainResult.E_YY], DELTA);
+                Assert.assertEquals("Exy", 0.0, strain1[StrainResult.E_XY], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testSubsetGridGradients() throws URISyntaxException, ComputationException, IOException {
+        final List<File> input = new ArrayList<>(2);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+        tc.setParameter(TaskParameter.STRAIN_ESTIMATION_PARAM, 3.0);
+        tc.setParameter(TaskParameter.MM_TO_PX_RATIO, 1.0);
+        tc.setParameter(TaskParameter.RESULT_QUALITY, 0.5);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.EQUAL);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 3);
+
+        // displacement gives different strain than gradients of subsets
+        final double[][][] displacement = new double[12][10][];
+        for (int x = 0; x < displacement.length; x++) {
+            for (int y = 0; y < displacement[x].length; y++) {
+                displacement[x][y] = new double[]{x, -0.5 * y};
+            }
+        }
+        final AbstractROI roi = new RectangleROI(0, 0, 11, 9);
+        final List<AbstractSubset> subsets = new ArrayList<>();
+        final List<CorrelationResult> correlations = new ArrayList<>();
+        for (int y = 1; y < 10; y += 3) {
+            for (int x = 1; x < 12; x += 3) {
+                subsets.add(new SquareSubset2D(1, x, y));
+                correlations.add(new CorrelationResult(0.9, new double[]{x, -0.5 * y, 0.2, 0.1, 0.3, -0.1}));
+            }
+        }
+        // rejected result does not affect the grid
+        correlations.set(0, new CorrelationResult(0.1, new double[]{0, 0, 5, 5, 5, 5}));
+        final HashMap<AbstractROI, List<AbstractSubset>> subsetMap = new HashMap<>(1);
+        subsetMap.put(roi, subsets);
+        final HashMap<AbstractROI, List<CorrelationResult>> correlationMap = new HashMap<>(1);
+        correlationMap.put(roi, correlations);
+
+        tc.setResult(ROUND, ROUND + 1, new Result(subsetMap, correlationMap, new DisplacementResult(VectorField.fromArray(displacement), null)));
+        StrainEstimator.initStrainEstimator(StrainEstimationMethod.SUBSET_GRID).estimateStrain(tc, ROUND, ROUND + 1);
+        StrainResult strain = tc.getResult(ROUND, ROUND + 1).getStrainResult();
+        Assert.assertEquals(3, strain.getGrid().getSpacing(), 0);
+        double[][][] strains = strain.getStrain().toArray();
+        // node of rejected subset is empty
+        Assert.assertNull(strains[1][1]);
+        for (int x = 1; x < 11; x++) {
+            for (int y = 1; y < 8; y++) {
+                if (x == 1 && y == 1) {
+                    continue;
+                }
+                Assert.assertNotNull(strains[x][y]);
+                Assert.assertEquals("Exx", 20.0, strains[x][y][StrainResult.E_XX], DELTA);
+                Assert.assertEquals("Eyy", -10.0, strains[x][y][StrainResult.E_YY], DELTA);
+                Assert.assertEquals("Exy", 20.0, strains[x][y][StrainResult.E_XY], DELTA);
+            }
+        }
+
+        // dynamic generator refines the grid, subsets between nodes would be merged to wrong node
+        final List<AbstractSubset> refinedSubsets = new ArrayList<>(subsets);
+        final List<CorrelationResult> refinedCorrelations = new ArrayList<>(correlations);
+        refinedSubsets.add(new SquareSubset2D(1, 5.5, 4));
+        refinedCorrelations.add(new CorrelationResult(0.9, new double[]{5.5, -2, 5, 5, 5, 5}));
+        final HashMap<AbstractROI, List<AbstractSubset>> refinedSubsetMap = new HashMap<>(1);
+        refinedSubsetMap.put(roi, refinedSubsets);
+        final HashMap<AbstractROI, List<CorrelationResult>> refinedCorrelationMap = new HashMap<>(1);
+        refinedCorrelationMap.put(roi, refinedCorrelations);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.DYNAMIC);
+        tc.setResult(ROUND, ROUND + 1, new Result(refinedSubsetMap, refinedCorrelationMap, new DisplacementResult(VectorField.fromArray(displacement), null)));
+        StrainEstimator.initStrainEstimator(StrainEstimationMethod.SUBSET_GRID).estimateStrain(tc, ROUND, ROUND + 1);
+        strain = tc.getResult(ROUND, ROUND + 1).getStrainResult();
+        Assert.assertEquals(1, strain.getGrid().getSpacing(), 0);
+        strains = strain.getStrain().toArray();
+        for (double[][] strainColumn : strains) {
+            for (double[] strain1 : strainColumn) {
+                Assert.assertNotNull(strain1);
+                Assert.assertEquals("Exx", 100.0, strain1[StrainResult.E_XX], DELTA);
+                Assert.assertEquals("Eyy", -50.0, strain1[StrainResult.E_YY], DELTA);
+                Assert.assertEquals("Exy", 0.0, strain1[StrainResult.E_XY], DELTA);
+            }
+        }
+
+        // parameter of random generator is subset count, plane is fitted to displacement
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.RANDOM);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, correlations.size());
+        tc.setResult(ROUND, ROUND + 1, new Result(subsetMap, correlationMap, new DisplacementResult(VectorField.fromArray(displacement), null)));
+        StrainEstimator.initStrainEstimator(StrainEstimationMethod.SUBSET_GRID).estimateStrain(tc, ROUND, ROUND + 1);
+        strain = tc.getResult(ROUND, ROUND + 1).getStrainResult();
+        Assert.assertEquals(1, strain.getGrid().getSpacing(), 0);
+        strains = strain.getStrain().toArray();
+        for (double[][] strainColumn : strains) {
+            for (double[] strain1 : strainColumn) {
+                Assert.assertNotNull(strain1);
+                Assert.assertEquals("Exx", 100.0, strain1[StrainResult.E_XX], DELTA);
+                Assert.assertEquals("Eyy", -50.0, strain1[StrainResult.E_YY], DELTA);
+                Assert.assertEquals("Exy", 0.0, strain1[StrainResult.E_XY], DELTA);
+            }
+        }
+    }
 }
@@ -7,6 +7,7 @@ package cz.tul.dic;
 
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
@@ -102,13 +103,13 @@ public class SubsetGeneratorTest {
 
         // dynamic generations with results
         tc = prepareTask(ROI_FULL, 8, SubsetGenerator.DYNAMIC, 2);        
-        Result result = new Result(new DisplacementResult(generateDisplacement(0.25), null));
+        Result result = new Result(new DisplacementResult(VectorField.fromArray(generateDisplacement(0.25)), null));
         tc.setResult(ROUND, ROUND + 1, result);
         data = generator.generateSubsets(tc, ROUND + 1);
         Assert.assertEquals(36, data.get(ROI_FULL).size());                
         
         tc = prepareTask(ROI_FULL, 8, SubsetGenerator.DYNAMIC, 2);        
-        result = new Result(new DisplacementResult(generateDisplacement(2), null));
+        result = new Result(new DisplacementResult(VectorField.fromArray(generateDisplacement(2)), null));
         tc.setResult(ROUND, ROUND + 1, result);
         data = generator.generateSubsets(tc, ROUND + 1);
         Assert.assertEquals(66, data.get(ROI_FULL).size());
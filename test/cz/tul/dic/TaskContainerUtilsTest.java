@@ -5,14 +5,35 @@
  */
 package cz.tul.dic;
 
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.StrainGrid;
+import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.roi.RectangleROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import cz.tul.dic.data.task.TaskBinaryFormat;
+import cz.tul.dic.data.task.TaskCheckpoint;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
+import cz.tul.dic.data.task.TaskParameter;
+import cz.tul.dic.engine.OverlapComputation;
+import cz.tul.dic.engine.strain.StrainEstimationMethod;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Rule;
@@ -46,4 +67,285 @@ public class TaskContainerUtilsTest {
         final TaskContainer task2 = TaskContainer.initTaskContainer(testFile);
     }
 
+    @Test
+    public void testLazyResults() throws URISyntaxException, ComputationException, IOException {
+        final List<File> inputs = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            inputs.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        }
+        final TaskContainer task = TaskContainer.initTaskContainer(inputs);
+        task.setParameter(TaskParameter.STRAIN_ESTIMATION_METHOD, StrainEstimationMethod.LOCAL_LEAST_SQUARES);
+        task.setParameter(TaskParameter.STRAIN_ESTIMATION_PARAM, 3.0);
+        task.setParameter(TaskParameter.MM_TO_PX_RATIO, 1.0);
+
+        final Image img = task.getImage(0);
+        final double[][][] displacement = new double[img.getWidth()][img.getHeight()][];
+        for (int x = 0; x < displacement.length; x++) {
+            for (int y = 0; y < displacement[x].length; y++) {
+                displacement[x][y] = new double[]{0.01 * x, 0};
+            }
+        }
+        task.setResult(0, 1, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
+        task.setResult(1, 2, new Result(new DisplacementResult(VectorField.fromArray(displacement), null)));
+        OverlapComputation.registerLazy(task, 0, 1);
+        OverlapComputation.registerLazy(task, 1, 2);
+        OverlapComputation.registerLazy(task, 0, 2);
+
+        // pending computations are copied and store results to the copy
+        final TaskContainer copy = new TaskContainer(task);
+        assertTrue(copy.hasPendingComputations());
+        copy.computePendingResults();
+        assertFalse(copy.hasPendingComputations());
+        assertTrue(task.hasPendingComputations());
+        assertNull(task.getResult(0, 2, false).getStrainResult());
+
+        final int x = img.getWidth() / 2;
+        final int y = img.getHeight() / 2;
+        for (TaskContainer tc : Arrays.asList(copy, task)) {
+            assertEquals(1.0, tc.getResult(0, 1).getStrainResult().getStrain().get(x, y, StrainResult.E_XX), 1e-6);
+            assertEquals(1.0, tc.getResult(1, 2).getStrainResult().getStrain().get(x, y, StrainResult.E_XX), 1e-6);
+            assertNotNull(tc.getResult(0, 2).getDisplacementResult());
+            assertNotNull(tc.getResult(0, 2).getStrainResult());
+        }
+        assertFalse(task.hasPendingComputations());
+    }
+
+    @Test
+    public void testBinaryResults() throws URISyntaxException, ComputationException, IOException {
+        final List<File> inputs = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi0000" + i + ".bmp").toURI()).toFile());
+        }
+        final TaskContainer task = TaskContainer.initTaskContainer(inputs);
+
+        final VectorField displacement = new VectorField(4, 3, 2);
+        displacement.set(1, 2, new double[]{0.5, -1.25});
+        displacement.set(3, 0, new double[]{2, Double.NaN});
+        final VectorField quality = new VectorField(4, 3, 1);
+        quality.set(1, 2, 0, 0.9);
+        final StrainGrid grid = new StrainGrid(0.5, 1, 2, 2, 2);
+        grid.set(1, 1, 0.1, 0.2, 0.3, 0.4, 0.5);
+        task.setResult(0, 1, new Result(new Result(new DisplacementResult(displacement, quality)), new StrainResult(grid, displacement)));
+        final AbstractROI roi = new RectangleROI(0, 0, 3, 2);
+        task.addRoi(0, roi);
+        final HashMap<AbstractROI, List<AbstractSubset>> subsets = new HashMap<>(1);
+        subsets.put(roi, Arrays.asList(new SquareSubset2D(1, 1, 1), new SquareSubset2D(1, 2, 1)));
+        final HashMap<AbstractROI, List<CorrelationResult>> correlations = new HashMap<>(1);
+        correlations.put(roi, Arrays.asList(new CorrelationResult(0.75, new double[]{0.5, -1.25}), null));
+        task.setResult(0, 2, new Result(subsets, correlations, new DisplacementResult(displacement, null)));
+
+        final File testFile = testFolder.newFile("results.task");
+        TaskContainerUtils.serializeTaskToBinary(task, testFile);
+        final TaskContainer task2 = TaskContainer.initTaskContainer(testFile);
+        assertEquals(task.toString(), task2.toString());
+        assertTrue(task2.hasPendingComputations());
+
+        final Result result = task2.getResult(0, 1);
+        final VectorField displacement2 = result.getDisplacementResult().getDisplacement();
+        assertArrayEquals(displacement.get(1, 2), displacement2.get(1, 2), 0);
+        assertTrue(displacement2.isValid(3, 0));
+        assertTrue(Double.isNaN(displacement2.get(3, 0, 1)));
+        assertFalse(displacement2.isValid(0, 0));
+        assertEquals(0.9, result.getDisplacementResult().getQuality().get(1, 2, 0), 0);
+        assertArrayEquals(new double[]{0.1, 0.2, 0.3, 0.4, 0.5}, result.getStrainResult().getGrid().getValues().get(1, 1), 0);
+        assertEquals(2, result.getStrainResult().getGrid().getSpacing(), 0);
+
+        final Result cumulative = task2.getResult(0, 2);
+        assertNull(cumulative.getStrainResult());
+        assertNull(cumulative.getDisplacementResult().getQuality());
+        assertEquals(1, cumulative.getCorrelations().size());
+        final AbstractROI roi2 = cumulative.getCorrelations().keySet().iterator().next();
+        assertEquals(roi.toString(), roi2.toString());
+        // result is keyed by ROI of the loaded task
+        assertSame(task2.getRois(0).iterator().next(), roi2);
+        assertSame(roi2, cumulative.getSubsets().keySet().iterator().next());
+        assertEquals(2, cumulative.getSubsets().get(roi2).get(1).getCenter()[0], 0);
+        final List<CorrelationResult> correlations2 = cumulative.getCorrelations().get(roi2);
+        assertEquals(2, correlations2.size());
+        assertEquals(0.75, correlations2.get(0).getQuality(), 0);
+        assertArrayEquals(new double[]{0.5, -1.25}, correlations2.get(0).getDeformation(), 0);
+        assertNull(correlations2.get(1));
+        assertNull(task2.getResult(1, 2));
+    }
+
+    @Test
+    public void testLegacyBinary() throws URISyntaxException, ComputationException, IOException {
+        // task serialized by older version, before results were stored as columns
+        final File legacyFile = Paths.get(getClass().getResource("/resources/task/legacy.task").toURI()).toFile();
+        assertFalse(TaskBinaryFormat.isTaskBinary(legacyFile));
+        final TaskContainer task = TaskBinaryFormat.readLegacy(legacyFile);
+
+        assertEquals(3, task.getInput().size());
+        assertEquals(7, task.getParameter(TaskParameter.SUBSET_SIZE));
+        assertArrayEquals(new int[]{0, 2}, (int[]) task.getParameter(TaskParameter.ROUND_LIMITS));
+        final AbstractROI roi = task.getRois(0).iterator().next();
+        assertEquals(7, task.getSubsetSize(0, roi));
+        assertArrayEquals(new double[]{-1, 1, 0.5, -2, 2, 0.5}, task.getDeformationLimits(0, roi), 0);
+
+        final Result result = task.getResult(0, 1);
+        final AbstractSubset subset = result.getSubsets().get(roi).get(0);
+        assertEquals(15 * 15, subset.getPointCount());
+        assertEquals(8, subset.getX(0));
+        assertEquals(18, subset.getY(0));
+        assertTrue(subset.contains(22, 32));
+        assertFalse(subset.contains(23, 32));
+        assertEquals(0.8, result.getCorrelations().get(roi).get(1).getQuality(), 0);
+        final VectorField displacement = result.getDisplacementResult().getDisplacement();
+        assertArrayEquals(new double[]{1.5, -0.5}, displacement.get(1, 1), 0);
+        assertFalse(displacement.isValid(0, 0));
+        assertEquals(0.75, result.getDisplacementResult().getQuality().get(1, 1, 0), 0);
+
+        final StrainResult strain = task.getResult(0, 2).getStrainResult();
+        assertNull(strain.getGrid());
+        assertArrayEquals(new double[]{0.1, 0.2, 0.3}, strain.getStrain().get(2, 0), 0);
+        assertFalse(strain.getStrain().isValid(1, 1));
+        assertEquals(0.5, strain.getQualityX().get(2, 0, 0), 0);
+        assertEquals(0.25, strain.getQualityY().get(2, 0, 0), 0);
+
+        // saving converts the task to current format
+        final File testFile = testFolder.newFile("converted.task");
+        TaskContainerUtils.serializeTaskToBinary(task, testFile);
+        assertTrue(TaskBinaryFormat.isTaskBinary(testFile));
+        final TaskContainer task2 = TaskBinaryFormat.read(testFile);
+        assertEquals(task.toString(), task2.toString());
+        assertArrayEquals(new double[]{1.5, -0.5}, task2.getResult(0, 1).getDisplacementResult().getDisplacement().get(1, 1), 0);
+        assertArrayEquals(new double[]{0.1, 0.2, 0.3}, task2.getResult(0, 2).getStrainResult().getStrain().get(2, 0), 0);
+    }
+
+    @Test
+    public void testResultSpill() {
+        final TaskContainer task = new TaskContainer();
+        task.setResultCacheSize(2);
+
+        final List<Result> stored = new ArrayList<>(5);
+        VectorField displacement;
+        for (int i = 1; i <= 5; i++) {
+            displacement = new VectorField(3, 2, 2);
+            displacement.set(i % 3, 1, new double[]{i, -i});
+            stored.add(new Result(new DisplacementResult(displacement, null)));
+            task.setResult(i - 1, i, stored.get(i - 1));
+        }
+        task.setResult(0, 5, stored.get(4));
+
+        // recent results stay on heap, older are loaded back from spill file
+        assertSame(stored.get(4), task.getResult(0, 5));
+        assertSame(stored.get(4), task.getResult(4, 5));
+        for (int i = 1; i <= 3; i++) {
+            final Result result = task.getResult(i - 1, i);
+            assertNotSame(stored.get(i - 1), result);
+            assertArrayEquals(new double[]{i, -i}, result.getDisplacementResult().getDisplacement().get(i % 3, 1), 0);
+        }
+
+        task.removeResult(0, 1);
+        assertNull(task.getResult(0, 1));
+        task.clearResultData();
+        assertNull(task.getResult(1, 2));
+    }
+
+    @Test
+    public void testResultSpillCopy() {
+        final TaskContainer task = new TaskContainer();
+        final Result first = new Result(new DisplacementResult(new VectorField(3, 2, 2), null));
+        final Result second = new Result(new DisplacementResult(new VectorField(3, 2, 2), null));
+        task.setResult(0, 2, first);
+        task.setResult(0, 3, second);
+
+        // eviction in the copy must not remove results of the original
+        final TaskContainer copy = new TaskContainer(task);
+        copy.setResultCacheSize(1);
+        assertSame(first, task.getResult(0, 2));
+        assertSame(second, task.getResult(0, 3));
+        assertNotNull(copy.getResult(0, 2));
+        assertNotNull(copy.getResult(0, 3));
+    }
+
+    @Test
+    public void testResultSpillKeys() throws IOException {
+        final Set<File> oldFiles = listSpillFiles();
+        final TaskContainer task = new TaskContainer();
+        task.setResultCacheSize(1);
+        final AbstractROI roi = new RectangleROI(0, 0, 3, 2);
+        task.addRoi(0, roi);
+
+        final HashMap<AbstractROI, List<AbstractSubset>> subsets = new HashMap<>(1);
+        subsets.put(roi, Arrays.asList(new SquareSubset2D(1, 1, 1)));
+        final HashMap<AbstractROI, List<CorrelationResult>> correlations = new HashMap<>(1);
+        correlations.put(roi, Arrays.asList(new CorrelationResult(0.5, new double[]{1, 2})));
+        task.setResult(0, 1, new Result(subsets, correlations, null));
+        task.setResult(1, 2, new Result(new DisplacementResult(new VectorField(2, 2, 2), null)));
+
+        // spilled result is keyed by ROI of the task
+        final Result result = task.getResult(0, 1);
+        assertNotSame(subsets, result.getSubsets());
+        assertEquals(1, result.getSubsets().get(roi).size());
+        assertEquals(0.5, result.getCorrelations().get(roi).get(0).getQuality(), 0);
+
+        // spill file is deleted when neither the task nor its copy use it
+        final Set<File> files = listSpillFiles();
+        files.removeAll(oldFiles);
+        assertEquals(1, files.size());
+        final File spillFile = files.iterator().next();
+        final TaskContainer copy = new TaskContainer(task);
+        task.clearResultData();
+        assertTrue(spillFile.exists());
+        assertNotNull(copy.getResult(1, 2).getDisplacementResult());
+        copy.clearResultData();
+        assertFalse(spillFile.exists());
+    }
+
+    private static Set<File> listSpillFiles() {
+        final File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles((File dir, String name) -> name.startsWith("dic-results") && name.endsWith(".spill"));
+        return new HashSet<>(Arrays.asList(files));
+    }
+
+    @Test
+    public void testCheckpointResume() throws URISyntaxException, ComputationException, IOException {
+        final List<File> inputs = new ArrayList<>(5);
+        for (int i = 0; i < 5; i++) {
+            inputs.add(Paths.get(getClass().getResource("/resources/input/image.avi0000" + i + ".bmp").toURI()).toFile());
+        }
+        final TaskContainer task = TaskContainer.initTaskContainer(inputs);
+        final File checkpoint = new File(testFolder.getRoot(), "task.checkpoint");
+
+        VectorField displacement;
+        final long[] lengths = new long[4];
+        for (int r = 1; r <= 3; r++) {
+            displacement = new VectorField(2, 2, 2);
+            displacement.set(1, 1, new double[]{r, -r});
+            task.setResult(r - 1, r, new Result(new DisplacementResult(displacement, null)));
+            task.setResult(0, r, new Result(new DisplacementResult(displacement, null)));
+            TaskCheckpoint.appendRound(checkpoint, task, r - 1, r);
+            lengths[r] = checkpoint.length();
+        }
+
+        // crash while writing the last record
+        try (RandomAccessFile raf = new RandomAccessFile(checkpoint, "rw")) {
+            raf.setLength((lengths[2] + lengths[3]) / 2);
+        }
+
+        final TaskContainer resumed = TaskContainer.initTaskContainer(inputs);
+        assertEquals(2, TaskCheckpoint.restore(checkpoint, resumed, false));
+        assertEquals(lengths[2], checkpoint.length());
+        for (int r = 1; r <= 2; r++) {
+            assertArrayEquals(new double[]{r, -r}, resumed.getResult(r - 1, r).getDisplacementResult().getDisplacement().get(1, 1), 0);
+            assertArrayEquals(new double[]{r, -r}, resumed.getResult(0, r).getDisplacementResult().getDisplacement().get(1, 1), 0);
+        }
+        assertNull(resumed.getResult(2, 3));
+
+        // round computed again is appended after the last complete record
+        resumed.setResult(2, 3, task.getResult(2, 3));
+        resumed.setResult(0, 3, task.getResult(0, 3));
+        TaskCheckpoint.appendRound(checkpoint, resumed, 2, 3);
+        assertEquals(lengths[3], checkpoint.length());
+
+        final List<TaskCheckpoint.Record> records = TaskCheckpoint.readRecords(checkpoint, resumed);
+        assertEquals(3, records.size());
+        assertEquals(3, records.get(2).getRoundTo());
+
+        final TaskContainer last = TaskContainer.initTaskContainer(inputs);
+        assertEquals(3, TaskCheckpoint.restore(checkpoint, last, true));
+        assertNull(last.getResult(0, 1));
+        assertNotNull(last.getResult(0, 3));
+    }
+
 }
@@ -0,0 +1,155 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.deformation.DeformationUtils;
+import cz.tul.dic.data.result.CorrelationResultBlock;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import cz.tul.dic.data.task.ComputationTask;
+import cz.tul.dic.data.task.FullTask;
+import cz.tul.dic.data.task.TaskTiling;
+import cz.tul.dic.data.task.splitter.NoSplit;
+import cz.tul.dic.engine.DeviceType;
+import cz.tul.dic.engine.KernelInfo;
+import cz.tul.dic.engine.java.JavaDeviceManager;
+import cz.tul.dic.engine.java.JavaKernel;
+import cz.tul.dic.engine.memory.BasicMemoryManager;
+import cz.tul.dic.engine.platform.Platform;
+import cz.tul.dic.engine.platform.PlatformDefinition;
+import cz.tul.dic.engine.platform.PlatformType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Lenam s.r.o.
+ */
+public class TaskTilingTest {
+
+    private static final int SHIFT_X = 2;
+    private static final int SHIFT_Y = -1;
+
+    @Test
+    public void testTiling() {
+        final int width = 100, height = 60;
+        final byte[] data = new byte[width * height];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        final Image image = Image.createImage(width, height, data, "tiles");
+
+        final List<AbstractSubset> subsets = new ArrayList<>();
+        for (int y = 10; y < height - 5; y += 10) {
+            for (int x = 10; x < width - 5; x += 10) {
+                subsets.add(new SquareSubset2D(3, x, y));
+            }
+        }
+        final double[] limits = new double[]{-2, 2, 1, -1, 1, 1};
+        final FullTask task = new FullTask(image, image, subsets, Collections.nCopies(subsets.size(), 1), Collections.nCopies(subsets.size(), limits));
+
+        assertSame(task, TaskTiling.splitToTiles(task, 0).get(0).getTask());
+        assertSame(task, TaskTiling.splitToTiles(task, width).get(0).getTask());
+
+        final List<TaskTiling.Tile> tiles = TaskTiling.splitToTiles(task, 32);
+        assertEquals(6, tiles.size());
+        final boolean[] used = new boolean[subsets.size()];
+        AbstractSubset original, local;
+        Image tileImage;
+        for (TaskTiling.Tile tile : tiles) {
+            tileImage = tile.getTask().getImageA();
+            assertTrue(tileImage.getWidth() < width);
+            for (int i = 0; i < tile.getSubsetIndices().length; i++) {
+                assertFalse(used[tile.getSubsetIndices()[i]]);
+                used[tile.getSubsetIndices()[i]] = true;
+
+                original = subsets.get(tile.getSubsetIndices()[i]);
+                local = tile.getTask().getSubsets().get(i);
+                for (int p = 0; p < original.getPointCount(); p++) {
+                    assertEquals(original.getX(p) - tile.getX(), local.getX(p));
+                    assertEquals(original.getY(p) - tile.getY(), local.getY(p));
+                    assertEquals(data[original.getY(p) * width + original.getX(p)], tileImage.toBWArray()[local.getY(p) * tileImage.getWidth() + local.getX(p)]);
+                }
+                // window covers subset moved up to the deformation limits
+                assertTrue(local.getX(0) - 2 >= 0 || tile.getX() == 0);
+                assertTrue(local.getMaxY() + 1 < tileImage.getHeight() || tile.getY() + tileImage.getHeight() == height);
+            }
+        }
+        for (boolean b : used) {
+            assertTrue(b);
+        }
+    }
+
+    @Test
+    public void testTiledResults() throws ComputationException {
+        final int width = 120, height = 80;
+        final Random rnd = new Random(42);
+        final byte[] dataA = new byte[width * height];
+        rnd.nextBytes(dataA);
+        final byte[] dataB = new byte[width * height];
+        rnd.nextBytes(dataB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x - SHIFT_X >= 0 && x - SHIFT_X < width && y - SHIFT_Y >= 0 && y - SHIFT_Y < height) {
+                    dataB[y * width + x] = dataA[(y - SHIFT_Y) * width + x - SHIFT_X];
+                }
+            }
+        }
+        final Image imageA = Image.createImage(width, height, dataA, "a");
+        final Image imageB = Image.createImage(width, height, dataB, "b");
+
+        final List<AbstractSubset> subsets = new ArrayList<>();
+        for (int y = 5; y < height; y += 10) {
+            for (int x = 5; x < width; x += 10) {
+                subsets.add(new SquareSubset2D(3, x, y));
+            }
+        }
+        final double[] limits = new double[]{-3, 3, 1, -3, 3, 1};
+        final FullTask task = new FullTask(imageA, imageB, subsets, Collections.nCopies(subsets.size(), 1), Collections.nCopies(subsets.size(), limits));
+
+        final JavaKernel kernel = new JavaKernel(new Platform(
+                new PlatformDefinition(PlatformType.JAVA, DeviceType.CPU, new KernelInfo(KernelInfo.Type.JavaKernel, KernelInfo.Input.ARRAY, KernelInfo.Correlation.ZNCC, KernelInfo.MemoryCoalescing.NO, KernelInfo.UseLimits.YES)),
+                new BasicMemoryManager(), new JavaDeviceManager(), new NoSplit()));
+        final CorrelationResultBlock full = solve(kernel, task);
+
+        final List<TaskTiling.Tile> tiles = TaskTiling.splitToTiles(task, 40);
+        assertTrue(tiles.size() > 1);
+        final List<CorrelationResultBlock> tileResults = new ArrayList<>(tiles.size());
+        for (TaskTiling.Tile tile : tiles) {
+            tileResults.add(solve(kernel, tile.getTask()));
+        }
+        final CorrelationResultBlock tiled = TaskTiling.stitch(tiles, tileResults, subsets.size());
+
+        assertEquals(full.size(), tiled.size());
+        for (int i = 0; i < full.size(); i++) {
+            assertEquals(full.getQuality(i), tiled.getQuality(i), 0);
+            assertArrayEquals(full.getDeformation(i), tiled.getDeformation(i), 0);
+        }
+        // subset inside the image finds the shift
+        final int inside = subsets.size() / 2;
+        assertArrayEquals(new double[]{SHIFT_X, SHIFT_Y}, tiled.getDeformation(inside), 0);
+        assertEquals(1, tiled.getQuality(inside), 1e-6);
+
+        // stopped computation leaves results of unsolved tiles missing
+        final CorrelationResultBlock partial = TaskTiling.stitch(tiles, tileResults.subList(0, 1), subsets.size());
+        for (int i : tiles.get(1).getSubsetIndices()) {
+            assertNull(partial.get(i));
+        }
+    }
+
+    private static CorrelationResultBlock solve(final JavaKernel kernel, final FullTask task) throws ComputationException {
+        return CorrelationResultBlock.pack(kernel.computeFindBest(new ComputationTask(
+                task.getImageA(), task.getImageB(),
+                task.getSubsets(), task.getSubsetWeights(),
+                task.getDeformationLimits(), DeformationUtils.getOrderFromLimits(task.getDeformationLimits().get(0)), true)));
+    }
+
+}